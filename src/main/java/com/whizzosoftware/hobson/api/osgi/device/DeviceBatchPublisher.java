@@ -0,0 +1,38 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.api.osgi.device;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+import com.whizzosoftware.hobson.api.device.proxy.HobsonDeviceProxy;
+import io.netty.util.concurrent.Future;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Implemented by device managers that can publish a group of devices at once. Plugins that publish many devices
+ * at startup can check whether their DeviceManager implements this interface and fall back to publishing devices
+ * one at a time if it doesn't.
+ *
+ * @author Dan Noguerol
+ */
+public interface DeviceBatchPublisher {
+    /**
+     * Publishes a group of devices. Device names are looked up in bulk, all descriptors and configurations are
+     * persisted together once every device has started and a single DevicesStartedEvent is posted.
+     *
+     * @param devices the devices to publish
+     * @param configs the initial configuration of each device keyed by device context (or null)
+     * @param runnable a runnable to invoke after the devices have been published (or null)
+     *
+     * @return a Future that completes once all devices have been published
+     */
+    Future publishDevices(Collection<HobsonDeviceProxy> devices, Map<DeviceContext,Map<String,Object>> configs, Runnable runnable);
+}
@@ -0,0 +1,44 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.api.osgi.event;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+import com.whizzosoftware.hobson.api.event.HobsonEvent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Event that indicates a group of devices published together have started. It is posted once in place of a
+ * DeviceStartedEvent for each device.
+ *
+ * @author Dan Noguerol
+ */
+public class DevicesStartedEvent extends HobsonEvent {
+    public static final String ID = "devicesStarted";
+
+    public static final String PROP_DEVICE_CONTEXTS = "deviceContexts";
+
+    public DevicesStartedEvent(long timestamp, Collection<DeviceContext> ctxs) {
+        super(ID, timestamp);
+        setProperty(PROP_DEVICE_CONTEXTS, new ArrayList<>(ctxs));
+    }
+
+    public DevicesStartedEvent(Map<String,Object> properties) {
+        super(properties);
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<DeviceContext> getDeviceContexts() {
+        return (List<DeviceContext>)getProperty(PROP_DEVICE_CONTEXTS);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.api.osgi.event;
+
+import com.whizzosoftware.hobson.api.event.HobsonEvent;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A service provider interface for contributing event types to the event manager. Implementations can be
+ * registered through META-INF/services or as an OSGi service so that plugins can define their own event types.
+ *
+ * @author Dan Noguerol
+ */
+public interface EventTypeProvider {
+    /**
+     * Returns the IDs of all events this provider can create.
+     *
+     * @return a Collection of event IDs
+     */
+    Collection<String> getEventIds();
+
+    /**
+     * Returns the class of events with a particular ID.
+     *
+     * @param eventId the event ID
+     *
+     * @return a HobsonEvent subclass
+     */
+    Class<? extends HobsonEvent> getEventClass(String eventId);
+
+    /**
+     * Creates an event from a property map.
+     *
+     * @param eventId the event ID
+     * @param props the event properties
+     *
+     * @return a HobsonEvent instance (or null if the event ID is not supported)
+     */
+    HobsonEvent createEvent(String eventId, Map<String,Object> props);
+}
@@ -31,6 +31,7 @@ import com.whizzosoftware.hobson.bootstrap.api.config.MapDBConfigurationManager;
 import com.whizzosoftware.hobson.bootstrap.api.device.OSGIDeviceManager;
 import com.whizzosoftware.hobson.bootstrap.api.disco.OSGIDiscoManager;
 import com.whizzosoftware.hobson.bootstrap.api.event.OSGIEventManager;
+import com.whizzosoftware.hobson.bootstrap.api.event.RingBufferEventManager;
 import com.whizzosoftware.hobson.bootstrap.api.executor.ScheduledExecutorServiceExecutorManager;
 import com.whizzosoftware.hobson.bootstrap.api.hub.OSGIHubManager;
 import com.whizzosoftware.hobson.bootstrap.api.image.OSGIImageManager;
@@ -39,6 +40,8 @@ import com.whizzosoftware.hobson.bootstrap.api.presence.OSGIPresenceManager;
 import com.whizzosoftware.hobson.bootstrap.api.task.OSGITaskManager;
 import com.whizzosoftware.hobson.bootstrap.rest.HobsonManagerModule;
 import com.whizzosoftware.hobson.bootstrap.rest.v1.ApiV1Application;
+import com.whizzosoftware.hobson.bootstrap.util.HousekeepingCoordinator;
+import com.whizzosoftware.hobson.bootstrap.util.MapDBCompactor;
 import io.netty.util.internal.logging.InternalLoggerFactory;
 import io.netty.util.internal.logging.Slf4JLoggerFactory;
 import org.apache.felix.dm.DependencyActivatorBase;
@@ -166,6 +169,9 @@ public class Activator extends DependencyActivatorBase {
         // set the Netty log factory
         InternalLoggerFactory.setDefaultFactory(new Slf4JLoggerFactory());
 
+        // start store housekeeping
+        HousekeepingCoordinator.getInstance().start(MapDBCompactor.getCheckInterval());
+
         // create all OSGi managers
         createManagers(manager);
 
@@ -213,6 +219,8 @@ public class Activator extends DependencyActivatorBase {
 
         component.stop();
 
+        HousekeepingCoordinator.getInstance().stop();
+
         if (presenceTracker != null) {
             presenceTracker.close();
         }
@@ -276,8 +284,13 @@ public class Activator extends DependencyActivatorBase {
         // register event manager
         c = manager.createComponent();
         c.setInterface(EventManager.class.getName(), null);
-        c.setImplementation(OSGIEventManager.class);
-        c.add(createServiceDependency().setService(EventAdmin.class).setRequired(true));
+        if ("ringbuffer".equalsIgnoreCase(System.getProperty("hobson.event.manager", "osgi"))) {
+            logger.info("Using ring buffer event manager");
+            c.setImplementation(RingBufferEventManager.class);
+        } else {
+            c.setImplementation(OSGIEventManager.class);
+            c.add(createServiceDependency().setService(EventAdmin.class).setRequired(true));
+        }
         manager.add(c);
         registeredComponents.add(c);
 
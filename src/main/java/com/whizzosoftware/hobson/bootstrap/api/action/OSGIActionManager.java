@@ -24,16 +24,18 @@ import com.whizzosoftware.hobson.api.plugin.PluginContext;
 import com.whizzosoftware.hobson.api.plugin.PluginManager;
 import com.whizzosoftware.hobson.api.property.*;
 import com.whizzosoftware.hobson.bootstrap.api.action.store.MapDBActionStore;
+import com.whizzosoftware.hobson.bootstrap.api.device.ConstraintEvaluationCache;
+import com.whizzosoftware.hobson.bootstrap.api.device.OSGIDeviceManager;
 import com.whizzosoftware.hobson.bootstrap.api.util.BundleUtil;
+import com.whizzosoftware.hobson.bootstrap.util.FlushableStore;
 import io.netty.util.concurrent.Future;
 import org.osgi.framework.*;
+import org.osgi.framework.Constants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import java.util.*;
-import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.TimeUnit;
 
 public class OSGIActionManager implements ActionManager {
     private final Logger logger = LoggerFactory.getLogger(getClass());
@@ -52,7 +54,7 @@ public class OSGIActionManager implements ActionManager {
     private ActionStore actionStore;
     private final Map<String,Job> jobMap = Collections.synchronizedMap(new HashMap<String,Job>());
     private int maxJobCount = Integer.parseInt(System.getProperty("maxJobCount", "100"));
-    private java.util.concurrent.Future housekeepingFuture;
+    private final ConstraintEvaluationCache constraintCache = new ConstraintEvaluationCache();
 
     public void setMaxJobCount(int maxJobCount) {
         this.maxJobCount = maxJobCount;
@@ -68,27 +70,20 @@ public class OSGIActionManager implements ActionManager {
                     )
             );
         }
+    }
 
-        // create action store housekeeping task (run it starting at random interval between 22 and 24 hours)
-        if (executorManager != null) {
-            this.housekeepingFuture = executorManager.schedule(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        actionStore.performHousekeeping();
-                    } catch (Throwable t) {
-                        logger.error("Error performing action store housekeeping", t);
-                    }
-                }
-            }, 1440 - ThreadLocalRandom.current().nextInt(0, 121), 1440, TimeUnit.MINUTES);
-        } else {
-            logger.error("No executor manager available to perform action manager housekeeping");
+    /**
+     * Commits all action changes made so far to the action store.
+     */
+    public void flush() {
+        if (actionStore instanceof FlushableStore) {
+            ((FlushableStore)actionStore).flush();
         }
     }
 
     public void stop() {
-        if (executorManager != null && housekeepingFuture != null) {
-            executorManager.cancel(housekeepingFuture);
+        if (actionStore != null) {
+            actionStore.close();
         }
     }
 
@@ -210,10 +205,11 @@ public class OSGIActionManager implements ActionManager {
             List<ActionClass> results = new ArrayList<>();
             ServiceReference[] references = context.getServiceReferences(PropertyContainerClass.class.getName(), filter.toString());
             if (references != null) {
+                long version = getVariableNameVersion();
                 Collection<String> publishedVariableNames = deviceManager.getDeviceVariableNames(ctx);
                 for (ServiceReference ref : references) {
                     PropertyContainerClass pcc = (PropertyContainerClass)context.getService(ref);
-                    if (!applyConstraints || pcc.evaluatePropertyConstraints(publishedVariableNames)) {
+                    if (!applyConstraints || constraintCache.evaluate((Long)ref.getProperty(Constants.SERVICE_ID), pcc, version, publishedVariableNames)) {
                         results.add(((ActionClass)context.getService(ref)));
                     }
                 }
@@ -349,5 +345,10 @@ public class OSGIActionManager implements ActionManager {
         return job;
     }
 
-
+    /**
+     * Returns the version of the device manager's variable name index (or -1 if it doesn't have one).
+     */
+    private long getVariableNameVersion() {
+        return (deviceManager instanceof OSGIDeviceManager) ? ((OSGIDeviceManager)deviceManager).getVariableNameIndex().getVersion() : -1;
+    }
 }
@@ -18,8 +18,12 @@ import com.whizzosoftware.hobson.api.persist.IdProvider;
 import com.whizzosoftware.hobson.api.property.PropertyContainer;
 import com.whizzosoftware.hobson.api.property.PropertyContainerSet;
 import com.whizzosoftware.hobson.bootstrap.util.MapDBCollectionPersistenceContext;
+import com.whizzosoftware.hobson.bootstrap.util.FlushableStore;
+import com.whizzosoftware.hobson.bootstrap.util.HousekeepingCoordinator;
+import com.whizzosoftware.hobson.bootstrap.util.MapDBCommitScheduler;
+import com.whizzosoftware.hobson.bootstrap.util.MapDBCompactor;
+import com.whizzosoftware.hobson.bootstrap.util.MapDBProfile;
 import org.mapdb.DB;
-import org.mapdb.DBMaker;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -32,8 +36,10 @@ import java.util.UUID;
  *
  * @author Dan Noguerol
  */
-public class MapDBActionStore implements ActionStore {
+public class MapDBActionStore implements ActionStore, FlushableStore {
     final private DB db;
+    private MapDBCommitScheduler commitScheduler;
+    private MapDBCompactor compactor;
     private IdProvider idProvider = new ContextPathIdProvider();
     private CollectionPersister persister = new CollectionPersister(idProvider);
     private CollectionPersistenceContext mctx;
@@ -43,9 +49,9 @@ public class MapDBActionStore implements ActionStore {
         try {
             Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
 
-            db = DBMaker.newFileDB(file)
-                    .closeOnJvmShutdown()
-                    .make();
+            db = MapDBProfile.forStore("actions", MapDBProfile.READ_HEAVY).open(file);
+            commitScheduler = new MapDBCommitScheduler("actions", db);
+            compactor = new MapDBCompactor("actions", db, commitScheduler);
             mctx = new MapDBCollectionPersistenceContext(db);
 
         } finally {
@@ -80,10 +86,7 @@ public class MapDBActionStore implements ActionStore {
 
     @Override
     public void performHousekeeping() {
-        synchronized (db) {
-            db.commit();
-            db.compact();
-        }
+        HousekeepingCoordinator.getInstance().requestHousekeeping(compactor);
     }
 
     @Override
@@ -121,8 +124,9 @@ public class MapDBActionStore implements ActionStore {
                     ctx,
                     mctx,
                     tas,
-                    true
+                    false
                 );
+                commitScheduler.requestCommit();
             }
 
             return tas;
@@ -137,8 +141,15 @@ public class MapDBActionStore implements ActionStore {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public void flush() {
+        commitScheduler.flush();
+    }
+
     @Override
     public void close() {
+        commitScheduler.close();
+        compactor.close();
         db.close();
     }
 }
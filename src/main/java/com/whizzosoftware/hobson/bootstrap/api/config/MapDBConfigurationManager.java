@@ -19,9 +19,12 @@ import com.whizzosoftware.hobson.api.persist.CollectionPersister;
 import com.whizzosoftware.hobson.api.persist.ContextPathIdProvider;
 import com.whizzosoftware.hobson.api.plugin.PluginContext;
 import com.whizzosoftware.hobson.api.property.PropertyContainerClassContext;
+import com.whizzosoftware.hobson.bootstrap.util.FlushableStore;
 import com.whizzosoftware.hobson.bootstrap.util.MapDBCollectionPersistenceContext;
+import com.whizzosoftware.hobson.bootstrap.util.MapDBCommitScheduler;
+import com.whizzosoftware.hobson.bootstrap.util.MapDBCompactor;
+import com.whizzosoftware.hobson.bootstrap.util.MapDBProfile;
 import org.mapdb.DB;
-import org.mapdb.DBMaker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,16 +34,13 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.concurrent.Future;
-import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.TimeUnit;
 
 /**
  * A MapDB implementation of ConfigurationManager.
  *
  * @author Dan Noguerol
  */
-public class MapDBConfigurationManager implements ConfigurationManager {
+public class MapDBConfigurationManager implements ConfigurationManager, FlushableStore {
     private static final Logger logger = LoggerFactory.getLogger(MapDBConfigurationManager.class);
 
     @Inject
@@ -48,9 +48,10 @@ public class MapDBConfigurationManager implements ConfigurationManager {
 
     private File dbFile;
     private DB db;
+    private MapDBCommitScheduler commitScheduler;
+    private MapDBCompactor compactor;
     private CollectionPersister persister;
     private CollectionPersistenceContext cpctx;
-    private Future housekeepingFuture;
 
     public MapDBConfigurationManager() {
         this(new File(new File(System.getProperty(ConfigurationManager.HOBSON_HOME), "data"), "com.whizzosoftware.hobson.hub.hobson-hub-core$config"));
@@ -73,37 +74,32 @@ public class MapDBConfigurationManager implements ConfigurationManager {
             }
 
             // create the MapDB context
-            this.db = DBMaker.newFileDB(dbFile).closeOnJvmShutdown().make();
+            this.db = MapDBProfile.forStore("config", MapDBProfile.WRITE_HEAVY).open(dbFile);
+            this.commitScheduler = new MapDBCommitScheduler("config", db);
+            this.compactor = new MapDBCompactor("config", db, commitScheduler);
             this.cpctx = new MapDBCollectionPersistenceContext(db);
             this.persister = new CollectionPersister(new ContextPathIdProvider());
 
-            // create database compaction task (run it starting at random interval between 22 and 24 hours)
-            if (executorManager != null) {
-                housekeepingFuture = executorManager.schedule(new Runnable() {
-                    @Override
-                    public void run() {
-                        System.out.println("Performing config store housekeeping");
-                        synchronized (db) {
-                            try {
-                                db.commit();
-                                db.compact();
-                            } catch (Throwable t) {
-                                logger.error("Error compacting configuration database", t);
-                            }
-                        }
-                    }
-                }, 1440 - ThreadLocalRandom.current().nextInt(0, 121), 1440, TimeUnit.MINUTES);
-            } else {
-                logger.error("No executor manager available to perform configuration manager housekeeping");
-            }
+            // the other stores are opened after this so they can take their MapDB options from the hub configuration
+            MapDBProfile.setHubConfiguration(getHubConfiguration(HubContext.createLocal()));
         } finally {
             Thread.currentThread().setContextClassLoader(old);
         }
     }
 
+    @Override
+    public void flush() {
+        if (commitScheduler != null) {
+            commitScheduler.flush();
+        }
+    }
+
     public void stop() {
-        if (executorManager != null && housekeepingFuture != null) {
-            executorManager.cancel(housekeepingFuture);
+        if (commitScheduler != null) {
+            commitScheduler.close();
+        }
+        if (compactor != null) {
+            compactor.close();
         }
     }
 
@@ -135,7 +131,11 @@ public class MapDBConfigurationManager implements ConfigurationManager {
         try {
             Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
             synchronized (db) {
-                persister.saveHubConfiguration(cpctx, ctx, config, true);
+                persister.saveHubConfiguration(cpctx, ctx, config, false);
+                commitScheduler.requestCommit();
+            }
+            if (ctx.isLocal()) {
+                MapDBProfile.setHubConfiguration(getHubConfiguration(ctx));
             }
         } finally {
             Thread.currentThread().setContextClassLoader(old);
@@ -148,7 +148,11 @@ public class MapDBConfigurationManager implements ConfigurationManager {
         try {
             Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
             synchronized (db) {
-                persister.deleteHubConfiguration(cpctx, ctx, true);
+                persister.deleteHubConfiguration(cpctx, ctx, false);
+                commitScheduler.requestCommit();
+            }
+            if (ctx.isLocal()) {
+                MapDBProfile.setHubConfiguration(null);
             }
         } finally {
             Thread.currentThread().setContextClassLoader(old);
@@ -173,7 +177,8 @@ public class MapDBConfigurationManager implements ConfigurationManager {
             Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
             synchronized (db) {
                 persister.deleteLocalPluginConfiguration(cpctx, pctx, false);
-                persister.saveLocalPluginConfiguration(cpctx, pctx, newConfig, true);
+                persister.saveLocalPluginConfiguration(cpctx, pctx, newConfig, false);
+                commitScheduler.requestCommit();
             }
         } finally {
             Thread.currentThread().setContextClassLoader(old);
@@ -186,7 +191,8 @@ public class MapDBConfigurationManager implements ConfigurationManager {
         try {
             Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
             synchronized (db) {
-                persister.saveLocalPluginConfiguration(cpctx, ctx, Collections.singletonMap(name, value), true);
+                persister.saveLocalPluginConfiguration(cpctx, ctx, Collections.singletonMap(name, value), false);
+                commitScheduler.requestCommit();
             }
         } finally {
             Thread.currentThread().setContextClassLoader(old);
@@ -235,7 +241,29 @@ public class MapDBConfigurationManager implements ConfigurationManager {
         try {
             synchronized (db) {
                 persister.deleteDeviceConfiguration(cpctx, dctx, false);
-                persister.saveDeviceConfiguration(cpctx, dctx, values, true);
+                persister.saveDeviceConfiguration(cpctx, dctx, values, false);
+                commitScheduler.requestCommit();
+            }
+        } finally {
+            Thread.currentThread().setContextClassLoader(old);
+        }
+    }
+
+    /**
+     * Replaces the configuration of a group of devices. All of the configurations are written while holding the
+     * database lock and share a single commit request.
+     *
+     * @param configs the configurations keyed by device context
+     */
+    public void setDeviceConfigurations(Map<DeviceContext,Map<String,Object>> configs) {
+        ClassLoader old = Thread.currentThread().getContextClassLoader();
+        try {
+            synchronized (db) {
+                for (Map.Entry<DeviceContext,Map<String,Object>> e : configs.entrySet()) {
+                    persister.deleteDeviceConfiguration(cpctx, e.getKey(), false);
+                    persister.saveDeviceConfiguration(cpctx, e.getKey(), e.getValue(), false);
+                }
+                commitScheduler.requestCommit();
             }
         } finally {
             Thread.currentThread().setContextClassLoader(old);
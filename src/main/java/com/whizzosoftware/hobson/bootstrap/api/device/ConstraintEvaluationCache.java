@@ -0,0 +1,65 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.device;
+
+import com.whizzosoftware.hobson.api.property.PropertyContainerClass;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Memoizes the results of PropertyContainerClass.evaluatePropertyConstraints() against a VariableNameIndex version.
+ * All results are discarded when the version changes. Results are keyed by the OSGi service ID the class is
+ * published under: a class that is re-published gets a new ID and so is always re-evaluated, and the cache never
+ * holds a reference to a service object (which would keep an unregistered plugin's classes reachable).
+ *
+ * @author Dan Noguerol
+ */
+public class ConstraintEvaluationCache {
+    private final Map<Long,Boolean> results = new ConcurrentHashMap<>();
+    private volatile long version = -1;
+
+    /**
+     * Evaluates a class's property constraints or returns the result of a previous evaluation.
+     *
+     * @param serviceId the service ID the class is published under
+     * @param pcc the property container class
+     * @param version the variable name index version (a negative or outdated version bypasses the cache)
+     * @param variableNames the published variable names (read after the version)
+     *
+     * @return the result of the evaluation
+     */
+    public boolean evaluate(long serviceId, PropertyContainerClass pcc, long version, Collection<String> variableNames) {
+        if (version < 0 || version < this.version) {
+            return pcc.evaluatePropertyConstraints(variableNames);
+        }
+        if (version != this.version) {
+            synchronized (this) {
+                if (version != this.version) {
+                    results.clear();
+                    this.version = version;
+                }
+            }
+        }
+        Boolean b = results.get(serviceId);
+        if (b == null) {
+            b = pcc.evaluatePropertyConstraints(variableNames);
+            if (version == this.version) {
+                results.put(serviceId, b);
+            }
+        }
+        return b;
+    }
+
+    public int size() {
+        return results.size();
+    }
+}
@@ -11,27 +11,48 @@ package com.whizzosoftware.hobson.bootstrap.api.device;
 
 import com.whizzosoftware.hobson.api.HobsonNotFoundException;
 import com.whizzosoftware.hobson.api.device.*;
+import com.whizzosoftware.hobson.api.event.EventHandler;
+import com.whizzosoftware.hobson.api.event.device.DeviceCheckInEvent;
+import com.whizzosoftware.hobson.api.event.device.DeviceDeletedEvent;
 import com.whizzosoftware.hobson.api.event.device.DeviceUnavailableEvent;
 import com.whizzosoftware.hobson.api.event.EventManager;
+import com.whizzosoftware.hobson.api.event.device.DeviceVariablesUpdateEvent;
 import com.whizzosoftware.hobson.api.hub.HubContext;
+import com.whizzosoftware.hobson.api.variable.DeviceVariableUpdate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 
 /**
  * Monitors all devices and posts DeviceUnavailableEvents when any become unavailable.
  *
+ * Each device's availability deadline (last check-in plus the availability timeout) is kept in a priority queue.
+ * The monitor is run periodically by the hub's executor and returns immediately unless the earliest deadline has
+ * expired. Deadlines are pushed out by DeviceCheckInEvents and device variable updates so only devices that are
+ * actually expiring have their last check-in time looked up. A full reconciliation against the device manager is
+ * performed once per availability timeout interval to pick up devices that check in without posting events and to
+ * forget devices that no longer exist.
+ *
+ * The monitor lock (which the event handlers take) is only held while the deadline state is read or updated; the
+ * device manager is queried and events are posted without it.
+ *
  * @author Dan Noguerol
  */
 public class DeviceAvailabilityMonitor implements Runnable {
     private static final Logger logger = LoggerFactory.getLogger(DeviceAvailabilityMonitor.class);
 
+    private static final long RECONCILE_INTERVAL = HobsonDeviceDescriptor.AVAILABILITY_TIMEOUT_INTERVAL;
+
     private HubContext hubContext;
     private DeviceManager deviceManager;
     private EventManager eventManager;
     private Map<DeviceContext,Long> lastNotificationTimeMap = new HashMap<>();
+    private final Map<DeviceContext,Long> lastCheckInMap = new HashMap<>();
+    private final Map<DeviceContext,Long> deadlineMap = new HashMap<>();
+    private final PriorityQueue<Deadline> deadlineQueue = new PriorityQueue<>();
+    private final Object runLock = new Object();
+    private long lastReconcileTime;
 
     DeviceAvailabilityMonitor(HubContext hubContext, DeviceManager deviceManager, EventManager eventManager) {
         this.hubContext = hubContext;
@@ -39,35 +60,253 @@ public class DeviceAvailabilityMonitor implements Runnable {
         this.eventManager = eventManager;
     }
 
-    void setLastNotificationTime(DeviceContext dctx, Long time) {
+    synchronized void setLastNotificationTime(DeviceContext dctx, Long time) {
         lastNotificationTimeMap.put(dctx, time);
+        // re-arm the device's deadline if the notification predates its last check-in
+        Long lastCheckIn = lastCheckInMap.get(dctx);
+        if (lastCheckIn != null && !isNotified(dctx, lastCheckIn)) {
+            arm(dctx, lastCheckIn + HobsonDeviceDescriptor.AVAILABILITY_TIMEOUT_INTERVAL);
+        }
     }
 
-    Long getLastNotificationTime(DeviceContext dctx) {
+    synchronized Long getLastNotificationTime(DeviceContext dctx) {
         return lastNotificationTimeMap.get(dctx);
     }
 
+    synchronized int getDeadlineCount() {
+        return deadlineMap.size();
+    }
+
+    @EventHandler
+    public void onDeviceCheckIn(DeviceCheckInEvent event) {
+        onDeviceActivity(event.getDeviceContext(), System.currentTimeMillis());
+    }
+
+    @EventHandler
+    public void onDeviceVariablesUpdate(DeviceVariablesUpdateEvent event) {
+        long now = System.currentTimeMillis();
+        Collection<DeviceVariableUpdate> updates = event.getUpdates();
+        if (updates != null) {
+            for (DeviceVariableUpdate u : updates) {
+                DeviceContext dctx = u.getContext().getDeviceContext();
+                if (dctx != null && dctx.getDeviceId() != null) {
+                    onDeviceActivity(dctx, now);
+                }
+            }
+        }
+    }
+
+    @EventHandler
+    public void onDeviceDeleted(DeviceDeletedEvent event) {
+        forget(event.getDeviceContext());
+    }
+
+    /**
+     * Records activity for a device and pushes out its deadline. The time is only a hint; the device's actual
+     * last check-in time is confirmed when the deadline expires.
+     *
+     * @param dctx the device context
+     * @param time the time of the activity
+     */
+    synchronized void onDeviceActivity(DeviceContext dctx, long time) {
+        Long lastCheckIn = lastCheckInMap.get(dctx);
+        if (lastCheckIn == null || time > lastCheckIn) {
+            lastCheckInMap.put(dctx, time);
+            arm(dctx, time + HobsonDeviceDescriptor.AVAILABILITY_TIMEOUT_INTERVAL);
+        }
+    }
+
+    synchronized void forget(DeviceContext dctx) {
+        lastNotificationTimeMap.remove(dctx);
+        lastCheckInMap.remove(dctx);
+        deadlineMap.remove(dctx);
+    }
+
     public void run() {
         run(System.currentTimeMillis());
     }
 
     public void run(long now) {
-        try {
-            for (HobsonDeviceDescriptor device : deviceManager.getDevices(hubContext)) {
-                DeviceContext dctx = device.getContext();
-                Long lastNotificationTime = lastNotificationTimeMap.get(dctx);
-                try {
-                    Long lastCheckIn = deviceManager.getDeviceLastCheckin(dctx);
-                    if (lastCheckIn != null && now - lastCheckIn >= HobsonDeviceDescriptor.AVAILABILITY_TIMEOUT_INTERVAL && (lastNotificationTime == null || lastNotificationTime < lastCheckIn)) {
-                        eventManager.postEvent(hubContext, new DeviceUnavailableEvent(now, dctx));
-                        lastNotificationTimeMap.put(dctx, now);
+        // runs are serialized so reconciliation results are never applied out of order
+        synchronized (runLock) {
+            try {
+                boolean doReconcile;
+                synchronized (this) {
+                    doReconcile = (lastReconcileTime == 0 || now - lastReconcileTime >= RECONCILE_INTERVAL);
+                    if (!doReconcile && now < getNextWakeTime()) {
+                        return;
                     }
-                } catch (HobsonNotFoundException ignored) {
-                    logger.warn("Found a device descriptor that can't be mapped to a device in the system: {}", dctx);
                 }
+
+                if (doReconcile) {
+                    reconcile(now);
+                }
+
+                List<DeviceContext> expired = new ArrayList<>();
+                synchronized (this) {
+                    Deadline d;
+                    while ((d = deadlineQueue.peek()) != null && d.expiry <= now) {
+                        deadlineQueue.poll();
+                        Long expiry = deadlineMap.get(d.ctx);
+                        if (expiry == null || expiry != d.expiry) {
+                            // the deadline has been superseded or cancelled
+                            continue;
+                        }
+                        deadlineMap.remove(d.ctx);
+                        expired.add(d.ctx);
+                    }
+                }
+
+                // look up the expired devices' last check-in times without holding the monitor lock
+                Map<DeviceContext,Long> checkIns = getLastCheckIns(expired);
+
+                List<DeviceContext> unavailable = new ArrayList<>();
+                synchronized (this) {
+                    for (Map.Entry<DeviceContext,Long> e : checkIns.entrySet()) {
+                        if (checkDevice(e.getKey(), e.getValue(), now)) {
+                            unavailable.add(e.getKey());
+                        }
+                    }
+                }
+
+                for (DeviceContext dctx : unavailable) {
+                    eventManager.postEvent(hubContext, new DeviceUnavailableEvent(now, dctx));
+                }
+            } catch (Throwable t) {
+                logger.error("Error running device availability monitor", t);
             }
-        } catch (Throwable t) {
-            logger.error("Error running device availability monitor", t);
+        }
+    }
+
+    /**
+     * Confirms a device's last check-in time and determines whether it has become unavailable. This must be called
+     * while holding the monitor lock.
+     *
+     * @param dctx the device context
+     * @param lastCheckIn the device's last check-in time according to the device manager
+     * @param now the current time
+     *
+     * @return true if a DeviceUnavailableEvent should be posted for the device
+     */
+    private boolean checkDevice(DeviceContext dctx, long lastCheckIn, long now) {
+        // activity recorded while the check-in time was being looked up will have re-armed the deadline
+        if (deadlineMap.containsKey(dctx)) {
+            return false;
+        }
+        Long recent = lastCheckInMap.get(dctx);
+        if (recent != null && recent > lastCheckIn) {
+            lastCheckIn = recent;
+        }
+        lastCheckInMap.put(dctx, lastCheckIn);
+        if (now - lastCheckIn >= HobsonDeviceDescriptor.AVAILABILITY_TIMEOUT_INTERVAL) {
+            if (!isNotified(dctx, lastCheckIn)) {
+                lastNotificationTimeMap.put(dctx, now);
+                return true;
+            }
+        } else {
+            // the device has checked in since the deadline was set
+            arm(dctx, lastCheckIn + HobsonDeviceDescriptor.AVAILABILITY_TIMEOUT_INTERVAL);
+        }
+        return false;
+    }
+
+    /**
+     * Re-synchronizes the deadlines with the device manager and discards state for devices that no longer exist.
+     * The device manager is queried without holding the monitor lock.
+     *
+     * @param now the current time
+     */
+    private void reconcile(long now) {
+        logger.trace("Reconciling device availability deadlines");
+        List<DeviceContext> devices = new ArrayList<>();
+        for (HobsonDeviceDescriptor device : deviceManager.getDevices(hubContext)) {
+            devices.add(device.getContext());
+        }
+        Map<DeviceContext,Long> checkIns = getLastCheckIns(devices);
+
+        synchronized (this) {
+            for (Map.Entry<DeviceContext,Long> e : checkIns.entrySet()) {
+                DeviceContext dctx = e.getKey();
+                Long lastCheckIn = lastCheckInMap.get(dctx);
+                if (lastCheckIn == null || e.getValue() > lastCheckIn) {
+                    lastCheckIn = e.getValue();
+                    lastCheckInMap.put(dctx, lastCheckIn);
+                }
+                if (!isNotified(dctx, lastCheckIn)) {
+                    arm(dctx, lastCheckIn + HobsonDeviceDescriptor.AVAILABILITY_TIMEOUT_INTERVAL);
+                }
+            }
+
+            Set<DeviceContext> existing = new HashSet<>(devices);
+            lastNotificationTimeMap.keySet().retainAll(existing);
+            lastCheckInMap.keySet().retainAll(existing);
+            deadlineMap.keySet().retainAll(existing);
+
+            lastReconcileTime = now;
+        }
+    }
+
+    /**
+     * Looks up the last check-in times of a list of devices. Devices that can't be found or have never checked in
+     * are omitted from the result.
+     *
+     * @param devices the device contexts
+     *
+     * @return a Map of device context to last check-in time
+     */
+    private Map<DeviceContext,Long> getLastCheckIns(List<DeviceContext> devices) {
+        Map<DeviceContext,Long> results = new LinkedHashMap<>();
+        for (DeviceContext dctx : devices) {
+            try {
+                Long lastCheckIn = deviceManager.getDeviceLastCheckin(dctx);
+                if (lastCheckIn != null) {
+                    results.put(dctx, lastCheckIn);
+                }
+            } catch (HobsonNotFoundException ignored) {
+                logger.warn("Found a device descriptor that can't be mapped to a device in the system: {}", dctx);
+            }
+        }
+        return results;
+    }
+
+    private boolean isNotified(DeviceContext dctx, long lastCheckIn) {
+        Long lastNotificationTime = lastNotificationTimeMap.get(dctx);
+        return (lastNotificationTime != null && lastNotificationTime >= lastCheckIn);
+    }
+
+    private void arm(DeviceContext dctx, long expiry) {
+        Long current = deadlineMap.get(dctx);
+        if (current == null || current != expiry) {
+            deadlineMap.put(dctx, expiry);
+            deadlineQueue.add(new Deadline(dctx, expiry));
+        }
+        // superseded entries are discarded lazily; compact the queue if they start to dominate it
+        if (deadlineQueue.size() > 2 * deadlineMap.size() + 64) {
+            deadlineQueue.clear();
+            for (Map.Entry<DeviceContext,Long> e : deadlineMap.entrySet()) {
+                deadlineQueue.add(new Deadline(e.getKey(), e.getValue()));
+            }
+        }
+    }
+
+    private long getNextWakeTime() {
+        Deadline d = deadlineQueue.peek();
+        long reconcileTime = lastReconcileTime + RECONCILE_INTERVAL;
+        return (d != null && d.expiry < reconcileTime) ? d.expiry : reconcileTime;
+    }
+
+    private static class Deadline implements Comparable<Deadline> {
+        final DeviceContext ctx;
+        final long expiry;
+
+        Deadline(DeviceContext ctx, long expiry) {
+            this.ctx = ctx;
+            this.expiry = expiry;
+        }
+
+        @Override
+        public int compareTo(Deadline o) {
+            return Long.compare(expiry, o.expiry);
         }
     }
 }
@@ -0,0 +1,56 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.device;
+
+import com.whizzosoftware.hobson.api.device.HobsonDeviceDescriptor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable, versioned view of the hub's devices. A new snapshot (with a higher version) is created whenever
+ * a device is saved, deleted or changed so readers can share a snapshot without copying or locking. The device store
+ * never changes a descriptor it has returned (changes are made to a copy) so the descriptors a snapshot holds keep
+ * the state they had when it was built.
+ *
+ * @author Dan Noguerol
+ */
+public class DeviceSnapshot {
+    private final long version;
+    private final List<HobsonDeviceDescriptor> devices;
+
+    public DeviceSnapshot(long version, Collection<HobsonDeviceDescriptor> devices) {
+        this.version = version;
+        this.devices = Collections.unmodifiableList(new ArrayList<>(devices));
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns an entity tag that identifies this version of the device collection.
+     *
+     * @return an ETag value (including its surrounding quotes)
+     */
+    public String getETag() {
+        return "\"" + Long.toHexString(version) + "\"";
+    }
+
+    public List<HobsonDeviceDescriptor> getDevices() {
+        return devices;
+    }
+
+    public int size() {
+        return devices.size();
+    }
+}
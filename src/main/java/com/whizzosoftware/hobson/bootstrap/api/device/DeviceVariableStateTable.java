@@ -0,0 +1,243 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.device;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+import com.whizzosoftware.hobson.api.event.EventHandler;
+import com.whizzosoftware.hobson.api.event.HobsonEvent;
+import com.whizzosoftware.hobson.api.event.device.DeviceDeletedEvent;
+import com.whizzosoftware.hobson.api.event.device.DeviceStoppedEvent;
+import com.whizzosoftware.hobson.api.event.device.DeviceVariablesUpdateEvent;
+import com.whizzosoftware.hobson.api.event.plugin.PluginStatusChangeEvent;
+import com.whizzosoftware.hobson.api.hub.HubContext;
+import com.whizzosoftware.hobson.api.plugin.PluginContext;
+import com.whizzosoftware.hobson.api.plugin.PluginStatus;
+import com.whizzosoftware.hobson.api.variable.DeviceVariableContext;
+import com.whizzosoftware.hobson.api.variable.DeviceVariableState;
+import com.whizzosoftware.hobson.api.variable.DeviceVariableUpdate;
+import com.whizzosoftware.hobson.bootstrap.api.event.EventPostListener;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A core-owned table of current device variable values populated from DeviceVariablesUpdateEvents. Reads are a
+ * single lock-free lookup. Each entry carries the time it was last updated and a version that increases with every
+ * update so callers can cheaply detect change.
+ *
+ * Entries for a device are discarded when the device is stopped, deleted or re-published and entries for a plugin
+ * are discarded whenever it leaves the running state. Variables whose descriptors are written directly (without a
+ * DeviceVariablesUpdateEvent) must be invalidated by the writer. Callers should fall back to the owning plugin on a
+ * miss and seed the table with the result via putIfAbsent().
+ *
+ * @author Dan Noguerol
+ */
+public class DeviceVariableStateTable implements EventPostListener {
+    private final ConcurrentMap<DeviceVariableContext,Entry> table = new ConcurrentHashMap<>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Returns the current state of a variable.
+     *
+     * @param ctx the variable context
+     *
+     * @return a DeviceVariableState or null if the variable is not in the table
+     */
+    public DeviceVariableState get(DeviceVariableContext ctx) {
+        Entry e = table.get(ctx);
+        if (e != null) {
+            hitCount.incrementAndGet();
+            return e.state;
+        } else {
+            missCount.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Returns the table entry for a variable.
+     *
+     * @param ctx the variable context
+     *
+     * @return an Entry or null if the variable is not in the table
+     */
+    public Entry getEntry(DeviceVariableContext ctx) {
+        return table.get(ctx);
+    }
+
+    public boolean contains(DeviceVariableContext ctx) {
+        return table.containsKey(ctx);
+    }
+
+    public int size() {
+        return table.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Sets a variable's value.
+     *
+     * @param ctx the variable context
+     * @param value the new value
+     * @param timestamp the time of the update
+     */
+    public void update(DeviceVariableContext ctx, Object value, long timestamp) {
+        while (true) {
+            Entry old = table.get(ctx);
+            if (old == null) {
+                if (table.putIfAbsent(ctx, new Entry(new DeviceVariableState(ctx, value, timestamp), timestamp, 1)) == null) {
+                    return;
+                }
+            } else if (table.replace(ctx, old, new Entry(new DeviceVariableState(ctx, value, timestamp), timestamp, old.version + 1))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Seeds the table with a variable state obtained from its plugin. The state is stored as-is (so it is returned
+     * exactly as the plugin provided it) and the entry's timestamp is the time it was seeded. This will not overwrite
+     * a newer entry populated by an update.
+     *
+     * @param ctx the variable context
+     * @param state the state
+     */
+    public void putIfAbsent(DeviceVariableContext ctx, DeviceVariableState state) {
+        table.putIfAbsent(ctx, new Entry(state, System.currentTimeMillis(), 0));
+    }
+
+    /**
+     * Discards all entries for a device.
+     *
+     * @param dctx the device context
+     */
+    public void invalidate(DeviceContext dctx) {
+        Iterator<DeviceVariableContext> it = table.keySet().iterator();
+        while (it.hasNext()) {
+            if (dctx.equals(it.next().getDeviceContext())) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Discards all entries for a plugin's devices.
+     *
+     * @param pctx the plugin context
+     */
+    public void invalidate(PluginContext pctx) {
+        Iterator<DeviceVariableContext> it = table.keySet().iterator();
+        while (it.hasNext()) {
+            DeviceContext dctx = it.next().getDeviceContext();
+            if (dctx != null && pctx.equals(dctx.getPluginContext())) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Discards the entry for a single variable.
+     *
+     * @param ctx the variable context
+     */
+    public void invalidate(DeviceVariableContext ctx) {
+        table.remove(ctx);
+    }
+
+    public void clear() {
+        table.clear();
+    }
+
+    @Override
+    public void onEventPosted(HubContext ctx, HobsonEvent event) {
+        if (event instanceof DeviceVariablesUpdateEvent) {
+            onDeviceVariablesUpdate((DeviceVariablesUpdateEvent)event);
+        } else if (event instanceof DeviceStoppedEvent) {
+            onDeviceStopped((DeviceStoppedEvent)event);
+        } else if (event instanceof DeviceDeletedEvent) {
+            onDeviceDeleted((DeviceDeletedEvent)event);
+        } else if (event instanceof PluginStatusChangeEvent) {
+            onPluginStatusChange((PluginStatusChangeEvent)event);
+        }
+    }
+
+    @EventHandler
+    public void onDeviceVariablesUpdate(DeviceVariablesUpdateEvent event) {
+        // the state reflects when the plugin reported the update, not when the event reached the table
+        Long timestamp = event.getTimestamp();
+        long time = (timestamp != null) ? timestamp : System.currentTimeMillis();
+        Collection<DeviceVariableUpdate> updates = event.getUpdates();
+        if (updates != null) {
+            for (DeviceVariableUpdate u : updates) {
+                update(u.getContext(), u.getNewValue(), time);
+            }
+        }
+    }
+
+    @EventHandler
+    public void onDeviceStopped(DeviceStoppedEvent event) {
+        invalidate(event.getDeviceContext());
+    }
+
+    @EventHandler
+    public void onDeviceDeleted(DeviceDeletedEvent event) {
+        invalidate(event.getDeviceContext());
+    }
+
+    @EventHandler
+    public void onPluginStatusChange(PluginStatusChangeEvent event) {
+        // a plugin that isn't running can't be trusted to have the values it last reported
+        if (!PluginStatus.running().equals(event.getStatus())) {
+            invalidate(event.getContext());
+        }
+    }
+
+    /**
+     * An immutable table entry.
+     */
+    public static class Entry {
+        private final DeviceVariableState state;
+        private final long timestamp;
+        private final long version;
+
+        Entry(DeviceVariableState state, long timestamp, long version) {
+            this.state = state;
+            this.timestamp = timestamp;
+            this.version = version;
+        }
+
+        public DeviceVariableState getState() {
+            return state;
+        }
+
+        public Object getValue() {
+            return state.getValue();
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+    }
+}
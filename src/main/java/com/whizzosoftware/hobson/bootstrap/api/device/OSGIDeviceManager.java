@@ -20,32 +20,50 @@ import com.whizzosoftware.hobson.api.event.device.DeviceDeletedEvent;
 import com.whizzosoftware.hobson.api.event.device.DeviceStartedEvent;
 import com.whizzosoftware.hobson.api.executor.ExecutorManager;
 import com.whizzosoftware.hobson.api.hub.HubContext;
+import com.whizzosoftware.hobson.api.osgi.device.DeviceBatchPublisher;
+import com.whizzosoftware.hobson.api.osgi.event.DevicesStartedEvent;
 import com.whizzosoftware.hobson.api.plugin.*;
 import com.whizzosoftware.hobson.api.property.*;
 import com.whizzosoftware.hobson.api.variable.DeviceVariableContext;
 import com.whizzosoftware.hobson.api.variable.DeviceVariableDescriptor;
 import com.whizzosoftware.hobson.api.variable.DeviceVariableState;
+import com.whizzosoftware.hobson.bootstrap.api.config.MapDBConfigurationManager;
 import com.whizzosoftware.hobson.bootstrap.api.device.store.*;
+import com.whizzosoftware.hobson.bootstrap.api.event.EventPostListenerRegistry;
+import io.netty.util.concurrent.DefaultPromise;
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.Promise;
 import org.osgi.framework.FrameworkUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.io.File;
 import java.io.NotSerializableException;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.whizzosoftware.hobson.api.device.HobsonDeviceDescriptor.AVAILABILITY_TIMEOUT_INTERVAL;
 
 /**
- * An OSGi implementation of DeviceManager.
+ * An OSGi implementation of DeviceManager. It also implements DeviceBatchPublisher so plugins that publish many
+ * devices at startup can do so with one device store transaction and one DevicesStartedEvent.
  *
  * @author Dan Noguerol
  */
-public class OSGIDeviceManager implements DeviceManager {
+public class OSGIDeviceManager implements DeviceManager, DeviceBatchPublisher {
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
+    /**
+     * The device store format: "record" for MapDBRecordDeviceStore; anything else for MapDBDeviceStore.
+     */
+    public static final String PROP_STORE_FORMAT = "hobson.deviceStore.format";
+    public static final String FORMAT_RECORD = "record";
+
     @Inject
     volatile private ConfigurationManager configManager;
     @Inject
@@ -56,47 +74,75 @@ public class OSGIDeviceManager implements DeviceManager {
     volatile private PluginManager pluginManager;
 
     private DeviceStore deviceStore;
-    private final Set<String> variableNameSet = new HashSet<>();
+    private final VariableNameIndex variableNameIndex = new VariableNameIndex();
+    private DeviceAvailabilityMonitor deviceAvailabilityMonitor;
     private Future availabilityFuture;
-    private Future housekeepingFuture;
+    private final DeviceVariableStateTable variableStateTable = new DeviceVariableStateTable();
+    private final AtomicLong deviceVersion = new AtomicLong();
+    private final Object snapshotLock = new Object();
+    private volatile DeviceSnapshot deviceSnapshot;
 
     public void start() {
         logger.debug("Device manager is starting");
 
         // if a device store hasn't already been injected, create a default one
         if (deviceStore == null) {
-            deviceStore = new CachingLocalDeviceStore(new MapDBDeviceStore(
-                pluginManager.getDataFile(
-                    PluginContext.createLocal(FrameworkUtil.getBundle(getClass()).getSymbolicName()),
-                    "devices"
-                )
-            ));
+            File file = pluginManager.getDataFile(
+                PluginContext.createLocal(FrameworkUtil.getBundle(getClass()).getSymbolicName()),
+                "devices"
+            );
+            if (FORMAT_RECORD.equals(System.getProperty(PROP_STORE_FORMAT))) {
+                deviceStore = new CachingLocalDeviceStore(new MapDBRecordDeviceStore(file), getDeviceCacheSize());
+            } else {
+                deviceStore = new CachingLocalDeviceStore(new MapDBDeviceStore(file), getDeviceCacheSize());
+            }
             deviceStore.start();
         }
 
+        // keep the variable state table current; when possible it observes updates as they're posted so it's
+        // never behind the listeners that react to them
+        if (eventManager instanceof EventPostListenerRegistry) {
+            ((EventPostListenerRegistry)eventManager).addPostListener(variableStateTable);
+        } else if (eventManager != null) {
+            eventManager.addListener(HubContext.createLocal(), variableStateTable);
+        }
+
         // start device availability monitor
-        DeviceAvailabilityMonitor deviceAvailabilityMonitor = new DeviceAvailabilityMonitor(HubContext.createLocal(), this, eventManager);
-        availabilityFuture = executorManager.schedule(
-            deviceAvailabilityMonitor,
-            Math.min(30, AVAILABILITY_TIMEOUT_INTERVAL),
-            Math.min(30, AVAILABILITY_TIMEOUT_INTERVAL),
-            TimeUnit.SECONDS
-        );
-
-        // create device store housekeeping task (run it starting at random interval between 22 and 24 hours)
+        deviceAvailabilityMonitor = new DeviceAvailabilityMonitor(HubContext.createLocal(), this, eventManager);
+        if (eventManager != null) {
+            eventManager.addListener(HubContext.createLocal(), deviceAvailabilityMonitor);
+        }
         if (executorManager != null) {
-            housekeepingFuture = executorManager.schedule(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        deviceStore.performHousekeeping();
-                    } catch (Throwable t) {
-                        logger.error("Error performing device store housekeeping", t);
-                    }
-                }
-            }, 1440 - ThreadLocalRandom.current().nextInt(0, 121), 1440, TimeUnit.MINUTES);
+            // the monitor returns immediately unless a deadline has expired so it's cheap to run frequently
+            availabilityFuture = executorManager.schedule(deviceAvailabilityMonitor, 5, 5, TimeUnit.SECONDS);
         } else {
-            logger.error("No executor manager available to perform device store housekeeping");
+            logger.error("No executor manager available to run the device availability monitor");
+        }
+    }
+
+    /**
+     * Returns the device descriptor cache size. The hub configuration takes precedence over the system property.
+     *
+     * @return the cache size
+     */
+    private int getDeviceCacheSize() {
+        Object o = (configManager != null) ? configManager.getHubConfigurationProperty(HubContext.createLocal(), CachingLocalDeviceStore.CONFIG_CACHE_SIZE) : null;
+        if (o != null) {
+            try {
+                return (o instanceof Number) ? ((Number)o).intValue() : Integer.parseInt(o.toString());
+            } catch (NumberFormatException e) {
+                logger.warn("Ignoring invalid device cache size: {}", o);
+            }
+        }
+        return CachingLocalDeviceStore.getDefaultCacheSize();
+    }
+
+    /**
+     * Writes all device changes made so far to the device store and commits them.
+     */
+    public void flush() {
+        if (deviceStore != null) {
+            deviceStore.flush();
         }
     }
 
@@ -106,21 +152,33 @@ public class OSGIDeviceManager implements DeviceManager {
         // stop the device store
         deviceStore.stop();
 
-        // stop the device availability monitor and device store housekeeping tasks
-        if (executorManager != null) {
-            if (availabilityFuture != null) {
-                executorManager.cancel(availabilityFuture);
+        // stop the device availability monitor
+        if (deviceAvailabilityMonitor != null) {
+            if (eventManager != null) {
+                eventManager.removeListener(HubContext.createLocal(), deviceAvailabilityMonitor);
             }
-            if (housekeepingFuture != null) {
-                executorManager.cancel(housekeepingFuture);
+            if (executorManager != null && availabilityFuture != null) {
+                executorManager.cancel(availabilityFuture);
+                availabilityFuture = null;
             }
+            deviceAvailabilityMonitor = null;
+        }
+
+        if (eventManager instanceof EventPostListenerRegistry) {
+            ((EventPostListenerRegistry)eventManager).removePostListener(variableStateTable);
+        } else if (eventManager != null) {
+            eventManager.removeListener(HubContext.createLocal(), variableStateTable);
         }
+        variableStateTable.clear();
     }
 
     @Override
     public void deleteDevice(DeviceContext dctx) {
         if (deviceStore != null) {
             deviceStore.deleteDevice(dctx);
+            variableNameIndex.removeDevice(dctx);
+            variableStateTable.invalidate(dctx);
+            invalidateDeviceSnapshot();
             eventManager.postEvent(HubContext.createLocal(), new DeviceDeletedEvent(System.currentTimeMillis(), dctx));
         } else {
             throw new HobsonRuntimeException("No device store is available");
@@ -143,7 +201,35 @@ public class OSGIDeviceManager implements DeviceManager {
 
     @Override
     public Collection<HobsonDeviceDescriptor> getDevices(HubContext hctx) {
-        return deviceStore.getAllDevices(hctx);
+        if (hctx.isLocal()) {
+            return getDeviceSnapshot().getDevices();
+        } else {
+            return deviceStore.getAllDevices(hctx);
+        }
+    }
+
+    /**
+     * Returns an immutable snapshot of the local hub's devices. The snapshot is only rebuilt after a device has been
+     * saved, deleted or changed so repeated calls are cheap and its version can be used as an ETag.
+     *
+     * @return a DeviceSnapshot instance
+     */
+    public DeviceSnapshot getDeviceSnapshot() {
+        DeviceSnapshot s = deviceSnapshot;
+        if (s == null) {
+            synchronized (snapshotLock) {
+                s = deviceSnapshot;
+                if (s == null) {
+                    long version = deviceVersion.get();
+                    s = new DeviceSnapshot(version, deviceStore.getAllDevices(HubContext.createLocal()));
+                    // don't publish the snapshot if the devices changed while it was being built
+                    if (deviceVersion.get() == version) {
+                        deviceSnapshot = s;
+                    }
+                }
+            }
+        }
+        return s;
     }
 
     @Override
@@ -184,12 +270,19 @@ public class OSGIDeviceManager implements DeviceManager {
 
     @Override
     public DeviceVariableState getDeviceVariable(DeviceVariableContext ctx) {
-        return pluginManager.getLocalPluginDeviceVariable(ctx);
+        DeviceVariableState state = variableStateTable.get(ctx);
+        if (state == null) {
+            state = pluginManager.getLocalPluginDeviceVariable(ctx);
+            if (state != null) {
+                variableStateTable.putIfAbsent(ctx, state);
+            }
+        }
+        return state;
     }
 
     @Override
     public Collection<String> getDeviceVariableNames(HubContext hctx) {
-        return variableNameSet;
+        return variableNameIndex.getVariableNames();
     }
 
     @Override
@@ -199,7 +292,7 @@ public class OSGIDeviceManager implements DeviceManager {
 
     @Override
     public boolean hasDeviceVariable(DeviceVariableContext ctx) {
-        return pluginManager.hasLocalPluginDeviceVariable(ctx);
+        return variableStateTable.contains(ctx) || pluginManager.hasLocalPluginDeviceVariable(ctx);
     }
 
     @Override
@@ -209,12 +302,7 @@ public class OSGIDeviceManager implements DeviceManager {
 
     @Override
     synchronized public io.netty.util.concurrent.Future publishDevice(final HobsonDeviceProxy device, final Map<String,Object> config, final Runnable runnable) {
-        final String deviceId = device.getContext().getDeviceId();
-
-        // check that the device ID is legal
-        if (deviceId == null || deviceId.contains(",") || deviceId.contains(":")) {
-            throw new HobsonRuntimeException("Unable to publish device \"" + deviceId + "\": the ID is either null or contains an invalid character");
-        }
+        validateDeviceId(device);
 
         // if an explicit name has not been set for the device, use the default one
         String name = getDeviceName(device.getContext());
@@ -227,18 +315,15 @@ public class OSGIDeviceManager implements DeviceManager {
             @Override
             public void run() {
                 // collect its list of variables (for use by the getDeviceVariableNames() method)
-                Collection<DeviceVariableDescriptor> vars = device.getDescriptor().getVariables();
-                if (vars != null) {
-                    for (DeviceVariableDescriptor dv : vars) {
-                        if (!variableNameSet.contains(dv.getContext().getName())) {
-                            variableNameSet.add(dv.getContext().getName());
-                        }
-                    }
-                }
+                addVariableNames(device);
+
+                // a re-published device starts with the values its proxy reports now
+                variableStateTable.invalidate(device.getContext());
 
                 // persist the device description
                 if (deviceStore != null) {
                     deviceStore.saveDevice(device.getDescriptor());
+                    invalidateDeviceSnapshot();
                 }
 
                 try {
@@ -262,6 +347,177 @@ public class OSGIDeviceManager implements DeviceManager {
         });
     }
 
+    @Override
+    public io.netty.util.concurrent.Future publishDevices(final Collection<HobsonDeviceProxy> devices, final Map<DeviceContext,Map<String,Object>> configs, final Runnable runnable) {
+        final long startTime = System.currentTimeMillis();
+        final Promise<Void> promise = new DefaultPromise<>(GlobalEventExecutor.INSTANCE);
+
+        // validate all device IDs before starting any of them
+        for (HobsonDeviceProxy device : devices) {
+            validateDeviceId(device);
+        }
+
+        final List<HobsonDeviceProxy> started = Collections.synchronizedList(new ArrayList<HobsonDeviceProxy>());
+        if (devices.isEmpty()) {
+            completeBatch(started, configs, runnable, startTime, 0, promise);
+            return promise;
+        }
+
+        Map<DeviceContext,String> names = getDeviceNames(devices);
+        final AtomicInteger remaining = new AtomicInteger(devices.size());
+
+        for (final HobsonDeviceProxy device : devices) {
+            String name = names.get(device.getContext());
+            if (name == null) {
+                name = device.getDefaultName();
+            }
+            Map<String,Object> config = (configs != null) ? configs.get(device.getContext()) : null;
+            final AtomicBoolean counted = new AtomicBoolean(false);
+
+            pluginManager.startPluginDevice(device, name, config, new Runnable() {
+                @Override
+                public void run() {
+                    started.add(device);
+                    if (counted.compareAndSet(false, true) && remaining.decrementAndGet() == 0) {
+                        completeBatch(started, configs, runnable, startTime, devices.size(), promise);
+                    }
+                }
+            }).addListener(new GenericFutureListener<io.netty.util.concurrent.Future<Object>>() {
+                @Override
+                public void operationComplete(io.netty.util.concurrent.Future<Object> future) throws Exception {
+                    if (!future.isSuccess()) {
+                        logger.error("Error starting device " + device.getContext(), future.cause());
+                        if (counted.compareAndSet(false, true) && remaining.decrementAndGet() == 0) {
+                            completeBatch(started, configs, runnable, startTime, devices.size(), promise);
+                        }
+                    }
+                }
+            });
+        }
+
+        return promise;
+    }
+
+    /**
+     * Persists and announces the devices of a publishDevices() call once all of them have started (or failed to).
+     */
+    private void completeBatch(final List<HobsonDeviceProxy> devices, Map<DeviceContext,Map<String,Object>> configs, Runnable runnable, long startTime, int requestCount, Promise<Void> promise) {
+        try {
+            List<DeviceContext> ctxs = new ArrayList<>(devices.size());
+            for (HobsonDeviceProxy device : devices) {
+                ctxs.add(device.getContext());
+                addVariableNames(device);
+                variableStateTable.invalidate(device.getContext());
+            }
+
+            // persist all device descriptions in a single transaction
+            if (deviceStore != null) {
+                deviceStore.performTransaction(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (HobsonDeviceProxy device : devices) {
+                            deviceStore.saveDevice(device.getDescriptor());
+                        }
+                    }
+                });
+                invalidateDeviceSnapshot();
+            }
+
+            // persist the device configurations
+            if (configManager != null && configs != null) {
+                Map<DeviceContext,Map<String,Object>> startedConfigs = new HashMap<>();
+                for (DeviceContext dctx : ctxs) {
+                    Map<String,Object> config = configs.get(dctx);
+                    if (config != null && config.size() > 0) {
+                        startedConfigs.put(dctx, config);
+                    }
+                }
+                setDeviceConfigurations(startedConfigs);
+            }
+
+            // post a single event for the whole group
+            if (eventManager != null && !ctxs.isEmpty()) {
+                eventManager.postEvent(HubContext.createLocal(), new DevicesStartedEvent(System.currentTimeMillis(), ctxs));
+            }
+
+            if (runnable != null) {
+                runnable.run();
+            }
+
+            logger.info("Published {} of {} device(s) in {}ms", devices.size(), requestCount, System.currentTimeMillis() - startTime);
+            promise.setSuccess(null);
+        } catch (Throwable t) {
+            logger.error("Error publishing devices", t);
+            promise.setFailure(t);
+        }
+    }
+
+    /**
+     * Writes the configurations of a group of devices, in a single commit when the configuration manager
+     * supports it.
+     *
+     * @param configs the configurations keyed by device context
+     */
+    private void setDeviceConfigurations(Map<DeviceContext,Map<String,Object>> configs) {
+        if (configs.isEmpty()) {
+            return;
+        }
+        if (configManager instanceof MapDBConfigurationManager) {
+            ((MapDBConfigurationManager)configManager).setDeviceConfigurations(configs);
+        } else {
+            for (Map.Entry<DeviceContext,Map<String,Object>> e : configs.entrySet()) {
+                try {
+                    configManager.setDeviceConfigurationProperties(e.getKey(), e.getValue());
+                } catch (NotSerializableException nse) {
+                    logger.error("Unable to save configuration for device " + e.getKey() + ": " + e.getValue(), nse);
+                }
+            }
+        }
+    }
+
+    /**
+     * Looks up the names of a group of devices with one device store query per plugin.
+     *
+     * @param devices the devices
+     *
+     * @return a Map of device context to name (devices without an explicit name are omitted)
+     */
+    private Map<DeviceContext,String> getDeviceNames(Collection<HobsonDeviceProxy> devices) {
+        Map<DeviceContext,String> results = new HashMap<>();
+        if (deviceStore != null) {
+            Set<PluginContext> plugins = new HashSet<>();
+            for (HobsonDeviceProxy device : devices) {
+                plugins.add(device.getContext().getPluginContext());
+            }
+            for (PluginContext pctx : plugins) {
+                for (HobsonDeviceDescriptor dd : deviceStore.getAllDevices(pctx)) {
+                    if (dd.getName() != null) {
+                        results.put(dd.getContext(), dd.getName());
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private void validateDeviceId(HobsonDeviceProxy device) {
+        String deviceId = device.getContext().getDeviceId();
+        if (deviceId == null || deviceId.contains(",") || deviceId.contains(":")) {
+            throw new HobsonRuntimeException("Unable to publish device \"" + deviceId + "\": the ID is either null or contains an invalid character");
+        }
+    }
+
+    private void addVariableNames(HobsonDeviceProxy device) {
+        List<String> names = new ArrayList<>();
+        Collection<DeviceVariableDescriptor> vars = device.getDescriptor().getVariables();
+        if (vars != null) {
+            for (DeviceVariableDescriptor dv : vars) {
+                names.add(dv.getContext().getName());
+            }
+        }
+        variableNameIndex.setDeviceVariables(device.getContext(), names);
+    }
+
     @Override
     public void setDeviceConfigurationProperty(DeviceContext dctx, String name, Object value) {
         try {
@@ -289,12 +545,14 @@ public class OSGIDeviceManager implements DeviceManager {
     @Override
     public void setDeviceName(DeviceContext dctx, String name) {
         deviceStore.setDeviceName(dctx, name);
+        invalidateDeviceSnapshot();
     }
 
     @Override
     public void setDeviceTags(DeviceContext deviceContext, Set<String> set) {
         if (deviceStore != null) {
             deviceStore.setDeviceTags(deviceContext, set);
+            invalidateDeviceSnapshot();
         }
     }
 
@@ -303,7 +561,11 @@ public class OSGIDeviceManager implements DeviceManager {
         if (deviceStore != null) {
             for (DeviceVariableDescriptor dvd : vars) {
                 deviceStore.saveDeviceVariable(dvd);
+                variableNameIndex.addDeviceVariable(dvd.getContext().getDeviceContext(), dvd.getContext().getName());
+                // the descriptor was written without an update event so the table's value may no longer apply
+                variableStateTable.invalidate(dvd.getContext());
             }
+            invalidateDeviceSnapshot();
         }
     }
 
@@ -323,8 +585,26 @@ public class OSGIDeviceManager implements DeviceManager {
         this.pluginManager = pluginManager;
     }
 
+    public VariableNameIndex getVariableNameIndex() {
+        return variableNameIndex;
+    }
+
+    public DeviceVariableStateTable getVariableStateTable() {
+        return variableStateTable;
+    }
+
     public void setDeviceStore(DeviceStore deviceStore) {
         this.deviceStore = deviceStore;
+        invalidateDeviceSnapshot();
+    }
+
+    /**
+     * Discards the current device snapshot and bumps the device version. This must be called after any change to
+     * the devices in the device store.
+     */
+    private void invalidateDeviceSnapshot() {
+        deviceVersion.incrementAndGet();
+        deviceSnapshot = null;
     }
 
     boolean isDeviceAvailable(DeviceContext ctx, long now) {
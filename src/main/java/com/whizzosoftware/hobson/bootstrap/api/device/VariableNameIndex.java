@@ -0,0 +1,165 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.device;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+
+import java.util.*;
+
+/**
+ * A thread-safe inverted index from device variable name to the devices that publish a variable with that name.
+ * A name is only reported as published while at least one device references it.
+ *
+ * Writes are serialized and bump the index version. Readers get an immutable set of names without locking; the
+ * version can be used to tell whether anything derived from the names (e.g. constraint evaluation) is still current.
+ *
+ * @author Dan Noguerol
+ */
+public class VariableNameIndex {
+    private final Map<String,Set<DeviceContext>> nameMap = new HashMap<>();
+    private final Map<DeviceContext,Set<String>> deviceMap = new HashMap<>();
+    private volatile Set<String> names = Collections.emptySet();
+    private volatile long version;
+
+    /**
+     * Replaces the set of variable names published by a device.
+     *
+     * @param dctx the device context
+     * @param variableNames the names of the device's variables
+     */
+    synchronized public void setDeviceVariables(DeviceContext dctx, Collection<String> variableNames) {
+        Set<String> newNames = new HashSet<>(variableNames);
+        Set<String> oldNames = deviceMap.get(dctx);
+        if (oldNames == null || !oldNames.equals(newNames)) {
+            boolean changed = false;
+            if (oldNames != null) {
+                for (String name : oldNames) {
+                    if (!newNames.contains(name)) {
+                        changed |= release(dctx, name);
+                    }
+                }
+            }
+            for (String name : newNames) {
+                if (oldNames == null || !oldNames.contains(name)) {
+                    changed |= acquire(dctx, name);
+                }
+            }
+            if (newNames.isEmpty()) {
+                deviceMap.remove(dctx);
+            } else {
+                deviceMap.put(dctx, newNames);
+            }
+            if (changed) {
+                publish();
+            }
+        }
+    }
+
+    /**
+     * Adds a single variable name to those published by a device.
+     *
+     * @param dctx the device context
+     * @param name the variable name
+     */
+    synchronized public void addDeviceVariable(DeviceContext dctx, String name) {
+        Set<String> s = deviceMap.get(dctx);
+        if (s == null) {
+            s = new HashSet<>();
+            deviceMap.put(dctx, s);
+        }
+        if (s.add(name) && acquire(dctx, name)) {
+            publish();
+        }
+    }
+
+    /**
+     * Removes all variable names published by a device.
+     *
+     * @param dctx the device context
+     */
+    synchronized public void removeDevice(DeviceContext dctx) {
+        Set<String> s = deviceMap.remove(dctx);
+        if (s != null) {
+            boolean changed = false;
+            for (String name : s) {
+                changed |= release(dctx, name);
+            }
+            if (changed) {
+                publish();
+            }
+        }
+    }
+
+    /**
+     * Returns the names of all variables published by at least one device.
+     *
+     * @return an immutable Set of names
+     */
+    public Set<String> getVariableNames() {
+        return names;
+    }
+
+    /**
+     * Returns the number of devices that publish a variable.
+     *
+     * @param name the variable name
+     *
+     * @return the reference count (0 if no device publishes it)
+     */
+    synchronized public int getReferenceCount(String name) {
+        Set<DeviceContext> s = nameMap.get(name);
+        return (s != null) ? s.size() : 0;
+    }
+
+    /**
+     * Returns the devices that publish a variable.
+     *
+     * @param name the variable name
+     *
+     * @return a Set of device contexts (empty if there are none)
+     */
+    synchronized public Set<DeviceContext> getDeviceContexts(String name) {
+        Set<DeviceContext> s = nameMap.get(name);
+        return (s != null) ? new HashSet<>(s) : Collections.<DeviceContext>emptySet();
+    }
+
+    /**
+     * Returns the index version. This changes whenever the set of published variable names changes.
+     *
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    private boolean acquire(DeviceContext dctx, String name) {
+        Set<DeviceContext> s = nameMap.get(name);
+        if (s == null) {
+            s = new HashSet<>();
+            nameMap.put(name, s);
+        }
+        s.add(dctx);
+        return (s.size() == 1);
+    }
+
+    private boolean release(DeviceContext dctx, String name) {
+        Set<DeviceContext> s = nameMap.get(name);
+        if (s != null && s.remove(dctx) && s.isEmpty()) {
+            nameMap.remove(name);
+            return true;
+        }
+        return false;
+    }
+
+    private void publish() {
+        names = Collections.unmodifiableSet(new HashSet<>(nameMap.keySet()));
+        version++;
+    }
+}
@@ -12,40 +12,98 @@ package com.whizzosoftware.hobson.bootstrap.api.device.store;
 import com.whizzosoftware.hobson.api.device.DeviceContext;
 import com.whizzosoftware.hobson.api.device.HobsonDeviceDescriptor;
 import com.whizzosoftware.hobson.api.hub.HubContext;
+import com.whizzosoftware.hobson.api.persist.CollectionPersister;
+import com.whizzosoftware.hobson.api.persist.ContextPathIdProvider;
 import com.whizzosoftware.hobson.api.plugin.PluginContext;
 import com.whizzosoftware.hobson.api.variable.DeviceVariableDescriptor;
+import com.whizzosoftware.hobson.bootstrap.util.LRUCache;
+import com.whizzosoftware.hobson.bootstrap.util.LatencyHistogram;
+import com.whizzosoftware.hobson.bootstrap.util.MemoryCollectionPersistenceContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.ref.SoftReference;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.util.*;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * A DeviceStore implementation that wrappers an existing device store to provide weakly-referenced caching
- * of HobsonDeviceDescriptor objects. It makes the optimization assumption that it will only be used as the
- * wrapper for a local hub.
+ * A DeviceStore implementation that wrappers an existing device store to provide caching of HobsonDeviceDescriptor
+ * objects. Descriptors are held in a size-bounded LRU cache (the deviceCacheSize hub configuration property or
+ * hobson.deviceStore.cacheSize) so eviction is gradual and predictable rather than all at once under heap pressure.
+ * Device contexts are kept in a DeviceIndex so lookups by context, plugin and tag don't require a scan or a trip to
+ * the underlying store. It makes the optimization assumption that it will only be used as the wrapper for a local
+ * hub.
+ *
+ * Cached descriptors are copy-on-write: a change to a device replaces its cached descriptor with a changed copy so
+ * descriptors that have already been returned to callers never change underneath them.
+ *
+ * Writes to the underlying store are performed by a write-behind thread. Pending changes are coalesced per device
+ * so only the latest state of each is written and are flushed in batches, each of which is a single transaction
+ * of the underlying store. A batch is flushed when it reaches the maximum batch size (hobson.deviceStore.maxBatchSize)
+ * or when its oldest change reaches the maximum latency (hobson.deviceStore.maxBatchLatency, in milliseconds).
+ * Changes made within performTransaction() are held until the transaction ends and are then written together in a
+ * single batch regardless of the maximum batch size.
  *
  * @author Dan Noguerol
  */
-public class CachingLocalDeviceStore implements DeviceStore, Runnable {
+public class CachingLocalDeviceStore implements DeviceStore, CachingLocalDeviceStoreMXBean, Runnable {
     private static final Logger logger = LoggerFactory.getLogger(CachingLocalDeviceStore.class);
 
+    public static final String OBJECT_NAME = "com.whizzosoftware.hobson:type=DeviceStore";
+    public static final String PROP_MAX_BATCH_SIZE = "hobson.deviceStore.maxBatchSize";
+    public static final String PROP_MAX_BATCH_LATENCY = "hobson.deviceStore.maxBatchLatency";
+    public static final String PROP_CACHE_SIZE = "hobson.deviceStore.cacheSize";
+    /**
+     * The hub configuration property for the descriptor cache size. It takes precedence over PROP_CACHE_SIZE.
+     */
+    public static final String CONFIG_CACHE_SIZE = "deviceCacheSize";
+
+    private static final long STOP_TIMEOUT = 10000;
+
     private DeviceStore deviceStore;
-    private final List<DeviceContext> devices = Collections.synchronizedList(new ArrayList<DeviceContext>());
-    private final Map<DeviceContext,SoftReference<HobsonDeviceDescriptor>> deviceMap = Collections.synchronizedMap(new HashMap<DeviceContext,SoftReference<HobsonDeviceDescriptor>>());
-    private final BlockingQueue<Runnable> saveQueue = new LinkedBlockingDeque<>();
+    private final DeviceIndex index = new DeviceIndex();
+    private final LRUCache<DeviceContext,HobsonDeviceDescriptor> deviceCache;
+    private final LinkedHashMap<DeviceContext,PendingWrite> pendingWrites = new LinkedHashMap<>();
+    private List<PendingWrite> inFlightWrites = Collections.emptyList();
+    private final int maxBatchSize;
+    private final long maxBatchLatency;
+    private long firstPendingTime;
+    private int transactionDepth;
+    private boolean flushAll;
+    private volatile boolean stopping;
     private Thread saveThread;
 
+    private final AtomicLong mutationCount = new AtomicLong();
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private volatile int lastBatchSize;
+    private final LatencyHistogram commitLatency = new LatencyHistogram();
+
     public CachingLocalDeviceStore(DeviceStore deviceStore) {
+        this(deviceStore, Integer.parseInt(System.getProperty(PROP_MAX_BATCH_SIZE, "100")), Long.parseLong(System.getProperty(PROP_MAX_BATCH_LATENCY, "250")));
+    }
+
+    public CachingLocalDeviceStore(DeviceStore deviceStore, int cacheSize) {
+        this(deviceStore, Integer.parseInt(System.getProperty(PROP_MAX_BATCH_SIZE, "100")), Long.parseLong(System.getProperty(PROP_MAX_BATCH_LATENCY, "250")), cacheSize);
+    }
+
+    public CachingLocalDeviceStore(DeviceStore deviceStore, int maxBatchSize, long maxBatchLatency) {
+        this(deviceStore, maxBatchSize, maxBatchLatency, getDefaultCacheSize());
+    }
+
+    public CachingLocalDeviceStore(DeviceStore deviceStore, int maxBatchSize, long maxBatchLatency, int cacheSize) {
         // populate initial cache
         this.deviceStore = deviceStore;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxBatchLatency = maxBatchLatency;
+        this.deviceCache = new LRUCache<>(cacheSize);
 
-        synchronized (devices) {
-            for (HobsonDeviceDescriptor dd : deviceStore.getAllDevices(HubContext.createLocal())) {
-                devices.add(dd.getContext());
-                deviceMap.put(dd.getContext(), new SoftReference<>(dd));
+        for (HobsonDeviceDescriptor dd : deviceStore.getAllDevices(HubContext.createLocal())) {
+            index.add(dd.getContext(), dd.getTags());
+            if (deviceCache.size() < deviceCache.getCapacity()) {
+                deviceCache.put(dd.getContext(), dd);
             }
         }
 
@@ -54,36 +112,120 @@ public class CachingLocalDeviceStore implements DeviceStore, Runnable {
     }
 
     public void run() {
-        try {
-            while (true) {
-                Runnable r = saveQueue.take();
-                logger.trace("Processing save queue");
-                r.run();
+        while (true) {
+            List<PendingWrite> batch = new ArrayList<>();
+
+            synchronized (pendingWrites) {
+                try {
+                    while (!stopping) {
+                        // wait for something to write and for any open transaction to end
+                        if (pendingWrites.isEmpty() || transactionDepth > 0) {
+                            pendingWrites.wait();
+                            continue;
+                        }
+                        if (flushAll || pendingWrites.size() >= maxBatchSize) {
+                            break;
+                        }
+                        // give the batch a chance to fill up
+                        long wait = firstPendingTime + maxBatchLatency - System.currentTimeMillis();
+                        if (wait <= 0) {
+                            break;
+                        }
+                        pendingWrites.wait(wait);
+                    }
+                } catch (InterruptedException e) {
+                    stopping = true;
+                }
+
+                if (pendingWrites.isEmpty()) {
+                    // only possible when stopping
+                    break;
+                }
+
+                // a completed transaction is written as a single batch
+                int limit = flushAll ? Integer.MAX_VALUE : maxBatchSize;
+                flushAll = false;
+                Iterator<PendingWrite> it = pendingWrites.values().iterator();
+                while (it.hasNext() && batch.size() < limit) {
+                    batch.add(it.next());
+                    it.remove();
+                }
+                inFlightWrites = batch;
+            }
+
+            writeBatch(batch);
+
+            synchronized (pendingWrites) {
+                inFlightWrites = Collections.emptyList();
+                // wake any flush() callers
+                pendingWrites.notifyAll();
             }
-        } catch (InterruptedException ignored) {}
+        }
+        logger.debug("Device store write-behind thread has stopped");
     }
 
     @Override
     public void start() {
         deviceStore.start();
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            logger.warn("Unable to register device store MBean", e);
+        }
+    }
+
+    /**
+     * Writes all pending changes to the underlying store and flushes it. Changes made within a transaction that is
+     * still open are written when it ends rather than by this call.
+     */
+    @Override
+    public void flush() {
+        synchronized (pendingWrites) {
+            try {
+                while ((!pendingWrites.isEmpty() || !inFlightWrites.isEmpty()) && transactionDepth == 0 && !stopping && saveThread.isAlive()) {
+                    // write everything pending as one batch rather than waiting for it to fill up
+                    if (!pendingWrites.isEmpty()) {
+                        flushAll = true;
+                        pendingWrites.notifyAll();
+                    }
+                    pendingWrites.wait(STOP_TIMEOUT);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        deviceStore.flush();
     }
 
     @Override
     public void stop() {
+        // let the write-behind thread drain any pending writes before stopping the underlying store
+        synchronized (pendingWrites) {
+            stopping = true;
+            pendingWrites.notifyAll();
+        }
+        try {
+            saveThread.join(STOP_TIMEOUT);
+            if (saveThread.isAlive()) {
+                logger.error("Timed out waiting for {} pending device write(s) to complete", getPendingWriteCount());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            logger.debug("Unable to unregister device store MBean", e);
+        }
         deviceStore.stop();
-        saveThread.interrupt();
     }
 
     @Override
     public Collection<HobsonDeviceDescriptor> getAllDevices(HubContext ctx) {
         if (ctx.isLocal()) {
-            List<HobsonDeviceDescriptor> results = new ArrayList<>();
-            synchronized (devices) {
-                for (DeviceContext dctx : devices) {
-                    results.add(getDevice(dctx));
-                }
-            }
-            return results;
+            Collection<DeviceContext> ctxs = index.getDeviceContexts();
+            return (ctxs.size() <= deviceCache.getCapacity()) ? getDevices(ctxs) : listDevices(ctxs, ctx, null);
         } else {
             return new ArrayList<>();
         }
@@ -92,15 +234,8 @@ public class CachingLocalDeviceStore implements DeviceStore, Runnable {
     @Override
     public Collection<HobsonDeviceDescriptor> getAllDevices(PluginContext ctx) {
         if (ctx.getHubContext().isLocal()) {
-            List<HobsonDeviceDescriptor> results = new ArrayList<>();
-            synchronized (devices) {
-                for (DeviceContext dctx : devices) {
-                    if (dctx.getPluginContext().equals(ctx)) {
-                        results.add(getDevice(dctx));
-                    }
-                }
-            }
-            return results;
+            Collection<DeviceContext> ctxs = index.getDeviceContexts(ctx);
+            return (ctxs.size() <= deviceCache.getCapacity()) ? getDevices(ctxs) : listDevices(ctxs, null, ctx);
         } else {
             return new ArrayList<>();
         }
@@ -108,27 +243,62 @@ public class CachingLocalDeviceStore implements DeviceStore, Runnable {
 
     @Override
     public Collection<DeviceContext> getAllDeviceContextsWithTag(HubContext hctx, String tag) {
-        return deviceStore.getAllDeviceContextsWithTag(hctx, tag);
+        if (hctx.isLocal()) {
+            return index.getDeviceContextsWithTag(tag);
+        } else {
+            return new ArrayList<>();
+        }
     }
 
     @Override
     public boolean hasDevice(DeviceContext ctx) {
-        return devices.contains(ctx);
+        return index.contains(ctx);
     }
 
     @Override
-    public void performHousekeeping() {
-        deviceStore.performHousekeeping();
+    public void performTransaction(Runnable r) {
+        // hold the changes back from the write-behind thread until the transaction ends so they're written together
+        synchronized (pendingWrites) {
+            transactionDepth++;
+        }
+        try {
+            r.run();
+        } finally {
+            synchronized (pendingWrites) {
+                if (--transactionDepth == 0 && !pendingWrites.isEmpty()) {
+                    flushAll = true;
+                    pendingWrites.notifyAll();
+                }
+            }
+        }
     }
 
     @Override
     public HobsonDeviceDescriptor getDevice(DeviceContext ctx) {
-        SoftReference<HobsonDeviceDescriptor> r = deviceMap.get(ctx);
-        HobsonDeviceDescriptor dd = (r != null) ? r.get() : null;
+        HobsonDeviceDescriptor dd = deviceCache.get(ctx);
         if (dd == null) {
-            dd = getDeviceInternal(ctx);
-            if (dd != null) {
-                deviceMap.put(ctx, new SoftReference<>(dd));
+            // the underlying store is read while holding the pending writes lock so that changes which haven't
+            // been written yet can be re-applied to the descriptor it returns; the result is cached under the same
+            // lock so that a save or delete can't land between the read and the put and be overwritten
+            synchronized (pendingWrites) {
+                // another thread may have cached it while this one waited for the lock
+                HobsonDeviceDescriptor cached = deviceCache.peek(ctx);
+                if (cached != null) {
+                    return cached;
+                }
+                dd = getDeviceInternal(ctx);
+                for (PendingWrite pw : inFlightWrites) {
+                    if (pw.ctx.equals(ctx)) {
+                        dd = pw.applyTo(dd);
+                    }
+                }
+                PendingWrite pw = pendingWrites.get(ctx);
+                if (pw != null) {
+                    dd = pw.applyTo(dd);
+                }
+                if (dd != null && index.contains(ctx)) {
+                    deviceCache.put(ctx, dd);
+                }
             }
         }
         return dd;
@@ -149,80 +319,371 @@ public class CachingLocalDeviceStore implements DeviceStore, Runnable {
     @Override
     public void saveDevice(final HobsonDeviceDescriptor device) {
         logger.trace("saveDevice: {}", device.getContext());
-        synchronized (devices) {
-            if (!devices.contains(device.getContext())) {
-                devices.add(device.getContext());
-                deviceMap.put(device.getContext(), new SoftReference<>(device));
-            }
+        // the caller keeps its instance so the cache holds a copy that nothing else can change
+        HobsonDeviceDescriptor copy = copyDevice(device);
+        synchronized (pendingWrites) {
+            index.add(device.getContext(), device.getTags());
+            deviceCache.put(device.getContext(), copy);
+            getPendingWrite(device.getContext()).setDevice(device);
         }
-        saveQueue.add(new Runnable() {
-            @Override
-            public void run() {
-                deviceStore.saveDevice(device);
-            }
-        });
     }
 
     @Override
     public void saveDeviceVariable(final DeviceVariableDescriptor dvd) {
         logger.trace("saveDeviceVariable: {}", dvd.getContext());
-        HobsonDeviceDescriptor dd = getDevice(dvd.getContext().getDeviceContext());
-        if (dd != null) {
-            dd.setVariableDescriptor(dvd);
+        DeviceContext dctx = dvd.getContext().getDeviceContext();
+        synchronized (pendingWrites) {
+            HobsonDeviceDescriptor dd = copyCachedDevice(dctx);
+            if (dd != null) {
+                dd.setVariableDescriptor(dvd);
+                deviceCache.put(dctx, dd);
+            }
+            getPendingWrite(dctx).setVariable(dvd);
         }
-        saveQueue.add(new Runnable() {
-                @Override
-                public void run() {
-                    deviceStore.saveDeviceVariable(dvd);
-                }
-            });
     }
 
     @Override
     public void setDeviceName(final DeviceContext dctx, final String name) {
         logger.trace("setDeviceName {}: {}", dctx, name);
-        HobsonDeviceDescriptor dd = getDevice(dctx);
-        if (dd != null) {
-            dd.setName(name);
-        }
-        saveQueue.add(new Runnable() {
-            @Override
-            public void run() {
-                deviceStore.setDeviceName(dctx, name);
+        synchronized (pendingWrites) {
+            HobsonDeviceDescriptor dd = copyCachedDevice(dctx);
+            if (dd != null) {
+                dd.setName(name);
+                deviceCache.put(dctx, dd);
             }
-        });
+            getPendingWrite(dctx).setName(name);
+        }
     }
 
     @Override
     public void setDeviceTags(final DeviceContext dctx, final Set<String> tags) {
         logger.trace("setDeviceTags {}: {}", dctx, tags);
-        HobsonDeviceDescriptor dd = getDevice(dctx);
-        if (dd != null) {
-            dd.setTags(tags);
-        }
-        saveQueue.add(new Runnable() {
-            @Override
-            public void run() {
-                deviceStore.setDeviceTags(dctx, tags);
+        synchronized (pendingWrites) {
+            HobsonDeviceDescriptor dd = copyCachedDevice(dctx);
+            if (dd != null) {
+                dd.setTags(tags);
+                deviceCache.put(dctx, dd);
             }
-        });
+            index.setTags(dctx, tags);
+            getPendingWrite(dctx).setTags(tags);
+        }
     }
 
     @Override
     public void deleteDevice(final DeviceContext ctx) {
-        synchronized (devices) {
-            devices.remove(ctx);
-            deviceMap.remove(ctx);
+        synchronized (pendingWrites) {
+            index.remove(ctx);
+            deviceCache.remove(ctx);
+            getPendingWrite(ctx).delete();
         }
-        saveQueue.add(new Runnable() {
-            @Override
-            public void run() {
-                deviceStore.deleteDevice(ctx);
+    }
+
+    @Override
+    public int getPendingWriteCount() {
+        synchronized (pendingWrites) {
+            return pendingWrites.size();
+        }
+    }
+
+    @Override
+    public long getMutationCount() {
+        return mutationCount.get();
+    }
+
+    @Override
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    @Override
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    @Override
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    @Override
+    public long getCommitTimeP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(commitLatency.getValueAtPercentile(99.0));
+    }
+
+    @Override
+    public long getCommitTimeMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(commitLatency.getMax());
+    }
+
+    @Override
+    public int getCacheSize() {
+        return deviceCache.size();
+    }
+
+    @Override
+    public int getCacheCapacity() {
+        return deviceCache.getCapacity();
+    }
+
+    @Override
+    public long getCacheHitCount() {
+        return deviceCache.getHitCount();
+    }
+
+    @Override
+    public long getCacheMissCount() {
+        return deviceCache.getMissCount();
+    }
+
+    @Override
+    public long getCacheEvictionCount() {
+        return deviceCache.getEvictionCount();
+    }
+
+    public LatencyHistogram getCommitLatency() {
+        return commitLatency;
+    }
+
+    /**
+     * Returns the pending write for a device, creating it if necessary. This must be called while holding the
+     * pendingWrites lock.
+     *
+     * @param ctx the device context
+     *
+     * @return a PendingWrite instance
+     */
+    private PendingWrite getPendingWrite(DeviceContext ctx) {
+        mutationCount.incrementAndGet();
+        PendingWrite pw = pendingWrites.get(ctx);
+        if (pw == null) {
+            pw = new PendingWrite(ctx);
+            pendingWrites.put(ctx, pw);
+            if (pendingWrites.size() == 1) {
+                firstPendingTime = System.currentTimeMillis();
+                pendingWrites.notifyAll();
+            }
+        }
+        if (pendingWrites.size() >= maxBatchSize) {
+            pendingWrites.notifyAll();
+        }
+        return pw;
+    }
+
+    private void writeBatch(final List<PendingWrite> batch) {
+        logger.trace("Writing {} pending device change(s)", batch.size());
+        long start = System.nanoTime();
+        try {
+            deviceStore.performTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    for (PendingWrite pw : batch) {
+                        try {
+                            pw.write(deviceStore);
+                        } catch (Throwable t) {
+                            logger.error("Error writing device " + pw.ctx, t);
+                        }
+                    }
+                }
+            });
+        } catch (Throwable t) {
+            logger.error("Error committing device changes", t);
+        }
+        commitLatency.record(System.nanoTime() - start);
+        writeCount.addAndGet(batch.size());
+        batchCount.incrementAndGet();
+        lastBatchSize = batch.size();
+    }
+
+    private Collection<HobsonDeviceDescriptor> getDevices(Collection<DeviceContext> ctxs) {
+        List<HobsonDeviceDescriptor> results = new ArrayList<>(ctxs.size());
+        for (DeviceContext dctx : ctxs) {
+            HobsonDeviceDescriptor dd = getDevice(dctx);
+            if (dd != null) {
+                results.add(dd);
             }
-        });
+        }
+        return results;
+    }
+
+    /**
+     * Lists devices with a single read of the underlying store rather than through the cache. This is used when a
+     * listing is larger than the cache so that it doesn't evict every cached device.
+     *
+     * @param ctxs the device contexts to list
+     * @param hctx the hub context to read from the underlying store (or null)
+     * @param pctx the plugin context to read from the underlying store (or null)
+     *
+     * @return a Collection of HobsonDeviceDescriptor instances
+     */
+    private Collection<HobsonDeviceDescriptor> listDevices(Collection<DeviceContext> ctxs, HubContext hctx, PluginContext pctx) {
+        List<HobsonDeviceDescriptor> results = new ArrayList<>(ctxs.size());
+        synchronized (pendingWrites) {
+            Map<DeviceContext,HobsonDeviceDescriptor> stored = new HashMap<>();
+            for (HobsonDeviceDescriptor dd : (hctx != null) ? deviceStore.getAllDevices(hctx) : deviceStore.getAllDevices(pctx)) {
+                stored.put(dd.getContext(), dd);
+            }
+            Map<DeviceContext,PendingWrite> inFlight = new HashMap<>();
+            for (PendingWrite pw : inFlightWrites) {
+                inFlight.put(pw.ctx, pw);
+            }
+            for (DeviceContext dctx : ctxs) {
+                HobsonDeviceDescriptor dd = stored.get(dctx);
+                PendingWrite pw = inFlight.get(dctx);
+                if (pw != null) {
+                    dd = pw.applyTo(dd);
+                }
+                pw = pendingWrites.get(dctx);
+                if (pw != null) {
+                    dd = pw.applyTo(dd);
+                }
+                if (dd != null) {
+                    results.add(dd);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns a copy of a device's cached descriptor for a change to be applied to. Cached descriptors are never
+     * changed in place since they may already have been handed to readers (e.g. in a device snapshot). Devices that
+     * aren't cached are left alone; the pending change is applied when they're next read from the underlying store.
+     * This must be called while holding the pendingWrites lock.
+     *
+     * @param dctx the device context
+     *
+     * @return a copy of the cached descriptor (or null if it isn't cached)
+     */
+    private HobsonDeviceDescriptor copyCachedDevice(DeviceContext dctx) {
+        HobsonDeviceDescriptor dd = deviceCache.peek(dctx);
+        return (dd != null) ? copyDevice(dd) : null;
+    }
+
+    /**
+     * Creates a deep copy of a device descriptor by capturing what a CollectionPersister would write for it and
+     * restoring a new descriptor from that.
+     *
+     * @param dd the descriptor to copy
+     *
+     * @return a new HobsonDeviceDescriptor instance
+     */
+    static HobsonDeviceDescriptor copyDevice(HobsonDeviceDescriptor dd) {
+        CollectionPersister persister = new CollectionPersister(new ContextPathIdProvider());
+        MemoryCollectionPersistenceContext ctx = new MemoryCollectionPersistenceContext();
+        persister.saveDevice(ctx, dd, false);
+        return persister.restoreDevice(ctx, dd.getContext());
+    }
+
+    /**
+     * Returns the descriptor cache size to use when none is specified.
+     *
+     * @return the value of PROP_CACHE_SIZE or 1000 if it isn't set
+     */
+    static public int getDefaultCacheSize() {
+        return Integer.parseInt(System.getProperty(PROP_CACHE_SIZE, "1000"));
     }
 
     private HobsonDeviceDescriptor getDeviceInternal(DeviceContext dctx) {
         return deviceStore.getDevice(dctx);
     }
+
+    /**
+     * The coalesced changes to a single device that have not yet been written. Changes are written in the order
+     * delete, device, variables, name, tags which produces the same end state as replaying them individually.
+     */
+    static class PendingWrite {
+        final DeviceContext ctx;
+        boolean delete;
+        HobsonDeviceDescriptor device;
+        final Map<String,DeviceVariableDescriptor> variables = new LinkedHashMap<>();
+        boolean hasName;
+        String name;
+        boolean hasTags;
+        Set<String> tags;
+
+        PendingWrite(DeviceContext ctx) {
+            this.ctx = ctx;
+        }
+
+        void delete() {
+            delete = true;
+            clear();
+        }
+
+        void setDevice(HobsonDeviceDescriptor device) {
+            // a full save supersedes any earlier changes
+            clear();
+            this.device = device;
+        }
+
+        void setVariable(DeviceVariableDescriptor dvd) {
+            variables.put(dvd.getContext().getName(), dvd);
+        }
+
+        void setName(String name) {
+            this.hasName = true;
+            this.name = name;
+        }
+
+        void setTags(Set<String> tags) {
+            this.hasTags = true;
+            this.tags = tags;
+        }
+
+        /**
+         * Applies these changes to a descriptor read from the underlying store.
+         *
+         * @param dd the descriptor (or null if the store has no such device)
+         *
+         * @return the resulting descriptor (or null if the device doesn't exist)
+         */
+        HobsonDeviceDescriptor applyTo(HobsonDeviceDescriptor dd) {
+            if (delete) {
+                dd = null;
+            }
+            if (device != null) {
+                // the saved descriptor belongs to the caller so changes are applied to a copy of it
+                dd = copyDevice(device);
+            }
+            if (dd != null) {
+                for (DeviceVariableDescriptor dvd : variables.values()) {
+                    dd.setVariableDescriptor(dvd);
+                }
+                if (hasName) {
+                    dd.setName(name);
+                }
+                if (hasTags) {
+                    dd.setTags(tags);
+                }
+            }
+            return dd;
+        }
+
+        void write(DeviceStore store) {
+            if (delete) {
+                store.deleteDevice(ctx);
+            }
+            if (device != null) {
+                store.saveDevice(device);
+            }
+            for (DeviceVariableDescriptor dvd : variables.values()) {
+                store.saveDeviceVariable(dvd);
+            }
+            if (hasName) {
+                store.setDeviceName(ctx, name);
+            }
+            if (hasTags) {
+                store.setDeviceTags(ctx, tags);
+            }
+        }
+
+        private void clear() {
+            device = null;
+            variables.clear();
+            hasName = false;
+            name = null;
+            hasTags = false;
+            tags = null;
+        }
+    }
 }
@@ -0,0 +1,77 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.device.store;
+
+/**
+ * The JMX management interface for the caching device store's descriptor cache and write-behind queue.
+ *
+ * @author Dan Noguerol
+ */
+public interface CachingLocalDeviceStoreMXBean {
+    /**
+     * Returns the number of devices with changes that have not yet been written.
+     */
+    int getPendingWriteCount();
+
+    /**
+     * Returns the total number of device changes received.
+     */
+    long getMutationCount();
+
+    /**
+     * Returns the total number of coalesced device writes performed.
+     */
+    long getWriteCount();
+
+    /**
+     * Returns the number of batches (transactions) written.
+     */
+    long getBatchCount();
+
+    /**
+     * Returns the number of device writes in the most recent batch.
+     */
+    int getLastBatchSize();
+
+    /**
+     * Returns the 99th percentile batch write and commit time in microseconds.
+     */
+    long getCommitTimeP99Micros();
+
+    /**
+     * Returns the maximum batch write and commit time in microseconds.
+     */
+    long getCommitTimeMaxMicros();
+
+    /**
+     * Returns the number of device descriptors currently cached.
+     */
+    int getCacheSize();
+
+    /**
+     * Returns the maximum number of device descriptors that can be cached.
+     */
+    int getCacheCapacity();
+
+    /**
+     * Returns the number of descriptor lookups served from the cache.
+     */
+    long getCacheHitCount();
+
+    /**
+     * Returns the number of descriptor lookups that weren't in the cache.
+     */
+    long getCacheMissCount();
+
+    /**
+     * Returns the number of descriptors evicted from the cache to make room for others.
+     */
+    long getCacheEvictionCount();
+}
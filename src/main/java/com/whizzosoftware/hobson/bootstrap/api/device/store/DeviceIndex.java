@@ -0,0 +1,142 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.device.store;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+import com.whizzosoftware.hobson.api.plugin.PluginContext;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An in-memory index of device contexts with secondary indexes by plugin and by tag. Reads are lock-free and
+ * weakly consistent; mutations are serialized so the primary and secondary indexes always agree.
+ *
+ * @author Dan Noguerol
+ */
+public class DeviceIndex {
+    private final ConcurrentMap<DeviceContext,Set<String>> devices = new ConcurrentHashMap<>();
+    private final ConcurrentMap<PluginContext,Set<DeviceContext>> pluginIndex = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String,Set<DeviceContext>> tagIndex = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+
+    /**
+     * Adds a device to the index or updates its tags if it is already present.
+     *
+     * @param ctx the device context
+     * @param tags the device's tags (or null)
+     *
+     * @return true if the device was not previously indexed
+     */
+    public boolean add(DeviceContext ctx, Set<String> tags) {
+        synchronized (writeLock) {
+            boolean added = !devices.containsKey(ctx);
+            if (added) {
+                devices.put(ctx, Collections.<String>emptySet());
+                getOrCreate(pluginIndex, ctx.getPluginContext()).add(ctx);
+            }
+            setTags(ctx, tags);
+            return added;
+        }
+    }
+
+    /**
+     * Removes a device from the index.
+     *
+     * @param ctx the device context
+     *
+     * @return true if the device was indexed
+     */
+    public boolean remove(DeviceContext ctx) {
+        synchronized (writeLock) {
+            Set<String> tags = devices.remove(ctx);
+            if (tags != null) {
+                removeFrom(pluginIndex, ctx.getPluginContext(), ctx);
+                for (String tag : tags) {
+                    removeFrom(tagIndex, tag, ctx);
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Replaces the tags of an indexed device. This is a no-op if the device is not indexed.
+     *
+     * @param ctx the device context
+     * @param tags the new tags (or null)
+     */
+    public void setTags(DeviceContext ctx, Set<String> tags) {
+        synchronized (writeLock) {
+            Set<String> oldTags = devices.get(ctx);
+            if (oldTags != null) {
+                Set<String> newTags = (tags != null && tags.size() > 0) ? Collections.unmodifiableSet(new HashSet<>(tags)) : Collections.<String>emptySet();
+                for (String tag : oldTags) {
+                    if (!newTags.contains(tag)) {
+                        removeFrom(tagIndex, tag, ctx);
+                    }
+                }
+                for (String tag : newTags) {
+                    getOrCreate(tagIndex, tag).add(ctx);
+                }
+                devices.put(ctx, newTags);
+            }
+        }
+    }
+
+    public boolean contains(DeviceContext ctx) {
+        return devices.containsKey(ctx);
+    }
+
+    public int size() {
+        return devices.size();
+    }
+
+    public Set<String> getTags(DeviceContext ctx) {
+        return devices.get(ctx);
+    }
+
+    public Collection<DeviceContext> getDeviceContexts() {
+        return new ArrayList<>(devices.keySet());
+    }
+
+    public Collection<DeviceContext> getDeviceContexts(PluginContext ctx) {
+        return copy(pluginIndex.get(ctx));
+    }
+
+    public Collection<DeviceContext> getDeviceContextsWithTag(String tag) {
+        return copy(tagIndex.get(tag));
+    }
+
+    private Collection<DeviceContext> copy(Set<DeviceContext> s) {
+        return s != null ? new ArrayList<>(s) : new ArrayList<DeviceContext>();
+    }
+
+    private <K> Set<DeviceContext> getOrCreate(ConcurrentMap<K,Set<DeviceContext>> map, K key) {
+        Set<DeviceContext> s = map.get(key);
+        if (s == null) {
+            s = Collections.newSetFromMap(new ConcurrentHashMap<DeviceContext,Boolean>());
+            map.put(key, s);
+        }
+        return s;
+    }
+
+    private <K> void removeFrom(ConcurrentMap<K,Set<DeviceContext>> map, K key, DeviceContext ctx) {
+        Set<DeviceContext> s = map.get(key);
+        if (s != null) {
+            s.remove(ctx);
+            if (s.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.device.store;
+
+import com.whizzosoftware.hobson.api.HobsonRuntimeException;
+import com.whizzosoftware.hobson.bootstrap.util.MemoryCollectionPersistenceContext;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Encodes the collections a CollectionPersister writes for a single device as one compact binary record.
+ *
+ * A record starts with a format version byte followed by the device's maps and sets. Strings, numbers, booleans
+ * and nested HashMaps, HashSets and ArrayLists are written with a one byte type tag; any other value (including
+ * other collection types, so they're restored as the same type) falls back to Java serialization.
+ *
+ * @author Dan Noguerol
+ */
+public class DeviceRecordCodec {
+    public static final int FORMAT_VERSION = 1;
+
+    private static final int TYPE_NULL = 0;
+    private static final int TYPE_STRING = 1;
+    private static final int TYPE_INTEGER = 2;
+    private static final int TYPE_LONG = 3;
+    private static final int TYPE_BOOLEAN = 4;
+    private static final int TYPE_DOUBLE = 5;
+    private static final int TYPE_MAP = 6;
+    private static final int TYPE_LIST = 7;
+    private static final int TYPE_SET = 8;
+    private static final int TYPE_SERIALIZED = 9;
+
+    /**
+     * The longest string that is guaranteed to fit in DataOutput.writeUTF().
+     */
+    private static final int MAX_UTF_LENGTH = 65535 / 3;
+
+    static public byte[] encode(MemoryCollectionPersistenceContext ctx) {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(baos);
+            out.writeByte(FORMAT_VERSION);
+            out.writeInt(ctx.getMaps().size());
+            for (Map.Entry<String,Map<String,Object>> e : ctx.getMaps().entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue().size());
+                for (Map.Entry<String,Object> e2 : e.getValue().entrySet()) {
+                    out.writeUTF(e2.getKey());
+                    writeValue(out, e2.getValue());
+                }
+            }
+            out.writeInt(ctx.getSets().size());
+            for (Map.Entry<String,Set<Object>> e : ctx.getSets().entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue().size());
+                for (Object o : e.getValue()) {
+                    writeValue(out, o);
+                }
+            }
+            out.flush();
+            return baos.toByteArray();
+        } catch (IOException e) {
+            throw new HobsonRuntimeException("Error encoding device record", e);
+        }
+    }
+
+    static public MemoryCollectionPersistenceContext decode(byte[] record) {
+        MemoryCollectionPersistenceContext ctx = new MemoryCollectionPersistenceContext();
+        if (record != null) {
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+                int version = in.readUnsignedByte();
+                if (version != FORMAT_VERSION) {
+                    throw new HobsonRuntimeException("Unsupported device record version: " + version);
+                }
+                int mapCount = in.readInt();
+                for (int i=0; i < mapCount; i++) {
+                    Map<String,Object> map = ctx.getMap(in.readUTF());
+                    int size = in.readInt();
+                    for (int j=0; j < size; j++) {
+                        String key = in.readUTF();
+                        map.put(key, readValue(in));
+                    }
+                }
+                int setCount = in.readInt();
+                for (int i=0; i < setCount; i++) {
+                    Set<Object> set = ctx.getSet(in.readUTF());
+                    int size = in.readInt();
+                    for (int j=0; j < size; j++) {
+                        set.add(readValue(in));
+                    }
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                throw new HobsonRuntimeException("Error decoding device record", e);
+            }
+        }
+        return ctx;
+    }
+
+    static private void writeValue(DataOutputStream out, Object o) throws IOException {
+        if (o == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (o instanceof String && ((String)o).length() <= MAX_UTF_LENGTH) {
+            out.writeByte(TYPE_STRING);
+            out.writeUTF((String)o);
+        } else if (o instanceof Integer) {
+            out.writeByte(TYPE_INTEGER);
+            out.writeInt((Integer)o);
+        } else if (o instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long)o);
+        } else if (o instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean((Boolean)o);
+        } else if (o instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble((Double)o);
+        } else if (o.getClass() == HashMap.class && isStringKeyed((Map)o)) {
+            out.writeByte(TYPE_MAP);
+            Map<?,?> m = (Map)o;
+            out.writeInt(m.size());
+            for (Map.Entry e : m.entrySet()) {
+                out.writeUTF((String)e.getKey());
+                writeValue(out, e.getValue());
+            }
+        } else if (o.getClass() == HashSet.class) {
+            out.writeByte(TYPE_SET);
+            Collection c = (Collection)o;
+            out.writeInt(c.size());
+            for (Object v : c) {
+                writeValue(out, v);
+            }
+        } else if (o.getClass() == ArrayList.class) {
+            out.writeByte(TYPE_LIST);
+            Collection c = (Collection)o;
+            out.writeInt(c.size());
+            for (Object v : c) {
+                writeValue(out, v);
+            }
+        } else {
+            out.writeByte(TYPE_SERIALIZED);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(baos);
+            oos.writeObject(o);
+            oos.close();
+            byte[] b = baos.toByteArray();
+            out.writeInt(b.length);
+            out.write(b);
+        }
+    }
+
+    static private Object readValue(DataInputStream in) throws IOException, ClassNotFoundException {
+        int type = in.readUnsignedByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_STRING:
+                return in.readUTF();
+            case TYPE_INTEGER:
+                return in.readInt();
+            case TYPE_LONG:
+                return in.readLong();
+            case TYPE_BOOLEAN:
+                return in.readBoolean();
+            case TYPE_DOUBLE:
+                return in.readDouble();
+            case TYPE_MAP: {
+                int size = in.readInt();
+                Map<String,Object> m = new HashMap<>();
+                for (int i=0; i < size; i++) {
+                    String key = in.readUTF();
+                    m.put(key, readValue(in));
+                }
+                return m;
+            }
+            case TYPE_LIST: {
+                int size = in.readInt();
+                List<Object> l = new ArrayList<>(size);
+                for (int i=0; i < size; i++) {
+                    l.add(readValue(in));
+                }
+                return l;
+            }
+            case TYPE_SET: {
+                int size = in.readInt();
+                Set<Object> s = new HashSet<>();
+                for (int i=0; i < size; i++) {
+                    s.add(readValue(in));
+                }
+                return s;
+            }
+            case TYPE_SERIALIZED: {
+                byte[] b = new byte[in.readInt()];
+                in.readFully(b);
+                ObjectInputStream ois = new ClassLoaderObjectInputStream(new ByteArrayInputStream(b));
+                try {
+                    return ois.readObject();
+                } finally {
+                    ois.close();
+                }
+            }
+            default:
+                throw new IOException("Unknown value type: " + type);
+        }
+    }
+
+    static private boolean isStringKeyed(Map<?,?> m) {
+        for (Object k : m.keySet()) {
+            if (!(k instanceof String)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Resolves classes with the thread context class loader so that API classes can be found from within OSGi.
+     */
+    static private class ClassLoaderObjectInputStream extends ObjectInputStream {
+        ClassLoaderObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            ClassLoader cl = Thread.currentThread().getContextClassLoader();
+            if (cl != null) {
+                try {
+                    return Class.forName(desc.getName(), false, cl);
+                } catch (ClassNotFoundException ignored) {
+                    // fall through to the default resolution
+                }
+            }
+            return super.resolveClass(desc);
+        }
+    }
+}
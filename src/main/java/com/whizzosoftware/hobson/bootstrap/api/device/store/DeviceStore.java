@@ -97,9 +97,12 @@ public interface DeviceStore {
     boolean hasDevice(DeviceContext ctx);
 
     /**
-     * Allows the device store to perform whatever implementation-specific housekeeping tasks are needed.
+     * Performs a group of store operations as a single transaction. Operations performed by the runnable are not
+     * committed individually; the transaction is committed once the runnable completes.
+     *
+     * @param r the runnable that performs the operations
      */
-    void performHousekeeping();
+    void performTransaction(Runnable r);
 
     /**
      * Publishes a new device.
@@ -131,6 +134,11 @@ public interface DeviceStore {
      */
     void setDeviceTags(DeviceContext ctx, Set<String> tags);
 
+    /**
+     * Commits all changes made so far to the device store. When this returns they are durable.
+     */
+    void flush();
+
     /**
      * Start the device store.
      */
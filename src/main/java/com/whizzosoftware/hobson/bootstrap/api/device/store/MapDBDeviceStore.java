@@ -17,31 +17,71 @@ import com.whizzosoftware.hobson.api.persist.CollectionPersister;
 import com.whizzosoftware.hobson.api.persist.ContextPathIdProvider;
 import com.whizzosoftware.hobson.api.persist.IdProvider;
 import com.whizzosoftware.hobson.api.plugin.PluginContext;
+import com.whizzosoftware.hobson.api.variable.DeviceVariableContext;
 import com.whizzosoftware.hobson.api.variable.DeviceVariableDescriptor;
+import com.whizzosoftware.hobson.bootstrap.util.FingerprintPersistenceContext;
 import com.whizzosoftware.hobson.bootstrap.util.MapDBCollectionPersistenceContext;
+import com.whizzosoftware.hobson.bootstrap.util.MapDBCommitScheduler;
+import com.whizzosoftware.hobson.bootstrap.util.MapDBCompactor;
+import com.whizzosoftware.hobson.bootstrap.util.MapDBProfile;
+import com.whizzosoftware.hobson.bootstrap.util.MemoryCollectionPersistenceContext;
 import org.mapdb.DB;
-import org.mapdb.DBMaker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.management.ObjectName;
 import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A DeviceStore implementation backed by MapDB.
+ *
+ * A content fingerprint of each device and device variable descriptor is persisted alongside it. Saving a descriptor
+ * whose fingerprint matches the stored one (e.g. when a plugin republishes its devices at startup) is a no-op.
+ * Variable fingerprints are kept in a BTreeMap keyed by variable context so the fingerprints of a device's variables
+ * (whose contexts share the device context as a prefix) can be removed with a range query.
+ *
+ * @author Dan Noguerol
+ */
+public class MapDBDeviceStore implements DeviceStore, MapDBDeviceStoreMXBean {
+    private static final Logger logger = LoggerFactory.getLogger(MapDBDeviceStore.class);
+
+    public static final String OBJECT_NAME = "com.whizzosoftware.hobson:type=DeviceStore,name=MapDB";
+
+    static final String DEVICE_FINGERPRINTS_ID = "deviceFingerprints";
+    static final String VARIABLE_FINGERPRINTS_ID = "deviceVariableFingerprintTree";
+    static final String LEGACY_VARIABLE_FINGERPRINTS_ID = "deviceVariableFingerprints";
 
-public class MapDBDeviceStore implements DeviceStore {
     final private DB db;
     private IdProvider idProvider = new ContextPathIdProvider();
     private CollectionPersister persister = new CollectionPersister(idProvider);
     private CollectionPersistenceContext mctx;
+    private final ConcurrentNavigableMap<String,Long> variableFingerprints;
+    private MapDBCommitScheduler commitScheduler;
+    private MapDBCompactor compactor;
+    private boolean inTransaction;
+    private final AtomicLong deviceWriteCount = new AtomicLong();
+    private final AtomicLong skippedDeviceWriteCount = new AtomicLong();
+    private final AtomicLong variableWriteCount = new AtomicLong();
+    private final AtomicLong skippedVariableWriteCount = new AtomicLong();
 
     public MapDBDeviceStore(File file) {
         ClassLoader old = Thread.currentThread().getContextClassLoader();
         try {
             Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
-            db = DBMaker.newFileDB(file)
-                .closeOnJvmShutdown()
-                .make();
+            db = MapDBProfile.forStore("devices", MapDBProfile.READ_HEAVY).open(file);
+            commitScheduler = new MapDBCommitScheduler("devices", db);
+            compactor = new MapDBCompactor("devices", db, commitScheduler);
             mctx = new MapDBCollectionPersistenceContext(db);
+            migrateRecords();
+            variableFingerprints = openVariableFingerprints();
         } finally {
             Thread.currentThread().setContextClassLoader(old);
         }
@@ -49,12 +89,33 @@ public class MapDBDeviceStore implements DeviceStore {
 
     @Override
     public void start() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            logger.warn("Unable to register MapDB device store MBean", e);
+        }
+    }
 
+    @Override
+    public void flush() {
+        commitScheduler.flush();
     }
 
     @Override
     public void stop() {
-
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            logger.debug("Unable to unregister MapDB device store MBean", e);
+        }
+        commitScheduler.close();
+        compactor.close();
+        synchronized (db) {
+            if (!db.isClosed()) {
+                db.commit();
+                db.close();
+            }
+        }
     }
 
     @Override
@@ -124,10 +185,35 @@ public class MapDBDeviceStore implements DeviceStore {
     }
 
     @Override
-    public void performHousekeeping() {
+    public long getDeviceWriteCount() {
+        return deviceWriteCount.get();
+    }
+
+    @Override
+    public long getSkippedDeviceWriteCount() {
+        return skippedDeviceWriteCount.get();
+    }
+
+    @Override
+    public long getVariableWriteCount() {
+        return variableWriteCount.get();
+    }
+
+    @Override
+    public long getSkippedVariableWriteCount() {
+        return skippedVariableWriteCount.get();
+    }
+
+    @Override
+    synchronized public void performTransaction(Runnable r) {
         synchronized (db) {
-            db.commit();
-            db.compact();
+            inTransaction = true;
+            try {
+                r.run();
+            } finally {
+                inTransaction = false;
+                commitScheduler.requestCommit();
+            }
         }
     }
 
@@ -169,8 +255,27 @@ public class MapDBDeviceStore implements DeviceStore {
         ClassLoader old = Thread.currentThread().getContextClassLoader();
         try {
             Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
+            String key = device.getContext().toString();
+            FingerprintPersistenceContext fctx = new FingerprintPersistenceContext();
+            persister.saveDevice(fctx, device, false);
+            Long fingerprint = fctx.getFingerprint();
             synchronized (db) {
-                persister.saveDevice(mctx, device, true);
+                Map<String,Object> fingerprints = mctx.getMap(DEVICE_FINGERPRINTS_ID);
+                if (fingerprint.equals(fingerprints.get(key))) {
+                    skippedDeviceWriteCount.incrementAndGet();
+                    return;
+                }
+                // the fingerprint is written first so it is included in the persister's commit
+                fingerprints.put(key, fingerprint);
+                removeVariableFingerprints(device.getContext());
+                try {
+                    persister.saveDevice(mctx, device, false);
+                    requestCommit();
+                } catch (RuntimeException e) {
+                    fingerprints.remove(key);
+                    throw e;
+                }
+                deviceWriteCount.incrementAndGet();
             }
         } finally {
             Thread.currentThread().setContextClassLoader(old);
@@ -182,8 +287,27 @@ public class MapDBDeviceStore implements DeviceStore {
         ClassLoader old = Thread.currentThread().getContextClassLoader();
         try {
             Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
+            String deviceKey = dvd.getContext().getDeviceContext().toString();
+            String key = dvd.getContext().toString();
+            FingerprintPersistenceContext fctx = new FingerprintPersistenceContext();
+            persister.saveDeviceVariableDescription(fctx, dvd, false);
+            Long fingerprint = fctx.getFingerprint();
             synchronized (db) {
-                persister.saveDeviceVariableDescription(mctx, dvd, true);
+                if (fingerprint.equals(variableFingerprints.get(key))) {
+                    skippedVariableWriteCount.incrementAndGet();
+                    return;
+                }
+                // the device's persisted content is changing so its own fingerprint is no longer valid
+                mctx.getMap(DEVICE_FINGERPRINTS_ID).remove(deviceKey);
+                variableFingerprints.put(key, fingerprint);
+                try {
+                    persister.saveDeviceVariableDescription(mctx, dvd, false);
+                    requestCommit();
+                } catch (RuntimeException e) {
+                    variableFingerprints.remove(key);
+                    throw e;
+                }
+                variableWriteCount.incrementAndGet();
             }
         } finally {
             Thread.currentThread().setContextClassLoader(old);
@@ -196,7 +320,9 @@ public class MapDBDeviceStore implements DeviceStore {
         try {
             Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
             synchronized (db) {
-                persister.saveDeviceName(mctx, ctx, name, true);
+                mctx.getMap(DEVICE_FINGERPRINTS_ID).remove(ctx.toString());
+                persister.saveDeviceName(mctx, ctx, name, false);
+                requestCommit();
             }
         } finally {
             Thread.currentThread().setContextClassLoader(old);
@@ -209,7 +335,9 @@ public class MapDBDeviceStore implements DeviceStore {
         try {
             Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
             synchronized (db) {
-                persister.saveDeviceTags(mctx, ctx, tags, true);
+                mctx.getMap(DEVICE_FINGERPRINTS_ID).remove(ctx.toString());
+                persister.saveDeviceTags(mctx, ctx, tags, false);
+                requestCommit();
             }
         } finally {
             Thread.currentThread().setContextClassLoader(old);
@@ -222,10 +350,76 @@ public class MapDBDeviceStore implements DeviceStore {
         try {
             Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
             synchronized (db) {
+                mctx.getMap(DEVICE_FINGERPRINTS_ID).remove(ctx.toString());
+                removeVariableFingerprints(ctx);
                 persister.deleteDevice(mctx, ctx);
+                requestCommit();
             }
         } finally {
             Thread.currentThread().setContextClassLoader(old);
         }
     }
+
+    /**
+     * Removes the fingerprints of all of a device's variables. Variable contexts are the device context followed by
+     * the variable name so a device's variable fingerprints are a contiguous range of the fingerprint tree.
+     */
+    private void removeVariableFingerprints(DeviceContext ctx) {
+        String prefix = DeviceVariableContext.create(ctx, "").toString();
+        variableFingerprints.subMap(prefix, prefix + Character.MAX_VALUE).clear();
+    }
+
+    /**
+     * Opens the variable fingerprint tree. Fingerprints from the previous hash map format are discarded rather than
+     * migrated; the only cost is that each variable is written once more the next time it's saved.
+     *
+     * @return the fingerprint map
+     */
+    private ConcurrentNavigableMap<String,Long> openVariableFingerprints() {
+        if (db.exists(LEGACY_VARIABLE_FINGERPRINTS_ID)) {
+            db.delete(LEGACY_VARIABLE_FINGERPRINTS_ID);
+            db.commit();
+        }
+        return db.getTreeMap(VARIABLE_FINGERPRINTS_ID);
+    }
+
+    /**
+     * Moves any devices stored by a MapDBRecordDeviceStore back into collections and deletes the records so the
+     * record store will migrate the current data if the file is opened by one again.
+     */
+    private void migrateRecords() {
+        if (db.exists(MapDBRecordDeviceStore.RECORDS_ID)) {
+            long start = System.currentTimeMillis();
+            Map<String,byte[]> records = db.getTreeMap(MapDBRecordDeviceStore.RECORDS_ID);
+            for (byte[] record : records.values()) {
+                MemoryCollectionPersistenceContext ctx = DeviceRecordCodec.decode(record);
+                for (Map.Entry<String,Map<String,Object>> e : ctx.getMaps().entrySet()) {
+                    mctx.setMap(e.getKey(), e.getValue());
+                }
+                for (Map.Entry<String,Set<Object>> e : ctx.getSets().entrySet()) {
+                    for (Object o : e.getValue()) {
+                        mctx.addSetValue(e.getKey(), o);
+                    }
+                }
+            }
+            int count = records.size();
+            db.delete(MapDBRecordDeviceStore.RECORDS_ID);
+            if (db.exists(MapDBRecordDeviceStore.FORMAT_ID)) {
+                db.delete(MapDBRecordDeviceStore.FORMAT_ID);
+            }
+            db.commit();
+            if (count > 0) {
+                logger.info("Migrated {} device(s) from record format in {}ms", count, System.currentTimeMillis() - start);
+            }
+        }
+    }
+
+    /**
+     * Requests a commit of the writes just made unless they're part of a transaction (which is committed as a whole).
+     */
+    private void requestCommit() {
+        if (!inTransaction) {
+            commitScheduler.requestCommit();
+        }
+    }
 }
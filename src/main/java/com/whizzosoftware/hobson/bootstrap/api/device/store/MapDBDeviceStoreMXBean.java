@@ -0,0 +1,37 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.device.store;
+
+/**
+ * The JMX management interface for the MapDB device store's fingerprint-based write skipping.
+ *
+ * @author Dan Noguerol
+ */
+public interface MapDBDeviceStoreMXBean {
+    /**
+     * Returns the number of device descriptors written.
+     */
+    long getDeviceWriteCount();
+
+    /**
+     * Returns the number of device descriptor saves skipped because the stored content was unchanged.
+     */
+    long getSkippedDeviceWriteCount();
+
+    /**
+     * Returns the number of device variable descriptors written.
+     */
+    long getVariableWriteCount();
+
+    /**
+     * Returns the number of device variable descriptor saves skipped because the stored content was unchanged.
+     */
+    long getSkippedVariableWriteCount();
+}
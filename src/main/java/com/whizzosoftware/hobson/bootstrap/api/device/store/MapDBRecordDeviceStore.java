@@ -0,0 +1,365 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.device.store;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+import com.whizzosoftware.hobson.api.device.HobsonDeviceDescriptor;
+import com.whizzosoftware.hobson.api.hub.HubContext;
+import com.whizzosoftware.hobson.api.persist.CollectionPersistenceContext;
+import com.whizzosoftware.hobson.api.persist.CollectionPersister;
+import com.whizzosoftware.hobson.api.persist.ContextPathIdProvider;
+import com.whizzosoftware.hobson.api.persist.IdProvider;
+import com.whizzosoftware.hobson.api.plugin.PluginContext;
+import com.whizzosoftware.hobson.api.variable.DeviceVariableDescriptor;
+import com.whizzosoftware.hobson.bootstrap.util.MapDBCollectionPersistenceContext;
+import com.whizzosoftware.hobson.bootstrap.util.MapDBCommitScheduler;
+import com.whizzosoftware.hobson.bootstrap.util.MapDBCompactor;
+import com.whizzosoftware.hobson.bootstrap.util.MapDBProfile;
+import com.whizzosoftware.hobson.bootstrap.util.MemoryCollectionPersistenceContext;
+import org.mapdb.Atomic;
+import org.mapdb.DB;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A DeviceStore implementation backed by MapDB that stores each device as a single binary record (see
+ * DeviceRecordCodec) in one BTreeMap keyed by device context. Loading a device is one map lookup and one decode
+ * rather than a catalog lookup and deserialization per collection as with MapDBDeviceStore.
+ *
+ * A record holds exactly what the CollectionPersister would write for the device so the two stores are
+ * interchangeable. Devices stored in the MapDBDeviceStore layout are migrated into records the first time the
+ * file is opened and the original collections are deleted; MapDBDeviceStore migrates records back the same way so
+ * switching formats never leaves stale data behind.
+ *
+ * Plugin and tag queries are answered from an in-memory DeviceIndex built when the store is opened so they don't
+ * need to decode every record.
+ *
+ * @author Dan Noguerol
+ */
+public class MapDBRecordDeviceStore implements DeviceStore {
+    private static final Logger logger = LoggerFactory.getLogger(MapDBRecordDeviceStore.class);
+
+    static final String RECORDS_ID = "deviceRecords";
+    static final String FORMAT_ID = "deviceRecordFormat";
+
+    final private DB db;
+    private IdProvider idProvider = new ContextPathIdProvider();
+    private CollectionPersister persister = new CollectionPersister(idProvider);
+    private final NavigableMap<String,byte[]> records;
+    private final DeviceIndex index = new DeviceIndex();
+    private MapDBCommitScheduler commitScheduler;
+    private MapDBCompactor compactor;
+    private boolean inTransaction;
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong skippedWriteCount = new AtomicLong();
+
+    public MapDBRecordDeviceStore(File file) {
+        ClassLoader old = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
+            db = MapDBProfile.forStore("devices", MapDBProfile.READ_HEAVY).open(file);
+            commitScheduler = new MapDBCommitScheduler("devices", db);
+            compactor = new MapDBCompactor("devices", db, commitScheduler);
+            records = db.createTreeMap(RECORDS_ID).makeOrGet();
+            migrate();
+            buildIndex();
+        } finally {
+            Thread.currentThread().setContextClassLoader(old);
+        }
+    }
+
+    @Override
+    public void start() {
+
+    }
+
+    @Override
+    public void flush() {
+        commitScheduler.flush();
+    }
+
+    @Override
+    public void stop() {
+        commitScheduler.close();
+        compactor.close();
+        synchronized (db) {
+            if (!db.isClosed()) {
+                db.commit();
+                db.close();
+            }
+        }
+    }
+
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    public long getSkippedWriteCount() {
+        return skippedWriteCount.get();
+    }
+
+    @Override
+    public Collection<HobsonDeviceDescriptor> getAllDevices(HubContext hctx) {
+        ClassLoader old = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
+
+            List<HobsonDeviceDescriptor> results = new ArrayList<>();
+            for (Map.Entry<String,byte[]> e : records.entrySet()) {
+                DeviceContext dctx = DeviceContext.create(e.getKey());
+                if (hctx.equals(dctx.getHubContext())) {
+                    HobsonDeviceDescriptor dd = persister.restoreDevice(DeviceRecordCodec.decode(e.getValue()), dctx);
+                    if (dd != null) {
+                        results.add(dd);
+                    }
+                }
+            }
+            return results;
+        } finally {
+            Thread.currentThread().setContextClassLoader(old);
+        }
+    }
+
+    @Override
+    public Collection<HobsonDeviceDescriptor> getAllDevices(PluginContext pctx) {
+        ClassLoader old = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
+
+            List<HobsonDeviceDescriptor> results = new ArrayList<>();
+            for (DeviceContext dctx : index.getDeviceContexts(pctx)) {
+                byte[] record = records.get(dctx.toString());
+                if (record != null) {
+                    HobsonDeviceDescriptor dd = persister.restoreDevice(DeviceRecordCodec.decode(record), dctx);
+                    if (dd != null) {
+                        results.add(dd);
+                    }
+                }
+            }
+            return results;
+        } finally {
+            Thread.currentThread().setContextClassLoader(old);
+        }
+    }
+
+    @Override
+    public Collection<DeviceContext> getAllDeviceContextsWithTag(HubContext hctx, String tag) {
+        List<DeviceContext> results = new ArrayList<>();
+        for (DeviceContext dctx : index.getDeviceContextsWithTag(tag)) {
+            if (hctx.equals(dctx.getHubContext())) {
+                results.add(dctx);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public boolean hasDevice(DeviceContext ctx) {
+        return index.contains(ctx);
+    }
+
+    @Override
+    synchronized public void performTransaction(Runnable r) {
+        synchronized (db) {
+            inTransaction = true;
+            try {
+                r.run();
+            } finally {
+                inTransaction = false;
+                commitScheduler.requestCommit();
+            }
+        }
+    }
+
+    @Override
+    public HobsonDeviceDescriptor getDevice(DeviceContext dctx) {
+        ClassLoader old = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
+            byte[] record = records.get(dctx.toString());
+            return (record != null) ? persister.restoreDevice(DeviceRecordCodec.decode(record), dctx) : null;
+        } finally {
+            Thread.currentThread().setContextClassLoader(old);
+        }
+    }
+
+    @Override
+    public String getDeviceName(DeviceContext ctx) {
+        ClassLoader old = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
+            byte[] record = records.get(ctx.toString());
+            return (record != null) ? persister.restoreDeviceName(DeviceRecordCodec.decode(record), ctx) : null;
+        } finally {
+            Thread.currentThread().setContextClassLoader(old);
+        }
+    }
+
+    @Override
+    public Set<String> getDeviceTags(DeviceContext ctx) {
+        ClassLoader old = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
+            byte[] record = records.get(ctx.toString());
+            return (record != null) ? persister.restoreDeviceTags(DeviceRecordCodec.decode(record), ctx) : null;
+        } finally {
+            Thread.currentThread().setContextClassLoader(old);
+        }
+    }
+
+    @Override
+    public void saveDevice(final HobsonDeviceDescriptor device) {
+        update(device.getContext(), new RecordUpdate() {
+            @Override
+            public void apply(CollectionPersistenceContext ctx) {
+                persister.saveDevice(ctx, device, false);
+            }
+        });
+    }
+
+    @Override
+    public void saveDeviceVariable(final DeviceVariableDescriptor dvd) {
+        update(dvd.getContext().getDeviceContext(), new RecordUpdate() {
+            @Override
+            public void apply(CollectionPersistenceContext ctx) {
+                persister.saveDeviceVariableDescription(ctx, dvd, false);
+            }
+        });
+    }
+
+    @Override
+    public void setDeviceName(final DeviceContext dctx, final String name) {
+        update(dctx, new RecordUpdate() {
+            @Override
+            public void apply(CollectionPersistenceContext ctx) {
+                persister.saveDeviceName(ctx, dctx, name, false);
+            }
+        });
+    }
+
+    @Override
+    public void setDeviceTags(final DeviceContext dctx, final Set<String> tags) {
+        update(dctx, new RecordUpdate() {
+            @Override
+            public void apply(CollectionPersistenceContext ctx) {
+                persister.saveDeviceTags(ctx, dctx, tags, false);
+            }
+        });
+    }
+
+    @Override
+    synchronized public void deleteDevice(DeviceContext ctx) {
+        synchronized (db) {
+            records.remove(ctx.toString());
+            index.remove(ctx);
+            requestCommit();
+        }
+    }
+
+    /**
+     * Applies a change to a device's record. The record is decoded, the change is applied by the persister and
+     * the result is written back only if it differs from the original.
+     *
+     * @param dctx the device context
+     * @param u the change
+     */
+    synchronized private void update(DeviceContext dctx, RecordUpdate u) {
+        ClassLoader old = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
+            String key = dctx.toString();
+            synchronized (db) {
+                byte[] record = records.get(key);
+                MemoryCollectionPersistenceContext ctx = DeviceRecordCodec.decode(record);
+                u.apply(ctx);
+                byte[] newRecord = DeviceRecordCodec.encode(ctx);
+                if (record != null && Arrays.equals(record, newRecord)) {
+                    skippedWriteCount.incrementAndGet();
+                    return;
+                }
+                records.put(key, newRecord);
+                index.add(dctx, persister.restoreDeviceTags(ctx, dctx));
+                writeCount.incrementAndGet();
+                requestCommit();
+            }
+        } finally {
+            Thread.currentThread().setContextClassLoader(old);
+        }
+    }
+
+    /**
+     * Moves any devices stored in the MapDBDeviceStore layout into records. The original collections (and the
+     * MapDBDeviceStore fingerprints) are deleted so they can't be served if the file is later opened by a
+     * MapDBDeviceStore.
+     */
+    private void migrate() {
+        Atomic.Integer format = db.getAtomicInteger(FORMAT_ID);
+        if (format.get() < DeviceRecordCodec.FORMAT_VERSION) {
+            long start = System.currentTimeMillis();
+            CollectionPersistenceContext mctx = new MapDBCollectionPersistenceContext(db);
+            String devicesId = idProvider.createDevicesId(HubContext.createLocal()).getId();
+            int count = 0;
+            if (mctx.hasSet(devicesId)) {
+                List<DeviceContext> dctxs = new ArrayList<>();
+                for (Object o : mctx.getSet(devicesId)) {
+                    dctxs.add(idProvider.createDeviceContext((String)o));
+                }
+                for (DeviceContext dctx : dctxs) {
+                    HobsonDeviceDescriptor dd = persister.restoreDevice(mctx, dctx);
+                    if (dd != null) {
+                        MemoryCollectionPersistenceContext ctx = new MemoryCollectionPersistenceContext();
+                        persister.saveDevice(ctx, dd, false);
+                        records.put(dctx.toString(), DeviceRecordCodec.encode(ctx));
+                        count++;
+                    }
+                    persister.deleteDevice(mctx, dctx);
+                }
+                mctx.remove(devicesId);
+            }
+            for (String id : new String[] {MapDBDeviceStore.DEVICE_FINGERPRINTS_ID, MapDBDeviceStore.VARIABLE_FINGERPRINTS_ID, MapDBDeviceStore.LEGACY_VARIABLE_FINGERPRINTS_ID}) {
+                if (db.exists(id)) {
+                    db.delete(id);
+                }
+            }
+            format.set(DeviceRecordCodec.FORMAT_VERSION);
+            db.commit();
+            if (count > 0) {
+                logger.info("Migrated {} device(s) to record format in {}ms", count, System.currentTimeMillis() - start);
+            }
+        }
+    }
+
+    /**
+     * Indexes the existing records by plugin and tag.
+     */
+    private void buildIndex() {
+        for (Map.Entry<String,byte[]> e : records.entrySet()) {
+            DeviceContext dctx = DeviceContext.create(e.getKey());
+            index.add(dctx, persister.restoreDeviceTags(DeviceRecordCodec.decode(e.getValue()), dctx));
+        }
+    }
+
+    /**
+     * Requests a commit of the writes just made unless they're part of a transaction (which is committed as a whole).
+     */
+    private void requestCommit() {
+        if (!inTransaction) {
+            commitScheduler.requestCommit();
+        }
+    }
+
+    private interface RecordUpdate {
+        void apply(CollectionPersistenceContext ctx);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.event;
+
+import com.whizzosoftware.hobson.api.event.HobsonEvent;
+import com.whizzosoftware.hobson.api.event.advertisement.DeviceAdvertisementEvent;
+import com.whizzosoftware.hobson.api.event.device.*;
+import com.whizzosoftware.hobson.api.event.hub.HubConfigurationUpdateEvent;
+import com.whizzosoftware.hobson.api.event.plugin.PluginConfigurationUpdateEvent;
+import com.whizzosoftware.hobson.api.event.plugin.PluginStatusChangeEvent;
+import com.whizzosoftware.hobson.api.event.presence.PresenceUpdateNotificationEvent;
+import com.whizzosoftware.hobson.api.event.presence.PresenceUpdateRequestEvent;
+import com.whizzosoftware.hobson.api.event.task.*;
+import com.whizzosoftware.hobson.api.osgi.event.DevicesStartedEvent;
+import com.whizzosoftware.hobson.api.osgi.event.EventTypeProvider;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Provides all event types defined by the Hobson API and the core's exported event types. Events are created with
+ * direct constructor calls.
+ *
+ * @author Dan Noguerol
+ */
+public class CoreEventTypeProvider implements EventTypeProvider {
+    private final Map<String,Class<? extends HobsonEvent>> classMap = new LinkedHashMap<>();
+
+    public CoreEventTypeProvider() {
+        classMap.put(DeviceAdvertisementEvent.ID, DeviceAdvertisementEvent.class);
+        classMap.put(DeviceAvailableEvent.ID, DeviceAvailableEvent.class);
+        classMap.put(DeviceCheckInEvent.ID, DeviceCheckInEvent.class);
+        classMap.put(DeviceConfigurationUpdateEvent.ID, DeviceConfigurationUpdateEvent.class);
+        classMap.put(DeviceDeletedEvent.ID, DeviceDeletedEvent.class);
+        classMap.put(DeviceStartedEvent.ID, DeviceStartedEvent.class);
+        classMap.put(DevicesStartedEvent.ID, DevicesStartedEvent.class);
+        classMap.put(DeviceStoppedEvent.ID, DeviceStoppedEvent.class);
+        classMap.put(DeviceUnavailableEvent.ID, DeviceUnavailableEvent.class);
+        classMap.put(DeviceVariablesUpdateEvent.ID, DeviceVariablesUpdateEvent.class);
+        classMap.put(DeviceVariablesUpdateRequestEvent.ID, DeviceVariablesUpdateRequestEvent.class);
+        classMap.put(HubConfigurationUpdateEvent.ID, HubConfigurationUpdateEvent.class);
+        classMap.put(PluginConfigurationUpdateEvent.ID, PluginConfigurationUpdateEvent.class);
+        classMap.put(PluginStatusChangeEvent.ID, PluginStatusChangeEvent.class);
+        classMap.put(PresenceUpdateNotificationEvent.ID, PresenceUpdateNotificationEvent.class);
+        classMap.put(PresenceUpdateRequestEvent.ID, PresenceUpdateRequestEvent.class);
+        classMap.put(TaskDeletedEvent.ID, TaskDeletedEvent.class);
+        classMap.put(TaskExecutionEvent.ID, TaskExecutionEvent.class);
+        classMap.put(TaskRegistrationEvent.ID, TaskRegistrationEvent.class);
+        classMap.put(TaskUpdatedEvent.ID, TaskUpdatedEvent.class);
+    }
+
+    @Override
+    public Collection<String> getEventIds() {
+        return Collections.unmodifiableSet(classMap.keySet());
+    }
+
+    @Override
+    public Class<? extends HobsonEvent> getEventClass(String eventId) {
+        return classMap.get(eventId);
+    }
+
+    @Override
+    public HobsonEvent createEvent(String eventId, Map<String,Object> props) {
+        switch (eventId) {
+            case DeviceAdvertisementEvent.ID:
+                return new DeviceAdvertisementEvent(props);
+            case DeviceAvailableEvent.ID:
+                return new DeviceAvailableEvent(props);
+            case DeviceCheckInEvent.ID:
+                return new DeviceCheckInEvent(props);
+            case DeviceConfigurationUpdateEvent.ID:
+                return new DeviceConfigurationUpdateEvent(props);
+            case DeviceDeletedEvent.ID:
+                return new DeviceDeletedEvent(props);
+            case DeviceStartedEvent.ID:
+                return new DeviceStartedEvent(props);
+            case DevicesStartedEvent.ID:
+                return new DevicesStartedEvent(props);
+            case DeviceStoppedEvent.ID:
+                return new DeviceStoppedEvent(props);
+            case DeviceUnavailableEvent.ID:
+                return new DeviceUnavailableEvent(props);
+            case DeviceVariablesUpdateEvent.ID:
+                return new DeviceVariablesUpdateEvent(props);
+            case DeviceVariablesUpdateRequestEvent.ID:
+                return new DeviceVariablesUpdateRequestEvent(props);
+            case HubConfigurationUpdateEvent.ID:
+                return new HubConfigurationUpdateEvent(props);
+            case PluginConfigurationUpdateEvent.ID:
+                return new PluginConfigurationUpdateEvent(props);
+            case PluginStatusChangeEvent.ID:
+                return new PluginStatusChangeEvent(props);
+            case PresenceUpdateNotificationEvent.ID:
+                return new PresenceUpdateNotificationEvent(props);
+            case PresenceUpdateRequestEvent.ID:
+                return new PresenceUpdateRequestEvent(props);
+            case TaskDeletedEvent.ID:
+                return new TaskDeletedEvent(props);
+            case TaskExecutionEvent.ID:
+                return new TaskExecutionEvent(props);
+            case TaskRegistrationEvent.ID:
+                return new TaskRegistrationEvent(props);
+            case TaskUpdatedEvent.ID:
+                return new TaskUpdatedEvent(props);
+            default:
+                return null;
+        }
+    }
+}
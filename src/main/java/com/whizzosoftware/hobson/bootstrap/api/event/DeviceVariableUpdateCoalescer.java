@@ -0,0 +1,246 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.event;
+
+import com.whizzosoftware.hobson.api.event.HobsonEvent;
+import com.whizzosoftware.hobson.api.event.device.DeviceVariablesUpdateEvent;
+import com.whizzosoftware.hobson.api.hub.HubContext;
+import com.whizzosoftware.hobson.api.variable.DeviceVariableContext;
+import com.whizzosoftware.hobson.api.variable.DeviceVariableUpdate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An optional event manager stage that merges bursts of DeviceVariablesUpdateEvents. Updates for the same
+ * DeviceVariableContext that arrive within the coalescing window are merged so that the latest value wins while
+ * the old value of the first update is kept. One aggregated event is published per hub per window and it carries
+ * the timestamp of the newest update it contains.
+ *
+ * Publishing is serialized per hub: a batch is removed and published while holding the hub's publish lock, so a
+ * window expiring at the same time as an explicit flush can't publish an older batch after a newer one.
+ *
+ * Events that contain initial updates are never merged; any pending updates for the hub are flushed first and the
+ * event is passed through unchanged so ordering is preserved.
+ *
+ * Only DeviceVariablesUpdateEvents can be coalesced since merging requires knowledge of the event's contents; the
+ * window is configured with the "hobson.event.coalesceWindow.[DeviceVariablesUpdateEvent ID]" system property and
+ * windows configured for any other event ID are ignored (with a warning). The coalescer's counters are reported via
+ * EventMetrics.
+ *
+ * @author Dan Noguerol
+ */
+public class DeviceVariableUpdateCoalescer {
+    private static final Logger logger = LoggerFactory.getLogger(DeviceVariableUpdateCoalescer.class);
+
+    public static final String PROP_WINDOW_PREFIX = "hobson.event.coalesceWindow.";
+
+    private final long windowMs;
+    private final Publisher publisher;
+    private final Map<HubContext,PendingUpdates> pendingMap = new HashMap<>();
+    private final ConcurrentMap<HubContext,Object> publishLocks = new ConcurrentHashMap<>();
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong suppressedCount = new AtomicLong();
+    private final AtomicLong emittedCount = new AtomicLong();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Event Coalescer Thread");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * Creates a coalescer if one has been configured via the "hobson.event.coalesceWindow.[eventId]" system property.
+     *
+     * @param publisher the publisher for coalesced events
+     *
+     * @return a DeviceVariableUpdateCoalescer instance or null if coalescing is disabled
+     */
+    static public DeviceVariableUpdateCoalescer create(Publisher publisher) {
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith(PROP_WINDOW_PREFIX) && !name.equals(PROP_WINDOW_PREFIX + DeviceVariablesUpdateEvent.ID)) {
+                logger.warn("Ignoring {}; only {} events can be coalesced", name, DeviceVariablesUpdateEvent.ID);
+            }
+        }
+        long window = Long.parseLong(System.getProperty(PROP_WINDOW_PREFIX + DeviceVariablesUpdateEvent.ID, "0"));
+        if (window > 0) {
+            logger.info("Coalescing device variable updates with window of {}ms", window);
+            return new DeviceVariableUpdateCoalescer(window, publisher);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param windowMs the coalescing window in milliseconds
+     * @param publisher the publisher for coalesced events
+     */
+    public DeviceVariableUpdateCoalescer(long windowMs, Publisher publisher) {
+        this.windowMs = windowMs;
+        this.publisher = publisher;
+    }
+
+    /**
+     * Offers an event to the coalescer.
+     *
+     * @param ctx the hub context
+     * @param event the event
+     *
+     * @return true if the coalescer has taken ownership of the event; false if the caller should publish it
+     */
+    public boolean offer(final HubContext ctx, HobsonEvent event) {
+        if (!(event instanceof DeviceVariablesUpdateEvent)) {
+            return false;
+        }
+
+        Collection<DeviceVariableUpdate> updates = ((DeviceVariablesUpdateEvent)event).getUpdates();
+        if (updates == null) {
+            return false;
+        }
+
+        for (DeviceVariableUpdate u : updates) {
+            if (u.isInitial()) {
+                flush(ctx);
+                return false;
+            }
+        }
+
+        synchronized (pendingMap) {
+            PendingUpdates pending = pendingMap.get(ctx);
+            if (pending == null) {
+                pending = new PendingUpdates();
+                pendingMap.put(ctx, pending);
+                executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush(ctx);
+                    }
+                }, windowMs, TimeUnit.MILLISECONDS);
+            }
+            Long timestamp = event.getTimestamp();
+            if (timestamp != null && timestamp > pending.timestamp) {
+                pending.timestamp = timestamp;
+            }
+            for (DeviceVariableUpdate u : updates) {
+                receivedCount.incrementAndGet();
+                DeviceVariableUpdate first = pending.updates.get(u.getContext());
+                if (first != null) {
+                    pending.updates.put(u.getContext(), new DeviceVariableUpdate(u.getContext(), first.getOldValue(), u.getNewValue()));
+                    suppressedCount.incrementAndGet();
+                } else {
+                    pending.updates.put(u.getContext(), u);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Publishes any pending updates for a hub.
+     *
+     * @param ctx the hub context
+     */
+    public void flush(HubContext ctx) {
+        synchronized (getPublishLock(ctx)) {
+            PendingUpdates pending;
+            synchronized (pendingMap) {
+                pending = pendingMap.remove(ctx);
+            }
+            if (pending != null && pending.updates.size() > 0) {
+                emittedCount.incrementAndGet();
+                try {
+                    publisher.publish(ctx, new DeviceVariablesUpdateEvent(pending.timestamp > 0 ? pending.timestamp : System.currentTimeMillis(), new ArrayList<>(pending.updates.values())));
+                } catch (Throwable t) {
+                    logger.error("Error publishing coalesced variable updates", t);
+                }
+            }
+        }
+    }
+
+    private Object getPublishLock(HubContext ctx) {
+        Object lock = publishLocks.get(ctx);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = publishLocks.putIfAbsent(ctx, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * Publishes all pending updates and stops the coalescer.
+     */
+    public void stop() {
+        List<HubContext> hubs;
+        synchronized (pendingMap) {
+            hubs = new ArrayList<>(pendingMap.keySet());
+        }
+        for (HubContext ctx : hubs) {
+            flush(ctx);
+        }
+        executor.shutdown();
+        logger.debug("Coalescer stopped; received {} updates, suppressed {}, emitted {} events", receivedCount.get(), suppressedCount.get(), emittedCount.get());
+    }
+
+    public long getWindow() {
+        return windowMs;
+    }
+
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    public long getSuppressedCount() {
+        return suppressedCount.get();
+    }
+
+    public long getEmittedCount() {
+        return emittedCount.get();
+    }
+
+    /**
+     * Clears the received, suppressed and emitted counters.
+     */
+    public void resetCounts() {
+        receivedCount.set(0);
+        suppressedCount.set(0);
+        emittedCount.set(0);
+    }
+
+    /**
+     * The updates for a hub that are waiting to be published.
+     */
+    private static class PendingUpdates {
+        final Map<DeviceVariableContext,DeviceVariableUpdate> updates = new LinkedHashMap<>();
+        long timestamp;
+    }
+
+    /**
+     * Interface for publishing coalesced events.
+     */
+    public interface Publisher {
+        void publish(HubContext ctx, HobsonEvent event);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.event;
+
+import com.whizzosoftware.hobson.api.event.EventHandler;
+import com.whizzosoftware.hobson.api.event.HobsonEvent;
+import com.whizzosoftware.hobson.bootstrap.util.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A per-listener class table of @EventHandler methods. The methods applicable to a concrete event class are
+ * resolved the first time that event class is seen and cached thereafter, and methods are invoked through
+ * pre-built MethodHandles rather than reflection.
+ *
+ * Tables are cached using a ClassValue so they don't prevent plugin classes from being unloaded.
+ *
+ * @author Dan Noguerol
+ */
+public class EventDispatchTable {
+    private static final Logger logger = LoggerFactory.getLogger(EventDispatchTable.class);
+    private static final MethodType INVOKE_TYPE = MethodType.methodType(void.class, Object.class, HobsonEvent.class);
+    private static final Method[] NO_METHODS = new Method[0];
+
+    private static final ClassValue<EventDispatchTable> tables = new ClassValue<EventDispatchTable>() {
+        @Override
+        protected EventDispatchTable computeValue(Class<?> type) {
+            return new EventDispatchTable(type);
+        }
+    };
+
+    private final List<Method> handlerMethods = new ArrayList<>();
+    private final Map<Method,MethodHandle> handleMap = new HashMap<>();
+    private final Map<Class,Method[]> dispatchMap = new ConcurrentHashMap<>();
+    private final LatencyHistogram handlerLatency = new LatencyHistogram();
+
+    /**
+     * Returns the dispatch table for a listener class.
+     *
+     * @param listenerClass the listener class
+     *
+     * @return an EventDispatchTable instance
+     */
+    static public EventDispatchTable forClass(Class listenerClass) {
+        return tables.get(listenerClass);
+    }
+
+    EventDispatchTable(Class listenerClass) {
+        for (Method m : listenerClass.getMethods()) {
+            if (m.isAnnotationPresent(EventHandler.class)) {
+                Class[] params = m.getParameterTypes();
+                if (params.length == 1) {
+                    handlerMethods.add(m);
+                    try {
+                        m.setAccessible(true);
+                        handleMap.put(m, MethodHandles.lookup().unreflect(m).asType(INVOKE_TYPE));
+                    } catch (Exception e) {
+                        logger.debug("Unable to create method handle for " + m + "; falling back to reflection", e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns all @EventHandler methods of the listener class.
+     *
+     * @return a List of Method objects
+     */
+    public List<Method> getHandlerMethods() {
+        return Collections.unmodifiableList(handlerMethods);
+    }
+
+    /**
+     * Returns the @EventHandler methods that should be invoked for a concrete event class.
+     *
+     * @param eventClass the event class
+     *
+     * @return an array of Method objects (empty if there are none)
+     */
+    public Method[] getMethods(Class eventClass) {
+        Method[] methods = dispatchMap.get(eventClass);
+        if (methods == null) {
+            List<Method> l = new ArrayList<>();
+            for (Method m : handlerMethods) {
+                if (m.getParameterTypes()[0].isAssignableFrom(eventClass)) {
+                    l.add(m);
+                }
+            }
+            methods = l.size() > 0 ? l.toArray(new Method[l.size()]) : NO_METHODS;
+            dispatchMap.put(eventClass, methods);
+        }
+        return methods;
+    }
+
+    /**
+     * Returns the latency of all handler invocations made through this table.
+     *
+     * @return a LatencyHistogram (values are in nanoseconds)
+     */
+    public LatencyHistogram getHandlerLatency() {
+        return handlerLatency;
+    }
+
+    /**
+     * Invokes an @EventHandler method.
+     *
+     * @param m the method to invoke
+     * @param listener the listener instance
+     * @param event the event to pass to the method
+     *
+     * @throws Throwable on failure
+     */
+    public void invoke(Method m, Object listener, HobsonEvent event) throws Throwable {
+        MethodHandle h = handleMap.get(m);
+        long start = System.nanoTime();
+        try {
+            if (h != null) {
+                h.invokeExact(listener, event);
+            } else {
+                m.invoke(listener, event);
+            }
+        } finally {
+            handlerLatency.record(System.nanoTime() - start);
+        }
+    }
+}
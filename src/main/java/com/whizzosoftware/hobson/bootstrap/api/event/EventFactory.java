@@ -9,37 +9,118 @@ package com.whizzosoftware.hobson.bootstrap.api.event;
 
 import com.whizzosoftware.hobson.api.HobsonRuntimeException;
 import com.whizzosoftware.hobson.api.event.*;
+import com.whizzosoftware.hobson.api.osgi.event.EventTypeProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Constructor;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * A factory for converting property maps into HobsonEvent instances.
+ * A factory for converting property maps into HobsonEvent instances. Event types are contributed by
+ * EventTypeProvider implementations.
  *
  * @author Dan Noguerol
  */
 public class EventFactory {
-    private final Map<String,Constructor> classMap = new HashMap<>();
+    private static final Logger logger = LoggerFactory.getLogger(EventFactory.class);
+
+    private final Map<String,EventTypeProvider> providerMap = new ConcurrentHashMap<>();
+
+    /**
+     * Registers all EventTypeProviders declared in META-INF/services visible to a class loader.
+     *
+     * @param classLoader the class loader
+     */
+    public void loadServiceProviders(ClassLoader classLoader) {
+        for (EventTypeProvider p : ServiceLoader.load(EventTypeProvider.class, classLoader)) {
+            addEventTypeProvider(p);
+        }
+    }
+
+    public void addEventTypeProvider(EventTypeProvider provider) {
+        for (String id : provider.getEventIds()) {
+            EventTypeProvider old = providerMap.put(id, provider);
+            if (old != null && old != provider) {
+                logger.warn("Event type {} from {} replaced by {}", id, old, provider);
+            }
+        }
+    }
+
+    public void removeEventTypeProvider(EventTypeProvider provider) {
+        for (String id : provider.getEventIds()) {
+            providerMap.remove(id, provider);
+        }
+    }
 
     protected void addEventClass(String id, Class clazz) throws NoSuchMethodException {
-        Constructor c = clazz.getConstructor(Map.class);
-        classMap.put(id, c);
+        addEventTypeProvider(new ConstructorEventTypeProvider(id, clazz));
+    }
+
+    /**
+     * Returns the IDs of all registered events that are assignable to a particular class.
+     *
+     * @param clazz the class (typically an @EventHandler method parameter type)
+     *
+     * @return a List of event IDs (empty if there are none)
+     */
+    public List<String> getEventIds(Class clazz) {
+        List<String> results = new ArrayList<>();
+        for (Map.Entry<String,EventTypeProvider> e : providerMap.entrySet()) {
+            Class c = e.getValue().getEventClass(e.getKey());
+            if (c != null && clazz.isAssignableFrom(c)) {
+                results.add(e.getKey());
+            }
+        }
+        return results;
     }
 
     public HobsonEvent createEvent(Map<String,Object> props) {
-        HobsonEvent event = null;
         String eventId = HobsonEvent.readEventId(props);
-        Constructor c = classMap.get(eventId);
+        EventTypeProvider p = eventId != null ? providerMap.get(eventId) : null;
 
-        if (c != null) {
+        if (p != null) {
             try {
-                event = (HobsonEvent)c.newInstance(props);
+                return p.createEvent(eventId, props);
             } catch (Exception e) {
                 throw new HobsonRuntimeException("Error creating event: " + props, e);
             }
         }
 
-        return event;
+        return null;
+    }
+
+    /**
+     * An EventTypeProvider for a single event class with a Map constructor. This is a fallback for event classes
+     * registered directly via addEventClass() and uses reflection.
+     */
+    private static class ConstructorEventTypeProvider implements EventTypeProvider {
+        private final String id;
+        private final Constructor constructor;
+
+        ConstructorEventTypeProvider(String id, Class clazz) throws NoSuchMethodException {
+            this.id = id;
+            this.constructor = clazz.getConstructor(Map.class);
+        }
+
+        @Override
+        public Collection<String> getEventIds() {
+            return Collections.singletonList(id);
+        }
+
+        @Override
+        public Class<? extends HobsonEvent> getEventClass(String eventId) {
+            return constructor.getDeclaringClass();
+        }
+
+        @Override
+        public HobsonEvent createEvent(String eventId, Map<String,Object> props) {
+            try {
+                return (HobsonEvent)constructor.newInstance(props);
+            } catch (Exception e) {
+                throw new HobsonRuntimeException("Error creating event: " + props, e);
+            }
+        }
     }
 }
@@ -10,7 +10,7 @@
 package com.whizzosoftware.hobson.bootstrap.api.event;
 
 import com.whizzosoftware.hobson.api.event.EventCallbackInvoker;
-import com.whizzosoftware.hobson.api.event.EventHandler;
+import com.whizzosoftware.hobson.api.event.EventTopics;
 import com.whizzosoftware.hobson.api.event.HobsonEvent;
 import com.whizzosoftware.hobson.bootstrap.api.util.EventUtil;
 import org.osgi.service.event.Event;
@@ -18,13 +18,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
- * Adapts the OSGi EventAdmin event callback (handleEvent) into a reflection-based invocation of a @EventHandler
- * annotated method in the listener.
+ * Adapts the OSGi EventAdmin event callback (handleEvent) into an invocation of the @EventHandler annotated
+ * methods in the listener via the listener class's EventDispatchTable.
  *
  * @author Dan Noguerol
  */
@@ -34,53 +34,90 @@ public class EventHandlerAdapter implements org.osgi.service.event.EventHandler
     private EventFactory eventFactory;
     private Object listener;
     private EventCallbackInvoker invoker;
-    private List<MethodRef> methodCache = new ArrayList<>();
+    private EventDispatchTable dispatchTable;
+    private EventMetrics metrics;
 
     public EventHandlerAdapter(EventFactory eventFactory, Object listener, EventCallbackInvoker invoke) {
+        this(eventFactory, listener, invoke, null);
+    }
+
+    public EventHandlerAdapter(EventFactory eventFactory, Object listener, EventCallbackInvoker invoke, EventMetrics metrics) {
         this.eventFactory = eventFactory;
+        this.metrics = metrics;
         this.listener = listener;
         this.invoker = invoke;
+        this.dispatchTable = listener != null ? EventDispatchTable.forClass(listener.getClass()) : null;
+    }
 
-        // build reflection cache
-        for (Method m : listener.getClass().getMethods()) {
-            if (m.isAnnotationPresent(EventHandler.class)) {
-                Class[] params = m.getParameterTypes();
-                if (params.length == 1) {
-                    methodCache.add(new MethodRef(m, params[0]));
+    /**
+     * Returns the EventAdmin topics this adapter should be registered for based on the parameter types of the
+     * listener's @EventHandler methods.
+     *
+     * @return an array of topics (empty if the listener has no applicable @EventHandler methods)
+     */
+    public String[] getTopics() {
+        Set<String> topics = new LinkedHashSet<>();
+        if (dispatchTable == null) {
+            return new String[0];
+        }
+        for (Method m : dispatchTable.getHandlerMethods()) {
+            Class param = m.getParameterTypes()[0];
+            if (param.isAssignableFrom(HobsonEvent.class)) {
+                // a listener for all events gets the wildcard topic
+                topics.clear();
+                topics.add(EventUtil.TOPIC_ALL);
+                break;
+            } else {
+                for (String id : eventFactory.getEventIds(param)) {
+                    topics.add(EventUtil.createTopic(id));
                 }
             }
         }
+        // continue to receive events from publishers that post to the legacy global topic
+        if (topics.size() > 0) {
+            topics.add(EventTopics.GLOBAL);
+        }
+        return topics.toArray(new String[topics.size()]);
     }
 
     @Override
     public void handleEvent(Event event) {
         logger.trace("Received event: {}", event);
 
-        Map<String, Object> props = EventUtil.createMapFromEvent(event);
-
         if (listener != null) {
-            HobsonEvent he = eventFactory.createEvent(props);
+            // use the event instance carried in the envelope if present; otherwise fall back to unmarshaling
+            // the event properties (e.g. for events posted directly to EventAdmin by a foreign publisher)
+            HobsonEvent he = EventUtil.getHobsonEvent(event);
+            Map<String, Object> props = null;
+            if (he == null) {
+                props = EventUtil.createMapFromEvent(event);
+                he = eventFactory.createEvent(props);
+            }
             if (he != null) {
-                for (MethodRef r : methodCache) {
-                    if (r.param.isAssignableFrom(he.getClass())) {
-                        invoker.invoke(r.method, listener, he);
+                Method[] methods = dispatchTable.getMethods(he.getClass());
+                if (invoker instanceof ListenerQueue) {
+                    // pass along the priority and post time so the listener queue can order and time the callbacks
+                    EventPriority priority = EventPriority.fromName(EventUtil.getPriority(event));
+                    long postTime = EventUtil.getPostTime(event);
+                    for (Method m : methods) {
+                        ((ListenerQueue)invoker).invoke(m, listener, he, priority, postTime);
                     }
+                } else {
+                    for (Method m : methods) {
+                        invoker.invoke(m, listener, he);
+                    }
+                }
+                if (metrics != null && methods.length > 0) {
+                    metrics.recordFanOut(he.getEventId(), methods.length);
                 }
             } else {
                 logger.error("Unable to unmarshal event: {}", props);
+                if (metrics != null) {
+                    metrics.recordUnmarshalFailure();
+                }
             }
         } else {
-            logger.warn("No event listener registered; ignoring event {}", HobsonEvent.readEventId(props));
-        }
-    }
-
-    private class MethodRef {
-        public Method method;
-        public Class param;
-
-        public MethodRef(Method method, Class param) {
-            this.method = method;
-            this.param = param;
+            logger.warn("No event listener registered; ignoring event {}", event.getProperty(EventUtil.PROP_EVENT_ID));
         }
     }
 }
@@ -0,0 +1,287 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.event;
+
+import com.whizzosoftware.hobson.bootstrap.util.LatencyHistogram;
+import org.json.JSONObject;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects event system metrics: per-event ID post and fan-out counts, unmarshal failures, dropped events, per-lane
+ * queue wait time, device variable update coalescing counts and per-listener class handler latency. Handler latency is recorded by each listener class's EventDispatchTable; this class only tracks
+ * which listener classes have been registered (weakly, so plugin classes can still be unloaded).
+ *
+ * @author Dan Noguerol
+ */
+public class EventMetrics implements EventMetricsMXBean {
+    public static final String OBJECT_NAME = "com.whizzosoftware.hobson:type=EventMetrics";
+
+    private final ConcurrentMap<String,AtomicLong> postCounts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String,AtomicLong> fanOutCounts = new ConcurrentHashMap<>();
+    private final AtomicLong unmarshalFailureCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final Map<EventPriority,LatencyHistogram> queueWaits = new EnumMap<>(EventPriority.class);
+    private final Set<Class> listenerClasses = Collections.newSetFromMap(Collections.synchronizedMap(new WeakHashMap<Class,Boolean>()));
+    private volatile DeviceVariableUpdateCoalescer coalescer;
+    private volatile long startTime = System.currentTimeMillis();
+
+    public EventMetrics() {
+        for (EventPriority p : EventPriority.values()) {
+            queueWaits.put(p, new LatencyHistogram());
+        }
+    }
+
+    public void recordPost(String eventId) {
+        increment(postCounts, eventId, 1);
+    }
+
+    public void recordFanOut(String eventId, int invocationCount) {
+        increment(fanOutCounts, eventId, invocationCount);
+    }
+
+    /**
+     * Records the time between an event being posted and a listener callback for it being invoked.
+     *
+     * @param priority the lane the event was delivered on
+     * @param nanos the wait time in nanoseconds
+     */
+    public void recordQueueWait(EventPriority priority, long nanos) {
+        queueWaits.get(priority).record(nanos);
+    }
+
+    public LatencyHistogram getQueueWait(EventPriority priority) {
+        return queueWaits.get(priority);
+    }
+
+    @Override
+    public Map<String,Long> getQueueWaitP99Micros() {
+        Map<String,Long> results = new TreeMap<>();
+        for (Map.Entry<EventPriority,LatencyHistogram> e : queueWaits.entrySet()) {
+            results.put(e.getKey().toString(), TimeUnit.NANOSECONDS.toMicros(e.getValue().getValueAtPercentile(99.0)));
+        }
+        return results;
+    }
+
+    public void recordUnmarshalFailure() {
+        unmarshalFailureCount.incrementAndGet();
+    }
+
+    /**
+     * Records an event that was discarded rather than delivered (e.g. because a delivery queue was full).
+     */
+    public void recordDrop() {
+        droppedCount.incrementAndGet();
+    }
+
+    /**
+     * Sets the coalescer whose counters are reported with these metrics.
+     *
+     * @param coalescer the coalescer (or null if coalescing is disabled)
+     */
+    public void setCoalescer(DeviceVariableUpdateCoalescer coalescer) {
+        this.coalescer = coalescer;
+    }
+
+    @Override
+    public long getCoalescerReceivedCount() {
+        DeviceVariableUpdateCoalescer c = coalescer;
+        return (c != null) ? c.getReceivedCount() : 0;
+    }
+
+    @Override
+    public long getCoalescerSuppressedCount() {
+        DeviceVariableUpdateCoalescer c = coalescer;
+        return (c != null) ? c.getSuppressedCount() : 0;
+    }
+
+    @Override
+    public long getCoalescerEmittedCount() {
+        DeviceVariableUpdateCoalescer c = coalescer;
+        return (c != null) ? c.getEmittedCount() : 0;
+    }
+
+    public void addListenerClass(Class listenerClass) {
+        listenerClasses.add(listenerClass);
+    }
+
+    @Override
+    public Map<String,Long> getPostCounts() {
+        return toMap(postCounts);
+    }
+
+    /**
+     * Returns the average post rate since the metrics were started or last reset.
+     *
+     * @return a Map of event ID to events per minute
+     */
+    public Map<String,Double> getPostRatesPerMinute() {
+        double minutes = Math.max(1, System.currentTimeMillis() - startTime) / 60000.0;
+        Map<String,Double> results = new TreeMap<>();
+        for (Map.Entry<String,AtomicLong> e : postCounts.entrySet()) {
+            results.put(e.getKey(), e.getValue().get() / minutes);
+        }
+        return results;
+    }
+
+    @Override
+    public Map<String,Long> getFanOutCounts() {
+        return toMap(fanOutCounts);
+    }
+
+    @Override
+    public long getUnmarshalFailureCount() {
+        return unmarshalFailureCount.get();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Returns the handler latency histograms of all registered listener classes.
+     *
+     * @return a Map of listener class name to histogram (values are in nanoseconds)
+     */
+    public Map<String,LatencyHistogram> getHandlerLatencies() {
+        Map<String,LatencyHistogram> results = new TreeMap<>();
+        synchronized (listenerClasses) {
+            for (Class c : listenerClasses) {
+                results.put(c.getName(), EventDispatchTable.forClass(c).getHandlerLatency());
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public Map<String,Long> getHandlerLatencyP99Micros() {
+        Map<String,Long> results = new TreeMap<>();
+        for (Map.Entry<String,LatencyHistogram> e : getHandlerLatencies().entrySet()) {
+            results.put(e.getKey(), TimeUnit.NANOSECONDS.toMicros(e.getValue().getValueAtPercentile(99.0)));
+        }
+        return results;
+    }
+
+    @Override
+    public Map<String,Long> getHandlerLatencyMaxMicros() {
+        Map<String,Long> results = new TreeMap<>();
+        for (Map.Entry<String,LatencyHistogram> e : getHandlerLatencies().entrySet()) {
+            results.put(e.getKey(), TimeUnit.NANOSECONDS.toMicros(e.getValue().getMax()));
+        }
+        return results;
+    }
+
+    @Override
+    public void reset() {
+        postCounts.clear();
+        fanOutCounts.clear();
+        unmarshalFailureCount.set(0);
+        droppedCount.set(0);
+        for (LatencyHistogram h : queueWaits.values()) {
+            h.reset();
+        }
+        for (LatencyHistogram h : getHandlerLatencies().values()) {
+            h.reset();
+        }
+        DeviceVariableUpdateCoalescer c = coalescer;
+        if (c != null) {
+            c.resetCounts();
+        }
+        startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns a JSON representation of all metrics.
+     *
+     * @return a JSONObject
+     */
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        long start = startTime;
+        json.put("startTime", start);
+        json.put("unmarshalFailures", getUnmarshalFailureCount());
+        json.put("dropped", getDroppedCount());
+
+        JSONObject events = new JSONObject();
+        Map<String,Long> fanOuts = getFanOutCounts();
+        double minutes = Math.max(1, System.currentTimeMillis() - start) / 60000.0;
+        for (Map.Entry<String,AtomicLong> e : postCounts.entrySet()) {
+            long posts = e.getValue().get();
+            JSONObject ej = new JSONObject();
+            ej.put("posts", posts);
+            ej.put("postsPerMinute", posts / minutes);
+            ej.put("fanOut", fanOuts.containsKey(e.getKey()) ? fanOuts.get(e.getKey()) : 0);
+            events.put(e.getKey(), ej);
+        }
+        json.put("events", events);
+
+        JSONObject lanes = new JSONObject();
+        for (Map.Entry<EventPriority,LatencyHistogram> e : queueWaits.entrySet()) {
+            lanes.put(e.getKey().toString(), createLatencyJSON(e.getValue()));
+        }
+        json.put("queueWait", lanes);
+
+        DeviceVariableUpdateCoalescer c = coalescer;
+        if (c != null) {
+            JSONObject cj = new JSONObject();
+            cj.put("windowMs", c.getWindow());
+            cj.put("received", c.getReceivedCount());
+            cj.put("suppressed", c.getSuppressedCount());
+            cj.put("emitted", c.getEmittedCount());
+            json.put("coalescer", cj);
+        }
+
+        JSONObject listeners = new JSONObject();
+        for (Map.Entry<String,LatencyHistogram> e : getHandlerLatencies().entrySet()) {
+            listeners.put(e.getKey(), createLatencyJSON(e.getValue()));
+        }
+        json.put("listeners", listeners);
+
+        return json;
+    }
+
+    private JSONObject createLatencyJSON(LatencyHistogram h) {
+        JSONObject lj = new JSONObject();
+        lj.put("count", h.getCount());
+        lj.put("meanMicros", TimeUnit.NANOSECONDS.toMicros((long)h.getMean()));
+        lj.put("p50Micros", TimeUnit.NANOSECONDS.toMicros(h.getValueAtPercentile(50.0)));
+        lj.put("p90Micros", TimeUnit.NANOSECONDS.toMicros(h.getValueAtPercentile(90.0)));
+        lj.put("p99Micros", TimeUnit.NANOSECONDS.toMicros(h.getValueAtPercentile(99.0)));
+        lj.put("maxMicros", TimeUnit.NANOSECONDS.toMicros(h.getMax()));
+        return lj;
+    }
+
+    private void increment(ConcurrentMap<String,AtomicLong> map, String key, long delta) {
+        if (key != null) {
+            AtomicLong l = map.get(key);
+            if (l == null) {
+                AtomicLong nl = new AtomicLong();
+                l = map.putIfAbsent(key, nl);
+                if (l == null) {
+                    l = nl;
+                }
+            }
+            l.addAndGet(delta);
+        }
+    }
+
+    private Map<String,Long> toMap(Map<String,AtomicLong> map) {
+        Map<String,Long> results = new TreeMap<>();
+        for (Map.Entry<String,AtomicLong> e : map.entrySet()) {
+            results.put(e.getKey(), e.getValue().get());
+        }
+        return results;
+    }
+}
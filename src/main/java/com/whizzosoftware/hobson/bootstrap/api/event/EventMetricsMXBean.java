@@ -0,0 +1,75 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.event;
+
+import java.util.Map;
+
+/**
+ * The JMX management interface for event system metrics.
+ *
+ * @author Dan Noguerol
+ */
+public interface EventMetricsMXBean {
+    /**
+     * Returns the number of events posted keyed by event ID.
+     */
+    Map<String,Long> getPostCounts();
+
+    /**
+     * Returns the number of handler invocations that posted events fanned out to keyed by event ID.
+     */
+    Map<String,Long> getFanOutCounts();
+
+    /**
+     * Returns the number of events received by listeners that could not be unmarshaled.
+     */
+    long getUnmarshalFailureCount();
+
+    /**
+     * Returns the number of events that were discarded rather than delivered.
+     */
+    long getDroppedCount();
+
+    /**
+     * Returns the 99th percentile time between an event being posted and a listener callback being invoked in
+     * microseconds keyed by lane (event priority).
+     */
+    Map<String,Long> getQueueWaitP99Micros();
+
+    /**
+     * Returns the number of device variable updates received by the coalescer (0 if coalescing is disabled).
+     */
+    long getCoalescerReceivedCount();
+
+    /**
+     * Returns the number of device variable updates merged into an earlier pending update by the coalescer.
+     */
+    long getCoalescerSuppressedCount();
+
+    /**
+     * Returns the number of aggregated events published by the coalescer.
+     */
+    long getCoalescerEmittedCount();
+
+    /**
+     * Returns the 99th percentile handler latency in microseconds keyed by listener class name.
+     */
+    Map<String,Long> getHandlerLatencyP99Micros();
+
+    /**
+     * Returns the maximum handler latency in microseconds keyed by listener class name.
+     */
+    Map<String,Long> getHandlerLatencyMaxMicros();
+
+    /**
+     * Clears all collected metrics.
+     */
+    void reset();
+}
@@ -0,0 +1,29 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.event;
+
+import com.whizzosoftware.hobson.api.event.HobsonEvent;
+import com.whizzosoftware.hobson.api.hub.HubContext;
+
+/**
+ * Interface for core components that need to observe events synchronously as they are posted (i.e. before any
+ * listener receives them). Implementations must be fast and must not block.
+ *
+ * @author Dan Noguerol
+ */
+public interface EventPostListener {
+    /**
+     * Called on the posting thread for every event posted.
+     *
+     * @param ctx the hub context
+     * @param event the event
+     */
+    void onEventPosted(HubContext ctx, HobsonEvent event);
+}
@@ -0,0 +1,31 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.event;
+
+/**
+ * Interface for event managers that notify EventPostListeners of every event as it is posted.
+ *
+ * @author Dan Noguerol
+ */
+public interface EventPostListenerRegistry {
+    /**
+     * Adds a post listener.
+     *
+     * @param listener the listener
+     */
+    void addPostListener(EventPostListener listener);
+
+    /**
+     * Removes a post listener.
+     *
+     * @param listener the listener
+     */
+    void removePostListener(EventPostListener listener);
+}
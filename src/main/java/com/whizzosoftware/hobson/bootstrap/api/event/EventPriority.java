@@ -0,0 +1,38 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.event;
+
+/**
+ * The delivery lane an event is posted on.
+ *
+ * @author Dan Noguerol
+ */
+public enum EventPriority {
+    /**
+     * Latency-critical events (e.g. those that can fire task triggers). These are delivered by dedicated threads and
+     * jump ahead of normal events queued for the same listener.
+     */
+    HIGH,
+    /**
+     * All other events.
+     */
+    NORMAL;
+
+    /**
+     * Returns the priority with a specific name.
+     *
+     * @param name the priority name (or null)
+     *
+     * @return an EventPriority (NORMAL if the name is null or unknown)
+     */
+    static public EventPriority fromName(String name) {
+        return HIGH.name().equals(name) ? HIGH : NORMAL;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.event;
+
+import com.whizzosoftware.hobson.api.event.HobsonEvent;
+import com.whizzosoftware.hobson.api.event.device.DeviceVariablesUpdateEvent;
+import com.whizzosoftware.hobson.api.event.task.TaskExecutionEvent;
+import com.whizzosoftware.hobson.api.variable.DeviceVariableContext;
+import com.whizzosoftware.hobson.api.variable.DeviceVariableUpdate;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Determines which lane an event should be delivered on. Events with a high priority ID (TaskExecutionEvent by
+ * default) and device variable updates for variables referenced by task conditions are high priority; everything
+ * else is normal priority. Task condition variables are matched on their full context (plugin, device and name) so
+ * a condition on one device's "on" variable doesn't prioritize every other device's "on" updates.
+ *
+ * Additional variables can be made high priority regardless of device with the hobson.event.priorityVariables
+ * system property (a comma-separated list of variable names).
+ *
+ * @author Dan Noguerol
+ */
+public class EventPriorityClassifier {
+    public static final String PROP_PRIORITY_VARIABLES = "hobson.event.priorityVariables";
+
+    private final Set<String> eventIds = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+    private final Set<String> configuredVariables = new HashSet<>();
+    private volatile Set<DeviceVariableContext> triggerVariables = Collections.emptySet();
+
+    public EventPriorityClassifier() {
+        eventIds.add(TaskExecutionEvent.ID);
+        String s = System.getProperty(PROP_PRIORITY_VARIABLES);
+        if (s != null) {
+            for (String name : s.split(",")) {
+                if (name.trim().length() > 0) {
+                    configuredVariables.add(name.trim());
+                }
+            }
+        }
+    }
+
+    public void addHighPriorityEventId(String eventId) {
+        eventIds.add(eventId);
+    }
+
+    /**
+     * Replaces the set of variables referenced by task conditions.
+     *
+     * @param vars the variable contexts
+     */
+    public void setTriggerVariables(Collection<DeviceVariableContext> vars) {
+        triggerVariables = Collections.unmodifiableSet(new HashSet<>(vars));
+    }
+
+    public Set<DeviceVariableContext> getTriggerVariables() {
+        return triggerVariables;
+    }
+
+    /**
+     * Returns the priority of an event.
+     *
+     * @param event the event
+     *
+     * @return an EventPriority
+     */
+    public EventPriority classify(HobsonEvent event) {
+        if (eventIds.contains(event.getEventId())) {
+            return EventPriority.HIGH;
+        } else if (event instanceof DeviceVariablesUpdateEvent) {
+            Set<DeviceVariableContext> vars = triggerVariables;
+            if (!vars.isEmpty() || !configuredVariables.isEmpty()) {
+                Collection<DeviceVariableUpdate> updates = ((DeviceVariablesUpdateEvent)event).getUpdates();
+                if (updates != null) {
+                    for (DeviceVariableUpdate u : updates) {
+                        if (vars.contains(u.getContext()) || configuredVariables.contains(u.getContext().getName())) {
+                            return EventPriority.HIGH;
+                        }
+                    }
+                }
+            }
+        }
+        return EventPriority.NORMAL;
+    }
+}
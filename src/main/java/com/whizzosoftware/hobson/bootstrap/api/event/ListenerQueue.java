@@ -0,0 +1,360 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.event;
+
+import com.whizzosoftware.hobson.api.event.EventCallbackInvoker;
+import com.whizzosoftware.hobson.api.event.HobsonEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An EventCallbackInvoker that gives a single listener its own queue. Callbacks are queued by the delivering
+ * thread and invoked serially on a shared executor so a slow listener only delays its own events. High priority
+ * callbacks are held in a separate queue of the same capacity that is always drained first.
+ *
+ * Queues never lose events by default. Listeners that belong to the hub core (i.e. whose classes are loaded by the
+ * core bundle) get unbounded queues. Other listeners get bounded queues (hobson.event.queueSize per lane) with the
+ * BLOCK overflow policy: when a queue is full the delivering thread waits for space, indefinitely unless
+ * hobson.event.blockTimeout (in milliseconds) is set. Dropping events is opt-in per listener class with the
+ * "hobson.event.overflowPolicy.[listener class name]" system property (DROP_OLDEST or DROP_NEWEST); the queue size
+ * can likewise be set with "hobson.event.queueSize.[listener class name]". hobson.event.overflowPolicy changes
+ * the default for all non-core listeners.
+ *
+ * @author Dan Noguerol
+ */
+public class ListenerQueue implements EventCallbackInvoker {
+    private static final Logger logger = LoggerFactory.getLogger(ListenerQueue.class);
+
+    public static final String PROP_QUEUE_SIZE = "hobson.event.queueSize";
+    public static final String PROP_OVERFLOW_POLICY = "hobson.event.overflowPolicy";
+    public static final String PROP_BLOCK_TIMEOUT = "hobson.event.blockTimeout";
+
+    private static final int MAX_BATCH_SIZE = 100;
+
+    public enum OverflowPolicy {
+        DROP_OLDEST,
+        DROP_NEWEST,
+        BLOCK
+    }
+
+    private final Object listener;
+    private final EventCallbackInvoker delegate;
+    private final int capacity;
+    private final BlockingQueue<Invocation> queue;
+    private final BlockingQueue<Invocation> priorityQueue;
+    private final OverflowPolicy policy;
+    private final long blockTimeoutMs;
+    private final Executor executor;
+    private final EventMetrics metrics;
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final AtomicLong dropCount = new AtomicLong();
+    private final AtomicLong blockCount = new AtomicLong();
+    private final AtomicLong invocationCount = new AtomicLong();
+    private final AtomicLong handlerTimeNanos = new AtomicLong();
+    private volatile long maxHandlerTimeNanos;
+    private volatile boolean closed;
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Creates a ListenerQueue using the queue size and overflow policy system properties.
+     *
+     * @param listener the listener
+     * @param delegate the invoker that performs the actual callback invocation
+     * @param executor the executor to drain the queue with
+     *
+     * @return a ListenerQueue instance
+     */
+    static public ListenerQueue create(Object listener, EventCallbackInvoker delegate, Executor executor) {
+        return create(listener, delegate, executor, null);
+    }
+
+    /**
+     * Creates a ListenerQueue using the queue size and overflow policy system properties.
+     *
+     * @param listener the listener
+     * @param delegate the invoker that performs the actual callback invocation
+     * @param executor the executor to drain the queue with
+     * @param metrics the metrics to record queue wait times and drops to (or null)
+     *
+     * @return a ListenerQueue instance
+     */
+    static public ListenerQueue create(Object listener, EventCallbackInvoker delegate, Executor executor, EventMetrics metrics) {
+        String className = listener.getClass().getName();
+        String policy = System.getProperty(PROP_OVERFLOW_POLICY + "." + className);
+        String size = System.getProperty(PROP_QUEUE_SIZE + "." + className);
+        int capacity;
+        if (policy == null && size == null && isCoreListener(listener)) {
+            // core listeners (task triggers, presence, device availability, etc.) must see every event
+            capacity = 0;
+        } else {
+            capacity = Integer.parseInt(size != null ? size : System.getProperty(PROP_QUEUE_SIZE, "1000"));
+        }
+        if (policy == null) {
+            policy = System.getProperty(PROP_OVERFLOW_POLICY, OverflowPolicy.BLOCK.toString());
+        }
+        return new ListenerQueue(
+            listener,
+            delegate,
+            capacity,
+            OverflowPolicy.valueOf(policy),
+            Long.parseLong(System.getProperty(PROP_BLOCK_TIMEOUT, "0")),
+            executor,
+            metrics
+        );
+    }
+
+    /**
+     * Indicates whether a listener is part of the hub core rather than a plugin.
+     *
+     * @param listener the listener
+     *
+     * @return a boolean
+     */
+    static boolean isCoreListener(Object listener) {
+        return (listener.getClass().getClassLoader() == ListenerQueue.class.getClassLoader());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param listener the listener
+     * @param delegate the invoker that performs the actual callback invocation
+     * @param capacity the maximum number of queued callbacks per priority (0 for unbounded)
+     * @param policy the policy to apply when the queue is full
+     * @param blockTimeoutMs the maximum time to wait for queue space with the BLOCK policy (0 to wait indefinitely)
+     * @param executor the executor to drain the queue with
+     */
+    public ListenerQueue(Object listener, EventCallbackInvoker delegate, int capacity, OverflowPolicy policy, long blockTimeoutMs, Executor executor) {
+        this(listener, delegate, capacity, policy, blockTimeoutMs, executor, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param listener the listener
+     * @param delegate the invoker that performs the actual callback invocation
+     * @param capacity the maximum number of queued callbacks per priority (0 for unbounded)
+     * @param policy the policy to apply when the queue is full
+     * @param blockTimeoutMs the maximum time to wait for queue space with the BLOCK policy (0 to wait indefinitely)
+     * @param executor the executor to drain the queue with
+     * @param metrics the metrics to record queue wait times and drops to (or null)
+     */
+    public ListenerQueue(Object listener, EventCallbackInvoker delegate, int capacity, OverflowPolicy policy, long blockTimeoutMs, Executor executor, EventMetrics metrics) {
+        this.listener = listener;
+        this.delegate = delegate;
+        this.capacity = Math.max(0, capacity);
+        this.queue = (capacity > 0) ? new ArrayBlockingQueue<Invocation>(capacity) : new LinkedBlockingQueue<Invocation>();
+        this.priorityQueue = (capacity > 0) ? new ArrayBlockingQueue<Invocation>(capacity) : new LinkedBlockingQueue<Invocation>();
+        this.policy = policy;
+        this.blockTimeoutMs = blockTimeoutMs;
+        this.executor = executor;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void invoke(Method m, Object o, HobsonEvent e) {
+        invoke(m, o, e, EventPriority.NORMAL, 0);
+    }
+
+    /**
+     * Queues a callback invocation.
+     *
+     * @param m the method to invoke
+     * @param o the listener instance
+     * @param e the event
+     * @param priority the event's priority
+     * @param postTime the System.nanoTime() value at which the event was posted (or 0 if unknown)
+     */
+    public void invoke(Method m, Object o, HobsonEvent e, EventPriority priority, long postTime) {
+        if (closed) {
+            return;
+        }
+
+        Invocation i = new Invocation(m, o, e, priority, postTime != 0 ? postTime : System.nanoTime());
+        BlockingQueue<Invocation> q = (priority == EventPriority.HIGH) ? priorityQueue : queue;
+        switch (policy) {
+            case DROP_NEWEST:
+                if (!q.offer(i)) {
+                    drop(i);
+                }
+                break;
+            case BLOCK:
+                if (!q.offer(i)) {
+                    blockCount.incrementAndGet();
+                    try {
+                        if (blockTimeoutMs <= 0) {
+                            q.put(i);
+                        } else if (!q.offer(i, blockTimeoutMs, TimeUnit.MILLISECONDS)) {
+                            drop(i);
+                        }
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        drop(i);
+                    }
+                }
+                break;
+            default:
+                while (!q.offer(i)) {
+                    Invocation old = q.poll();
+                    if (old != null) {
+                        drop(old);
+                    }
+                }
+                break;
+        }
+
+        schedule();
+    }
+
+    /**
+     * Stops accepting new callbacks and discards any that are queued.
+     */
+    public void close() {
+        closed = true;
+        queue.clear();
+        priorityQueue.clear();
+    }
+
+    public Object getListener() {
+        return listener;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return policy;
+    }
+
+    public int getDepth() {
+        return queue.size() + priorityQueue.size();
+    }
+
+    public int getPriorityDepth() {
+        return priorityQueue.size();
+    }
+
+    /**
+     * Returns the total capacity of the normal and high priority queues.
+     *
+     * @return the capacity (or -1 if the queues are unbounded)
+     */
+    public int getCapacity() {
+        return (capacity > 0) ? capacity * 2 : -1;
+    }
+
+    public boolean isBounded() {
+        return (capacity > 0);
+    }
+
+    public long getDropCount() {
+        return dropCount.get();
+    }
+
+    /**
+     * Returns the number of times a delivering thread had to wait for queue space.
+     *
+     * @return a long
+     */
+    public long getBlockCount() {
+        return blockCount.get();
+    }
+
+    public long getInvocationCount() {
+        return invocationCount.get();
+    }
+
+    public long getTotalHandlerTimeNanos() {
+        return handlerTimeNanos.get();
+    }
+
+    public long getMaxHandlerTimeNanos() {
+        return maxHandlerTimeNanos;
+    }
+
+    private void drop(Invocation i) {
+        if (metrics != null) {
+            metrics.recordDrop();
+        }
+        long c = dropCount.incrementAndGet();
+        if (c == 1 || c % 100 == 0) {
+            logger.warn("Event queue for listener {} is full; {} event(s) dropped so far (latest: {})", listener, c, i.event);
+        }
+    }
+
+    private void schedule() {
+        if ((!queue.isEmpty() || !priorityQueue.isEmpty()) && scheduled.compareAndSet(false, true)) {
+            executor.execute(drainTask);
+        }
+    }
+
+    private void drain() {
+        try {
+            Invocation i;
+            int count = 0;
+            while (count < MAX_BATCH_SIZE && !closed && (i = poll()) != null) {
+                long start = System.nanoTime();
+                if (metrics != null) {
+                    metrics.recordQueueWait(i.priority, start - i.postTime);
+                }
+                try {
+                    delegate.invoke(i.method, i.listener, i.event);
+                } catch (Throwable t) {
+                    logger.error("Error invoking event callback for listener " + listener, t);
+                }
+                long time = System.nanoTime() - start;
+                invocationCount.incrementAndGet();
+                handlerTimeNanos.addAndGet(time);
+                if (time > maxHandlerTimeNanos) {
+                    maxHandlerTimeNanos = time;
+                }
+                count++;
+            }
+        } finally {
+            scheduled.set(false);
+            // re-schedule if there's more work (either the batch limit was hit or callbacks arrived while finishing)
+            if (!closed) {
+                schedule();
+            }
+        }
+    }
+
+    private Invocation poll() {
+        Invocation i = priorityQueue.poll();
+        return i != null ? i : queue.poll();
+    }
+
+    private class Invocation {
+        final Method method;
+        final Object listener;
+        final HobsonEvent event;
+        final EventPriority priority;
+        final long postTime;
+
+        Invocation(Method method, Object listener, HobsonEvent event, EventPriority priority, long postTime) {
+            this.method = method;
+            this.listener = listener;
+            this.event = event;
+            this.priority = priority;
+            this.postTime = postTime;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.event;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+
+/**
+ * Tracks an event listener registered with the OSGIEventManager: its EventAdmin service registration, the topics it
+ * is subscribed to and its listener queue.
+ *
+ * A listener whose handlers don't (yet) map to any known event topics is tracked without an EventAdmin service
+ * registration; one is created by updateTopics() once topics become available and removed if they all disappear.
+ *
+ * @author Dan Noguerol
+ */
+public class ListenerRegistration {
+    private final Object listener;
+    private final EventHandlerAdapter adapter;
+    private volatile List<String> topics = Collections.emptyList();
+    private final ListenerQueue queue;
+    private final BundleContext context;
+    private ServiceRegistration serviceRegistration;
+    private final long registrationTime;
+
+    public ListenerRegistration(Object listener, EventHandlerAdapter adapter, ListenerQueue queue, BundleContext context) {
+        this.listener = listener;
+        this.adapter = adapter;
+        this.queue = queue;
+        this.context = context;
+        this.registrationTime = System.currentTimeMillis();
+    }
+
+    public Object getListener() {
+        return listener;
+    }
+
+    public String getListenerClassName() {
+        return listener.getClass().getName();
+    }
+
+    public List<String> getTopics() {
+        return topics;
+    }
+
+    public ListenerQueue getQueue() {
+        return queue;
+    }
+
+    /**
+     * Indicates whether the listener currently has an EventAdmin service registration (i.e. it has topics).
+     *
+     * @return a boolean
+     */
+    synchronized public boolean isSubscribed() {
+        return (serviceRegistration != null);
+    }
+
+    public long getRegistrationTime() {
+        return registrationTime;
+    }
+
+    public long getDeliveryCount() {
+        return queue.getInvocationCount();
+    }
+
+    public long getDropCount() {
+        return queue.getDropCount();
+    }
+
+    /**
+     * Re-computes the listener's topics and registers, updates or unregisters its EventAdmin service accordingly.
+     *
+     * @return true if the topics changed
+     */
+    synchronized boolean updateTopics() {
+        List<String> newTopics = Collections.unmodifiableList(Arrays.asList(adapter.getTopics()));
+        if (newTopics.equals(topics) && (serviceRegistration != null) == !newTopics.isEmpty()) {
+            return false;
+        }
+        if (newTopics.isEmpty()) {
+            unregisterService();
+        } else {
+            Hashtable ht = new Hashtable();
+            ht.put(EventConstants.EVENT_TOPIC, newTopics.toArray(new String[newTopics.size()]));
+            if (serviceRegistration == null) {
+                serviceRegistration = context.registerService(EventHandler.class.getName(), adapter, ht);
+            } else {
+                serviceRegistration.setProperties(ht);
+            }
+        }
+        topics = newTopics;
+        return true;
+    }
+
+    /**
+     * Unregisters the listener from EventAdmin and discards any queued callbacks.
+     */
+    synchronized void unregister() {
+        unregisterService();
+        queue.close();
+    }
+
+    private void unregisterService() {
+        if (serviceRegistration != null) {
+            try {
+                serviceRegistration.unregister();
+            } catch (IllegalStateException ignored) {
+                // the service has already been unregistered (e.g. the framework is shutting down)
+            }
+            serviceRegistration = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getListenerClassName() + " " + topics + " (delivered=" + getDeliveryCount() + ", dropped=" + getDropCount() + ", blocked=" + queue.getBlockCount() + ", depth=" + queue.getDepth() + ")";
+    }
+}
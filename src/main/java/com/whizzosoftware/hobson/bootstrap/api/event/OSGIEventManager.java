@@ -10,68 +10,139 @@
 package com.whizzosoftware.hobson.bootstrap.api.event;
 
 import com.whizzosoftware.hobson.api.event.*;
-import com.whizzosoftware.hobson.api.event.advertisement.DeviceAdvertisementEvent;
-import com.whizzosoftware.hobson.api.event.device.*;
-import com.whizzosoftware.hobson.api.event.hub.HubConfigurationUpdateEvent;
-import com.whizzosoftware.hobson.api.event.plugin.PluginConfigurationUpdateEvent;
-import com.whizzosoftware.hobson.api.event.plugin.PluginStatusChangeEvent;
-import com.whizzosoftware.hobson.api.event.presence.PresenceUpdateNotificationEvent;
-import com.whizzosoftware.hobson.api.event.presence.PresenceUpdateRequestEvent;
-import com.whizzosoftware.hobson.api.event.task.*;
 import com.whizzosoftware.hobson.api.hub.HubContext;
+import com.whizzosoftware.hobson.api.osgi.event.EventTypeProvider;
 import com.whizzosoftware.hobson.bootstrap.api.util.EventUtil;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.FrameworkUtil;
-import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.event.Event;
 import org.osgi.service.event.EventAdmin;
-import org.osgi.service.event.EventConstants;
-import org.osgi.service.event.EventHandler;
+import org.osgi.util.tracker.ServiceTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Method;
-import java.util.HashMap;
-import java.util.Hashtable;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * An OSGi implementation of EventManager.
  *
+ * Events are delivered on one of two lanes. Normal events are posted asynchronously to EventAdmin. High priority
+ * events (see EventPriorityClassifier) bypass coalescing and the EventAdmin delivery queue; they are sent
+ * synchronously by a small pool of dedicated threads and are queued ahead of normal events by each listener's
+ * ListenerQueue. No ordering is guaranteed between the two lanes.
+ *
  * @author Dan Noguerol
  */
-public class OSGIEventManager implements EventManager, EventCallbackInvoker {
+public class OSGIEventManager implements EventManager, EventCallbackInvoker, EventPostListenerRegistry {
     private static final Logger logger = LoggerFactory.getLogger(OSGIEventManager.class);
 
+    public static final String PROP_PRIORITY_THREADS = "hobson.event.priorityThreads";
+
     volatile private EventAdmin eventAdmin;
 
-    private final Map<Object,ServiceRegistration> serviceRegMap = new HashMap<>();
+    private final Map<Object,ListenerRegistration> registrationMap = new HashMap<>();
+    private final ExecutorService listenerExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Event Listener Thread");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private final ExecutorService priorityExecutor = Executors.newFixedThreadPool(Integer.parseInt(System.getProperty(PROP_PRIORITY_THREADS, "2")), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Event Priority Thread");
+            t.setDaemon(true);
+            t.setPriority(Thread.MAX_PRIORITY);
+            return t;
+        }
+    });
+    private final EventPriorityClassifier priorityClassifier = new EventPriorityClassifier();
+    private final List<EventPostListener> postListeners = new CopyOnWriteArrayList<>();
     private final EventFactory eventFactory = new EventFactory();
+    private final EventMetrics metrics = new EventMetrics();
+    private ServiceTracker providerTracker;
+    private final DeviceVariableUpdateCoalescer coalescer = DeviceVariableUpdateCoalescer.create(new DeviceVariableUpdateCoalescer.Publisher() {
+        @Override
+        public void publish(HubContext ctx, HobsonEvent event) {
+            publishEvent(ctx, event);
+        }
+    });
 
     public OSGIEventManager() {
+        // register all event types declared via META-INF/services
+        eventFactory.loadServiceProviders(getClass().getClassLoader());
+        metrics.setCoalescer(coalescer);
+    }
+
+    public void start() {
+        // track event types contributed by other bundles
+        Bundle bundle = FrameworkUtil.getBundle(getClass());
+        if (bundle != null && bundle.getBundleContext() != null) {
+            providerTracker = new ServiceTracker(bundle.getBundleContext(), EventTypeProvider.class.getName(), null) {
+                @Override
+                public Object addingService(ServiceReference ref) {
+                    Object o = super.addingService(ref);
+                    if (o instanceof EventTypeProvider) {
+                        logger.debug("Adding event type provider: {}", o);
+                        eventFactory.addEventTypeProvider((EventTypeProvider)o);
+                        refreshListenerTopics();
+                    }
+                    return o;
+                }
+
+                @Override
+                public void removedService(ServiceReference ref, Object service) {
+                    if (service instanceof EventTypeProvider) {
+                        logger.debug("Removing event type provider: {}", service);
+                        eventFactory.removeEventTypeProvider((EventTypeProvider)service);
+                        refreshListenerTopics();
+                    }
+                    super.removedService(ref, service);
+                }
+            };
+            providerTracker.open();
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(EventMetrics.OBJECT_NAME));
+        } catch (Exception e) {
+            logger.warn("Unable to register event metrics MBean", e);
+        }
+    }
+
+    public void stop() {
+        if (providerTracker != null) {
+            providerTracker.close();
+            providerTracker = null;
+        }
         try {
-            eventFactory.addEventClass(DeviceAdvertisementEvent.ID, DeviceAdvertisementEvent.class);
-            eventFactory.addEventClass(DeviceAvailableEvent.ID, DeviceAvailableEvent.class);
-            eventFactory.addEventClass(DeviceCheckInEvent.ID, DeviceCheckInEvent.class);
-            eventFactory.addEventClass(DeviceConfigurationUpdateEvent.ID, DeviceConfigurationUpdateEvent.class);
-            eventFactory.addEventClass(DeviceDeletedEvent.ID, DeviceDeletedEvent.class);
-            eventFactory.addEventClass(DeviceStartedEvent.ID, DeviceStartedEvent.class);
-            eventFactory.addEventClass(DeviceStoppedEvent.ID, DeviceStoppedEvent.class);
-            eventFactory.addEventClass(DeviceUnavailableEvent.ID, DeviceUnavailableEvent.class);
-            eventFactory.addEventClass(DeviceVariablesUpdateEvent.ID, DeviceVariablesUpdateEvent.class);
-            eventFactory.addEventClass(DeviceVariablesUpdateRequestEvent.ID, DeviceVariablesUpdateRequestEvent.class);
-            eventFactory.addEventClass(HubConfigurationUpdateEvent.ID, HubConfigurationUpdateEvent.class);
-            eventFactory.addEventClass(PluginConfigurationUpdateEvent.ID, PluginConfigurationUpdateEvent.class);
-            eventFactory.addEventClass(PluginStatusChangeEvent.ID, PluginStatusChangeEvent.class);
-            eventFactory.addEventClass(PresenceUpdateNotificationEvent.ID, PresenceUpdateNotificationEvent.class);
-            eventFactory.addEventClass(PresenceUpdateRequestEvent.ID, PresenceUpdateRequestEvent.class);
-            eventFactory.addEventClass(TaskDeletedEvent.ID, TaskDeletedEvent.class);
-            eventFactory.addEventClass(TaskExecutionEvent.ID, TaskExecutionEvent.class);
-            eventFactory.addEventClass(TaskRegistrationEvent.ID, TaskRegistrationEvent.class);
-            eventFactory.addEventClass(TaskUpdatedEvent.ID, TaskUpdatedEvent.class);
-        } catch (NoSuchMethodException e) {
-            logger.error("An error occurred during event registration", e);
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(EventMetrics.OBJECT_NAME));
+        } catch (Exception e) {
+            logger.debug("Unable to unregister event metrics MBean", e);
         }
+        if (coalescer != null) {
+            coalescer.stop();
+        }
+        synchronized (registrationMap) {
+            for (ListenerRegistration r : registrationMap.values()) {
+                r.unregister();
+            }
+            registrationMap.clear();
+        }
+        priorityExecutor.shutdown();
+        listenerExecutor.shutdown();
     }
 
     @Override
@@ -81,43 +152,170 @@ public class OSGIEventManager implements EventManager, EventCallbackInvoker {
 
     @Override
     public void addListener(HubContext ctx, Object listener, EventCallbackInvoker invoker) {
-        Hashtable ht = new Hashtable();
-        ht.put(EventConstants.EVENT_TOPIC, EventTopics.GLOBAL);
+        // each listener gets its own bounded queue so a slow listener can't hold up delivery to others
+        ListenerQueue queue = ListenerQueue.create(listener, invoker, listenerExecutor, metrics);
+        EventHandlerAdapter adapter = new EventHandlerAdapter(eventFactory, listener, queue, metrics);
 
-        synchronized (serviceRegMap) {
-            if (serviceRegMap.containsKey(listener)) {
-                serviceRegMap.get(listener).unregister();
+        synchronized (registrationMap) {
+            ListenerRegistration old = registrationMap.remove(listener);
+            if (old != null) {
+                old.unregister();
             }
-            Bundle bundle = FrameworkUtil.getBundle(getClass());
-            if (bundle != null) {
-                BundleContext context = bundle.getBundleContext();
-                if (context != null) {
-                    ServiceRegistration sr = context.registerService(EventHandler.class.getName(), new EventHandlerAdapter(eventFactory, listener, invoker), ht);
-                    if (sr != null) {
-                        serviceRegMap.put(listener, sr);
-                    } else {
-                        logger.error("Received null service registration registering listener: " + listener);
-                    }
+            BundleContext context = getBundleContext();
+            if (context != null) {
+                // the listener is tracked even without topics so it's subscribed if matching event types appear
+                ListenerRegistration r = new ListenerRegistration(listener, adapter, queue, context);
+                r.updateTopics();
+                registrationMap.put(listener, r);
+                metrics.addListenerClass(listener.getClass());
+                if (r.isSubscribed()) {
+                    logger.debug("Registered listener {} for topics {}; {} listener(s) registered", listener, r.getTopics(), registrationMap.size());
+                } else {
+                    logger.debug("Listener {} has no @EventHandler methods for known events; it will be subscribed when they become available", listener);
                 }
             }
         }
     }
 
+    /**
+     * Returns the bundle context used to register listeners with EventAdmin.
+     *
+     * @return a BundleContext (or null if not running in an OSGi framework)
+     */
+    protected BundleContext getBundleContext() {
+        Bundle bundle = FrameworkUtil.getBundle(getClass());
+        return (bundle != null) ? bundle.getBundleContext() : null;
+    }
+
+    public void setEventAdmin(EventAdmin eventAdmin) {
+        this.eventAdmin = eventAdmin;
+    }
+
+    /**
+     * Re-computes the topics of all registered listeners. This is necessary when event types are added or removed
+     * since listeners may be interested in them via a superclass.
+     */
+    protected void refreshListenerTopics() {
+        synchronized (registrationMap) {
+            for (ListenerRegistration r : registrationMap.values()) {
+                r.updateTopics();
+            }
+        }
+    }
+
+    @Override
+    public void addPostListener(EventPostListener listener) {
+        postListeners.add(listener);
+    }
+
+    @Override
+    public void removePostListener(EventPostListener listener) {
+        postListeners.remove(listener);
+    }
+
+    /**
+     * Returns the classifier used to determine which lane posted events are delivered on.
+     *
+     * @return an EventPriorityClassifier instance
+     */
+    public EventPriorityClassifier getPriorityClassifier() {
+        return priorityClassifier;
+    }
+
+    /**
+     * Returns the event system metrics.
+     *
+     * @return an EventMetrics instance
+     */
+    public EventMetrics getEventMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns a snapshot of all registered listeners.
+     *
+     * @return a Collection of ListenerRegistration objects
+     */
+    public Collection<ListenerRegistration> getListenerRegistrations() {
+        synchronized (registrationMap) {
+            return new ArrayList<>(registrationMap.values());
+        }
+    }
+
     @Override
     public void removeListener(HubContext ctx, Object listener) {
-        // TODO
+        synchronized (registrationMap) {
+            ListenerRegistration r = registrationMap.remove(listener);
+            if (r != null) {
+                r.unregister();
+                logger.debug("Removed listener {}; {} listener(s) registered", listener, registrationMap.size());
+            } else {
+                logger.debug("Attempt to remove unregistered listener: {}", listener);
+            }
+        }
     }
 
     @Override
     public void postEvent(HubContext ctx, HobsonEvent event) {
-        logger.trace("Posting event for {}: {}", ctx, event);
-        eventAdmin.postEvent(EventUtil.createEventFromHobsonEvent(event));
+        postEvent(ctx, event, priorityClassifier.classify(event));
+    }
+
+    /**
+     * Posts an event with an explicit priority.
+     *
+     * @param ctx the hub context
+     * @param event the event
+     * @param priority the lane to deliver the event on
+     */
+    public void postEvent(HubContext ctx, HobsonEvent event, EventPriority priority) {
+        for (EventPostListener l : postListeners) {
+            try {
+                l.onEventPosted(ctx, event);
+            } catch (Throwable t) {
+                logger.error("Error notifying post listener " + l, t);
+            }
+        }
+
+        if (priority == EventPriority.HIGH) {
+            // high priority events are never held back; flush anything pending so it isn't published after them
+            if (coalescer != null) {
+                coalescer.flush(ctx);
+            }
+            publishEvent(ctx, event, priority);
+        } else if (coalescer == null || !coalescer.offer(ctx, event)) {
+            publishEvent(ctx, event, priority);
+        }
+    }
+
+    protected void publishEvent(HubContext ctx, HobsonEvent event) {
+        publishEvent(ctx, event, EventPriority.NORMAL);
+    }
+
+    protected void publishEvent(HubContext ctx, HobsonEvent event, EventPriority priority) {
+        logger.trace("Posting {} priority event for {}: {}", priority, ctx, event);
+        metrics.recordPost(event.getEventId());
+        final Event e = EventUtil.createEventFromHobsonEvent(event, priority.name());
+        if (priority == EventPriority.HIGH) {
+            try {
+                priorityExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        eventAdmin.sendEvent(e);
+                    }
+                });
+            } catch (RejectedExecutionException ree) {
+                logger.debug("Priority lane is shut down; posting event asynchronously", ree);
+                eventAdmin.postEvent(e);
+            }
+        } else {
+            eventAdmin.postEvent(e);
+        }
     }
 
     @Override
     public void invoke(Method m, Object o, HobsonEvent e) {
         try {
-            m.invoke(o, e);
+            EventDispatchTable.forClass(o.getClass()).invoke(m, o, e);
         } catch (Throwable t) {
             logger.error("Error invoking event callback", t);
         }
@@ -0,0 +1,417 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.event;
+
+import com.whizzosoftware.hobson.api.event.EventCallbackInvoker;
+import com.whizzosoftware.hobson.api.event.EventManager;
+import com.whizzosoftware.hobson.api.event.HobsonEvent;
+import com.whizzosoftware.hobson.api.hub.HubContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An in-process implementation of EventManager that doesn't use OSGi EventAdmin. Events are published into a
+ * pre-allocated ring buffer and delivered directly to listeners by one or more dispatcher threads. Each listener is
+ * assigned to a single dispatcher thread so that it receives events in the order they were posted.
+ *
+ * Producers claim slots with a CAS on the ring sequence and are only held up when the slowest dispatcher is a full
+ * ring behind. A dispatcher can't wait on itself, so when a listener posts an event into a full ring the event is
+ * placed on each dispatcher's overflow queue instead (events beyond the overflow capacity are dropped and counted).
+ * Overflowed events are delivered by their own dispatcher threads in the order they were posted relative to the
+ * ring.
+ *
+ * This is an experimental alternative to OSGIEventManager (enabled with hobson.event.manager=ringbuffer) and doesn't
+ * provide all of its features:
+ * <ul>
+ *   <li>There are no per-listener queues or overflow policies. Listeners on the same dispatcher are invoked
+ *   serially, so a slow handler delays every listener assigned to its dispatcher. Handlers that take longer than
+ *   hobson.event.slowHandlerThreshold milliseconds are logged and counted.</li>
+ *   <li>There is no high priority lane; all events are delivered in post order.</li>
+ *   <li>Events are delivered as objects and never unmarshaled, so EventTypeProvider services aren't used.</li>
+ * </ul>
+ * Post counts, fan-out, queue wait (on the NORMAL lane), handler latency and dropped events are reported through the
+ * same EventMetrics MBean as OSGIEventManager, and EventPostListeners are supported.
+ *
+ * @author Dan Noguerol
+ */
+public class RingBufferEventManager implements EventManager, EventCallbackInvoker, EventPostListenerRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(RingBufferEventManager.class);
+
+    public static final String PROP_BUFFER_SIZE = "hobson.event.bufferSize";
+    public static final String PROP_DISPATCHER_COUNT = "hobson.event.dispatchers";
+    public static final String PROP_SLOW_HANDLER_THRESHOLD = "hobson.event.slowHandlerThreshold";
+
+    private static final int DEFAULT_BUFFER_SIZE = 4096;
+    private static final int DEFAULT_DISPATCHER_COUNT = 1;
+    private static final long IDLE_PARK_NANOS = 1000000;
+    private static final long FULL_PARK_NANOS = 1000;
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<HobsonEvent> entries;
+    private final AtomicLongArray published;
+    private final AtomicLongArray postTimes;
+    private final AtomicIntegerArray pendingDispatchers;
+    private final AtomicLong nextSequence = new AtomicLong(0);
+    private final Dispatcher[] dispatchers;
+    private final AtomicInteger nextDispatcher = new AtomicInteger(0);
+    private final long slowHandlerNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(System.getProperty(PROP_SLOW_HANDLER_THRESHOLD, "100")));
+    private final AtomicLong slowHandlerCount = new AtomicLong();
+    private final List<EventPostListener> postListeners = new CopyOnWriteArrayList<>();
+    private final EventMetrics metrics = new EventMetrics();
+    private final DeviceVariableUpdateCoalescer coalescer = DeviceVariableUpdateCoalescer.create(new DeviceVariableUpdateCoalescer.Publisher() {
+        @Override
+        public void publish(HubContext ctx, HobsonEvent event) {
+            publishEvent(ctx, event);
+        }
+    });
+
+    public RingBufferEventManager() {
+        this(Integer.parseInt(System.getProperty(PROP_BUFFER_SIZE, Integer.toString(DEFAULT_BUFFER_SIZE))), Integer.parseInt(System.getProperty(PROP_DISPATCHER_COUNT, Integer.toString(DEFAULT_DISPATCHER_COUNT))));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param bufferSize the ring buffer size (will be rounded up to a power of 2)
+     * @param dispatcherCount the number of dispatcher threads
+     */
+    public RingBufferEventManager(int bufferSize, int dispatcherCount) {
+        int size = 1;
+        while (size < bufferSize) {
+            size <<= 1;
+        }
+        capacity = size;
+        mask = size - 1;
+        entries = new AtomicReferenceArray<>(size);
+        published = new AtomicLongArray(size);
+        postTimes = new AtomicLongArray(size);
+        pendingDispatchers = new AtomicIntegerArray(size);
+        for (int i=0; i < size; i++) {
+            published.set(i, -1);
+        }
+        dispatchers = new Dispatcher[Math.max(1, dispatcherCount)];
+        for (int i=0; i < dispatchers.length; i++) {
+            dispatchers[i] = new Dispatcher(i);
+        }
+        metrics.setCoalescer(coalescer);
+    }
+
+    public void start() {
+        logger.warn("Using the ring buffer event manager: listeners have no individual queues, there is no high priority lane and a slow listener delays all listeners on its dispatcher");
+        logger.debug("Starting {} event dispatcher(s) with buffer size {}", dispatchers.length, capacity);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(EventMetrics.OBJECT_NAME));
+        } catch (Exception e) {
+            logger.warn("Unable to register event metrics MBean", e);
+        }
+        for (Dispatcher d : dispatchers) {
+            d.start();
+        }
+    }
+
+    public void stop() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(EventMetrics.OBJECT_NAME));
+        } catch (Exception e) {
+            logger.debug("Unable to unregister event metrics MBean", e);
+        }
+        if (coalescer != null) {
+            coalescer.stop();
+        }
+        for (Dispatcher d : dispatchers) {
+            d.shutdown();
+        }
+        for (Dispatcher d : dispatchers) {
+            try {
+                d.join(5000);
+            } catch (InterruptedException ignored) {}
+        }
+    }
+
+    @Override
+    public void addListener(HubContext ctx, Object listener) {
+        addListener(ctx, listener, this);
+    }
+
+    @Override
+    public void addListener(HubContext ctx, Object listener, EventCallbackInvoker invoker) {
+        synchronized (dispatchers) {
+            removeListener(ctx, listener);
+            Dispatcher d = dispatchers[(nextDispatcher.getAndIncrement() & Integer.MAX_VALUE) % dispatchers.length];
+            d.listeners.add(new ListenerRegistration(listener, invoker));
+            metrics.addListenerClass(listener.getClass());
+            logger.debug("Registered listener {} with dispatcher {}", listener, d.getName());
+        }
+    }
+
+    @Override
+    public void removeListener(HubContext ctx, Object listener) {
+        synchronized (dispatchers) {
+            for (Dispatcher d : dispatchers) {
+                for (ListenerRegistration r : d.listeners) {
+                    if (r.listener == listener) {
+                        d.listeners.remove(r);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void addPostListener(EventPostListener listener) {
+        postListeners.add(listener);
+    }
+
+    @Override
+    public void removePostListener(EventPostListener listener) {
+        postListeners.remove(listener);
+    }
+
+    /**
+     * Returns the event system metrics.
+     *
+     * @return an EventMetrics instance
+     */
+    public EventMetrics getEventMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void postEvent(HubContext ctx, HobsonEvent event) {
+        for (EventPostListener l : postListeners) {
+            try {
+                l.onEventPosted(ctx, event);
+            } catch (Throwable t) {
+                logger.error("Error notifying post listener " + l, t);
+            }
+        }
+
+        if (coalescer == null || !coalescer.offer(ctx, event)) {
+            publishEvent(ctx, event);
+        }
+    }
+
+    protected void publishEvent(HubContext ctx, HobsonEvent event) {
+        logger.trace("Posting event for {}: {}", ctx, event);
+        metrics.recordPost(event.getEventId());
+        long postTime = System.nanoTime();
+
+        // claim the next sequence
+        long seq;
+        while (true) {
+            seq = nextSequence.get();
+            if (seq - getMinimumCursor() >= capacity) {
+                // if a dispatcher is posting an event into a full ring, it would wait on itself forever so the
+                // event is queued for each dispatcher to deliver once it has caught up to the current sequence
+                if (Thread.currentThread() instanceof Dispatcher) {
+                    logger.debug("Event ring buffer is full; queuing event for overflow delivery: {}", event);
+                    for (Dispatcher d : dispatchers) {
+                        d.overflow(seq, event, postTime);
+                    }
+                    return;
+                }
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+            } else if (nextSequence.compareAndSet(seq, seq + 1)) {
+                break;
+            }
+        }
+
+        // publish the event into the slot
+        int ix = (int)(seq & mask);
+        entries.set(ix, event);
+        postTimes.set(ix, postTime);
+        pendingDispatchers.set(ix, dispatchers.length);
+        published.set(ix, seq);
+
+        // wake any idle dispatchers
+        for (Dispatcher d : dispatchers) {
+            if (d.waiting) {
+                LockSupport.unpark(d);
+            }
+        }
+    }
+
+    @Override
+    public void invoke(Method m, Object o, HobsonEvent e) {
+        try {
+            EventDispatchTable.forClass(o.getClass()).invoke(m, o, e);
+        } catch (Throwable t) {
+            logger.error("Error invoking event callback", t);
+        }
+    }
+
+    /**
+     * Returns the number of events dropped because a dispatcher's overflow queue was full.
+     *
+     * @return a long
+     */
+    public long getDroppedCount() {
+        return metrics.getDroppedCount();
+    }
+
+    /**
+     * Returns the number of handler invocations that took longer than the slow handler threshold.
+     *
+     * @return a long
+     */
+    public long getSlowHandlerCount() {
+        return slowHandlerCount.get();
+    }
+
+    private long getMinimumCursor() {
+        long min = Long.MAX_VALUE;
+        for (Dispatcher d : dispatchers) {
+            min = Math.min(min, d.cursor);
+        }
+        return min;
+    }
+
+    private class Dispatcher extends Thread {
+        private final List<ListenerRegistration> listeners = new CopyOnWriteArrayList<>();
+        private final Queue<OverflowEvent> overflowQueue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger overflowSize = new AtomicInteger();
+        private volatile long cursor = 0;
+        private volatile boolean waiting;
+        private volatile boolean running = true;
+
+        Dispatcher(int index) {
+            super("Hobson Event Dispatcher " + index);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                long c = cursor;
+                drainOverflow(c);
+                int ix = (int)(c & mask);
+                if (published.get(ix) == c) {
+                    dispatch(entries.get(ix), postTimes.get(ix));
+                    // release the slot's event once every dispatcher has delivered it
+                    if (pendingDispatchers.decrementAndGet(ix) == 0) {
+                        entries.set(ix, null);
+                    }
+                    cursor = c + 1;
+                } else {
+                    waiting = true;
+                    if (published.get(ix) != c && !isOverflowReady(c) && running) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    waiting = false;
+                }
+            }
+        }
+
+        /**
+         * Queues an event that couldn't be published into the ring.
+         *
+         * @param sequence the next unclaimed ring sequence when the event was posted
+         * @param event the event
+         * @param postTime the System.nanoTime() value at which the event was posted
+         */
+        void overflow(long sequence, HobsonEvent event, long postTime) {
+            if (overflowSize.incrementAndGet() > capacity) {
+                overflowSize.decrementAndGet();
+                metrics.recordDrop();
+                logger.warn("Event overflow queue for {} is full; dropping event: {}", getName(), event);
+            } else {
+                overflowQueue.add(new OverflowEvent(sequence, event, postTime));
+                LockSupport.unpark(this);
+            }
+        }
+
+        /**
+         * Delivers overflowed events that were posted before the ring event at a sequence was claimed.
+         *
+         * @param c the sequence about to be delivered
+         */
+        private void drainOverflow(long c) {
+            while (isOverflowReady(c)) {
+                OverflowEvent oe = overflowQueue.poll();
+                overflowSize.decrementAndGet();
+                dispatch(oe.event, oe.postTime);
+            }
+        }
+
+        private boolean isOverflowReady(long c) {
+            OverflowEvent oe = overflowQueue.peek();
+            return (oe != null && oe.sequence <= c);
+        }
+
+        void dispatch(HobsonEvent event, long postTime) {
+            int invocations = 0;
+            for (ListenerRegistration r : listeners) {
+                for (Method m : r.table.getMethods(event.getClass())) {
+                    long start = System.nanoTime();
+                    metrics.recordQueueWait(EventPriority.NORMAL, start - postTime);
+                    try {
+                        r.invoker.invoke(m, r.listener, event);
+                    } catch (Throwable t) {
+                        logger.error("Error dispatching event to " + r.listener, t);
+                    }
+                    long time = System.nanoTime() - start;
+                    if (time > slowHandlerNanos) {
+                        long c = slowHandlerCount.incrementAndGet();
+                        if (c == 1 || c % 100 == 0) {
+                            logger.warn("Listener {} took {}ms to handle {}, delaying the other listeners on {} ({} slow invocation(s) so far)", r.listener, TimeUnit.NANOSECONDS.toMillis(time), event.getEventId(), getName(), c);
+                        }
+                    }
+                    invocations++;
+                }
+            }
+            metrics.recordFanOut(event.getEventId(), invocations);
+        }
+
+        void shutdown() {
+            running = false;
+            LockSupport.unpark(this);
+        }
+    }
+
+    private static class OverflowEvent {
+        final long sequence;
+        final HobsonEvent event;
+        final long postTime;
+
+        OverflowEvent(long sequence, HobsonEvent event, long postTime) {
+            this.sequence = sequence;
+            this.event = event;
+            this.postTime = postTime;
+        }
+    }
+
+    private class ListenerRegistration {
+        final Object listener;
+        final EventCallbackInvoker invoker;
+        final EventDispatchTable table;
+
+        ListenerRegistration(Object listener, EventCallbackInvoker invoker) {
+            this.listener = listener;
+            this.invoker = invoker;
+            this.table = EventDispatchTable.forClass(listener.getClass());
+        }
+    }
+}
@@ -25,6 +25,7 @@ import com.whizzosoftware.hobson.api.task.TaskManager;
 import com.whizzosoftware.hobson.api.task.TaskProvider;
 import com.whizzosoftware.hobson.api.variable.DeviceVariableDescriptor;
 import com.whizzosoftware.hobson.api.variable.DeviceVariableState;
+import com.whizzosoftware.hobson.bootstrap.api.event.EventDispatchTable;
 import io.netty.util.concurrent.Future;
 import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
@@ -112,6 +113,9 @@ public class HobsonPluginEventLoopWrapper implements HobsonPlugin, ServiceListen
             // remove the service listener
             FrameworkUtil.getBundle(getClass()).getBundleContext().removeServiceListener(this);
 
+            // stop delivering events to the plugin
+            eventManager.removeListener(plugin.getContext().getHubContext(), plugin);
+
             final PluginContext pctx = plugin.getContext();
             final BlockingQueue<Object> blockingQueue = new ArrayBlockingQueue<>(1);
 
@@ -323,7 +327,7 @@ public class HobsonPluginEventLoopWrapper implements HobsonPlugin, ServiceListen
                         @Override
                         public void run() {
                             try {
-                                m.invoke(o, e);
+                                EventDispatchTable.forClass(o.getClass()).invoke(m, o, e);
                             } catch (Throwable t) {
                                 logger.error("Error invoking event callback", t);
                             }
@@ -20,15 +20,13 @@ import com.whizzosoftware.hobson.api.plugin.PluginManager;
 import com.whizzosoftware.hobson.api.presence.*;
 import com.whizzosoftware.hobson.api.presence.store.PresenceStore;
 import com.whizzosoftware.hobson.bootstrap.api.presence.store.MapDBPresenceStore;
+import com.whizzosoftware.hobson.bootstrap.util.FlushableStore;
 import org.osgi.framework.FrameworkUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import java.util.*;
-import java.util.concurrent.Future;
-import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.TimeUnit;
 
 /**
  * An OSGi implementation of PresenceManager.
@@ -47,7 +45,6 @@ public class OSGIPresenceManager implements PresenceManager {
 
     private PresenceStore presenceStore;
     private Map<PresenceEntityContext,PresenceLocationContext> entityLocations = new HashMap<>();
-    private Future housekeepingFuture;
 
     public void start() {
         // listen for presence events
@@ -62,30 +59,22 @@ public class OSGIPresenceManager implements PresenceManager {
                 )
             );
         }
+    }
 
-        // schedule housekeeping
-        if (executorManager != null) {
-            housekeepingFuture = executorManager.schedule(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        presenceStore.performHousekeeping();
-                    } catch (Throwable t) {
-                        logger.error("Error performing presence store housekeeping", t);
-                    }
-                }
-            }, 1440 - ThreadLocalRandom.current().nextInt(0, 121), 1440, TimeUnit.MINUTES);
-        } else {
-            logger.error("No executor manager available to perform presence store housekeeping");
+    /**
+     * Commits all presence changes made so far to the presence store.
+     */
+    public void flush() {
+        if (presenceStore instanceof FlushableStore) {
+            ((FlushableStore)presenceStore).flush();
         }
     }
 
     public void stop() {
-        if (housekeepingFuture != null && executorManager != null) {
-            executorManager.cancel(housekeepingFuture);
-        }
-
         eventManager.removeListener(HubContext.createLocal(), this);
+        if (presenceStore != null) {
+            presenceStore.close();
+        }
     }
 
     @EventHandler
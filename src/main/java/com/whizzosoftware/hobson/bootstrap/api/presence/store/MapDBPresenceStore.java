@@ -18,8 +18,12 @@ import com.whizzosoftware.hobson.api.presence.PresenceLocation;
 import com.whizzosoftware.hobson.api.presence.PresenceLocationContext;
 import com.whizzosoftware.hobson.api.presence.store.PresenceStore;
 import com.whizzosoftware.hobson.bootstrap.util.MapDBCollectionPersistenceContext;
+import com.whizzosoftware.hobson.bootstrap.util.FlushableStore;
+import com.whizzosoftware.hobson.bootstrap.util.HousekeepingCoordinator;
+import com.whizzosoftware.hobson.bootstrap.util.MapDBCommitScheduler;
+import com.whizzosoftware.hobson.bootstrap.util.MapDBCompactor;
+import com.whizzosoftware.hobson.bootstrap.util.MapDBProfile;
 import org.mapdb.DB;
-import org.mapdb.DBMaker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,21 +32,25 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
-public class MapDBPresenceStore implements PresenceStore {
+public class MapDBPresenceStore implements PresenceStore, FlushableStore {
     private static final Logger logger = LoggerFactory.getLogger(MapDBPresenceStore.class);
 
     final private DB db;
+    private MapDBCommitScheduler commitScheduler;
+    private MapDBCompactor compactor;
     private ContextPathIdProvider idProvider = new ContextPathIdProvider();
     private CollectionPersister persister = new CollectionPersister(new ContextPathIdProvider());
+    private MapDBCollectionPersistenceContext pctx;
 
     public MapDBPresenceStore(File file) {
         ClassLoader old = Thread.currentThread().getContextClassLoader();
         try {
             Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
 
-            db = DBMaker.newFileDB(file)
-                .closeOnJvmShutdown()
-                .make();
+            db = MapDBProfile.forStore("presence", MapDBProfile.WRITE_HEAVY).open(file);
+            commitScheduler = new MapDBCommitScheduler("presence", db);
+            compactor = new MapDBCompactor("presence", db, commitScheduler);
+            pctx = new MapDBCollectionPersistenceContext(db);
 
         } finally {
             Thread.currentThread().setContextClassLoader(old);
@@ -56,7 +64,6 @@ public class MapDBPresenceStore implements PresenceStore {
             Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
 
             List<PresenceEntity> results = new ArrayList<>();
-            MapDBCollectionPersistenceContext pctx = new MapDBCollectionPersistenceContext(db);
             for (Object o : pctx.getSet(idProvider.createPresenceEntitiesId(ctx).getId())) {
                 PresenceEntityContext pectx = PresenceEntityContext.create(ctx, (String)o);
                 results.add(persister.restorePresenceEntity(pctx, pectx));
@@ -74,7 +81,7 @@ public class MapDBPresenceStore implements PresenceStore {
         try {
             Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
 
-            return persister.restorePresenceEntity(new MapDBCollectionPersistenceContext(db), ctx);
+            return persister.restorePresenceEntity(pctx, ctx);
 
         } finally {
             Thread.currentThread().setContextClassLoader(old);
@@ -89,7 +96,8 @@ public class MapDBPresenceStore implements PresenceStore {
 
             logger.debug("Adding presence entity: {}", pe.getContext().toString());
             synchronized (db) {
-                persister.savePresenceEntity(new MapDBCollectionPersistenceContext(db), pe, true);
+                persister.savePresenceEntity(pctx, pe, false);
+                commitScheduler.requestCommit();
             }
         } finally {
             Thread.currentThread().setContextClassLoader(old);
@@ -104,7 +112,8 @@ public class MapDBPresenceStore implements PresenceStore {
 
             logger.debug("Deleting presence entity: {}", ctx.toString());
             synchronized (db) {
-                persister.deletePresenceEntity(new MapDBCollectionPersistenceContext(db), ctx);
+                persister.deletePresenceEntity(pctx, ctx);
+                commitScheduler.requestCommit();
             }
         } finally {
             Thread.currentThread().setContextClassLoader(old);
@@ -118,7 +127,6 @@ public class MapDBPresenceStore implements PresenceStore {
             Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
 
             List<PresenceLocation> results = new ArrayList<>();
-            MapDBCollectionPersistenceContext pctx = new MapDBCollectionPersistenceContext(db);
             for (Object o : pctx.getSet(idProvider.createPresenceLocationsId(ctx).getId())) {
                 PresenceLocationContext plctx = PresenceLocationContext.create(ctx, (String)o);
                 results.add(persister.restorePresenceLocation(pctx, plctx));
@@ -136,7 +144,7 @@ public class MapDBPresenceStore implements PresenceStore {
         try {
             Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
 
-            return persister.restorePresenceLocation(new MapDBCollectionPersistenceContext(db), ctx);
+            return persister.restorePresenceLocation(pctx, ctx);
 
         } finally {
             Thread.currentThread().setContextClassLoader(old);
@@ -145,10 +153,7 @@ public class MapDBPresenceStore implements PresenceStore {
 
     @Override
     public void performHousekeeping() {
-        synchronized (db) {
-            db.commit();
-            db.compact();
-        }
+        HousekeepingCoordinator.getInstance().requestHousekeeping(compactor);
     }
 
     @Override
@@ -159,7 +164,8 @@ public class MapDBPresenceStore implements PresenceStore {
 
             logger.debug("Adding presence location: {}", pel.getContext().toString());
             synchronized (db) {
-                persister.savePresenceLocation(new MapDBCollectionPersistenceContext(db), pel, true);
+                persister.savePresenceLocation(pctx, pel, false);
+                commitScheduler.requestCommit();
             }
         } finally {
             Thread.currentThread().setContextClassLoader(old);
@@ -174,15 +180,23 @@ public class MapDBPresenceStore implements PresenceStore {
 
             logger.debug("Deleting presence location: {}", ctx.toString());
             synchronized (db) {
-                persister.deletePresenceLocation(new MapDBCollectionPersistenceContext(db), ctx);
+                persister.deletePresenceLocation(pctx, ctx);
+                commitScheduler.requestCommit();
             }
         } finally {
             Thread.currentThread().setContextClassLoader(old);
         }
     }
 
+    @Override
+    public void flush() {
+        commitScheduler.flush();
+    }
+
     @Override
     public void close() {
+        commitScheduler.close();
+        compactor.close();
         db.close();
     }
 }
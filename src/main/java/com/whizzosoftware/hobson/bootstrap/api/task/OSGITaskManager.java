@@ -27,17 +27,20 @@ import com.whizzosoftware.hobson.api.property.*;
 import com.whizzosoftware.hobson.api.task.*;
 import com.whizzosoftware.hobson.api.task.condition.*;
 import com.whizzosoftware.hobson.api.task.store.TaskStore;
+import com.whizzosoftware.hobson.api.variable.DeviceVariableContext;
+import com.whizzosoftware.hobson.bootstrap.api.device.ConstraintEvaluationCache;
+import com.whizzosoftware.hobson.bootstrap.api.device.OSGIDeviceManager;
+import com.whizzosoftware.hobson.bootstrap.api.event.OSGIEventManager;
 import com.whizzosoftware.hobson.bootstrap.api.task.store.MapDBTaskStore;
 import com.whizzosoftware.hobson.bootstrap.api.util.BundleUtil;
+import com.whizzosoftware.hobson.bootstrap.util.FlushableStore;
 import org.osgi.framework.*;
+import org.osgi.framework.Constants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import java.util.*;
-import java.util.concurrent.Future;
-import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.TimeUnit;
 
 /**
  * An OSGi implementation of TaskManager.
@@ -65,6 +68,8 @@ public class OSGITaskManager implements TaskManager, TaskRegistrationContext {
     private TaskStore taskStore;
     private TaskConditionClassProvider taskConditionClassProvider;
     private TaskConditionProcessor conditionProcessor = new TaskConditionProcessor();
+    private final ConstraintEvaluationCache constraintCache = new ConstraintEvaluationCache();
+    private final Map<TaskContext,Set<DeviceVariableContext>> taskTriggerVariables = new HashMap<>();
     /**
      * This executor is responsible for registering any unregistered tasks with the plugins that handle
      * their trigger condition. This has do be done asynchronously and monitored continuously because a
@@ -78,7 +83,6 @@ public class OSGITaskManager implements TaskManager, TaskRegistrationContext {
      * it requires to do its job.
      */
     private TaskRegistrationContext taskRegistrationContext;
-    private Future housekeepingFuture;
 
     synchronized public void start() {
         try {
@@ -91,23 +95,6 @@ public class OSGITaskManager implements TaskManager, TaskRegistrationContext {
                 taskRegistrationContext = this;
             }
 
-            // create task store housekeeping task (run it starting at random interval between 22 and 24 hours)
-            if (executorManager != null) {
-                housekeepingFuture = executorManager.schedule(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (taskStore != null) {
-                            try {
-                                taskStore.performHousekeeping();
-                            } catch (Throwable e) {
-                                logger.error("Error performing task store housekeeping", e);
-                            }
-                        }
-                    }
-                }, 1440 - ThreadLocalRandom.current().nextInt(0, 121), 1440, TimeUnit.MINUTES);
-            } else {
-                logger.error("No executor manager available to perform task manager housekeeping");
-            }
 
             taskRegistrationExecutor = new TaskRegistrationExecutor(HubContext.createLocal(), eventManager, taskRegistrationContext);
 
@@ -130,6 +117,8 @@ public class OSGITaskManager implements TaskManager, TaskRegistrationContext {
                 // alert any plugins if their tasks are ready for registration
                 queueTaskRegistration();
             }
+
+            refreshTriggerVariables();
         } catch (Throwable t) {
             t.printStackTrace();
         }
@@ -144,13 +133,22 @@ public class OSGITaskManager implements TaskManager, TaskRegistrationContext {
         }
     }
 
-    public void stop() {
-        if (executorManager != null && housekeepingFuture != null) {
-            executorManager.cancel(housekeepingFuture);
+    /**
+     * Commits all task changes made so far to the task store.
+     */
+    public void flush() {
+        if (taskStore instanceof FlushableStore) {
+            ((FlushableStore)taskStore).flush();
         }
+    }
+
+    public void stop() {
         if (eventManager != null) {
             eventManager.removeListener(HubContext.createLocal(), this);
         }
+        if (taskStore != null) {
+            taskStore.close();
+        }
     }
 
     public void setActionManager(ActionManager actionManager) {
@@ -193,6 +191,81 @@ public class OSGITaskManager implements TaskManager, TaskRegistrationContext {
         }
     }
 
+    /**
+     * Loads the device variables referenced by the conditions of all tasks and provides their names to the event
+     * manager so that updates to them are delivered on the high priority event lane.
+     */
+    void refreshTriggerVariables() {
+        if (eventManager instanceof OSGIEventManager && taskStore != null) {
+            synchronized (taskTriggerVariables) {
+                taskTriggerVariables.clear();
+                for (TaskContext tctx : taskStore.getAllTasks(HubContext.createLocal())) {
+                    HobsonTask task = taskStore.getTask(tctx);
+                    if (task != null) {
+                        putTriggerVariables(task);
+                    }
+                }
+                publishTriggerVariables();
+            }
+        }
+    }
+
+    /**
+     * Updates the trigger variables after a single task has been created, updated or deleted.
+     *
+     * @param ctx the task context
+     * @param task the task's new state (or null if it was deleted)
+     */
+    void updateTriggerVariables(TaskContext ctx, HobsonTask task) {
+        if (eventManager instanceof OSGIEventManager) {
+            synchronized (taskTriggerVariables) {
+                Set<DeviceVariableContext> old = (task != null) ? putTriggerVariables(task) : taskTriggerVariables.remove(ctx);
+                Set<DeviceVariableContext> current = taskTriggerVariables.get(ctx);
+                if (old == null ? current != null : !old.equals(current)) {
+                    publishTriggerVariables();
+                }
+            }
+        }
+    }
+
+    private Set<DeviceVariableContext> putTriggerVariables(HobsonTask task) {
+        Set<DeviceVariableContext> vars = new HashSet<>();
+        if (task.hasConditions()) {
+            for (PropertyContainer pc : task.getConditions()) {
+                if (pc.getPropertyValues() != null) {
+                    addVariableContexts(pc.getPropertyValues().values(), vars);
+                }
+            }
+        }
+        return vars.isEmpty() ? taskTriggerVariables.remove(task.getContext()) : taskTriggerVariables.put(task.getContext(), vars);
+    }
+
+    private void publishTriggerVariables() {
+        Set<DeviceVariableContext> vars = new HashSet<>();
+        for (Set<DeviceVariableContext> s : taskTriggerVariables.values()) {
+            vars.addAll(s);
+        }
+        ((OSGIEventManager)eventManager).getPriorityClassifier().setTriggerVariables(vars);
+        logger.debug("Task conditions reference variables: {}", vars);
+    }
+
+    /**
+     * Collects the variables referenced by condition property values. This is best-effort: only values that
+     * are DeviceVariableContexts (directly or within collections and maps) are recognized. A variable referenced
+     * any other way is simply not prioritized; its updates are still delivered on the normal lane.
+     */
+    private void addVariableContexts(Collection values, Set<DeviceVariableContext> vars) {
+        for (Object o : values) {
+            if (o instanceof DeviceVariableContext) {
+                vars.add((DeviceVariableContext)o);
+            } else if (o instanceof Collection) {
+                addVariableContexts((Collection)o, vars);
+            } else if (o instanceof Map) {
+                addVariableContexts(((Map)o).values(), vars);
+            }
+        }
+    }
+
     @Override
     public Collection<HobsonTask> getTasks(HubContext ctx) {
         List<HobsonTask> tasks = new ArrayList<>();
@@ -267,12 +340,13 @@ public class OSGITaskManager implements TaskManager, TaskRegistrationContext {
             List<TaskConditionClass> results = new ArrayList<>();
             ServiceReference[] references = context.getServiceReferences(PropertyContainerClass.class.getName(), filter.toString());
             if (references != null) {
+                long version = getVariableNameVersion();
                 Collection<String> publishedVariableNames = deviceManager.getDeviceVariableNames(ctx);
                 for (ServiceReference ref : references) {
                     Object o = context.getService(ref);
                     if (o instanceof TaskConditionClass) {
                         TaskConditionClass tcc = (TaskConditionClass)context.getService(ref);
-                        if ((type == null || tcc.getConditionClassType() == type) && (!applyConstraints || tcc.evaluatePropertyConstraints(publishedVariableNames))) {
+                        if ((type == null || tcc.getConditionClassType() == type) && (!applyConstraints || constraintCache.evaluate((Long)ref.getProperty(Constants.SERVICE_ID), tcc, version, publishedVariableNames))) {
                             results.add(tcc);
                         }
                     }
@@ -300,6 +374,7 @@ public class OSGITaskManager implements TaskManager, TaskRegistrationContext {
 
                     // update the task in the task store
                     taskStore.saveTask(task);
+                    updateTriggerVariables(task.getContext(), task);
 
                     // fire an update event
                     eventManager.postEvent(ctx.getHubContext(), new TaskUpdatedEvent(System.currentTimeMillis(), pctx != null ? pctx.getPluginId() : null, task.getContext()));
@@ -350,6 +425,7 @@ public class OSGITaskManager implements TaskManager, TaskRegistrationContext {
 
                 // save the task
                 taskStore.saveTask(task);
+                updateTriggerVariables(task.getContext(), task);
 
                 // queue the task registration
                 queueTaskRegistration();
@@ -371,6 +447,7 @@ public class OSGITaskManager implements TaskManager, TaskRegistrationContext {
                 if (plugin != null) {
                     // remove it from the task store
                     taskStore.deleteTask(task.getContext());
+                    updateTriggerVariables(task.getContext(), null);
 
                     // post the deleted event
                     eventManager.postEvent(ctx.getHubContext(), new TaskDeletedEvent(System.currentTimeMillis(), ctx));
@@ -429,4 +506,11 @@ public class OSGITaskManager implements TaskManager, TaskRegistrationContext {
         }
         return null;
     }
+
+    /**
+     * Returns the version of the device manager's variable name index (or -1 if it doesn't have one).
+     */
+    private long getVariableNameVersion() {
+        return (deviceManager instanceof OSGIDeviceManager) ? ((OSGIDeviceManager)deviceManager).getVariableNameIndex().getVersion() : -1;
+    }
 }
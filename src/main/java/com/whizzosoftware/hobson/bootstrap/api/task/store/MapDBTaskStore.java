@@ -21,8 +21,12 @@ import com.whizzosoftware.hobson.api.task.TaskHelper;
 import com.whizzosoftware.hobson.api.task.TaskManager;
 import com.whizzosoftware.hobson.api.task.store.TaskStore;
 import com.whizzosoftware.hobson.bootstrap.util.MapDBCollectionPersistenceContext;
+import com.whizzosoftware.hobson.bootstrap.util.FlushableStore;
+import com.whizzosoftware.hobson.bootstrap.util.HousekeepingCoordinator;
+import com.whizzosoftware.hobson.bootstrap.util.MapDBCommitScheduler;
+import com.whizzosoftware.hobson.bootstrap.util.MapDBCompactor;
+import com.whizzosoftware.hobson.bootstrap.util.MapDBProfile;
 import org.mapdb.DB;
-import org.mapdb.DBMaker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,10 +38,12 @@ import java.util.*;
  *
  * @author Dan Noguerol
  */
-public class MapDBTaskStore implements TaskStore {
+public class MapDBTaskStore implements TaskStore, FlushableStore {
     private static final Logger logger = LoggerFactory.getLogger(MapDBTaskStore.class);
 
     final private DB db;
+    private MapDBCommitScheduler commitScheduler;
+    private MapDBCompactor compactor;
     private IdProvider idProvider = new ContextPathIdProvider();
     private CollectionPersister persister = new CollectionPersister(idProvider);
     private CollectionPersistenceContext mctx;
@@ -47,9 +53,9 @@ public class MapDBTaskStore implements TaskStore {
         try {
             Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
 
-            db = DBMaker.newFileDB(file)
-                .closeOnJvmShutdown()
-                .make();
+            db = MapDBProfile.forStore("tasks", MapDBProfile.READ_HEAVY).open(file);
+            commitScheduler = new MapDBCommitScheduler("tasks", db);
+            compactor = new MapDBCompactor("tasks", db, commitScheduler);
             mctx = new MapDBCollectionPersistenceContext(db);
 
         } finally {
@@ -118,7 +124,8 @@ public class MapDBTaskStore implements TaskStore {
 
             logger.debug("Adding task: {}", task.getContext().toString());
             synchronized (db) {
-                persister.saveTask(mctx, task, true);
+                persister.saveTask(mctx, task, false);
+                commitScheduler.requestCommit();
             }
             return task;
 
@@ -129,10 +136,7 @@ public class MapDBTaskStore implements TaskStore {
 
     @Override
     public void performHousekeeping() {
-        synchronized (db) {
-            db.commit();
-            db.compact();
-        }
+        HousekeepingCoordinator.getInstance().requestHousekeeping(compactor);
     }
 
     @Override
@@ -144,14 +148,22 @@ public class MapDBTaskStore implements TaskStore {
             logger.debug("Deleting task: {}", context.toString());
             synchronized (db) {
                 persister.deleteTask(mctx, context);
+                commitScheduler.requestCommit();
             }
         } finally {
             Thread.currentThread().setContextClassLoader(old);
         }
     }
 
+    @Override
+    public void flush() {
+        commitScheduler.flush();
+    }
+
     @Override
     public void close() {
+        commitScheduler.close();
+        compactor.close();
         db.close();
     }
 }
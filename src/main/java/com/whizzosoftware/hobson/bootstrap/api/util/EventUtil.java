@@ -7,7 +7,6 @@
  *******************************************************************************/
 package com.whizzosoftware.hobson.bootstrap.api.util;
 
-import com.whizzosoftware.hobson.api.event.EventTopics;
 import com.whizzosoftware.hobson.api.event.HobsonEvent;
 import org.osgi.service.event.Event;
 
@@ -21,8 +20,47 @@ import java.util.Map;
  */
 public class EventUtil {
     public static final String PROP_EVENT_ID = "eventId";
+    public static final String PROP_HOBSON_EVENT = "hobsonEvent";
+    public static final String PROP_PRIORITY = "hobsonEventPriority";
+    public static final String PROP_POST_TIME = "hobsonEventPostTime";
+    public static final String TOPIC_PREFIX = "com/whizzosoftware/hobson/event/";
+    public static final String TOPIC_ALL = TOPIC_PREFIX + "*";
+
+    /**
+     * Returns the EventAdmin topic that events with a specific ID are published on.
+     *
+     * @param eventId the event ID
+     *
+     * @return a topic String
+     */
+    static public String createTopic(String eventId) {
+        StringBuilder sb = new StringBuilder(TOPIC_PREFIX);
+        for (int i=0; i < eventId.length(); i++) {
+            char c = eventId.charAt(i);
+            // topic tokens may only contain alphanumerics, underscores and hyphens
+            if (Character.isLetterOrDigit(c) || c == '_' || c == '-') {
+                sb.append(c);
+            } else {
+                sb.append('_');
+            }
+        }
+        return sb.toString();
+    }
 
     static public Event createEventFromHobsonEvent(HobsonEvent event) {
+        return createEventFromHobsonEvent(event, null);
+    }
+
+    /**
+     * Creates an OSGi event from a HobsonEvent. The event's priority and the time it was posted (from
+     * System.nanoTime()) are carried along so listeners can order delivery and measure queue wait time.
+     *
+     * @param event the HobsonEvent
+     * @param priority the name of the event's delivery priority (or null if it has none)
+     *
+     * @return an Event instance
+     */
+    static public Event createEventFromHobsonEvent(HobsonEvent event, String priority) {
         Map map = new HashMap();
         map.put(PROP_EVENT_ID, event.getEventId());
 
@@ -34,13 +72,62 @@ public class EventUtil {
             }
         }
 
-        return new Event(EventTopics.GLOBAL, map);
+        // carry the original event instance so in-process handlers don't need to unmarshal it
+        map.put(PROP_HOBSON_EVENT, event);
+        if (priority != null) {
+            map.put(PROP_PRIORITY, priority);
+        }
+        map.put(PROP_POST_TIME, System.nanoTime());
+
+        return new Event(createTopic(event.getEventId()), map);
+    }
+
+    /**
+     * Returns the HobsonEvent instance carried by an OSGi event.
+     *
+     * @param event the OSGi event
+     *
+     * @return a HobsonEvent instance or null if the event was not published via createEventFromHobsonEvent()
+     */
+    static public HobsonEvent getHobsonEvent(Event event) {
+        Object o = event.getProperty(PROP_HOBSON_EVENT);
+        if (o instanceof HobsonEvent) {
+            return (HobsonEvent)o;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the priority of an OSGi event.
+     *
+     * @param event the OSGi event
+     *
+     * @return the name of the event's delivery priority or null if it has none
+     */
+    static public String getPriority(Event event) {
+        Object o = event.getProperty(PROP_PRIORITY);
+        return o instanceof String ? (String)o : null;
+    }
+
+    /**
+     * Returns the time an OSGi event was posted.
+     *
+     * @param event the OSGi event
+     *
+     * @return the System.nanoTime() value at which the event was posted or 0 if unknown
+     */
+    static public long getPostTime(Event event) {
+        Object o = event.getProperty(PROP_POST_TIME);
+        return o instanceof Long ? (Long)o : 0;
     }
 
     static public Map<String,Object> createMapFromEvent(Event event) {
         Map<String,Object> map = new HashMap<>();
         for (String key : event.getPropertyNames()) {
-            map.put(key, event.getProperty(key));
+            if (!PROP_HOBSON_EVENT.equals(key) && !PROP_PRIORITY.equals(key) && !PROP_POST_TIME.equals(key)) {
+                map.put(key, event.getProperty(key));
+            }
         }
         return map;
     }
@@ -40,5 +40,6 @@ public class ApiV1Application extends AbstractApiV1Application {
 
     @Override
     protected void createAdditionalResources(Router secureRouter, Router insecureRouter) {
+        secureRouter.attach(EventMetricsResource.PATH, EventMetricsResource.class);
     }
 }
@@ -0,0 +1,72 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.rest.v1;
+
+import com.whizzosoftware.hobson.api.event.EventManager;
+import com.whizzosoftware.hobson.api.hub.HubContext;
+import com.whizzosoftware.hobson.bootstrap.api.event.ListenerRegistration;
+import com.whizzosoftware.hobson.bootstrap.api.event.OSGIEventManager;
+import com.whizzosoftware.hobson.bootstrap.api.event.RingBufferEventManager;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.restlet.data.Status;
+import org.restlet.ext.guice.SelfInjectingServerResource;
+import org.restlet.ext.json.JsonRepresentation;
+import org.restlet.representation.Representation;
+import org.restlet.resource.ResourceException;
+
+import javax.inject.Inject;
+
+/**
+ * A REST resource that returns event system metrics and the currently registered event listeners. Metrics are
+ * only kept for the local hub.
+ *
+ * @author Dan Noguerol
+ */
+public class EventMetricsResource extends SelfInjectingServerResource {
+    public static final String PATH = "/hubs/{hubId}/eventMetrics";
+
+    @Inject
+    EventManager eventManager;
+
+    @Override
+    protected Representation get() throws ResourceException {
+        if (!HubContext.DEFAULT_HUB.equals(getAttribute("hubId"))) {
+            throw new ResourceException(Status.CLIENT_ERROR_NOT_FOUND, "Hub not found");
+        }
+        if (eventManager instanceof RingBufferEventManager) {
+            // the ring buffer event manager has metrics but no per-listener registrations
+            return new JsonRepresentation(((RingBufferEventManager)eventManager).getEventMetrics().toJSON());
+        } else if (!(eventManager instanceof OSGIEventManager)) {
+            throw new ResourceException(Status.SERVER_ERROR_NOT_IMPLEMENTED, "Event metrics are not supported by this event manager");
+        }
+
+        OSGIEventManager em = (OSGIEventManager)eventManager;
+        JSONObject json = em.getEventMetrics().toJSON();
+
+        JSONArray listeners = new JSONArray();
+        for (ListenerRegistration r : em.getListenerRegistrations()) {
+            JSONObject lj = new JSONObject();
+            lj.put("class", r.getListenerClassName());
+            lj.put("topics", new JSONArray(r.getTopics()));
+            lj.put("delivered", r.getDeliveryCount());
+            lj.put("dropped", r.getDropCount());
+            lj.put("blocked", r.getQueue().getBlockCount());
+            lj.put("queueDepth", r.getQueue().getDepth());
+            lj.put("priorityQueueDepth", r.getQueue().getPriorityDepth());
+            lj.put("queueCapacity", r.getQueue().getCapacity());
+            lj.put("maxHandlerMicros", r.getQueue().getMaxHandlerTimeNanos() / 1000);
+            listeners.put(lj);
+        }
+        json.put("registrations", listeners);
+
+        return new JsonRepresentation(json);
+    }
+}
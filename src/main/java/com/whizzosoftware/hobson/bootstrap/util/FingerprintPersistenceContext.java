@@ -0,0 +1,159 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * An in-memory CollectionPersistenceContext that records what a CollectionPersister would write so a content
+ * fingerprint can be computed from it. Two objects that would be persisted identically have the same fingerprint.
+ *
+ * The fingerprint is a hash of the persisted values themselves: strings, primitive wrappers and collections are
+ * encoded with a type tag, and any other value is hashed as its serialized form (which is what MapDB stores for it).
+ *
+ * @author Dan Noguerol
+ */
+public class FingerprintPersistenceContext extends MemoryCollectionPersistenceContext {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Comparator<byte[]> BYTES_COMPARATOR = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] a, byte[] b) {
+            for (int i=0; i < Math.min(a.length, b.length); i++) {
+                int c = (a[i] & 0xff) - (b[i] & 0xff);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return a.length - b.length;
+        }
+    };
+
+    /**
+     * Returns a fingerprint of everything written to this context.
+     *
+     * @return a 64-bit fingerprint
+     */
+    public long getFingerprint() {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(baos);
+            writeCanonical(out, maps);
+            writeCanonical(out, sets);
+            out.flush();
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(baos.toByteArray());
+            long l = 0;
+            for (int i=0; i < 8; i++) {
+                l = (l << 8) | (digest[i] & 0xff);
+            }
+            return l;
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-1
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to encode persisted value", e);
+        }
+    }
+
+    /**
+     * Writes an encoding of a value that doesn't depend on map or set iteration order.
+     */
+    private void writeCanonical(DataOutputStream out, Object o) throws IOException {
+        if (o == null) {
+            out.writeByte('N');
+        } else if (o instanceof String) {
+            out.writeByte('S');
+            writeString(out, (String)o);
+        } else if (o instanceof Boolean) {
+            out.writeByte('Z');
+            out.writeBoolean((Boolean)o);
+        } else if (o instanceof Integer || o instanceof Short || o instanceof Byte) {
+            out.writeByte('I');
+            out.writeByte(o instanceof Integer ? 'i' : (o instanceof Short ? 's' : 'b'));
+            out.writeInt(((Number)o).intValue());
+        } else if (o instanceof Long) {
+            out.writeByte('J');
+            out.writeLong((Long)o);
+        } else if (o instanceof Double) {
+            out.writeByte('D');
+            out.writeLong(Double.doubleToLongBits((Double)o));
+        } else if (o instanceof Float) {
+            out.writeByte('F');
+            out.writeInt(Float.floatToIntBits((Float)o));
+        } else if (o instanceof Map) {
+            Map<String,Object> sorted = new TreeMap<>();
+            for (Map.Entry e : ((Map<?,?>)o).entrySet()) {
+                sorted.put(String.valueOf(e.getKey()), e.getValue());
+            }
+            out.writeByte('M');
+            out.writeInt(sorted.size());
+            for (Map.Entry<String,Object> e : sorted.entrySet()) {
+                writeString(out, e.getKey());
+                writeCanonical(out, e.getValue());
+            }
+        } else if (o instanceof Set) {
+            List<byte[]> l = new ArrayList<>();
+            for (Object v : (Set)o) {
+                l.add(encode(v));
+            }
+            Collections.sort(l, BYTES_COMPARATOR);
+            out.writeByte('T');
+            out.writeInt(l.size());
+            for (byte[] b : l) {
+                out.write(b);
+            }
+        } else if (o instanceof Collection) {
+            out.writeByte('L');
+            out.writeInt(((Collection)o).size());
+            for (Object v : (Collection)o) {
+                writeCanonical(out, v);
+            }
+        } else if (o instanceof Serializable) {
+            byte[] b = serialize(o);
+            out.writeByte('O');
+            out.writeInt(b.length);
+            out.write(b);
+        } else {
+            // MapDB can't persist this value either; fall back to something that at least identifies it
+            out.writeByte('?');
+            writeString(out, o.getClass().getName());
+            writeString(out, o.toString());
+        }
+    }
+
+    private void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(UTF8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private byte[] encode(Object o) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        writeCanonical(out, o);
+        out.flush();
+        return baos.toByteArray();
+    }
+
+    private byte[] serialize(Object o) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(baos);
+        out.writeObject(o);
+        out.close();
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,23 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.util;
+
+/**
+ * Interface for stores whose writes are committed asynchronously (e.g. by a MapDBCommitScheduler) and that can be
+ * made durable on demand.
+ *
+ * @author Dan Noguerol
+ */
+public interface FlushableStore {
+    /**
+     * Commits all writes made so far. When this returns they are durable.
+     */
+    void flush();
+}
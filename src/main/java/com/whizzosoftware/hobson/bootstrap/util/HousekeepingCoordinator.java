@@ -0,0 +1,263 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Performs housekeeping (compaction) for all MapDB stores so that it never overlaps or competes with other work for
+ * the executor manager's threads.
+ *
+ * Stores register via their MapDBCompactor. Every hobson.persist.compactCheckInterval minutes the coordinator checks
+ * each store in turn on its own thread, compacting only the stores that need it. After each compaction it waits long
+ * enough to keep the average disk I/O within the budget (hobson.persist.housekeepingIoBudget, in bytes per second).
+ * The most recent runs (hobson.persist.housekeepingHistorySize) are kept and available via JMX.
+ *
+ * Stores can register at any time but cycles only run between start() and stop(), which the bundle Activator calls
+ * so the coordinator's thread doesn't outlive the bundle.
+ *
+ * @author Dan Noguerol
+ */
+public class HousekeepingCoordinator implements HousekeepingCoordinatorMXBean {
+    private static final Logger logger = LoggerFactory.getLogger(HousekeepingCoordinator.class);
+
+    public static final String PROP_IO_BUDGET = "hobson.persist.housekeepingIoBudget";
+    public static final String PROP_HISTORY_SIZE = "hobson.persist.housekeepingHistorySize";
+    public static final String OBJECT_NAME = "com.whizzosoftware.hobson:type=HousekeepingCoordinator";
+
+    private static HousekeepingCoordinator instance;
+
+    private final long ioBudget;
+    private final int historySize;
+    private final List<MapDBCompactor> compactors = new CopyOnWriteArrayList<>();
+    private final LinkedList<HousekeepingRun> history = new LinkedList<>();
+    private final Object cycleLock = new Object();
+    private ScheduledExecutorService executor;
+    private long cycleCount;
+    private long compactionCount;
+    private long skippedCount;
+    private long throttleMillis;
+
+    /**
+     * Returns the shared coordinator. It doesn't perform any housekeeping until it is started.
+     *
+     * @return a HousekeepingCoordinator instance
+     */
+    synchronized static public HousekeepingCoordinator getInstance() {
+        if (instance == null) {
+            instance = new HousekeepingCoordinator();
+        }
+        return instance;
+    }
+
+    public HousekeepingCoordinator() {
+        this(Long.parseLong(System.getProperty(PROP_IO_BUDGET, "2097152")), Integer.parseInt(System.getProperty(PROP_HISTORY_SIZE, "100")));
+    }
+
+    public HousekeepingCoordinator(long ioBudget, int historySize) {
+        this.ioBudget = ioBudget;
+        this.historySize = Math.max(1, historySize);
+    }
+
+    /**
+     * Starts performing housekeeping cycles on a dedicated thread.
+     *
+     * @param interval the number of minutes between cycles
+     *
+     * @throws IllegalArgumentException if the interval isn't positive
+     */
+    synchronized public void start(long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Housekeeping interval must be positive: " + interval);
+        }
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Housekeeping Coordinator");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+            // stagger the first cycle so hubs don't all perform housekeeping at the same time after a restart
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runCycle();
+                    } catch (InterruptedException ignored) {
+                    } catch (Throwable t) {
+                        logger.error("Error performing housekeeping", t);
+                    }
+                }
+            }, interval - ThreadLocalRandom.current().nextLong(0, interval / 12 + 1), interval, TimeUnit.MINUTES);
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+            } catch (Exception e) {
+                logger.debug("Unable to register housekeeping coordinator MBean", e);
+            }
+        }
+    }
+
+    synchronized public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+            } catch (Exception e) {
+                logger.debug("Unable to unregister housekeeping coordinator MBean", e);
+            }
+        }
+    }
+
+    synchronized public boolean isRunning() {
+        return (executor != null);
+    }
+
+    public void register(MapDBCompactor compactor) {
+        compactors.add(compactor);
+    }
+
+    public void unregister(MapDBCompactor compactor) {
+        compactors.remove(compactor);
+    }
+
+    /**
+     * Requests an immediate housekeeping check of a single store. The check runs on the coordinator's thread so it
+     * never overlaps a cycle and is subject to the same I/O budget. This is a no-op if the coordinator isn't running.
+     *
+     * @param compactor the store's compactor
+     */
+    synchronized public void requestHousekeeping(final MapDBCompactor compactor) {
+        if (executor != null) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        synchronized (cycleLock) {
+                            check(compactor);
+                        }
+                    } catch (InterruptedException ignored) {
+                    } catch (Throwable t) {
+                        logger.error("Error performing housekeeping", t);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Checks each registered store in turn and compacts the ones that need it.
+     *
+     * @throws InterruptedException if the coordinator is stopped while waiting for I/O budget
+     */
+    public void runCycle() throws InterruptedException {
+        synchronized (cycleLock) {
+            logger.debug("Performing housekeeping for {} store(s)", compactors.size());
+            for (MapDBCompactor c : compactors) {
+                check(c);
+            }
+            synchronized (this) {
+                cycleCount++;
+            }
+        }
+    }
+
+    /**
+     * Checks a single store, compacting it if needed, and then waits as long as the I/O budget requires.
+     */
+    private void check(MapDBCompactor c) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long before = c.getStoreSize();
+        boolean compacted = false;
+        String error = null;
+        try {
+            compacted = c.compactIfNeeded();
+        } catch (Throwable t) {
+            logger.error("Error performing " + c.getName() + " store housekeeping", t);
+            error = t.toString();
+        }
+        long duration = System.currentTimeMillis() - start;
+
+        // compaction reads the old store and writes a new one
+        long ioBytes = compacted ? Math.max(0, before) + Math.max(0, c.getStoreSize()) : 0;
+        addRun(new HousekeepingRun(c.getName(), start, duration, compacted, compacted ? c.getLastReclaimedBytes() : 0, ioBytes, error));
+
+        if (compacted && ioBudget > 0) {
+            long wait = ioBytes * 1000 / ioBudget - duration;
+            if (wait > 0) {
+                logger.debug("Waiting {}ms to stay within housekeeping I/O budget", wait);
+                synchronized (this) {
+                    throttleMillis += wait;
+                }
+                Thread.sleep(wait);
+            }
+        }
+    }
+
+    @Override
+    public List<String> getStoreNames() {
+        List<String> results = new ArrayList<>();
+        for (MapDBCompactor c : compactors) {
+            results.add(c.getName());
+        }
+        return results;
+    }
+
+    @Override
+    public long getIoBudget() {
+        return ioBudget;
+    }
+
+    @Override
+    synchronized public long getCycleCount() {
+        return cycleCount;
+    }
+
+    @Override
+    synchronized public long getCompactionCount() {
+        return compactionCount;
+    }
+
+    @Override
+    synchronized public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    @Override
+    synchronized public long getThrottleMillis() {
+        return throttleMillis;
+    }
+
+    @Override
+    synchronized public List<HousekeepingRun> getHistory() {
+        return new ArrayList<>(history);
+    }
+
+    synchronized private void addRun(HousekeepingRun run) {
+        if (run.isCompacted()) {
+            compactionCount++;
+        } else if (run.getError() == null) {
+            skippedCount++;
+        }
+        history.add(run);
+        while (history.size() > historySize) {
+            history.removeFirst();
+        }
+    }
+}
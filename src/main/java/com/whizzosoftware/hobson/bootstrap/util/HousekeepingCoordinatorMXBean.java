@@ -0,0 +1,54 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.util;
+
+import java.util.List;
+
+/**
+ * The JMX management interface for the housekeeping coordinator.
+ *
+ * @author Dan Noguerol
+ */
+public interface HousekeepingCoordinatorMXBean {
+    /**
+     * Returns the names of the registered stores.
+     */
+    List<String> getStoreNames();
+
+    /**
+     * Returns the I/O budget in bytes per second.
+     */
+    long getIoBudget();
+
+    /**
+     * Returns the number of housekeeping cycles performed.
+     */
+    long getCycleCount();
+
+    /**
+     * Returns the number of compactions performed.
+     */
+    long getCompactionCount();
+
+    /**
+     * Returns the number of store checks that found compaction was not needed.
+     */
+    long getSkippedCount();
+
+    /**
+     * Returns the total time in milliseconds the coordinator has waited to stay within its I/O budget.
+     */
+    long getThrottleMillis();
+
+    /**
+     * Returns the most recent housekeeping runs, oldest first.
+     */
+    List<HousekeepingRun> getHistory();
+}
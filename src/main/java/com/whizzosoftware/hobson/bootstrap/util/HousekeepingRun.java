@@ -0,0 +1,74 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.util;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A record of a single store's housekeeping check performed by the HousekeepingCoordinator.
+ *
+ * @author Dan Noguerol
+ */
+public class HousekeepingRun {
+    private final String storeName;
+    private final long startTime;
+    private final long durationMillis;
+    private final boolean compacted;
+    private final long reclaimedBytes;
+    private final long ioBytes;
+    private final String error;
+
+    @ConstructorProperties({"storeName", "startTime", "durationMillis", "compacted", "reclaimedBytes", "ioBytes", "error"})
+    public HousekeepingRun(String storeName, long startTime, long durationMillis, boolean compacted, long reclaimedBytes, long ioBytes, String error) {
+        this.storeName = storeName;
+        this.startTime = startTime;
+        this.durationMillis = durationMillis;
+        this.compacted = compacted;
+        this.reclaimedBytes = reclaimedBytes;
+        this.ioBytes = ioBytes;
+        this.error = error;
+    }
+
+    public String getStoreName() {
+        return storeName;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public boolean isCompacted() {
+        return compacted;
+    }
+
+    public long getReclaimedBytes() {
+        return reclaimedBytes;
+    }
+
+    /**
+     * Returns the estimated number of bytes read and written by the run.
+     */
+    public long getIoBytes() {
+        return ioBytes;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return storeName + " (compacted=" + compacted + ", duration=" + durationMillis + "ms, reclaimed=" + reclaimedBytes + ", io=" + ioBytes + (error != null ? ", error=" + error : "") + ")";
+    }
+}
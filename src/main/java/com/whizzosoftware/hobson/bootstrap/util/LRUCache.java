@@ -0,0 +1,180 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe, size-bounded cache that evicts its least recently used entry when full. Hit, miss and eviction
+ * counts are tracked.
+ *
+ * Large caches are split into independently locked segments by key hash so that concurrent readers don't contend on
+ * a single monitor (an access-ordered LinkedHashMap mutates its ordering on every get). Each segment is its own LRU
+ * with an equal share of the capacity, so eviction is an approximation of global LRU order. Caches too small to give
+ * every segment a reasonable share use a single segment and are exact.
+ *
+ * @author Dan Noguerol
+ */
+public class LRUCache<K,V> {
+    private static final int DEFAULT_CONCURRENCY = 16;
+    private static final int MIN_SEGMENT_CAPACITY = 64;
+
+    private final int capacity;
+    private final Segment<K,V>[] segments;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public LRUCache(int capacity) {
+        this(capacity, DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the maximum number of entries
+     * @param concurrency the maximum number of segments (rounded down to a power of two and reduced so that each
+     *                    segment holds at least MIN_SEGMENT_CAPACITY entries)
+     */
+    @SuppressWarnings("unchecked")
+    public LRUCache(int capacity, int concurrency) {
+        this.capacity = Math.max(1, capacity);
+        int count = 1;
+        while (count * 2 <= concurrency && this.capacity / (count * 2) >= MIN_SEGMENT_CAPACITY) {
+            count *= 2;
+        }
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment<>(this.capacity / count + (i < this.capacity % count ? 1 : 0), evictionCount);
+        }
+    }
+
+    public V get(K key) {
+        Segment<K,V> s = segmentFor(key);
+        V v;
+        synchronized (s) {
+            v = s.get(key);
+        }
+        if (v != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+        return v;
+    }
+
+    /**
+     * Returns a cached value without affecting the hit and miss counts. This is for re-checking a key whose miss
+     * has already been counted.
+     */
+    public V peek(K key) {
+        Segment<K,V> s = segmentFor(key);
+        synchronized (s) {
+            return s.get(key);
+        }
+    }
+
+    /**
+     * Returns whether a key is cached without affecting its recency or the hit and miss counts.
+     */
+    public boolean contains(K key) {
+        Segment<K,V> s = segmentFor(key);
+        synchronized (s) {
+            return s.containsKey(key);
+        }
+    }
+
+    public void put(K key, V value) {
+        Segment<K,V> s = segmentFor(key);
+        synchronized (s) {
+            s.put(key, value);
+        }
+    }
+
+    public V remove(K key) {
+        Segment<K,V> s = segmentFor(key);
+        synchronized (s) {
+            return s.remove(key);
+        }
+    }
+
+    public void clear() {
+        for (Segment<K,V> s : segments) {
+            synchronized (s) {
+                s.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K,V> s : segments) {
+            synchronized (s) {
+                size += s.size();
+            }
+        }
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    private Segment<K,V> segmentFor(K key) {
+        if (segments.length == 1) {
+            return segments[0];
+        }
+        // spread the hash so keys with poor low-order bits still distribute across segments
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (segments.length - 1)];
+    }
+
+    /**
+     * A single access-ordered LRU segment. All access is synchronized on the segment.
+     */
+    static private class Segment<K,V> extends LinkedHashMap<K,V> {
+        private final int capacity;
+        private final AtomicLong evictionCount;
+
+        Segment(int capacity, AtomicLong evictionCount) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictionCount = evictionCount;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K,V> eldest) {
+            if (size() > capacity) {
+                evictionCount.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free, fixed-size latency histogram in the style of HdrHistogram. Values are recorded into log-linear
+ * buckets (8 linear sub-buckets per power of 2) so any recorded value is reported with a relative error of at most
+ * 12.5% regardless of magnitude.
+ *
+ * @author Dan Noguerol
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value.
+     *
+     * @param value the value (negative values are recorded as 0)
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(getBucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value)) {}
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long c = count.get();
+        return c > 0 ? (double)sum.get() / c : 0;
+    }
+
+    /**
+     * Returns the value at a given percentile.
+     *
+     * @param percentile the percentile (0.0 - 100.0)
+     *
+     * @return the highest value equivalent to the bucket containing the percentile (or 0 if nothing is recorded)
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long)Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i=0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= target) {
+                return Math.min(getBucketUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Clears all recorded values.
+     */
+    public void reset() {
+        for (int i=0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int getBucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int)value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int)((value >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1));
+        return ((exp - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) | sub;
+    }
+
+    static long getBucketLowerBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int exp = (index >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        long sub = index & (SUB_BUCKET_COUNT - 1);
+        return (SUB_BUCKET_COUNT | sub) << (exp - SUB_BUCKET_BITS);
+    }
+
+    static long getBucketUpperBound(int index) {
+        return index + 1 < BUCKET_COUNT ? getBucketLowerBound(index + 1) - 1 : Long.MAX_VALUE;
+    }
+}
@@ -15,13 +15,39 @@ import java.util.*;
 /**
  * A MapDB implementation of CollectionPersistenceContext.
  *
+ * Opening a MapDB collection by name requires a catalog lookup so the most recently used collection handles are
+ * cached (hobson.persist.handleCacheSize). A handle is discarded when its collection is removed through this
+ * context.
+ *
  * @author Dan Noguerol
  */
 public class MapDBCollectionPersistenceContext implements CollectionPersistenceContext {
+    public static final String PROP_HANDLE_CACHE_SIZE = "hobson.persist.handleCacheSize";
+
     private DB db;
+    private final LRUCache<String,Object> handleCache;
 
     public MapDBCollectionPersistenceContext(DB db) {
+        this(db, Integer.parseInt(System.getProperty(PROP_HANDLE_CACHE_SIZE, "1024")));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param db the database
+     * @param handleCacheSize the maximum number of collection handles to cache (0 to disable caching)
+     */
+    public MapDBCollectionPersistenceContext(DB db, int handleCacheSize) {
         this.db = db;
+        this.handleCache = (handleCacheSize > 0) ? new LRUCache<String,Object>(handleCacheSize) : null;
+    }
+
+    public long getHandleCacheHitCount() {
+        return (handleCache != null) ? handleCache.getHitCount() : 0;
+    }
+
+    public long getHandleCacheMissCount() {
+        return (handleCache != null) ? handleCache.getMissCount() : 0;
     }
 
     @Override
@@ -31,7 +57,17 @@ public class MapDBCollectionPersistenceContext implements CollectionPersistenceC
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public Map<String, Object> getMap(String key) {
+        if (handleCache != null) {
+            Object o = handleCache.get(key);
+            if (o instanceof Map) {
+                return (Map<String,Object>)o;
+            }
+            Map<String,Object> m = db.createHashMap(key).makeOrGet();
+            handleCache.put(key, m);
+            return m;
+        }
         return db.createHashMap(key).makeOrGet();
     }
 
@@ -42,18 +78,28 @@ public class MapDBCollectionPersistenceContext implements CollectionPersistenceC
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public Set<Object> getSet(String key) {
+        if (handleCache != null) {
+            Object o = handleCache.get(key);
+            if (o instanceof Set) {
+                return (Set<Object>)o;
+            }
+            Set<Object> s = db.createHashSet(key).makeOrGet();
+            handleCache.put(key, s);
+            return s;
+        }
         return db.createHashSet(key).makeOrGet();
     }
 
     @Override
     public boolean hasMap(String key) {
-        return db.exists(key);
+        return exists(key);
     }
 
     @Override
     public boolean hasSet(String key) {
-        return db.exists(key);
+        return exists(key);
     }
 
     @Override
@@ -64,7 +110,7 @@ public class MapDBCollectionPersistenceContext implements CollectionPersistenceC
 
     @Override
     public void setMap(String key, Map<String,Object> map) {
-        Map<String,Object> m = db.createHashMap(key).makeOrGet();
+        Map<String,Object> m = getMap(key);
         m.clear();
         for (String k : map.keySet()) {
             Object v = map.get(k);
@@ -93,6 +139,9 @@ public class MapDBCollectionPersistenceContext implements CollectionPersistenceC
 
     @Override
     public void remove(String key) {
+        if (handleCache != null) {
+            handleCache.remove(key);
+        }
         db.delete(key);
     }
 
@@ -109,8 +158,29 @@ public class MapDBCollectionPersistenceContext implements CollectionPersistenceC
 
     @Override
     public void close() {
+        if (handleCache != null) {
+            handleCache.clear();
+        }
         if (!db.isClosed()) {
             db.close();
         }
     }
+
+    /**
+     * Checks the database catalog for a collection. A cached handle is discarded if its collection no longer
+     * exists (e.g. it was deleted directly through the DB rather than through remove()).
+     *
+     * @param key the collection name
+     *
+     * @return a boolean
+     */
+    private boolean exists(String key) {
+        if (db.exists(key)) {
+            return true;
+        }
+        if (handleCache != null) {
+            handleCache.remove(key);
+        }
+        return false;
+    }
 }
@@ -0,0 +1,219 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.util;
+
+import org.mapdb.DB;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Batches the commits of a MapDB database. Rather than committing after every write, writers request a commit and
+ * the scheduler performs a single commit once the commit window (hobson.persist.commitWindow, in milliseconds) has
+ * elapsed or the maximum number of uncommitted writes (hobson.persist.commitMaxWrites) has been reached. A commit
+ * window of 0 commits on every request.
+ *
+ * Scheduled commits for all databases are performed by one shared thread. Pending writes are committed by flush()
+ * and close(), and every open database is flushed and closed when the JVM shuts down, so databases using a commit
+ * scheduler should not also use MapDB's closeOnJvmShutdown().
+ *
+ * Commits hold the database's monitor so they never interleave with writers that synchronize on it.
+ *
+ * @author Dan Noguerol
+ */
+public class MapDBCommitScheduler implements MapDBCommitSchedulerMXBean {
+    private static final Logger logger = LoggerFactory.getLogger(MapDBCommitScheduler.class);
+
+    public static final String PROP_COMMIT_WINDOW = "hobson.persist.commitWindow";
+    public static final String PROP_COMMIT_MAX_WRITES = "hobson.persist.commitMaxWrites";
+
+    private static final Set<MapDBCommitScheduler> schedulers = new CopyOnWriteArraySet<>();
+    private static ScheduledExecutorService executor;
+    private static boolean shutdownHookRegistered;
+
+    private final String name;
+    private final DB db;
+    private final long commitWindow;
+    private final int maxWrites;
+    private final long createTime = System.currentTimeMillis();
+    private int pendingWrites;
+    private ScheduledFuture future;
+    private boolean closed;
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong commitCount = new AtomicLong();
+    private final LatencyHistogram commitLatency = new LatencyHistogram();
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                flush();
+            } catch (Throwable t) {
+                logger.error("Error committing " + name + " database", t);
+            }
+        }
+    };
+
+    public MapDBCommitScheduler(String name, DB db) {
+        this(name, db, Long.parseLong(System.getProperty(PROP_COMMIT_WINDOW, "20")), Integer.parseInt(System.getProperty(PROP_COMMIT_MAX_WRITES, "50")));
+    }
+
+    public MapDBCommitScheduler(String name, DB db, long commitWindow, int maxWrites) {
+        this.name = name;
+        this.db = db;
+        this.commitWindow = commitWindow;
+        this.maxWrites = Math.max(1, maxWrites);
+        register(this);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, createObjectName());
+        } catch (Exception e) {
+            logger.debug("Unable to register commit scheduler MBean for " + name, e);
+        }
+    }
+
+    /**
+     * Requests that the database be committed. This should be called after each write.
+     */
+    public void requestCommit() {
+        requestCount.incrementAndGet();
+        synchronized (this) {
+            pendingWrites++;
+            if (!closed && commitWindow > 0 && pendingWrites < maxWrites) {
+                if (future == null) {
+                    future = getExecutor().schedule(flushTask, commitWindow, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Immediately commits any pending writes.
+     */
+    public void flush() {
+        synchronized (db) {
+            synchronized (this) {
+                if (pendingWrites == 0) {
+                    return;
+                }
+                pendingWrites = 0;
+                if (future != null) {
+                    future.cancel(false);
+                    future = null;
+                }
+            }
+            if (!db.isClosed()) {
+                long start = System.nanoTime();
+                db.commit();
+                commitLatency.record(System.nanoTime() - start);
+                commitCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Commits any pending writes and stops scheduling commits. Any later commit requests are committed immediately.
+     * This does not close the database.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+        schedulers.remove(this);
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(createObjectName());
+        } catch (Exception e) {
+            logger.debug("Unable to unregister commit scheduler MBean for " + name, e);
+        }
+    }
+
+    @Override
+    public long getCommitRequestCount() {
+        return requestCount.get();
+    }
+
+    @Override
+    public long getCommitCount() {
+        return commitCount.get();
+    }
+
+    @Override
+    synchronized public int getPendingWriteCount() {
+        return pendingWrites;
+    }
+
+    @Override
+    public double getCommitRate() {
+        long elapsed = System.currentTimeMillis() - createTime;
+        return (elapsed > 0) ? commitCount.get() * 1000.0 / elapsed : 0;
+    }
+
+    @Override
+    public long getCommitTimeP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(commitLatency.getValueAtPercentile(99.0));
+    }
+
+    @Override
+    public long getCommitTimeMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(commitLatency.getMax());
+    }
+
+    public LatencyHistogram getCommitLatency() {
+        return commitLatency;
+    }
+
+    private ObjectName createObjectName() throws Exception {
+        return new ObjectName("com.whizzosoftware.hobson:type=MapDBCommitScheduler,name=" + ObjectName.quote(name) + ",id=" + System.identityHashCode(this));
+    }
+
+    synchronized static private ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "MapDB Commit Scheduler");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+
+    synchronized static private void register(MapDBCommitScheduler scheduler) {
+        if (!shutdownHookRegistered) {
+            shutdownHookRegistered = true;
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (MapDBCommitScheduler s : schedulers) {
+                        try {
+                            s.close();
+                            synchronized (s.db) {
+                                if (!s.db.isClosed()) {
+                                    s.db.close();
+                                }
+                            }
+                        } catch (Throwable t) {
+                            logger.error("Error closing " + s.name + " database", t);
+                        }
+                    }
+                }
+            }, "MapDB Commit Scheduler Shutdown"));
+        }
+        schedulers.add(scheduler);
+    }
+}
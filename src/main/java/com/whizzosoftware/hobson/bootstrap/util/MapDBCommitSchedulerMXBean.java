@@ -0,0 +1,47 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.util;
+
+/**
+ * The JMX management interface for a MapDB commit scheduler.
+ *
+ * @author Dan Noguerol
+ */
+public interface MapDBCommitSchedulerMXBean {
+    /**
+     * Returns the number of writes that have requested a commit.
+     */
+    long getCommitRequestCount();
+
+    /**
+     * Returns the number of commits performed.
+     */
+    long getCommitCount();
+
+    /**
+     * Returns the number of writes that have not yet been committed.
+     */
+    int getPendingWriteCount();
+
+    /**
+     * Returns the number of commits performed per second since the scheduler was created.
+     */
+    double getCommitRate();
+
+    /**
+     * Returns the 99th percentile commit (fsync) time in microseconds.
+     */
+    long getCommitTimeP99Micros();
+
+    /**
+     * Returns the maximum commit (fsync) time in microseconds.
+     */
+    long getCommitTimeMaxMicros();
+}
@@ -0,0 +1,255 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.util;
+
+import org.mapdb.DB;
+import org.mapdb.Store;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compacts a MapDB database when its fragmentation warrants it rather than on a fixed schedule.
+ *
+ * A compaction is performed when the store has a minimum number of free bytes (hobson.persist.compactMinFreeBytes)
+ * and either they make up a ratio of its size (hobson.persist.compactFreeRatio) or the store has grown by a factor
+ * (hobson.persist.compactGrowthRatio) since it was last compacted. If the store can't
+ * report its size, the database is compacted at most once a day.
+ *
+ * Compaction is blocking: MapDB rebuilds the store into a new file and swaps it in while it holds its own locks and
+ * the database's monitor is held throughout, so the store's readers and writers wait for the whole rewrite. What this
+ * class controls is how often that happens and how long it lasts. Compaction only runs when there is space to
+ * reclaim, and pending writes are committed before the monitor is taken so it's held only for the compaction itself.
+ * The bytes reclaimed and the time the store was blocked by each compaction are logged and available via JMX.
+ *
+ * Compactors register with the shared HousekeepingCoordinator, which checks them periodically while it is running,
+ * until they are closed.
+ *
+ * @author Dan Noguerol
+ */
+public class MapDBCompactor implements MapDBCompactorMXBean {
+    private static final Logger logger = LoggerFactory.getLogger(MapDBCompactor.class);
+
+    public static final String PROP_FREE_RATIO = "hobson.persist.compactFreeRatio";
+    public static final String PROP_MIN_FREE_BYTES = "hobson.persist.compactMinFreeBytes";
+    public static final String PROP_GROWTH_RATIO = "hobson.persist.compactGrowthRatio";
+    public static final String PROP_CHECK_INTERVAL = "hobson.persist.compactCheckInterval";
+
+    private static final long DEFAULT_CHECK_INTERVAL = 60;
+    private static final long FALLBACK_INTERVAL = TimeUnit.DAYS.toMillis(1);
+
+    private final String name;
+    private final DB db;
+    private final MapDBCommitScheduler commitScheduler;
+    private final double freeRatio;
+    private final long minFreeBytes;
+    private final double growthRatio;
+    private long baselineSize;
+    private long lastCompactionTime;
+    private long compactionCount;
+    private long skippedCount;
+    private long lastReclaimedBytes;
+    private long totalReclaimedBytes;
+    private long lastBlockedMillis;
+    private long maxBlockedMillis;
+
+    public MapDBCompactor(String name, DB db, MapDBCommitScheduler commitScheduler) {
+        this(name, db, commitScheduler, Double.parseDouble(System.getProperty(PROP_FREE_RATIO, "0.4")), Long.parseLong(System.getProperty(PROP_MIN_FREE_BYTES, "1048576")), Double.parseDouble(System.getProperty(PROP_GROWTH_RATIO, "2.0")));
+    }
+
+    public MapDBCompactor(String name, DB db, MapDBCommitScheduler commitScheduler, double freeRatio, long minFreeBytes, double growthRatio) {
+        this.name = name;
+        this.db = db;
+        this.commitScheduler = commitScheduler;
+        this.freeRatio = freeRatio;
+        this.minFreeBytes = minFreeBytes;
+        this.growthRatio = growthRatio;
+        this.baselineSize = getStoreSize();
+        this.lastCompactionTime = System.currentTimeMillis();
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, createObjectName());
+        } catch (Exception e) {
+            logger.debug("Unable to register compactor MBean for " + name, e);
+        }
+        HousekeepingCoordinator.getInstance().register(this);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns how often (in minutes) stores are checked to see whether they need compaction.
+     *
+     * @return a positive number of minutes
+     */
+    static public long getCheckInterval() {
+        long interval = Long.parseLong(System.getProperty(PROP_CHECK_INTERVAL, Long.toString(DEFAULT_CHECK_INTERVAL)));
+        if (interval <= 0) {
+            logger.warn("Ignoring invalid {} value {}; using {}", PROP_CHECK_INTERVAL, interval, DEFAULT_CHECK_INTERVAL);
+            interval = DEFAULT_CHECK_INTERVAL;
+        }
+        return interval;
+    }
+
+    /**
+     * Indicates whether the database's fragmentation or growth warrants a compaction.
+     *
+     * @return a boolean
+     */
+    public boolean isCompactionNeeded() {
+        long size = getStoreSize();
+        long free = getFreeSize();
+        if (size < 0 || free < 0) {
+            return (System.currentTimeMillis() - lastCompactionTime >= FALLBACK_INTERVAL);
+        }
+        if (free < minFreeBytes || size == 0) {
+            return false;
+        }
+        synchronized (this) {
+            return ((double)free / size >= freeRatio || (baselineSize > 0 && size >= baselineSize * growthRatio));
+        }
+    }
+
+    /**
+     * Commits any pending writes and compacts the database if it's needed.
+     *
+     * @return true if a compaction was performed
+     */
+    public boolean compactIfNeeded() {
+        // commit pending writes first so the store's free space is up to date
+        if (commitScheduler != null) {
+            commitScheduler.flush();
+        }
+        if (isCompactionNeeded()) {
+            compact();
+            return true;
+        } else {
+            synchronized (this) {
+                skippedCount++;
+            }
+            logger.debug("Compaction of {} database not needed (size={}, free={})", name, getStoreSize(), getFreeSize());
+            return false;
+        }
+    }
+
+    /**
+     * Commits any pending writes and compacts the database.
+     */
+    public void compact() {
+        if (commitScheduler != null) {
+            commitScheduler.flush();
+        }
+
+        long before;
+        long after;
+        long blocked;
+        synchronized (db) {
+            if (db.isClosed()) {
+                return;
+            }
+            before = getStoreSize();
+            long start = System.nanoTime();
+            db.commit();
+            db.compact();
+            blocked = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            after = getStoreSize();
+        }
+
+        long reclaimed = (before >= 0 && after >= 0) ? Math.max(0, before - after) : 0;
+        synchronized (this) {
+            compactionCount++;
+            lastCompactionTime = System.currentTimeMillis();
+            baselineSize = after;
+            lastReclaimedBytes = reclaimed;
+            totalReclaimedBytes += reclaimed;
+            lastBlockedMillis = blocked;
+            maxBlockedMillis = Math.max(maxBlockedMillis, blocked);
+        }
+
+        logger.info("Compacted {} database: reclaimed {} bytes ({} -> {}); store was blocked for {}ms", name, reclaimed, before, after, blocked);
+    }
+
+    /**
+     * Unregisters the compactor from the housekeeping coordinator and JMX. This does not close the database.
+     */
+    public void close() {
+        HousekeepingCoordinator.getInstance().unregister(this);
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(createObjectName());
+        } catch (Exception e) {
+            logger.debug("Unable to unregister compactor MBean for " + name, e);
+        }
+    }
+
+    @Override
+    public long getStoreSize() {
+        try {
+            Store store = Store.forDB(db);
+            return (store != null) ? store.getCurrSize() : -1;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public long getFreeSize() {
+        try {
+            Store store = Store.forDB(db);
+            return (store != null) ? store.getFreeSize() : -1;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public double getFreeRatio() {
+        long size = getStoreSize();
+        long free = getFreeSize();
+        return (size > 0 && free >= 0) ? (double)free / size : 0;
+    }
+
+    @Override
+    synchronized public long getCompactionCount() {
+        return compactionCount;
+    }
+
+    @Override
+    synchronized public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    @Override
+    synchronized public long getLastReclaimedBytes() {
+        return lastReclaimedBytes;
+    }
+
+    @Override
+    synchronized public long getTotalReclaimedBytes() {
+        return totalReclaimedBytes;
+    }
+
+    @Override
+    synchronized public long getLastBlockedMillis() {
+        return lastBlockedMillis;
+    }
+
+    @Override
+    synchronized public long getMaxBlockedMillis() {
+        return maxBlockedMillis;
+    }
+
+    private ObjectName createObjectName() throws Exception {
+        return new ObjectName("com.whizzosoftware.hobson:type=MapDBCompactor,name=" + ObjectName.quote(name) + ",id=" + System.identityHashCode(this));
+    }
+}
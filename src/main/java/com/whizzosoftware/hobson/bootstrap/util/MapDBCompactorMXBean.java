@@ -0,0 +1,62 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.util;
+
+/**
+ * The JMX management interface for a MapDB compactor.
+ *
+ * @author Dan Noguerol
+ */
+public interface MapDBCompactorMXBean {
+    /**
+     * Returns the current size of the store in bytes (or -1 if unknown).
+     */
+    long getStoreSize();
+
+    /**
+     * Returns the number of free (reclaimable) bytes in the store (or -1 if unknown).
+     */
+    long getFreeSize();
+
+    /**
+     * Returns the ratio of free bytes to the store size.
+     */
+    double getFreeRatio();
+
+    /**
+     * Returns the number of compactions performed.
+     */
+    long getCompactionCount();
+
+    /**
+     * Returns the number of housekeeping checks that found compaction was not needed.
+     */
+    long getSkippedCount();
+
+    /**
+     * Returns the number of bytes reclaimed by the last compaction.
+     */
+    long getLastReclaimedBytes();
+
+    /**
+     * Returns the total number of bytes reclaimed by all compactions.
+     */
+    long getTotalReclaimedBytes();
+
+    /**
+     * Returns the time in milliseconds that the last compaction blocked the store's readers and writers.
+     */
+    long getLastBlockedMillis();
+
+    /**
+     * Returns the longest time in milliseconds that a compaction blocked the store's readers and writers.
+     */
+    long getMaxBlockedMillis();
+}
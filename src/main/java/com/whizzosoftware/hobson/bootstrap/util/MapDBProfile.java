@@ -0,0 +1,187 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.util;
+
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The MapDB engine options used to open a store's database.
+ *
+ * Each store starts from a default profile suited to its workload and any option can be overridden, either for all
+ * stores or for a single store, with a hub configuration property (mapdb.[option] or mapdb.[store].[option]) or a
+ * system property (hobson.mapdb.[option] or hobson.mapdb.[store].[option]). A store-specific override takes
+ * precedence over one for all stores and, at the same level, the hub configuration takes precedence over a system
+ * property. Overrides are applied when a store is opened. The hub configuration is itself a store so its own
+ * options can only be overridden with system properties. The options are:
+ *
+ * mmap - use memory-mapped files where the platform supports them (true/false)
+ * asyncWrite - write through a background queue (true/false)
+ * cache - the instance cache type (hashTable, lru, hardRef, softRef, weakRef or none)
+ * cacheSize - the instance cache size (for the hashTable and lru caches)
+ * transactions - use the write-ahead log so commits are atomic (true/false)
+ *
+ * @author Dan Noguerol
+ */
+public class MapDBProfile {
+    private static final Logger logger = LoggerFactory.getLogger(MapDBProfile.class);
+
+    public static final String PROP_PREFIX = "hobson.mapdb.";
+    public static final String CONFIG_PREFIX = "mapdb.";
+
+    public static final String CACHE_HASH_TABLE = "hashTable";
+    public static final String CACHE_LRU = "lru";
+    public static final String CACHE_HARD_REF = "hardRef";
+    public static final String CACHE_SOFT_REF = "softRef";
+    public static final String CACHE_WEAK_REF = "weakRef";
+    public static final String CACHE_NONE = "none";
+
+    /**
+     * A profile for stores that are read far more often than they're written (e.g. devices and tasks).
+     */
+    public static final MapDBProfile READ_HEAVY = new MapDBProfile(true, false, CACHE_LRU, 8192, true);
+    /**
+     * A profile for stores that are written frequently (e.g. configuration and presence). Their writes are already
+     * batched by a MapDBCommitScheduler so MapDB's asynchronous write queue is left off; it adds a background thread
+     * per store and its benefit over group commit hasn't been shown (see MapDBProfileBenchmark).
+     */
+    public static final MapDBProfile WRITE_HEAVY = new MapDBProfile(false, false, CACHE_HASH_TABLE, 2048, true);
+
+    private static volatile Map<String,Object> hubConfiguration = Collections.emptyMap();
+
+    private final boolean mmap;
+    private final boolean asyncWrite;
+    private final String cache;
+    private final int cacheSize;
+    private final boolean transactions;
+
+    public MapDBProfile(boolean mmap, boolean asyncWrite, String cache, int cacheSize, boolean transactions) {
+        this.mmap = mmap;
+        this.asyncWrite = asyncWrite;
+        this.cache = cache;
+        this.cacheSize = cacheSize;
+        this.transactions = transactions;
+    }
+
+    /**
+     * Returns the profile for a store after applying any system property overrides.
+     *
+     * @param storeName the store name (e.g. "devices")
+     * @param defaultProfile the store's default profile
+     *
+     * @return a MapDBProfile instance
+     */
+    static public MapDBProfile forStore(String storeName, MapDBProfile defaultProfile) {
+        return new MapDBProfile(
+            Boolean.parseBoolean(getProperty(storeName, "mmap", Boolean.toString(defaultProfile.mmap))),
+            Boolean.parseBoolean(getProperty(storeName, "asyncWrite", Boolean.toString(defaultProfile.asyncWrite))),
+            getProperty(storeName, "cache", defaultProfile.cache),
+            Integer.parseInt(getProperty(storeName, "cacheSize", Integer.toString(defaultProfile.cacheSize))),
+            Boolean.parseBoolean(getProperty(storeName, "transactions", Boolean.toString(defaultProfile.transactions)))
+        );
+    }
+
+    /**
+     * Sets the hub configuration that overrides are read from. This is called when the hub configuration becomes
+     * available so it only applies to stores opened afterwards.
+     *
+     * @param config the hub configuration (or null to clear it)
+     */
+    static public void setHubConfiguration(Map<String,Object> config) {
+        hubConfiguration = (config != null) ? new HashMap<>(config) : Collections.<String,Object>emptyMap();
+    }
+
+    public boolean isMmap() {
+        return mmap;
+    }
+
+    public boolean isAsyncWrite() {
+        return asyncWrite;
+    }
+
+    public String getCache() {
+        return cache;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public boolean isTransactions() {
+        return transactions;
+    }
+
+    /**
+     * Opens a database with this profile's options.
+     *
+     * @param file the database file
+     *
+     * @return a DB instance
+     */
+    public DB open(File file) {
+        logger.debug("Opening {} with {}", file, this);
+
+        DBMaker maker = DBMaker.newFileDB(file);
+        if (mmap) {
+            // memory-mapped files exhaust the address space of 32-bit JVMs so only use them where it's safe
+            maker = maker.mmapFileEnableIfSupported();
+        }
+        if (asyncWrite) {
+            maker = maker.asyncWriteEnable();
+        }
+        if (CACHE_NONE.equals(cache)) {
+            maker = maker.cacheDisable();
+        } else if (CACHE_LRU.equals(cache)) {
+            maker = maker.cacheLRUEnable().cacheSize(cacheSize);
+        } else if (CACHE_HARD_REF.equals(cache)) {
+            maker = maker.cacheHardRefEnable();
+        } else if (CACHE_SOFT_REF.equals(cache)) {
+            maker = maker.cacheSoftRefEnable();
+        } else if (CACHE_WEAK_REF.equals(cache)) {
+            maker = maker.cacheWeakRefEnable();
+        } else {
+            if (!CACHE_HASH_TABLE.equals(cache)) {
+                logger.warn("Unknown MapDB cache type \"{}\"; using {}", cache, CACHE_HASH_TABLE);
+            }
+            maker = maker.cacheSize(cacheSize);
+        }
+        if (!transactions) {
+            maker = maker.transactionDisable();
+        }
+        return maker.make();
+    }
+
+    @Override
+    public String toString() {
+        return "MapDBProfile[mmap=" + mmap + ", asyncWrite=" + asyncWrite + ", cache=" + cache + ", cacheSize=" + cacheSize + ", transactions=" + transactions + "]";
+    }
+
+    static private String getProperty(String storeName, String option, String defaultValue) {
+        Map<String,Object> config = hubConfiguration;
+        Object v = config.get(CONFIG_PREFIX + storeName + "." + option);
+        if (v == null) {
+            v = System.getProperty(PROP_PREFIX + storeName + "." + option);
+        }
+        if (v == null) {
+            v = config.get(CONFIG_PREFIX + option);
+        }
+        if (v == null) {
+            v = System.getProperty(PROP_PREFIX + option, defaultValue);
+        }
+        return v.toString();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.util;
+
+import com.whizzosoftware.hobson.api.persist.CollectionPersistenceContext;
+
+import java.util.*;
+
+/**
+ * A CollectionPersistenceContext that keeps everything in memory. It's used to capture what a CollectionPersister
+ * would write for a single object and to restore an object from a previously captured state.
+ *
+ * @author Dan Noguerol
+ */
+public class MemoryCollectionPersistenceContext implements CollectionPersistenceContext {
+    protected final Map<String,Map<String,Object>> maps = new TreeMap<>();
+    protected final Map<String,Set<Object>> sets = new TreeMap<>();
+
+    @Override
+    public void addSetValue(String key, Object value) {
+        getSet(key).add(value);
+    }
+
+    @Override
+    public Map<String,Object> getMap(String key) {
+        Map<String,Object> m = maps.get(key);
+        if (m == null) {
+            m = new HashMap<>();
+            maps.put(key, m);
+        }
+        return m;
+    }
+
+    @Override
+    public Object getMapValue(String key, String name) {
+        return getMap(key).get(name);
+    }
+
+    @Override
+    public Set<Object> getSet(String key) {
+        Set<Object> s = sets.get(key);
+        if (s == null) {
+            s = new HashSet<>();
+            sets.put(key, s);
+        }
+        return s;
+    }
+
+    @Override
+    public boolean hasMap(String key) {
+        return maps.containsKey(key);
+    }
+
+    @Override
+    public boolean hasSet(String key) {
+        return sets.containsKey(key);
+    }
+
+    @Override
+    public boolean hasSetValue(String key, Object value) {
+        Set<Object> s = sets.get(key);
+        return (s != null && s.contains(value));
+    }
+
+    @Override
+    public void setMap(String key, Map<String,Object> map) {
+        Map<String,Object> m = getMap(key);
+        m.clear();
+        for (String k : map.keySet()) {
+            Object v = map.get(k);
+            if (v != null) {
+                m.put(k, v);
+            }
+        }
+    }
+
+    @Override
+    public void setMapValue(String key, String name, Object value) {
+        getMap(key).put(name, value);
+    }
+
+    @Override
+    public void setSet(String key, Set<Object> set) {
+        Set<Object> s = getSet(key);
+        s.clear();
+        s.addAll(set);
+    }
+
+    @Override
+    public void remove(String key) {
+        maps.remove(key);
+        sets.remove(key);
+    }
+
+    @Override
+    public void removeFromSet(String key, Object value) {
+        Set<Object> s = sets.get(key);
+        if (s != null) {
+            s.remove(value);
+        }
+    }
+
+    @Override
+    public void commit() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Returns all maps written to this context keyed by their ID.
+     */
+    public Map<String,Map<String,Object>> getMaps() {
+        return maps;
+    }
+
+    /**
+     * Returns all sets written to this context keyed by their ID.
+     */
+    public Map<String,Set<Object>> getSets() {
+        return sets;
+    }
+
+    public boolean isEmpty() {
+        return maps.isEmpty() && sets.isEmpty();
+    }
+}
@@ -178,4 +178,102 @@ public class DeviceAvailabilityMonitorTest {
         assertTrue(em.getEvent(0) instanceof DeviceUnavailableEvent);
         assertEquals(((DeviceUnavailableEvent)em.getEvent(0)).getDeviceContext(), device2.getContext());
     }
+
+    @Test
+    public void testDeviceActivityPushesDeadline() throws Exception {
+        final HubContext hctx = HubContext.createLocal();
+        final MockDeviceManager dm = new MockDeviceManager();
+        final MockEventManager em = new MockEventManager();
+        final DeviceAvailabilityMonitor monitor = new DeviceAvailabilityMonitor(hctx, dm, em);
+
+        final long now = System.currentTimeMillis();
+        final MockHobsonPlugin plugin = new MockHobsonPlugin("plugin", "1.0.0", "");
+        plugin.setDeviceManager(dm);
+        plugin.setEventManager(em);
+        final MockDeviceProxy device1  = new MockDeviceProxy(plugin, "device1", DeviceType.LIGHTBULB);
+        assertTrue(dm.publishDevice(device1, null, null).await().isSuccess());
+        device1.setLastCheckin(now);
+
+        monitor.run(now);
+        assertEquals(1, monitor.getDeadlineCount());
+
+        // a check-in half way through the interval pushes out the deadline
+        device1.setLastCheckin(now + HobsonDeviceDescriptor.AVAILABILITY_TIMEOUT_INTERVAL / 2);
+        monitor.onDeviceActivity(device1.getContext(), now + HobsonDeviceDescriptor.AVAILABILITY_TIMEOUT_INTERVAL / 2);
+        em.clearEvents();
+        monitor.run(now + HobsonDeviceDescriptor.AVAILABILITY_TIMEOUT_INTERVAL);
+        assertEquals(0, em.getEventCount());
+        assertEquals(1, monitor.getDeadlineCount());
+
+        monitor.run(now + HobsonDeviceDescriptor.AVAILABILITY_TIMEOUT_INTERVAL * 3 / 2);
+        assertEquals(1, em.getEventCount());
+        assertTrue(em.getEvent(0) instanceof DeviceUnavailableEvent);
+        assertEquals(0, monitor.getDeadlineCount());
+    }
+
+    @Test
+    public void testDeletedDeviceIsForgotten() throws Exception {
+        final HubContext hctx = HubContext.createLocal();
+        final MockDeviceManager dm = new MockDeviceManager();
+        final MockEventManager em = new MockEventManager();
+        final DeviceAvailabilityMonitor monitor = new DeviceAvailabilityMonitor(hctx, dm, em);
+        final long now = System.currentTimeMillis();
+
+        DeviceContext dctx = DeviceContext.createLocal("plugin", "device1");
+        monitor.run(now);
+        monitor.setLastNotificationTime(dctx, now);
+        assertNotNull(monitor.getLastNotificationTime(dctx));
+
+        // the next reconciliation discards state for devices the device manager doesn't know about
+        monitor.run(now + HobsonDeviceDescriptor.AVAILABILITY_TIMEOUT_INTERVAL);
+        assertNull(monitor.getLastNotificationTime(dctx));
+
+        monitor.setLastNotificationTime(dctx, now);
+        monitor.forget(dctx);
+        assertNull(monitor.getLastNotificationTime(dctx));
+    }
+
+    @Test
+    public void testLookupsDoNotHoldMonitorLock() throws Exception {
+        final HubContext hctx = HubContext.createLocal();
+        final long now = System.currentTimeMillis();
+        final DeviceAvailabilityMonitor[] monitor = new DeviceAvailabilityMonitor[1];
+        final boolean[] blocked = new boolean[1];
+        final MockDeviceManager dm = new MockDeviceManager() {
+            @Override
+            public Long getDeviceLastCheckin(DeviceContext dctx) {
+                // a check-in handler running on another thread must not wait for the lookup to finish
+                Thread t = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        monitor[0].onDeviceActivity(DeviceContext.createLocal("plugin", "device1"), now - 1);
+                    }
+                });
+                t.start();
+                try {
+                    t.join(5000);
+                } catch (InterruptedException ignored) {}
+                blocked[0] |= t.isAlive();
+                return super.getDeviceLastCheckin(dctx);
+            }
+        };
+        final MockEventManager em = new MockEventManager();
+        monitor[0] = new DeviceAvailabilityMonitor(hctx, dm, em);
+
+        final MockHobsonPlugin plugin = new MockHobsonPlugin("plugin", "1.0.0", "");
+        plugin.setDeviceManager(dm);
+        plugin.setEventManager(em);
+        final MockDeviceProxy device1  = new MockDeviceProxy(plugin, "device1", DeviceType.LIGHTBULB);
+        assertTrue(dm.publishDevice(device1, null, null).await().isSuccess());
+        device1.setLastCheckin(now);
+        em.clearEvents();
+
+        // reconciliation
+        monitor[0].run(now);
+        // deadline expiry
+        monitor[0].run(now + HobsonDeviceDescriptor.AVAILABILITY_TIMEOUT_INTERVAL);
+        assertFalse(blocked[0]);
+        assertEquals(1, em.getEventCount());
+        assertTrue(em.getEvent(0) instanceof DeviceUnavailableEvent);
+    }
 }
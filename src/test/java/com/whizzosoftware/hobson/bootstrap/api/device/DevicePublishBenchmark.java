@@ -0,0 +1,117 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.device;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+import com.whizzosoftware.hobson.api.device.DeviceType;
+import com.whizzosoftware.hobson.api.device.MockDeviceProxy;
+import com.whizzosoftware.hobson.api.device.proxy.HobsonDeviceProxy;
+import com.whizzosoftware.hobson.api.event.MockEventManager;
+import com.whizzosoftware.hobson.api.plugin.MockHobsonPlugin;
+import com.whizzosoftware.hobson.api.plugin.MockPluginManager;
+import com.whizzosoftware.hobson.bootstrap.api.config.MapDBConfigurationManager;
+import com.whizzosoftware.hobson.bootstrap.api.device.store.CachingLocalDeviceStore;
+import com.whizzosoftware.hobson.bootstrap.api.device.store.MapDBDeviceStore;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long a plugin takes to publish its devices at startup, from the first publish call until every
+ * descriptor has been written to the device store, when publishing them one at a time with publishDevice() and
+ * all at once with publishDevices().
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.whizzosoftware.hobson.bootstrap.api.device.DevicePublishBenchmark
+ *
+ * @author Dan Noguerol
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+@State(Scope.Thread)
+public class DevicePublishBenchmark {
+    @Param({"300"})
+    public int deviceCount;
+
+    private File deviceFile;
+    private File configFile;
+    private CachingLocalDeviceStore deviceStore;
+    private MapDBConfigurationManager configManager;
+    private OSGIDeviceManager deviceManager;
+    private List<HobsonDeviceProxy> devices;
+    private Map<DeviceContext,Map<String,Object>> configs;
+
+    @Setup(Level.Invocation)
+    public void setUp() throws Exception {
+        deviceFile = File.createTempFile("devices", ".db");
+        configFile = File.createTempFile("config", ".db");
+        deviceStore = new CachingLocalDeviceStore(new MapDBDeviceStore(deviceFile));
+        configManager = new MapDBConfigurationManager(configFile);
+        configManager.start();
+
+        MockPluginManager pm = new MockPluginManager();
+        deviceManager = new OSGIDeviceManager();
+        deviceManager.setDeviceStore(deviceStore);
+        deviceManager.setPluginManager(pm);
+        deviceManager.setEventManager(new MockEventManager());
+        deviceManager.setConfigManager(configManager);
+
+        MockHobsonPlugin plugin = new MockHobsonPlugin("plugin1", "1.0.0", "");
+        plugin.setDeviceManager(deviceManager);
+        pm.addLocalPlugin(plugin);
+
+        devices = new ArrayList<>();
+        configs = new HashMap<>();
+        for (int i=0; i < deviceCount; i++) {
+            MockDeviceProxy proxy = new MockDeviceProxy(plugin, "device" + i, DeviceType.LIGHTBULB, "name" + i);
+            devices.add(proxy);
+            configs.put(proxy.getContext(), Collections.<String,Object>singletonMap("foo", "bar" + i));
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        deviceStore.stop();
+        configManager.stop();
+        deviceFile.delete();
+        configFile.delete();
+    }
+
+    @Benchmark
+    public long publishDevice() throws Exception {
+        for (HobsonDeviceProxy device : devices) {
+            deviceManager.publishDevice(device, configs.get(device.getContext()), null).await();
+        }
+        return awaitWrites();
+    }
+
+    @Benchmark
+    public long publishDevices() throws Exception {
+        deviceManager.publishDevices(devices, configs, null).await();
+        return awaitWrites();
+    }
+
+    private long awaitWrites() throws InterruptedException {
+        while (deviceStore.getWriteCount() < deviceCount) {
+            Thread.sleep(1);
+        }
+        return deviceStore.getBatchCount();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(DevicePublishBenchmark.class.getSimpleName()).build()).run();
+    }
+}
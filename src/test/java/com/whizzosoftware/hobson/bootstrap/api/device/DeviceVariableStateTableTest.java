@@ -0,0 +1,86 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.device;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+import com.whizzosoftware.hobson.api.event.device.DeviceDeletedEvent;
+import com.whizzosoftware.hobson.api.event.device.DeviceVariablesUpdateEvent;
+import com.whizzosoftware.hobson.api.event.plugin.PluginStatusChangeEvent;
+import com.whizzosoftware.hobson.api.hub.HubContext;
+import com.whizzosoftware.hobson.api.plugin.PluginContext;
+import com.whizzosoftware.hobson.api.plugin.PluginStatus;
+import com.whizzosoftware.hobson.api.variable.DeviceVariableContext;
+import com.whizzosoftware.hobson.api.variable.DeviceVariableState;
+import com.whizzosoftware.hobson.api.variable.DeviceVariableUpdate;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DeviceVariableStateTableTest {
+    @Test
+    public void testUpdate() {
+        DeviceVariableStateTable t = new DeviceVariableStateTable();
+        DeviceContext dctx = DeviceContext.createLocal("plugin1", "device1");
+        DeviceVariableContext vctx = DeviceVariableContext.create(dctx, "on");
+
+        assertNull(t.get(vctx));
+        assertEquals(1, t.getMissCount());
+
+        t.onEventPosted(HubContext.createLocal(), new DeviceVariablesUpdateEvent(System.currentTimeMillis(), new DeviceVariableUpdate(vctx, null, false)));
+        assertEquals(false, t.get(vctx).getValue());
+        assertEquals(1, t.getEntry(vctx).getVersion());
+
+        t.onEventPosted(HubContext.createLocal(), new DeviceVariablesUpdateEvent(System.currentTimeMillis(), new DeviceVariableUpdate(vctx, false, true)));
+        assertEquals(true, t.get(vctx).getValue());
+        assertEquals(2, t.getEntry(vctx).getVersion());
+        assertEquals(2, t.getHitCount());
+
+        // seeding from a plugin doesn't overwrite a value populated by an update
+        t.putIfAbsent(vctx, new DeviceVariableState(vctx, false, System.currentTimeMillis()));
+        assertEquals(true, t.get(vctx).getValue());
+    }
+
+    @Test
+    public void testInvalidate() {
+        DeviceVariableStateTable t = new DeviceVariableStateTable();
+        DeviceContext d1 = DeviceContext.createLocal("plugin1", "device1");
+        DeviceContext d2 = DeviceContext.createLocal("plugin1", "device2");
+        DeviceVariableContext v1 = DeviceVariableContext.create(d1, "on");
+        DeviceVariableContext v2 = DeviceVariableContext.create(d2, "on");
+
+        t.update(v1, true, System.currentTimeMillis());
+        t.update(v2, true, System.currentTimeMillis());
+        assertEquals(2, t.size());
+
+        t.onEventPosted(HubContext.createLocal(), new DeviceDeletedEvent(System.currentTimeMillis(), d1));
+        assertFalse(t.contains(v1));
+        assertTrue(t.contains(v2));
+    }
+
+    @Test
+    public void testInvalidatePlugin() {
+        DeviceVariableStateTable t = new DeviceVariableStateTable();
+        DeviceVariableContext v1 = DeviceVariableContext.create(DeviceContext.createLocal("plugin1", "device1"), "on");
+        DeviceVariableContext v2 = DeviceVariableContext.create(DeviceContext.createLocal("plugin2", "device1"), "on");
+        t.update(v1, true, System.currentTimeMillis());
+        t.update(v2, true, System.currentTimeMillis());
+
+        // a plugin that is (re)starting keeps its values until it's no longer running
+        t.onEventPosted(HubContext.createLocal(), new PluginStatusChangeEvent(System.currentTimeMillis(), PluginContext.createLocal("plugin1"), PluginStatus.running()));
+        assertEquals(2, t.size());
+
+        t.onEventPosted(HubContext.createLocal(), new PluginStatusChangeEvent(System.currentTimeMillis(), PluginContext.createLocal("plugin1"), PluginStatus.stopped()));
+        assertFalse(t.contains(v1));
+        assertTrue(t.contains(v2));
+
+        t.invalidate(v2);
+        assertEquals(0, t.size());
+    }
+}
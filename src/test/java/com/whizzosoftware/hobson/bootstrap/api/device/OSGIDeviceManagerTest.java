@@ -2,20 +2,31 @@ package com.whizzosoftware.hobson.bootstrap.api.device;
 
 import com.whizzosoftware.hobson.api.HobsonInvalidRequestException;
 import com.whizzosoftware.hobson.api.device.*;
+import com.whizzosoftware.hobson.api.device.proxy.HobsonDeviceProxy;
 import com.whizzosoftware.hobson.api.event.device.DeviceStartedEvent;
 import com.whizzosoftware.hobson.api.event.MockEventManager;
+import com.whizzosoftware.hobson.api.event.device.DeviceVariablesUpdateEvent;
+import com.whizzosoftware.hobson.api.hub.HubContext;
+import com.whizzosoftware.hobson.api.osgi.event.DevicesStartedEvent;
 import com.whizzosoftware.hobson.api.plugin.MockHobsonPlugin;
 import com.whizzosoftware.hobson.api.plugin.MockPluginManager;
 import com.whizzosoftware.hobson.api.property.PropertyConstraintType;
 import com.whizzosoftware.hobson.api.property.PropertyContainer;
 import com.whizzosoftware.hobson.api.property.TypedProperty;
+import com.whizzosoftware.hobson.api.variable.DeviceVariableContext;
+import com.whizzosoftware.hobson.api.variable.DeviceVariableState;
+import com.whizzosoftware.hobson.api.variable.DeviceVariableUpdate;
 import com.whizzosoftware.hobson.bootstrap.api.config.MapDBConfigurationManager;
+import com.whizzosoftware.hobson.bootstrap.api.device.store.CachingLocalDeviceStore;
 import com.whizzosoftware.hobson.bootstrap.api.device.store.MapDBDeviceStore;
 import io.netty.util.concurrent.Future;
 import org.junit.Test;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.*;
@@ -52,6 +63,188 @@ public class OSGIDeviceManagerTest {
         assertTrue(em.getEvent(0) instanceof DeviceStartedEvent);
     }
 
+    @Test
+    public void testPublishDevices() throws Exception {
+        final File tmpFile = File.createTempFile("foo", "db");
+        tmpFile.deleteOnExit();
+        final MockEventManager em = new MockEventManager();
+        final MockPluginManager pm = new MockPluginManager();
+        final MapDBDeviceStore mds = new MapDBDeviceStore(tmpFile);
+        final CachingLocalDeviceStore ds = new CachingLocalDeviceStore(mds, 100, 250);
+        final OSGIDeviceManager dm = new OSGIDeviceManager();
+        dm.setDeviceStore(ds);
+        dm.setPluginManager(pm);
+        dm.setEventManager(em);
+        final MockHobsonPlugin plugin = new MockHobsonPlugin("plugin1", "1.0.0", "");
+        plugin.setDeviceManager(dm);
+        pm.addLocalPlugin(plugin);
+
+        // publish a large plugin's devices the way plugins do at startup
+        int count = 300;
+        List<MockDeviceProxy> devices = new ArrayList<>();
+        for (int i=0; i < count; i++) {
+            devices.add(new MockDeviceProxy(plugin, "device" + i, DeviceType.LIGHTBULB, "name" + i));
+        }
+        for (MockDeviceProxy proxy : devices) {
+            assertTrue(dm.publishDevice(proxy, null, null).await().isSuccess());
+        }
+
+        // wait for the write-behind thread to flush the descriptors
+        long deadline = System.currentTimeMillis() + 10000;
+        while (ds.getWriteCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        // every device was started, persisted and announced
+        for (MockDeviceProxy proxy : devices) {
+            assertTrue(proxy.isStarted());
+            assertTrue(mds.hasDevice(proxy.getContext()));
+        }
+        assertEquals(count, em.getEventCount());
+
+        // the descriptors were written to the store in batched transactions rather than one per device
+        assertEquals(count, ds.getWriteCount());
+        assertTrue(ds.getBatchCount() < count);
+
+        // the device snapshot is shared until the devices change
+        DeviceSnapshot snapshot = dm.getDeviceSnapshot();
+        assertEquals(count, snapshot.size());
+        assertSame(snapshot, dm.getDeviceSnapshot());
+        dm.setDeviceName(devices.get(0).getContext(), "newName");
+        DeviceSnapshot snapshot2 = dm.getDeviceSnapshot();
+        assertNotSame(snapshot, snapshot2);
+        assertTrue(snapshot2.getVersion() > snapshot.getVersion());
+        assertFalse(snapshot.getETag().equals(snapshot2.getETag()));
+
+        ds.stop();
+    }
+
+    @Test
+    public void testPublishDevicesBatch() throws Exception {
+        final File tmpFile = File.createTempFile("foo", "db");
+        tmpFile.deleteOnExit();
+        final File configFile = File.createTempFile("config", "db");
+        configFile.deleteOnExit();
+        final MockEventManager em = new MockEventManager();
+        final MockPluginManager pm = new MockPluginManager();
+        final MapDBDeviceStore mds = new MapDBDeviceStore(tmpFile);
+        final CachingLocalDeviceStore ds = new CachingLocalDeviceStore(mds, 100, 250);
+        final int[] configCalls = new int[2];
+        final MapDBConfigurationManager cm = new MapDBConfigurationManager(configFile) {
+            @Override
+            public void setDeviceConfigurations(Map<DeviceContext,Map<String,Object>> configs) {
+                configCalls[0]++;
+                super.setDeviceConfigurations(configs);
+            }
+
+            @Override
+            public void setDeviceConfigurationProperties(DeviceContext dctx, Map<String,Object> values) {
+                configCalls[1]++;
+                super.setDeviceConfigurationProperties(dctx, values);
+            }
+        };
+        cm.start();
+        final OSGIDeviceManager dm = new OSGIDeviceManager();
+        dm.setDeviceStore(ds);
+        dm.setPluginManager(pm);
+        dm.setEventManager(em);
+        dm.setConfigManager(cm);
+        final MockHobsonPlugin plugin = new MockHobsonPlugin("plugin1", "1.0.0", "");
+        plugin.setDeviceManager(dm);
+        pm.addLocalPlugin(plugin);
+
+        int count = 300;
+        List<HobsonDeviceProxy> devices = new ArrayList<>();
+        Map<DeviceContext,Map<String,Object>> configs = new HashMap<>();
+        for (int i=0; i < count; i++) {
+            MockDeviceProxy proxy = new MockDeviceProxy(plugin, "device" + i, DeviceType.LIGHTBULB, "name" + i);
+            devices.add(proxy);
+            configs.put(proxy.getContext(), Collections.<String,Object>singletonMap("foo", "bar" + i));
+        }
+        assertTrue(dm.publishDevices(devices, configs, null).await().isSuccess());
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (ds.getWriteCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        // every device was started and persisted with a single store transaction
+        for (HobsonDeviceProxy proxy : devices) {
+            assertTrue(((MockDeviceProxy)proxy).isStarted());
+            assertTrue(mds.hasDevice(proxy.getContext()));
+        }
+        assertEquals(count, ds.getWriteCount());
+        assertEquals(1, ds.getBatchCount());
+        assertEquals(count, ds.getLastBatchSize());
+
+        // the configurations were written with one call
+        assertEquals(1, configCalls[0]);
+        assertEquals(0, configCalls[1]);
+        assertEquals("bar7", cm.getDeviceConfiguration(DeviceContext.createLocal("plugin1", "device7")).get("foo"));
+
+        // and a single event announced them all
+        assertEquals(1, em.getEventCount());
+        assertTrue(em.getEvent(0) instanceof DevicesStartedEvent);
+        assertEquals(count, ((DevicesStartedEvent)em.getEvent(0)).getDeviceContexts().size());
+        assertEquals(count, dm.getDeviceSnapshot().size());
+
+        ds.stop();
+        cm.stop();
+    }
+
+    @Test
+    public void testGetDeviceVariableMatchesPlugin() throws Exception {
+        final DeviceVariableContext vctx = DeviceVariableContext.create(DeviceContext.createLocal("plugin1", "device1"), "level");
+        final DeviceVariableState[] pluginState = new DeviceVariableState[] {new DeviceVariableState(vctx, 50, 1000)};
+        MockPluginManager pm = new MockPluginManager() {
+            @Override
+            public DeviceVariableState getLocalPluginDeviceVariable(DeviceVariableContext ctx) {
+                return vctx.equals(ctx) ? pluginState[0] : null;
+            }
+        };
+        OSGIDeviceManager dm = new OSGIDeviceManager();
+        dm.setPluginManager(pm);
+
+        // a miss returns (and caches) exactly what the plugin returns
+        assertSame(pluginState[0], dm.getDeviceVariable(vctx));
+        assertSame(pluginState[0], dm.getDeviceVariable(vctx));
+
+        // after the plugin reports an update, the table's state has the plugin's new value and update time
+        pluginState[0] = new DeviceVariableState(vctx, 75, 2000);
+        dm.getVariableStateTable().onEventPosted(HubContext.createLocal(), new DeviceVariablesUpdateEvent(2000, new DeviceVariableUpdate(vctx, 50, 75)));
+        DeviceVariableState state = dm.getDeviceVariable(vctx);
+        assertEquals(pluginState[0].getValue(), state.getValue());
+        assertEquals(2000, dm.getVariableStateTable().getEntry(vctx).getTimestamp());
+    }
+
+    @Test
+    public void testDeleteDeviceInvalidatesVariableState() throws Exception {
+        final File tmpFile = File.createTempFile("foo", "db");
+        tmpFile.deleteOnExit();
+        final MockEventManager em = new MockEventManager();
+        final MockPluginManager pm = new MockPluginManager();
+        final CachingLocalDeviceStore ds = new CachingLocalDeviceStore(new MapDBDeviceStore(tmpFile), 100, 250);
+        final OSGIDeviceManager dm = new OSGIDeviceManager();
+        dm.setDeviceStore(ds);
+        dm.setPluginManager(pm);
+        dm.setEventManager(em);
+        final MockHobsonPlugin plugin = new MockHobsonPlugin("plugin1", "1.0.0", "");
+        plugin.setDeviceManager(dm);
+        pm.addLocalPlugin(plugin);
+
+        MockDeviceProxy proxy = new MockDeviceProxy(plugin, "device1", DeviceType.LIGHTBULB, "name");
+        assertTrue(dm.publishDevice(proxy, null, null).await().isSuccess());
+        DeviceVariableContext vctx = DeviceVariableContext.create(proxy.getContext(), "on");
+        dm.getVariableStateTable().update(vctx, true, System.currentTimeMillis());
+        assertTrue(dm.getVariableStateTable().contains(vctx));
+
+        // the state is discarded by the delete itself rather than when the event is eventually delivered
+        dm.deleteDevice(proxy.getContext());
+        assertFalse(dm.getVariableStateTable().contains(vctx));
+
+        ds.stop();
+    }
+
     @Test
     public void testIsDeviceAvailable() throws Exception {
         final long now = System.currentTimeMillis();
@@ -0,0 +1,51 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.device;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class VariableNameIndexTest {
+    @Test
+    public void testReferenceCounts() {
+        VariableNameIndex index = new VariableNameIndex();
+        DeviceContext dctx1 = DeviceContext.createLocal("plugin1", "device1");
+        DeviceContext dctx2 = DeviceContext.createLocal("plugin1", "device2");
+
+        index.setDeviceVariables(dctx1, Arrays.asList("on", "level"));
+        index.setDeviceVariables(dctx2, Collections.singletonList("on"));
+        assertEquals(2, index.getVariableNames().size());
+        assertEquals(2, index.getReferenceCount("on"));
+        assertEquals(1, index.getReferenceCount("level"));
+        long version = index.getVersion();
+
+        // republishing the same variables doesn't change the index
+        index.setDeviceVariables(dctx1, Arrays.asList("level", "on"));
+        assertEquals(version, index.getVersion());
+
+        // a name remains published while any device references it
+        index.removeDevice(dctx1);
+        assertEquals(Collections.singleton("on"), index.getVariableNames());
+        assertEquals(1, index.getReferenceCount("on"));
+        assertEquals(0, index.getReferenceCount("level"));
+        assertTrue(index.getVersion() > version);
+
+        index.addDeviceVariable(dctx2, "color");
+        assertTrue(index.getVariableNames().contains("color"));
+
+        index.removeDevice(dctx2);
+        assertTrue(index.getVariableNames().isEmpty());
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.device.store;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+import com.whizzosoftware.hobson.api.device.DeviceType;
+import com.whizzosoftware.hobson.api.device.HobsonDeviceDescriptor;
+import com.whizzosoftware.hobson.api.hub.HubContext;
+import com.whizzosoftware.hobson.api.plugin.PluginContext;
+import com.whizzosoftware.hobson.api.variable.DeviceVariableDescriptor;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CachingLocalDeviceStoreTest {
+    @Test
+    public void testWriteCoalescing() {
+        RecordingDeviceStore rds = new RecordingDeviceStore();
+        CachingLocalDeviceStore store = new CachingLocalDeviceStore(rds, 100, 60000);
+        DeviceContext dctx = DeviceContext.createLocal("plugin1", "device1");
+
+        store.saveDevice(createDevice(dctx));
+        store.setDeviceName(dctx, "name1");
+        store.setDeviceName(dctx, "name2");
+        store.setDeviceTags(dctx, Collections.singleton("tag1"));
+        store.setDeviceName(dctx, "name3");
+        assertEquals(1, store.getPendingWriteCount());
+        assertEquals(5, store.getMutationCount());
+        assertEquals(0, rds.operations.size());
+
+        // stop should drain the pending writes
+        store.stop();
+        assertEquals(0, store.getPendingWriteCount());
+        assertEquals(1, rds.transactionCount);
+        assertEquals(Arrays.asList("saveDevice:device1", "setDeviceName:device1:name3", "setDeviceTags:device1:[tag1]"), rds.operations);
+        assertEquals(1, store.getBatchCount());
+        assertEquals(1, store.getLastBatchSize());
+        assertTrue(rds.stopped);
+    }
+
+    @Test
+    public void testDeleteSupersedesChanges() {
+        RecordingDeviceStore rds = new RecordingDeviceStore();
+        CachingLocalDeviceStore store = new CachingLocalDeviceStore(rds, 100, 60000);
+        DeviceContext dctx = DeviceContext.createLocal("plugin1", "device1");
+
+        store.saveDevice(createDevice(dctx));
+        store.setDeviceName(dctx, "name1");
+        store.deleteDevice(dctx);
+        assertFalse(store.hasDevice(dctx));
+
+        store.stop();
+        assertEquals(Collections.singletonList("deleteDevice:device1"), rds.operations);
+    }
+
+    @Test
+    public void testMaxBatchSize() {
+        RecordingDeviceStore rds = new RecordingDeviceStore();
+        CachingLocalDeviceStore store = new CachingLocalDeviceStore(rds, 2, 60000);
+
+        store.setDeviceName(DeviceContext.createLocal("plugin1", "device1"), "name1");
+        store.setDeviceName(DeviceContext.createLocal("plugin1", "device2"), "name2");
+        store.setDeviceName(DeviceContext.createLocal("plugin1", "device3"), "name3");
+
+        store.stop();
+        assertEquals(3, rds.operations.size());
+        assertEquals(2, rds.transactionCount);
+        assertEquals(3, store.getWriteCount());
+    }
+
+    @Test
+    public void testTransactionIsWrittenAsOneBatch() throws Exception {
+        RecordingDeviceStore rds = new RecordingDeviceStore();
+        final CachingLocalDeviceStore store = new CachingLocalDeviceStore(rds, 2, 0);
+
+        store.performTransaction(new Runnable() {
+            @Override
+            public void run() {
+                for (int i=0; i < 5; i++) {
+                    store.setDeviceName(DeviceContext.createLocal("plugin1", "device" + i), "name" + i);
+                }
+                // nothing is written while the transaction is open even though the batch limits were reached
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ignored) {}
+                assertEquals(0, store.getWriteCount());
+            }
+        });
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (store.getWriteCount() < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(5, store.getWriteCount());
+        assertEquals(1, store.getBatchCount());
+        assertEquals(5, store.getLastBatchSize());
+
+        store.stop();
+        assertEquals(1, rds.transactionCount);
+    }
+
+    @Test
+    public void testBoundedCache() {
+        RecordingDeviceStore rds = new RecordingDeviceStore();
+        CachingLocalDeviceStore store = new CachingLocalDeviceStore(rds, 100, 60000, 1);
+        DeviceContext dctx1 = DeviceContext.createLocal("plugin1", "device1");
+        DeviceContext dctx2 = DeviceContext.createLocal("plugin1", "device2");
+
+        store.saveDevice(createDevice(dctx1));
+        store.setDeviceName(dctx1, "name1");
+        store.saveDevice(createDevice(dctx2));
+        assertEquals(1, store.getCacheSize());
+        assertEquals(1, store.getCacheEvictionCount());
+
+        // an evicted device's unwritten changes are re-applied when it's reloaded
+        HobsonDeviceDescriptor dd = store.getDevice(dctx1);
+        assertNotNull(dd);
+        assertEquals("name1", dd.getName());
+        assertEquals(1, store.getCacheMissCount());
+
+        store.getDevice(dctx1);
+        assertEquals(2, store.getCacheHitCount());
+
+        store.stop();
+    }
+
+    @Test
+    public void testListingLargerThanCache() throws Exception {
+        File file = File.createTempFile("devices", ".db");
+        file.deleteOnExit();
+        MapDBDeviceStore mds = new MapDBDeviceStore(file);
+        for (int i=0; i < 50; i++) {
+            mds.saveDevice(createDevice(DeviceContext.createLocal("plugin1", "device" + i)));
+        }
+
+        CachingLocalDeviceStore store = new CachingLocalDeviceStore(mds, 100, 60000, 10);
+        assertEquals(10, store.getCacheSize());
+
+        // unwritten changes are included in listings
+        store.saveDevice(createDevice(DeviceContext.createLocal("plugin1", "device50")));
+        store.setDeviceName(DeviceContext.createLocal("plugin1", "device20"), "name20");
+
+        Collection<HobsonDeviceDescriptor> devices = store.getAllDevices(HubContext.createLocal());
+        assertEquals(51, devices.size());
+        boolean found = false;
+        for (HobsonDeviceDescriptor dd : devices) {
+            if (dd.getContext().getDeviceId().equals("device20")) {
+                assertEquals("name20", dd.getName());
+                found = true;
+            }
+        }
+        assertTrue(found);
+        assertEquals(51, store.getAllDevices(PluginContext.createLocal("plugin1")).size());
+
+        // listings larger than the cache are read from the underlying store without churning the cache
+        assertEquals(0, store.getCacheMissCount());
+        assertEquals(0, store.getCacheEvictionCount());
+
+        store.stop();
+    }
+
+    @Test
+    public void testFlushWritesPendingChanges() {
+        RecordingDeviceStore rds = new RecordingDeviceStore();
+        CachingLocalDeviceStore store = new CachingLocalDeviceStore(rds, 100, 60000);
+        DeviceContext dctx = DeviceContext.createLocal("plugin1", "device1");
+
+        store.saveDevice(createDevice(dctx));
+        store.setDeviceName(dctx, "name1");
+        assertEquals(0, rds.operations.size());
+
+        // flush doesn't wait for the batch latency
+        store.flush();
+        assertEquals(0, store.getPendingWriteCount());
+        assertEquals(Arrays.asList("saveDevice:device1", "setDeviceName:device1:name1", "flush"), rds.operations);
+
+        store.stop();
+    }
+
+    @Test
+    public void testReturnedDescriptorsAreNotChanged() {
+        RecordingDeviceStore rds = new RecordingDeviceStore();
+        CachingLocalDeviceStore store = new CachingLocalDeviceStore(rds, 100, 60000);
+        DeviceContext dctx = DeviceContext.createLocal("plugin1", "device1");
+
+        HobsonDeviceDescriptor saved = createDevice(dctx);
+        store.saveDevice(saved);
+        HobsonDeviceDescriptor dd1 = store.getDevice(dctx);
+        assertNotSame(saved, dd1);
+
+        // changes replace the cached descriptor rather than changing ones already handed out
+        store.setDeviceName(dctx, "name1");
+        store.setDeviceTags(dctx, Collections.singleton("tag1"));
+        HobsonDeviceDescriptor dd2 = store.getDevice(dctx);
+        assertNotSame(dd1, dd2);
+        assertEquals("Test", dd1.getName());
+        assertTrue(dd1.getTags() == null || dd1.getTags().isEmpty());
+        assertEquals("Test", saved.getName());
+        assertEquals("name1", dd2.getName());
+        assertEquals(Collections.singleton("tag1"), dd2.getTags());
+
+        store.stop();
+    }
+
+    private HobsonDeviceDescriptor createDevice(DeviceContext dctx) {
+        return new HobsonDeviceDescriptor.Builder(dctx).name("Test").type(DeviceType.LIGHTBULB).build();
+    }
+
+    private class RecordingDeviceStore implements DeviceStore {
+        final List<String> operations = Collections.synchronizedList(new ArrayList<String>());
+        int transactionCount;
+        boolean stopped;
+
+        @Override
+        public void deleteDevice(DeviceContext ctx) {
+            operations.add("deleteDevice:" + ctx.getDeviceId());
+        }
+
+        @Override
+        public Collection<HobsonDeviceDescriptor> getAllDevices(HubContext ctx) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public Collection<HobsonDeviceDescriptor> getAllDevices(PluginContext ctx) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public Collection<DeviceContext> getAllDeviceContextsWithTag(HubContext ctx, String tag) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public HobsonDeviceDescriptor getDevice(DeviceContext ctx) {
+            return null;
+        }
+
+        @Override
+        public String getDeviceName(DeviceContext ctx) {
+            return null;
+        }
+
+        @Override
+        public Set<String> getDeviceTags(DeviceContext ctx) {
+            return null;
+        }
+
+        @Override
+        public boolean hasDevice(DeviceContext ctx) {
+            return false;
+        }
+
+        @Override
+        synchronized public void performTransaction(Runnable r) {
+            r.run();
+            transactionCount++;
+        }
+
+        @Override
+        public void saveDevice(HobsonDeviceDescriptor device) {
+            operations.add("saveDevice:" + device.getContext().getDeviceId());
+        }
+
+        @Override
+        public void saveDeviceVariable(DeviceVariableDescriptor dvd) {
+            operations.add("saveDeviceVariable:" + dvd.getContext().getName());
+        }
+
+        @Override
+        public void setDeviceName(DeviceContext ctx, String name) {
+            operations.add("setDeviceName:" + ctx.getDeviceId() + ":" + name);
+        }
+
+        @Override
+        public void setDeviceTags(DeviceContext ctx, Set<String> tags) {
+            operations.add("setDeviceTags:" + ctx.getDeviceId() + ":" + tags);
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void flush() {
+            operations.add("flush");
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+    }
+}
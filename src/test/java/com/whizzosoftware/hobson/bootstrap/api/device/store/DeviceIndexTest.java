@@ -0,0 +1,77 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.device.store;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+import com.whizzosoftware.hobson.api.plugin.PluginContext;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+public class DeviceIndexTest {
+    @Test
+    public void testAddAndRemove() {
+        DeviceIndex index = new DeviceIndex();
+        DeviceContext d1 = DeviceContext.createLocal("plugin1", "device1");
+        DeviceContext d2 = DeviceContext.createLocal("plugin1", "device2");
+        DeviceContext d3 = DeviceContext.createLocal("plugin2", "device1");
+
+        assertTrue(index.add(d1, new HashSet<>(Arrays.asList("tag1", "tag2"))));
+        assertTrue(index.add(d2, null));
+        assertTrue(index.add(d3, new HashSet<>(Arrays.asList("tag1"))));
+        assertFalse(index.add(d1, new HashSet<>(Arrays.asList("tag1", "tag2"))));
+        assertEquals(3, index.size());
+        assertTrue(index.contains(d2));
+
+        Collection<DeviceContext> c = index.getDeviceContexts(PluginContext.createLocal("plugin1"));
+        assertEquals(2, c.size());
+        assertTrue(c.contains(d1));
+        assertTrue(c.contains(d2));
+        assertEquals(1, index.getDeviceContexts(PluginContext.createLocal("plugin2")).size());
+        assertEquals(0, index.getDeviceContexts(PluginContext.createLocal("plugin3")).size());
+
+        c = index.getDeviceContextsWithTag("tag1");
+        assertEquals(2, c.size());
+        assertTrue(c.contains(d1));
+        assertTrue(c.contains(d3));
+
+        assertTrue(index.remove(d1));
+        assertFalse(index.remove(d1));
+        assertFalse(index.contains(d1));
+        assertEquals(1, index.getDeviceContexts(PluginContext.createLocal("plugin1")).size());
+        assertEquals(1, index.getDeviceContextsWithTag("tag1").size());
+        assertEquals(0, index.getDeviceContextsWithTag("tag2").size());
+    }
+
+    @Test
+    public void testSetTags() {
+        DeviceIndex index = new DeviceIndex();
+        DeviceContext d1 = DeviceContext.createLocal("plugin1", "device1");
+
+        // tags of unindexed devices are ignored
+        index.setTags(d1, new HashSet<>(Arrays.asList("tag1")));
+        assertEquals(0, index.getDeviceContextsWithTag("tag1").size());
+
+        index.add(d1, new HashSet<>(Arrays.asList("tag1", "tag2")));
+        index.setTags(d1, new HashSet<>(Arrays.asList("tag2", "tag3")));
+        assertEquals(0, index.getDeviceContextsWithTag("tag1").size());
+        assertEquals(1, index.getDeviceContextsWithTag("tag2").size());
+        assertEquals(1, index.getDeviceContextsWithTag("tag3").size());
+        assertEquals(new HashSet<>(Arrays.asList("tag2", "tag3")), index.getTags(d1));
+
+        index.setTags(d1, null);
+        assertEquals(0, index.getDeviceContextsWithTag("tag2").size());
+        assertTrue(index.getTags(d1).isEmpty());
+    }
+}
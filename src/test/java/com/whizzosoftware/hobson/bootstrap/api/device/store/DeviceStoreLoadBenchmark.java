@@ -0,0 +1,102 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.device.store;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+import com.whizzosoftware.hobson.api.device.DeviceType;
+import com.whizzosoftware.hobson.api.device.HobsonDeviceDescriptor;
+import com.whizzosoftware.hobson.api.hub.HubContext;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures cold-start load time of the device store formats: how long it takes to open a store file and read every
+ * device descriptor from it, which is what the hub does at startup. MapDBDeviceStore persists each device as several
+ * MapDB collections while MapDBRecordDeviceStore persists it as a single binary record.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.whizzosoftware.hobson.bootstrap.api.device.store.DeviceStoreLoadBenchmark
+ *
+ * @author Dan Noguerol
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class DeviceStoreLoadBenchmark {
+    @Param({"5000"})
+    public int deviceCount;
+
+    private File collectionFile;
+    private File recordFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        collectionFile = File.createTempFile("devices", ".db");
+        recordFile = File.createTempFile("records", ".db");
+
+        MapDBDeviceStore mds = new MapDBDeviceStore(collectionFile);
+        populate(mds);
+        mds.stop();
+
+        MapDBRecordDeviceStore rds = new MapDBRecordDeviceStore(recordFile);
+        populate(rds);
+        rds.stop();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        collectionFile.delete();
+        recordFile.delete();
+    }
+
+    @Benchmark
+    public int collectionStore() {
+        MapDBDeviceStore store = new MapDBDeviceStore(collectionFile);
+        try {
+            return store.getAllDevices(HubContext.createLocal()).size();
+        } finally {
+            store.stop();
+        }
+    }
+
+    @Benchmark
+    public int recordStore() {
+        MapDBRecordDeviceStore store = new MapDBRecordDeviceStore(recordFile);
+        try {
+            return store.getAllDevices(HubContext.createLocal()).size();
+        } finally {
+            store.stop();
+        }
+    }
+
+    private void populate(final DeviceStore store) {
+        final Set<String> tags = new HashSet<>(Arrays.asList("tag1", "tag2"));
+        store.performTransaction(new Runnable() {
+            @Override
+            public void run() {
+                for (int i=0; i < deviceCount; i++) {
+                    DeviceContext dctx = DeviceContext.createLocal("plugin" + (i % 10), "device" + i);
+                    store.saveDevice(new HobsonDeviceDescriptor.Builder(dctx).name("name" + i).type(DeviceType.LIGHTBULB).modelName("Model").tags(tags).build());
+                }
+            }
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(DeviceStoreLoadBenchmark.class.getSimpleName()).build()).run();
+    }
+}
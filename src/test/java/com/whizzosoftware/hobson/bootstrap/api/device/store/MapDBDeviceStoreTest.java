@@ -177,4 +177,39 @@ public class MapDBDeviceStoreTest {
         assertEquals(1, dctxs.size());
         assertTrue(dctxs.contains(dctx2));
     }
+
+    @Test
+    public void testUnchangedSaveIsSkipped() throws Exception {
+        File dbFile = File.createTempFile("test", ".mapdb");
+        dbFile.deleteOnExit();
+
+        DeviceContext dctx = DeviceContext.createLocal("plugin1", "device1");
+
+        MapDBDeviceStore store = new MapDBDeviceStore(dbFile);
+        store.saveDevice(new HobsonDeviceDescriptor.Builder(dctx).name("Test").type(DeviceType.LIGHTBULB).modelName("Model").build());
+        assertEquals(1, store.getDeviceWriteCount());
+        assertEquals(0, store.getSkippedDeviceWriteCount());
+
+        // an identical descriptor is not re-written
+        store.saveDevice(new HobsonDeviceDescriptor.Builder(dctx).name("Test").type(DeviceType.LIGHTBULB).modelName("Model").build());
+        assertEquals(1, store.getDeviceWriteCount());
+        assertEquals(1, store.getSkippedDeviceWriteCount());
+
+        // a changed descriptor is
+        store.saveDevice(new HobsonDeviceDescriptor.Builder(dctx).name("Test").type(DeviceType.LIGHTBULB).modelName("Model2").build());
+        assertEquals(2, store.getDeviceWriteCount());
+        assertEquals("Model2", store.getDevice(dctx).getModelName());
+
+        // a rename invalidates the fingerprint so re-saving the original descriptor restores its name
+        store.setDeviceName(dctx, "Test2");
+        store.saveDevice(new HobsonDeviceDescriptor.Builder(dctx).name("Test").type(DeviceType.LIGHTBULB).modelName("Model2").build());
+        assertEquals(3, store.getDeviceWriteCount());
+        assertEquals("Test", store.getDevice(dctx).getName());
+
+        // a deleted device is written again
+        store.deleteDevice(dctx);
+        store.saveDevice(new HobsonDeviceDescriptor.Builder(dctx).name("Test").type(DeviceType.LIGHTBULB).modelName("Model2").build());
+        assertEquals(4, store.getDeviceWriteCount());
+        assertNotNull(store.getDevice(dctx));
+    }
 }
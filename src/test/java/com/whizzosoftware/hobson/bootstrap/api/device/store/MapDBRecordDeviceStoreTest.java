@@ -0,0 +1,150 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.device.store;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+import com.whizzosoftware.hobson.api.device.DeviceType;
+import com.whizzosoftware.hobson.api.device.HobsonDeviceDescriptor;
+import com.whizzosoftware.hobson.api.hub.HubContext;
+import com.whizzosoftware.hobson.api.plugin.PluginContext;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class MapDBRecordDeviceStoreTest {
+    @Test
+    public void testSaveDevice() throws Exception {
+        File dbFile = File.createTempFile("test", ".mapdb");
+        dbFile.deleteOnExit();
+
+        DeviceContext dctx = DeviceContext.createLocal("plugin1", "device1");
+        Set<String> tags = new HashSet<>();
+        tags.add("tag1");
+
+        MapDBRecordDeviceStore store = new MapDBRecordDeviceStore(dbFile);
+        store.saveDevice(new HobsonDeviceDescriptor.Builder(dctx).name("Test").type(DeviceType.LIGHTBULB).modelName("Model").tags(tags).build());
+        assertEquals(1, store.getWriteCount());
+
+        HobsonDeviceDescriptor device = store.getDevice(dctx);
+        assertNotNull(device);
+        assertEquals("Test", device.getName());
+        assertEquals(DeviceType.LIGHTBULB, device.getType());
+        assertEquals("Model", device.getModelName());
+        assertEquals(Collections.singletonList(dctx), new ArrayList<>(store.getAllDeviceContextsWithTag(HubContext.createLocal(), "tag1")));
+
+        // an identical save leaves the record untouched
+        store.saveDevice(new HobsonDeviceDescriptor.Builder(dctx).name("Test").type(DeviceType.LIGHTBULB).modelName("Model").tags(tags).build());
+        assertEquals(1, store.getWriteCount());
+        assertEquals(1, store.getSkippedWriteCount());
+
+        store.setDeviceName(dctx, "Test2");
+        assertEquals("Test2", store.getDeviceName(dctx));
+        assertEquals(1, store.getAllDevices(HubContext.createLocal()).size());
+
+        store.deleteDevice(dctx);
+        assertNull(store.getDevice(dctx));
+        store.stop();
+    }
+
+    @Test
+    public void testMigration() throws Exception {
+        File dbFile = File.createTempFile("test", ".mapdb");
+        dbFile.deleteOnExit();
+
+        MapDBDeviceStore oldStore = new MapDBDeviceStore(dbFile);
+        for (int i=0; i < 10; i++) {
+            DeviceContext dctx = DeviceContext.createLocal("plugin1", "device" + i);
+            oldStore.saveDevice(new HobsonDeviceDescriptor.Builder(dctx).name("Device " + i).type(DeviceType.LIGHTBULB).build());
+        }
+        oldStore.stop();
+
+        MapDBRecordDeviceStore store = new MapDBRecordDeviceStore(dbFile);
+        assertEquals(10, store.getAllDevices(HubContext.createLocal()).size());
+        assertEquals("Device 3", store.getDeviceName(DeviceContext.createLocal("plugin1", "device3")));
+        store.deleteDevice(DeviceContext.createLocal("plugin1", "device3"));
+        store.stop();
+
+        // migration only happens once
+        store = new MapDBRecordDeviceStore(dbFile);
+        assertEquals(9, store.getAllDevices(HubContext.createLocal()).size());
+        store.stop();
+    }
+
+    @Test
+    public void testMigrationBackToCollections() throws Exception {
+        File dbFile = File.createTempFile("test", ".mapdb");
+        dbFile.deleteOnExit();
+
+        MapDBDeviceStore oldStore = new MapDBDeviceStore(dbFile);
+        for (int i=0; i < 3; i++) {
+            oldStore.saveDevice(createDevice(i));
+        }
+        oldStore.stop();
+
+        // migrate to records and rename a device
+        MapDBRecordDeviceStore store = new MapDBRecordDeviceStore(dbFile);
+        store.setDeviceName(DeviceContext.createLocal("plugin1", "device1"), "Renamed");
+        store.stop();
+
+        // switching back serves the current data rather than what was left behind by the first migration
+        oldStore = new MapDBDeviceStore(dbFile);
+        assertEquals(3, oldStore.getAllDevices(HubContext.createLocal()).size());
+        assertEquals("Renamed", oldStore.getDeviceName(DeviceContext.createLocal("plugin1", "device1")));
+        oldStore.deleteDevice(DeviceContext.createLocal("plugin2", "device2"));
+        oldStore.stop();
+
+        // and switching forward again picks up changes made in the collection layout
+        store = new MapDBRecordDeviceStore(dbFile);
+        assertEquals(2, store.getAllDevices(HubContext.createLocal()).size());
+        assertNull(store.getDevice(DeviceContext.createLocal("plugin2", "device2")));
+        assertEquals("Renamed", store.getDeviceName(DeviceContext.createLocal("plugin1", "device1")));
+        store.stop();
+    }
+
+    @Test
+    public void testIndexedQueriesAfterReopen() throws Exception {
+        File dbFile = File.createTempFile("test", ".mapdb");
+        dbFile.deleteOnExit();
+
+        final MapDBRecordDeviceStore store = new MapDBRecordDeviceStore(dbFile);
+        store.performTransaction(new Runnable() {
+            @Override
+            public void run() {
+                for (int i=0; i < 100; i++) {
+                    store.saveDevice(createDevice(i));
+                }
+            }
+        });
+        store.setDeviceTags(DeviceContext.createLocal("plugin3", "device3"), Collections.singleton("tag1"));
+        store.setDeviceTags(DeviceContext.createLocal("plugin5", "device15"), Collections.singleton("tag1"));
+        store.stop();
+
+        MapDBRecordDeviceStore s2 = new MapDBRecordDeviceStore(dbFile);
+        assertEquals(100, s2.getAllDevices(HubContext.createLocal()).size());
+        assertEquals(10, s2.getAllDevices(PluginContext.createLocal("plugin4")).size());
+        assertTrue(s2.hasDevice(DeviceContext.createLocal("plugin4", "device4")));
+        assertEquals(new HashSet<>(Arrays.asList(DeviceContext.createLocal("plugin3", "device3"), DeviceContext.createLocal("plugin5", "device15"))), new HashSet<>(s2.getAllDeviceContextsWithTag(HubContext.createLocal(), "tag1")));
+
+        // the index follows tag changes and deletes
+        s2.setDeviceTags(DeviceContext.createLocal("plugin3", "device3"), Collections.<String>emptySet());
+        s2.deleteDevice(DeviceContext.createLocal("plugin4", "device4"));
+        assertEquals(Collections.singletonList(DeviceContext.createLocal("plugin5", "device15")), new ArrayList<>(s2.getAllDeviceContextsWithTag(HubContext.createLocal(), "tag1")));
+        assertEquals(9, s2.getAllDevices(PluginContext.createLocal("plugin4")).size());
+        assertFalse(s2.hasDevice(DeviceContext.createLocal("plugin4", "device4")));
+        s2.stop();
+    }
+
+    private HobsonDeviceDescriptor createDevice(int i) {
+        return new HobsonDeviceDescriptor.Builder(DeviceContext.createLocal("plugin" + (i % 10), "device" + i)).name("Device " + i).type(DeviceType.LIGHTBULB).modelName("Model").build();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.event;
+
+import com.whizzosoftware.hobson.api.event.HobsonEvent;
+import com.whizzosoftware.hobson.api.event.device.DeviceVariablesUpdateEvent;
+import com.whizzosoftware.hobson.api.event.plugin.PluginStatusChangeEvent;
+import com.whizzosoftware.hobson.api.hub.HubContext;
+import com.whizzosoftware.hobson.api.plugin.PluginContext;
+import com.whizzosoftware.hobson.api.plugin.PluginStatus;
+import com.whizzosoftware.hobson.api.variable.DeviceVariableContext;
+import com.whizzosoftware.hobson.api.variable.DeviceVariableUpdate;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DeviceVariableUpdateCoalescerTest {
+    @Test
+    public void testOffer() {
+        final List<HobsonEvent> events = new ArrayList<>();
+        DeviceVariableUpdateCoalescer c = new DeviceVariableUpdateCoalescer(60000, new DeviceVariableUpdateCoalescer.Publisher() {
+            @Override
+            public void publish(HubContext ctx, HobsonEvent event) {
+                events.add(event);
+            }
+        });
+
+        HubContext hctx = HubContext.createLocal();
+        DeviceVariableContext v1 = DeviceVariableContext.createGlobal(PluginContext.createLocal("plugin"), "v1");
+        DeviceVariableContext v2 = DeviceVariableContext.createGlobal(PluginContext.createLocal("plugin"), "v2");
+
+        assertTrue(c.offer(hctx, new DeviceVariablesUpdateEvent(1000, new DeviceVariableUpdate(v1, 1, 2))));
+        assertTrue(c.offer(hctx, new DeviceVariablesUpdateEvent(2000, new DeviceVariableUpdate(v2, "a", "b"))));
+        assertTrue(c.offer(hctx, new DeviceVariablesUpdateEvent(4000, new DeviceVariableUpdate(v1, 2, 3))));
+        assertTrue(c.offer(hctx, new DeviceVariablesUpdateEvent(3000, new DeviceVariableUpdate(v1, 3, 4))));
+        assertEquals(0, events.size());
+
+        c.flush(hctx);
+        assertEquals(1, events.size());
+        DeviceVariablesUpdateEvent e = (DeviceVariablesUpdateEvent)events.get(0);
+        // the merged event carries the newest underlying timestamp
+        assertEquals(4000, (long)e.getTimestamp());
+        assertEquals(2, e.getUpdates().size());
+        Iterator<DeviceVariableUpdate> it = e.getUpdates().iterator();
+        DeviceVariableUpdate u = it.next();
+        assertEquals(v1, u.getContext());
+        assertEquals(1, u.getOldValue());
+        assertEquals(4, u.getNewValue());
+        u = it.next();
+        assertEquals(v2, u.getContext());
+        assertEquals("b", u.getNewValue());
+
+        assertEquals(4, c.getReceivedCount());
+        assertEquals(2, c.getSuppressedCount());
+        assertEquals(1, c.getEmittedCount());
+
+        // the counters are reported with the event metrics
+        EventMetrics metrics = new EventMetrics();
+        metrics.setCoalescer(c);
+        assertEquals(4, metrics.getCoalescerReceivedCount());
+        assertEquals(2, metrics.getCoalescerSuppressedCount());
+        assertEquals(1, metrics.getCoalescerEmittedCount());
+        assertEquals(2, metrics.toJSON().getJSONObject("coalescer").getLong("suppressed"));
+        metrics.reset();
+        assertEquals(0, c.getReceivedCount());
+
+        c.stop();
+    }
+
+    @Test
+    public void testConcurrentFlushesPublishInOrder() throws Exception {
+        final List<HobsonEvent> events = Collections.synchronizedList(new ArrayList<HobsonEvent>());
+        final CountDownLatch inPublish = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final DeviceVariableUpdateCoalescer c = new DeviceVariableUpdateCoalescer(60000, new DeviceVariableUpdateCoalescer.Publisher() {
+            @Override
+            public void publish(HubContext ctx, HobsonEvent event) {
+                events.add(event);
+                if (events.size() == 1) {
+                    inPublish.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException ignored) {}
+                }
+            }
+        });
+
+        final HubContext hctx = HubContext.createLocal();
+        DeviceVariableContext v1 = DeviceVariableContext.createGlobal(PluginContext.createLocal("plugin"), "v1");
+        Runnable flush = new Runnable() {
+            @Override
+            public void run() {
+                c.flush(hctx);
+            }
+        };
+
+        // the first batch is stuck being published (e.g. by the window timer)
+        assertTrue(c.offer(hctx, new DeviceVariablesUpdateEvent(1000, new DeviceVariableUpdate(v1, 1, 2))));
+        Thread t1 = new Thread(flush);
+        t1.start();
+        assertTrue(inPublish.await(5, TimeUnit.SECONDS));
+
+        // a newer batch flushed meanwhile (e.g. ahead of a high priority event) must wait for it
+        assertTrue(c.offer(hctx, new DeviceVariablesUpdateEvent(2000, new DeviceVariableUpdate(v1, 2, 3))));
+        Thread t2 = new Thread(flush);
+        t2.start();
+        Thread.sleep(100);
+        assertEquals(1, events.size());
+
+        release.countDown();
+        t1.join(5000);
+        t2.join(5000);
+        assertEquals(2, events.size());
+        assertEquals(2, ((DeviceVariablesUpdateEvent)events.get(0)).getUpdates().iterator().next().getNewValue());
+        assertEquals(3, ((DeviceVariablesUpdateEvent)events.get(1)).getUpdates().iterator().next().getNewValue());
+
+        c.stop();
+    }
+
+    @Test
+    public void testOfferNonVariableEvent() {
+        DeviceVariableUpdateCoalescer c = new DeviceVariableUpdateCoalescer(60000, null);
+        assertFalse(c.offer(HubContext.createLocal(), new PluginStatusChangeEvent(System.currentTimeMillis(), PluginContext.createLocal("plugin"), PluginStatus.running())));
+        c.stop();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.event;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+import com.whizzosoftware.hobson.api.event.EventHandler;
+import com.whizzosoftware.hobson.api.event.HobsonEvent;
+import com.whizzosoftware.hobson.api.event.device.DeviceAvailableEvent;
+import com.whizzosoftware.hobson.api.event.device.DeviceEvent;
+import com.whizzosoftware.hobson.api.event.plugin.PluginStatusChangeEvent;
+import com.whizzosoftware.hobson.api.hub.HubContext;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares dispatching an event to a listener's @EventHandler methods by scanning the methods and invoking them
+ * through reflection (the previous EventHandlerAdapter behavior) against EventDispatchTable's cached per-event-class
+ * method lookup and MethodHandle invocation.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.whizzosoftware.hobson.bootstrap.api.event.EventDispatchBenchmark
+ *
+ * @author Dan Noguerol
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventDispatchBenchmark {
+    private Listener listener;
+    private HobsonEvent event;
+    private List<Method> methods;
+    private EventDispatchTable table;
+
+    @Setup
+    public void setUp() {
+        listener = new Listener();
+        event = new DeviceAvailableEvent(System.currentTimeMillis(), DeviceContext.create(HubContext.createLocal(), "plugin1", "device1"));
+        methods = new ArrayList<>();
+        for (Method m : Listener.class.getMethods()) {
+            if (m.isAnnotationPresent(EventHandler.class) && m.getParameterTypes().length == 1) {
+                methods.add(m);
+            }
+        }
+        table = EventDispatchTable.forClass(Listener.class);
+    }
+
+    @Benchmark
+    public void reflection(Blackhole bh) throws Exception {
+        for (Method m : methods) {
+            if (m.getParameterTypes()[0].isAssignableFrom(event.getClass())) {
+                m.invoke(listener, event);
+            }
+        }
+        bh.consume(listener.count);
+    }
+
+    @Benchmark
+    public void dispatchTable(Blackhole bh) throws Throwable {
+        for (Method m : table.getMethods(event.getClass())) {
+            table.invoke(m, listener, event);
+        }
+        bh.consume(listener.count);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(EventDispatchBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    public static class Listener {
+        long count;
+
+        @EventHandler
+        public void onDeviceEvent(DeviceEvent e) {
+            count++;
+        }
+
+        @EventHandler
+        public void onEvent(HobsonEvent e) {
+            count++;
+        }
+
+        @EventHandler
+        public void onPluginStatusChange(PluginStatusChangeEvent e) {
+            count++;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.event;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+import com.whizzosoftware.hobson.api.event.EventHandler;
+import com.whizzosoftware.hobson.api.event.HobsonEvent;
+import com.whizzosoftware.hobson.api.event.device.DeviceAvailableEvent;
+import com.whizzosoftware.hobson.api.event.device.DeviceEvent;
+import com.whizzosoftware.hobson.api.event.plugin.PluginStatusChangeEvent;
+import com.whizzosoftware.hobson.api.hub.HubContext;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EventDispatchTableTest {
+    @Test
+    public void testGetMethods() throws Throwable {
+        final List<Object> events = new ArrayList<>();
+        final List<Object> events2 = new ArrayList<>();
+
+        Object listener = new Object() {
+            @EventHandler
+            public void handle(DeviceEvent e) {
+                events.add(e);
+            }
+            @EventHandler
+            public void handle2(HobsonEvent e) {
+                events2.add(e);
+            }
+            public void notAHandler(HobsonEvent e) {
+                fail();
+            }
+        };
+
+        EventDispatchTable t = EventDispatchTable.forClass(listener.getClass());
+        assertSame(t, EventDispatchTable.forClass(listener.getClass()));
+        assertEquals(2, t.getHandlerMethods().size());
+
+        Method[] methods = t.getMethods(DeviceAvailableEvent.class);
+        assertEquals(2, methods.length);
+        assertSame(methods, t.getMethods(DeviceAvailableEvent.class));
+        assertEquals(1, t.getMethods(PluginStatusChangeEvent.class).length);
+
+        DeviceAvailableEvent dae = new DeviceAvailableEvent(System.currentTimeMillis(), DeviceContext.create(HubContext.createLocal(), "plugin1", "device1"));
+        for (Method m : methods) {
+            t.invoke(m, listener, dae);
+        }
+        assertEquals(1, events.size());
+        assertSame(dae, events.get(0));
+        assertEquals(1, events2.size());
+    }
+}
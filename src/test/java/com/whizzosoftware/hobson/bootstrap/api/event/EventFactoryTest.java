@@ -76,4 +76,33 @@ public class EventFactoryTest {
         assertTrue(event instanceof DeviceUnavailableEvent);
         assertEquals("local:plugin:device", ((DeviceUnavailableEvent)event).getDeviceContext().toString());
     }
+
+    @Test
+    public void testLoadServiceProviders() throws Exception {
+        EventFactory ef = new EventFactory();
+        ef.loadServiceProviders(getClass().getClassLoader());
+
+        Map<String,Object> props = new HashMap<>();
+        props.put(HobsonEvent.PROP_EVENT_ID, DeviceUnavailableEvent.ID);
+        props.put(DeviceUnavailableEvent.PROP_DEVICE_CONTEXT, DeviceContext.create(HubContext.createLocal(), "plugin", "device"));
+
+        HobsonEvent event = ef.createEvent(props);
+        assertTrue(event instanceof DeviceUnavailableEvent);
+        assertTrue(ef.getEventIds(DeviceVariablesUpdateEvent.class).contains(DeviceVariablesUpdateEvent.ID));
+    }
+
+    @Test
+    public void testAddAndRemoveEventTypeProvider() throws Exception {
+        EventFactory ef = new EventFactory();
+        CoreEventTypeProvider p = new CoreEventTypeProvider();
+        ef.addEventTypeProvider(p);
+
+        Map<String,Object> props = new HashMap<>();
+        props.put(HobsonEvent.PROP_EVENT_ID, DeviceVariablesUpdateEvent.ID);
+        assertTrue(ef.createEvent(props) instanceof DeviceVariablesUpdateEvent);
+
+        ef.removeEventTypeProvider(p);
+        assertNull(ef.createEvent(props));
+        assertEquals(0, ef.getEventIds(HobsonEvent.class).size());
+    }
 }
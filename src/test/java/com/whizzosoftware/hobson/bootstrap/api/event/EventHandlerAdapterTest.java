@@ -23,10 +23,15 @@ import org.junit.Test;
 import org.osgi.service.event.Event;
 
 import java.lang.reflect.Method;
+import com.whizzosoftware.hobson.bootstrap.api.util.EventUtil;
+
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class EventHandlerAdapterTest {
@@ -91,4 +96,67 @@ public class EventHandlerAdapterTest {
         assertEquals(3, events3.size());
         assertEquals(1, events4.size());
     }
+
+    @Test
+    public void testGetTopics() throws Exception {
+        EventFactory ef = new EventFactory();
+        ef.addEventClass(PresenceUpdateNotificationEvent.ID, PresenceUpdateNotificationEvent.class);
+        ef.addEventClass(DeviceAvailableEvent.ID, DeviceAvailableEvent.class);
+        ef.addEventClass(PluginStatusChangeEvent.ID, PluginStatusChangeEvent.class);
+
+        // listener for a single event type
+        EventHandlerAdapter a = new EventHandlerAdapter(ef, new Object() {
+            @EventHandler
+            public void handle(DeviceEvent e) {}
+        }, null);
+        List<String> topics = Arrays.asList(a.getTopics());
+        assertEquals(2, topics.size());
+        assertTrue(topics.contains(EventUtil.createTopic(DeviceAvailableEvent.ID)));
+        assertTrue(topics.contains(EventTopics.GLOBAL));
+
+        // listener for all events
+        a = new EventHandlerAdapter(ef, new Object() {
+            @EventHandler
+            public void handle(PresenceEvent e) {}
+            @EventHandler
+            public void handle2(HobsonEvent e) {}
+        }, null);
+        topics = Arrays.asList(a.getTopics());
+        assertEquals(2, topics.size());
+        assertTrue(topics.contains(EventUtil.TOPIC_ALL));
+        assertTrue(topics.contains(EventTopics.GLOBAL));
+
+        // listener with no handlers
+        a = new EventHandlerAdapter(ef, new Object(), null);
+        assertEquals(0, a.getTopics().length);
+    }
+
+    @Test
+    public void testHandleEventEnvelope() throws Exception {
+        final List<Object> events = new ArrayList<>();
+        final List<Throwable> failures = new ArrayList<>();
+
+        // no event classes are registered so the event can only be delivered via the envelope
+        EventHandlerAdapter a = new EventHandlerAdapter(new EventFactory(), new Object() {
+            @EventHandler
+            public void handle(DeviceEvent e) {
+                events.add(e);
+            }
+        }, new EventCallbackInvoker() {
+            @Override
+            public void invoke(Method m, Object o, HobsonEvent e) {
+                try {
+                    m.invoke(o, e);
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            }
+        });
+
+        DeviceAvailableEvent dae = new DeviceAvailableEvent(System.currentTimeMillis(), DeviceContext.create(HubContext.createLocal(), "plugin1", "device1"));
+        a.handleEvent(EventUtil.createEventFromHobsonEvent(dae));
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(1, events.size());
+        assertSame(dae, events.get(0));
+    }
 }
@@ -0,0 +1,212 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.event;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+import com.whizzosoftware.hobson.api.event.EventHandler;
+import com.whizzosoftware.hobson.api.event.EventManager;
+import com.whizzosoftware.hobson.api.event.HobsonEvent;
+import com.whizzosoftware.hobson.api.event.device.DeviceAvailableEvent;
+import com.whizzosoftware.hobson.api.hub.HubContext;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
+import org.osgi.service.event.EventConstants;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Dictionary;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the time from an event being posted to it being delivered to every listener for OSGIEventManager and
+ * RingBufferEventManager. JMH's sample mode reports the p50 and p99 latencies of each.
+ *
+ * OSGIEventManager is run against a minimal in-process EventAdmin that delivers posted events in order on a single
+ * thread, so its numbers include the listener queue hand-off but not the overhead of a particular EventAdmin
+ * implementation.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.whizzosoftware.hobson.bootstrap.api.event.EventManagerLatencyBenchmark
+ *
+ * @author Dan Noguerol
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventManagerLatencyBenchmark {
+    @Param({"osgi", "ringbuffer"})
+    public String manager;
+
+    @Param({"1", "10"})
+    public int listenerCount;
+
+    private EventManager eventManager;
+    private OSGIEventManager osgiEventManager;
+    private RingBufferEventManager ringBufferEventManager;
+    private InProcessEventAdmin eventAdmin;
+    private final AtomicLong received = new AtomicLong();
+    private HobsonEvent event;
+
+    @Setup
+    public void setUp() {
+        if ("ringbuffer".equals(manager)) {
+            ringBufferEventManager = new RingBufferEventManager();
+            ringBufferEventManager.start();
+            eventManager = ringBufferEventManager;
+        } else {
+            eventAdmin = new InProcessEventAdmin();
+            osgiEventManager = new OSGIEventManager() {
+                @Override
+                protected BundleContext getBundleContext() {
+                    return eventAdmin.getBundleContext();
+                }
+            };
+            osgiEventManager.setEventAdmin(eventAdmin);
+            osgiEventManager.start();
+            eventManager = osgiEventManager;
+        }
+        for (int i=0; i < listenerCount; i++) {
+            eventManager.addListener(HubContext.createLocal(), new Listener(received));
+        }
+        event = new DeviceAvailableEvent(System.currentTimeMillis(), DeviceContext.create(HubContext.createLocal(), "plugin1", "device1"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (ringBufferEventManager != null) {
+            ringBufferEventManager.stop();
+        }
+        if (osgiEventManager != null) {
+            osgiEventManager.stop();
+            eventAdmin.stop();
+        }
+    }
+
+    @Benchmark
+    public long postToDelivery() {
+        long target = received.get() + listenerCount;
+        eventManager.postEvent(HubContext.createLocal(), event);
+        while (received.get() < target) {
+            Thread.yield();
+        }
+        return target;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(EventManagerLatencyBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    public static class Listener {
+        private final AtomicLong received;
+
+        Listener(AtomicLong received) {
+            this.received = received;
+        }
+
+        @EventHandler
+        public void onDeviceAvailable(DeviceAvailableEvent e) {
+            received.incrementAndGet();
+        }
+    }
+
+    /**
+     * A minimal EventAdmin that delivers posted events in order on a single thread and sent events on the caller's
+     * thread. Handlers are registered through the BundleContext returned by getBundleContext().
+     */
+    static class InProcessEventAdmin implements EventAdmin {
+        private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+        private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        @Override
+        public void postEvent(final Event event) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    sendEvent(event);
+                }
+            });
+        }
+
+        @Override
+        public void sendEvent(Event event) {
+            for (Subscription s : subscriptions) {
+                if (s.matches(event.getTopic())) {
+                    s.handler.handleEvent(event);
+                }
+            }
+        }
+
+        void stop() {
+            executor.shutdown();
+        }
+
+        BundleContext getBundleContext() {
+            return (BundleContext)Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {BundleContext.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if ("registerService".equals(method.getName()) && args.length == 3 && args[1] instanceof org.osgi.service.event.EventHandler) {
+                        final Subscription s = new Subscription((org.osgi.service.event.EventHandler)args[1], (Dictionary)args[2]);
+                        subscriptions.add(s);
+                        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {ServiceRegistration.class}, new InvocationHandler() {
+                            @Override
+                            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                                if ("setProperties".equals(method.getName())) {
+                                    s.setTopics((Dictionary)args[0]);
+                                    return null;
+                                } else if ("unregister".equals(method.getName())) {
+                                    subscriptions.remove(s);
+                                    return null;
+                                }
+                                throw new UnsupportedOperationException(method.getName());
+                            }
+                        });
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        }
+    }
+
+    static class Subscription {
+        final org.osgi.service.event.EventHandler handler;
+        volatile String[] topics;
+
+        Subscription(org.osgi.service.event.EventHandler handler, Dictionary props) {
+            this.handler = handler;
+            setTopics(props);
+        }
+
+        void setTopics(Dictionary props) {
+            topics = (String[])props.get(EventConstants.EVENT_TOPIC);
+        }
+
+        boolean matches(String topic) {
+            for (String t : topics) {
+                if (t.equals(topic) || (t.endsWith("*") && topic.startsWith(t.substring(0, t.length() - 1)))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.event;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+import com.whizzosoftware.hobson.api.event.device.DeviceVariablesUpdateEvent;
+import com.whizzosoftware.hobson.api.event.plugin.PluginStatusChangeEvent;
+import com.whizzosoftware.hobson.api.event.task.TaskExecutionEvent;
+import com.whizzosoftware.hobson.api.hub.HubContext;
+import com.whizzosoftware.hobson.api.plugin.PluginContext;
+import com.whizzosoftware.hobson.api.plugin.PluginStatus;
+import com.whizzosoftware.hobson.api.task.TaskContext;
+import com.whizzosoftware.hobson.api.variable.DeviceVariableContext;
+import com.whizzosoftware.hobson.api.variable.DeviceVariableUpdate;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class EventPriorityClassifierTest {
+    @Test
+    public void testClassify() {
+        EventPriorityClassifier c = new EventPriorityClassifier();
+        DeviceVariableContext v1 = DeviceVariableContext.createGlobal(PluginContext.createLocal("plugin"), "v1");
+        DeviceVariableContext v2 = DeviceVariableContext.createGlobal(PluginContext.createLocal("plugin"), "v2");
+        DeviceVariableContext d1v1 = DeviceVariableContext.create(DeviceContext.createLocal("plugin", "device1"), "v1");
+        DeviceVariableContext d2v1 = DeviceVariableContext.create(DeviceContext.createLocal("plugin", "device2"), "v1");
+
+        assertEquals(EventPriority.HIGH, c.classify(new TaskExecutionEvent(System.currentTimeMillis(), TaskContext.create(HubContext.createLocal(), "task1"), null)));
+        assertEquals(EventPriority.NORMAL, c.classify(new PluginStatusChangeEvent(System.currentTimeMillis(), PluginContext.createLocal("plugin"), PluginStatus.running())));
+        assertEquals(EventPriority.NORMAL, c.classify(new DeviceVariablesUpdateEvent(System.currentTimeMillis(), new DeviceVariableUpdate(v1, 1, 2))));
+
+        c.setTriggerVariables(Collections.singletonList(v1));
+        assertEquals(EventPriority.HIGH, c.classify(new DeviceVariablesUpdateEvent(System.currentTimeMillis(), new DeviceVariableUpdate(v1, 1, 2))));
+        assertEquals(EventPriority.NORMAL, c.classify(new DeviceVariablesUpdateEvent(System.currentTimeMillis(), new DeviceVariableUpdate(v2, 1, 2))));
+
+        // variables with the same name on other devices aren't prioritized
+        c.setTriggerVariables(Collections.singletonList(d1v1));
+        assertEquals(EventPriority.HIGH, c.classify(new DeviceVariablesUpdateEvent(System.currentTimeMillis(), new DeviceVariableUpdate(d1v1, 1, 2))));
+        assertEquals(EventPriority.NORMAL, c.classify(new DeviceVariablesUpdateEvent(System.currentTimeMillis(), new DeviceVariableUpdate(d2v1, 1, 2))));
+
+        c.setTriggerVariables(Collections.<DeviceVariableContext>emptyList());
+        assertEquals(EventPriority.NORMAL, c.classify(new DeviceVariablesUpdateEvent(System.currentTimeMillis(), new DeviceVariableUpdate(v1, 1, 2))));
+    }
+}
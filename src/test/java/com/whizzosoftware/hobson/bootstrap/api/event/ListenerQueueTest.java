@@ -0,0 +1,241 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.event;
+
+import com.whizzosoftware.hobson.api.event.EventCallbackInvoker;
+import com.whizzosoftware.hobson.api.event.HobsonEvent;
+import com.whizzosoftware.hobson.api.event.plugin.PluginStatusChangeEvent;
+import com.whizzosoftware.hobson.api.plugin.PluginContext;
+import com.whizzosoftware.hobson.api.plugin.PluginStatus;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class ListenerQueueTest {
+    @Test
+    public void testDropOldest() {
+        ManualExecutor executor = new ManualExecutor();
+        CapturingInvoker invoker = new CapturingInvoker();
+        ListenerQueue q = new ListenerQueue(this, invoker, 2, ListenerQueue.OverflowPolicy.DROP_OLDEST, 0, executor);
+
+        HobsonEvent e1 = createEvent(1);
+        HobsonEvent e2 = createEvent(2);
+        HobsonEvent e3 = createEvent(3);
+        q.invoke(null, this, e1);
+        q.invoke(null, this, e2);
+        q.invoke(null, this, e3);
+        assertEquals(2, q.getDepth());
+        assertEquals(1, q.getDropCount());
+        assertEquals(1, executor.tasks.size());
+
+        executor.runAll();
+        assertEquals(0, q.getDepth());
+        assertEquals(2, q.getInvocationCount());
+        assertEquals(2, invoker.events.size());
+        assertSame(e2, invoker.events.get(0));
+        assertSame(e3, invoker.events.get(1));
+    }
+
+    @Test
+    public void testDropNewest() {
+        ManualExecutor executor = new ManualExecutor();
+        CapturingInvoker invoker = new CapturingInvoker();
+        ListenerQueue q = new ListenerQueue(this, invoker, 2, ListenerQueue.OverflowPolicy.DROP_NEWEST, 0, executor);
+
+        HobsonEvent e1 = createEvent(1);
+        HobsonEvent e2 = createEvent(2);
+        q.invoke(null, this, e1);
+        q.invoke(null, this, e2);
+        q.invoke(null, this, createEvent(3));
+        assertEquals(2, q.getDepth());
+        assertEquals(1, q.getDropCount());
+
+        executor.runAll();
+        assertEquals(2, invoker.events.size());
+        assertSame(e1, invoker.events.get(0));
+        assertSame(e2, invoker.events.get(1));
+    }
+
+    @Test
+    public void testBlockWithTimeout() {
+        ManualExecutor executor = new ManualExecutor();
+        CapturingInvoker invoker = new CapturingInvoker();
+        ListenerQueue q = new ListenerQueue(this, invoker, 1, ListenerQueue.OverflowPolicy.BLOCK, 10, executor);
+
+        q.invoke(null, this, createEvent(1));
+        q.invoke(null, this, createEvent(2));
+        assertEquals(1, q.getDepth());
+        assertEquals(1, q.getDropCount());
+    }
+
+    @Test
+    public void testPriority() {
+        ManualExecutor executor = new ManualExecutor();
+        CapturingInvoker invoker = new CapturingInvoker();
+        EventMetrics metrics = new EventMetrics();
+        ListenerQueue q = new ListenerQueue(this, invoker, 2, ListenerQueue.OverflowPolicy.DROP_OLDEST, 0, executor, metrics);
+
+        HobsonEvent e1 = createEvent(1);
+        HobsonEvent e2 = createEvent(2);
+        HobsonEvent e3 = createEvent(3);
+        q.invoke(null, this, e1);
+        q.invoke(null, this, e2);
+        q.invoke(null, this, e3, EventPriority.HIGH, System.nanoTime());
+        assertEquals(3, q.getDepth());
+        assertEquals(1, q.getPriorityDepth());
+        assertEquals(0, q.getDropCount());
+
+        executor.runAll();
+        assertEquals(3, invoker.events.size());
+        assertSame(e3, invoker.events.get(0));
+        assertSame(e1, invoker.events.get(1));
+        assertSame(e2, invoker.events.get(2));
+        assertEquals(1, metrics.getQueueWait(EventPriority.HIGH).getCount());
+        assertEquals(2, metrics.getQueueWait(EventPriority.NORMAL).getCount());
+    }
+
+    @Test
+    public void testCapacityIncludesPriorityQueue() {
+        ListenerQueue q = new ListenerQueue(this, new CapturingInvoker(), 2, ListenerQueue.OverflowPolicy.BLOCK, 0, new ManualExecutor());
+        assertTrue(q.isBounded());
+        assertEquals(4, q.getCapacity());
+
+        q = new ListenerQueue(this, new CapturingInvoker(), 0, ListenerQueue.OverflowPolicy.BLOCK, 0, new ManualExecutor());
+        assertFalse(q.isBounded());
+        assertEquals(-1, q.getCapacity());
+    }
+
+    @Test
+    public void testDropRecordedInMetrics() {
+        EventMetrics metrics = new EventMetrics();
+        ListenerQueue q = new ListenerQueue(this, new CapturingInvoker(), 1, ListenerQueue.OverflowPolicy.DROP_NEWEST, 0, new ManualExecutor(), metrics);
+        q.invoke(null, this, createEvent(1));
+        q.invoke(null, this, createEvent(2));
+        assertEquals(1, q.getDropCount());
+        assertEquals(1, metrics.getDroppedCount());
+    }
+
+    @Test
+    public void testCreateDefaultsAreLossless() {
+        ManualExecutor executor = new ManualExecutor();
+        CapturingInvoker invoker = new CapturingInvoker();
+        ListenerQueue q = ListenerQueue.create(this, invoker, executor);
+        assertFalse(q.isBounded());
+        for (int i = 0; i < 2000; i++) {
+            q.invoke(null, this, createEvent(i));
+        }
+        assertEquals(0, q.getDropCount());
+        assertEquals(2000, q.getDepth());
+        executor.runAll();
+        assertEquals(2000, invoker.events.size());
+    }
+
+    @Test
+    public void testCreateWithListenerOverride() {
+        String policyProp = ListenerQueue.PROP_OVERFLOW_POLICY + "." + getClass().getName();
+        String sizeProp = ListenerQueue.PROP_QUEUE_SIZE + "." + getClass().getName();
+        System.setProperty(policyProp, "DROP_OLDEST");
+        System.setProperty(sizeProp, "5");
+        try {
+            ListenerQueue q = ListenerQueue.create(this, new CapturingInvoker(), new ManualExecutor());
+            assertTrue(q.isBounded());
+            assertEquals(10, q.getCapacity());
+            for (int i = 0; i < 6; i++) {
+                q.invoke(null, this, createEvent(i));
+            }
+            assertEquals(1, q.getDropCount());
+        } finally {
+            System.clearProperty(policyProp);
+            System.clearProperty(sizeProp);
+        }
+    }
+
+    @Test
+    public void testBlockWithoutTimeoutWaitsForSpace() throws Exception {
+        CapturingInvoker invoker = new CapturingInvoker();
+        final ManualExecutor executor = new ManualExecutor();
+        final ListenerQueue q = new ListenerQueue(this, invoker, 1, ListenerQueue.OverflowPolicy.BLOCK, 0, executor);
+        q.invoke(null, this, createEvent(1));
+
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                q.invoke(null, ListenerQueueTest.this, createEvent(2));
+            }
+        });
+        t.start();
+        while (q.getBlockCount() == 0) {
+            Thread.sleep(1);
+        }
+        assertTrue(t.isAlive());
+
+        executor.runAll();
+        t.join(5000);
+        assertFalse(t.isAlive());
+        executor.runAll();
+        assertEquals(0, q.getDropCount());
+        assertEquals(2, invoker.events.size());
+    }
+
+    @Test
+    public void testClose() {
+        ManualExecutor executor = new ManualExecutor();
+        CapturingInvoker invoker = new CapturingInvoker();
+        ListenerQueue q = new ListenerQueue(this, invoker, 2, ListenerQueue.OverflowPolicy.DROP_OLDEST, 0, executor);
+
+        q.invoke(null, this, createEvent(1));
+        q.close();
+        q.invoke(null, this, createEvent(2));
+        executor.runAll();
+        assertEquals(0, invoker.events.size());
+    }
+
+    private HobsonEvent createEvent(long timestamp) {
+        return new PluginStatusChangeEvent(timestamp, PluginContext.createLocal("plugin1"), PluginStatus.running());
+    }
+
+    private class ManualExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable r) {
+            synchronized (tasks) {
+                tasks.add(r);
+            }
+        }
+
+        void runAll() {
+            Runnable r;
+            while ((r = next()) != null) {
+                r.run();
+            }
+        }
+
+        private Runnable next() {
+            synchronized (tasks) {
+                return tasks.isEmpty() ? null : tasks.remove(0);
+            }
+        }
+    }
+
+    private class CapturingInvoker implements EventCallbackInvoker {
+        final List<HobsonEvent> events = new ArrayList<>();
+
+        @Override
+        public void invoke(Method m, Object o, HobsonEvent e) {
+            events.add(e);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.api.event;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+import com.whizzosoftware.hobson.api.event.EventHandler;
+import com.whizzosoftware.hobson.api.event.HobsonEvent;
+import com.whizzosoftware.hobson.api.event.device.DeviceAvailableEvent;
+import com.whizzosoftware.hobson.api.event.device.DeviceEvent;
+import com.whizzosoftware.hobson.api.event.plugin.PluginStatusChangeEvent;
+import com.whizzosoftware.hobson.api.hub.HubContext;
+import com.whizzosoftware.hobson.api.plugin.PluginContext;
+import com.whizzosoftware.hobson.api.plugin.PluginStatus;
+import com.whizzosoftware.hobson.bootstrap.util.LatencyHistogram;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RingBufferEventManagerTest {
+    @Test
+    public void testPostEvent() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(100);
+        final List<DeviceAvailableEvent> events = Collections.synchronizedList(new ArrayList<DeviceAvailableEvent>());
+
+        // use a small buffer to force wrapping
+        RingBufferEventManager em = new RingBufferEventManager(8, 2);
+        em.addListener(HubContext.createLocal(), new Object() {
+            @EventHandler
+            public void handle(DeviceAvailableEvent e) {
+                events.add(e);
+                latch.countDown();
+            }
+        });
+        em.start();
+
+        try {
+            for (int i=0; i < 100; i++) {
+                em.postEvent(HubContext.createLocal(), new PluginStatusChangeEvent(i, PluginContext.createLocal("plugin1"), PluginStatus.running()));
+                em.postEvent(HubContext.createLocal(), new DeviceAvailableEvent(i, DeviceContext.create(HubContext.createLocal(), "plugin1", "device" + i)));
+            }
+
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertEquals(100, events.size());
+            for (int i=0; i < 100; i++) {
+                assertEquals("device" + i, events.get(i).getDeviceContext().getDeviceId());
+            }
+        } finally {
+            em.stop();
+        }
+    }
+
+    @Test
+    public void testRemoveListener() throws Exception {
+        final List<Object> events = Collections.synchronizedList(new ArrayList<>());
+        Object listener = new Object() {
+            @EventHandler
+            public void handle(DeviceEvent e) {
+                events.add(e);
+            }
+        };
+
+        RingBufferEventManager em = new RingBufferEventManager(8, 1);
+        em.addListener(HubContext.createLocal(), listener);
+        em.removeListener(HubContext.createLocal(), listener);
+        em.start();
+
+        try {
+            em.postEvent(HubContext.createLocal(), new DeviceAvailableEvent(System.currentTimeMillis(), DeviceContext.create(HubContext.createLocal(), "plugin1", "device1")));
+            Thread.sleep(100);
+            assertEquals(0, events.size());
+        } finally {
+            em.stop();
+        }
+    }
+
+    @Test
+    public void testPostFromListenerIntoFullRing() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<Long> received = Collections.synchronizedList(new ArrayList<Long>());
+
+        final RingBufferEventManager em = new RingBufferEventManager(8, 1);
+        em.addListener(HubContext.createLocal(), new Object() {
+            @EventHandler
+            public void handle(DeviceAvailableEvent e) {
+                // post more events than the ring and overflow queue can hold from the dispatcher thread
+                for (int i=0; i < 20; i++) {
+                    em.postEvent(HubContext.createLocal(), new PluginStatusChangeEvent(i, PluginContext.createLocal("plugin" + i), PluginStatus.running()));
+                }
+                done.countDown();
+            }
+            @EventHandler
+            public void handle(PluginStatusChangeEvent e) {
+                received.add(Long.parseLong(e.getContext().getPluginId().substring(6)));
+            }
+        });
+        em.start();
+
+        try {
+            em.postEvent(HubContext.createLocal(), new DeviceAvailableEvent(System.currentTimeMillis(), DeviceContext.create(HubContext.createLocal(), "plugin1", "device1")));
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            Thread.sleep(100);
+
+            // events that didn't fit were dropped rather than delivered on the posting thread
+            assertEquals(20, received.size() + em.getDroppedCount());
+            assertTrue(em.getDroppedCount() > 0);
+            for (int i=0; i < received.size(); i++) {
+                assertEquals(i, (long)received.get(i));
+            }
+        } finally {
+            em.stop();
+        }
+    }
+
+    @Test
+    public void testDeliveryLatency() throws Exception {
+        final int count = 10000;
+        final long[] postTimes = new long[count];
+        final LatencyHistogram latency = new LatencyHistogram();
+        final CountDownLatch latch = new CountDownLatch(count);
+
+        RingBufferEventManager em = new RingBufferEventManager(1024, 1);
+        em.addListener(HubContext.createLocal(), new Object() {
+            @EventHandler
+            public void handle(DeviceAvailableEvent e) {
+                int i = Integer.parseInt(e.getDeviceContext().getDeviceId().substring(6));
+                latency.record(System.nanoTime() - postTimes[i]);
+                latch.countDown();
+            }
+        });
+        em.start();
+
+        try {
+            List<DeviceAvailableEvent> events = new ArrayList<>();
+            for (int i=0; i < count; i++) {
+                events.add(new DeviceAvailableEvent(i, DeviceContext.create(HubContext.createLocal(), "plugin1", "device" + i)));
+            }
+            for (int i=0; i < count; i++) {
+                postTimes[i] = System.nanoTime();
+                em.postEvent(HubContext.createLocal(), events.get(i));
+            }
+
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertEquals(count, latency.getCount());
+            long p50 = latency.getValueAtPercentile(50.0);
+            long p99 = latency.getValueAtPercentile(99.0);
+            assertTrue(p50 <= p99);
+            assertTrue(p99 <= latency.getMax());
+
+            // the same deliveries are reported through the event metrics
+            EventMetrics metrics = em.getEventMetrics();
+            assertEquals(count, (long)metrics.getPostCounts().get(DeviceAvailableEvent.ID));
+            assertEquals(count, (long)metrics.getFanOutCounts().get(DeviceAvailableEvent.ID));
+            assertEquals(count, metrics.getQueueWait(EventPriority.NORMAL).getCount());
+            assertEquals(0, metrics.getDroppedCount());
+        } finally {
+            em.stop();
+        }
+    }
+
+    @Test
+    public void testPostListener() throws Exception {
+        final List<HobsonEvent> posted = Collections.synchronizedList(new ArrayList<HobsonEvent>());
+        EventPostListener pl = new EventPostListener() {
+            @Override
+            public void onEventPosted(HubContext ctx, HobsonEvent event) {
+                posted.add(event);
+            }
+        };
+
+        RingBufferEventManager em = new RingBufferEventManager(8, 1);
+        em.addPostListener(pl);
+        DeviceAvailableEvent dae = new DeviceAvailableEvent(System.currentTimeMillis(), DeviceContext.create(HubContext.createLocal(), "plugin1", "device1"));
+
+        // post listeners are notified on the posting thread, even before the dispatchers start
+        em.postEvent(HubContext.createLocal(), dae);
+        assertEquals(1, posted.size());
+        assertSame(dae, posted.get(0));
+
+        em.removePostListener(pl);
+        em.postEvent(HubContext.createLocal(), dae);
+        assertEquals(1, posted.size());
+    }
+
+    @Test
+    public void testSlowHandler() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+        RingBufferEventManager em;
+        System.setProperty(RingBufferEventManager.PROP_SLOW_HANDLER_THRESHOLD, "1");
+        try {
+            em = new RingBufferEventManager(8, 1);
+        } finally {
+            System.clearProperty(RingBufferEventManager.PROP_SLOW_HANDLER_THRESHOLD);
+        }
+        em.addListener(HubContext.createLocal(), new Object() {
+            @EventHandler
+            public void handle(DeviceAvailableEvent e) throws InterruptedException {
+                Thread.sleep(10);
+                latch.countDown();
+            }
+        });
+        em.start();
+
+        try {
+            em.postEvent(HubContext.createLocal(), new DeviceAvailableEvent(1, DeviceContext.create(HubContext.createLocal(), "plugin1", "device1")));
+            em.postEvent(HubContext.createLocal(), new DeviceAvailableEvent(2, DeviceContext.create(HubContext.createLocal(), "plugin1", "device2")));
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Thread.sleep(50);
+            assertEquals(2, em.getSlowHandlerCount());
+        } finally {
+            em.stop();
+        }
+    }
+}
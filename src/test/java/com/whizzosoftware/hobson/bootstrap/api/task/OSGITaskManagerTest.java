@@ -26,6 +26,8 @@ import com.whizzosoftware.hobson.api.task.TaskContext;
 import com.whizzosoftware.hobson.api.task.condition.ConditionClassType;
 import com.whizzosoftware.hobson.api.task.condition.TaskConditionClass;
 import com.whizzosoftware.hobson.api.task.condition.TaskConditionClassProvider;
+import com.whizzosoftware.hobson.api.variable.DeviceVariableContext;
+import com.whizzosoftware.hobson.bootstrap.api.event.OSGIEventManager;
 import com.whizzosoftware.hobson.bootstrap.api.executor.ScheduledExecutorServiceExecutorManager;
 import com.whizzosoftware.hobson.bootstrap.api.task.store.MapDBTaskStore;
 import org.junit.Test;
@@ -92,6 +94,46 @@ public class OSGITaskManagerTest {
         assertTrue(em.getEvent(0) instanceof TaskRegistrationEvent);
     }
 
+    @Test
+    public void testTriggerVariables() {
+        final int[] reads = new int[1];
+        MockTaskStore store = new MockTaskStore() {
+            @Override
+            public HobsonTask getTask(TaskContext context) {
+                reads[0]++;
+                return super.getTask(context);
+            }
+        };
+        PropertyContainerClassContext pccc = PropertyContainerClassContext.create(PluginContext.createLocal("plugin1"), "cc1");
+        DeviceContext dctx = DeviceContext.createLocal("plugin1", "device1");
+        store.saveTask(createTask("task1", pccc, DeviceVariableContext.create(dctx, "on")));
+        store.saveTask(createTask("task2", pccc, Collections.singletonList(DeviceVariableContext.create(dctx, "level"))));
+
+        OSGIEventManager em = new OSGIEventManager();
+        OSGITaskManager tm = new OSGITaskManager();
+        tm.setEventManager(em);
+        tm.setTaskStore(store);
+        tm.refreshTriggerVariables();
+        assertEquals(new HashSet<>(Arrays.asList(DeviceVariableContext.create(dctx, "on"), DeviceVariableContext.create(dctx, "level"))), em.getPriorityClassifier().getTriggerVariables());
+        assertEquals(2, reads[0]);
+
+        // a single task change doesn't reload the others
+        HobsonTask task2 = createTask("task2", pccc, DeviceVariableContext.create(dctx, "color"));
+        tm.updateTriggerVariables(task2.getContext(), task2);
+        assertEquals(new HashSet<>(Arrays.asList(DeviceVariableContext.create(dctx, "on"), DeviceVariableContext.create(dctx, "color"))), em.getPriorityClassifier().getTriggerVariables());
+        tm.updateTriggerVariables(TaskContext.createLocal("task1"), null);
+        assertEquals(Collections.singleton(DeviceVariableContext.create(dctx, "color")), em.getPriorityClassifier().getTriggerVariables());
+        assertEquals(2, reads[0]);
+
+        em.stop();
+    }
+
+    private HobsonTask createTask(String id, PropertyContainerClassContext pccc, Object variable) {
+        List<PropertyContainer> conditions = new ArrayList<>();
+        conditions.add(new PropertyContainer(pccc, Collections.singletonMap("variable", variable)));
+        return new HobsonTask(TaskContext.createLocal(id), id, null, true, null, conditions, null);
+    }
+
     @Test
     public void testCreateTask() throws Exception {
         final PluginContext pctx = PluginContext.createLocal("plugin1");
@@ -24,6 +24,13 @@ public class EventUtilTest {
 
         assertEquals(dse.getEventId(), e.getProperty("eventId"));
         assertEquals(dse.getDeviceContext(), e.getProperty(DeviceStartedEvent.PROP_DEVICE_CONTEXT));
+        assertEquals(EventUtil.createTopic(DeviceStartedEvent.ID), e.getTopic());
+    }
+
+    @Test
+    public void testCreateTopic() {
+        assertEquals(EventUtil.TOPIC_PREFIX + "deviceStarted", EventUtil.createTopic("deviceStarted"));
+        assertEquals(EventUtil.TOPIC_PREFIX + "device_started-1", EventUtil.createTopic("device.started-1"));
     }
 
     @Test
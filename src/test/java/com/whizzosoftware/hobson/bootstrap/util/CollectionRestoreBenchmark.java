@@ -0,0 +1,109 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.util;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+import com.whizzosoftware.hobson.api.device.DeviceType;
+import com.whizzosoftware.hobson.api.device.HobsonDeviceDescriptor;
+import com.whizzosoftware.hobson.api.hub.HubContext;
+import com.whizzosoftware.hobson.api.persist.CollectionPersister;
+import com.whizzosoftware.hobson.api.persist.ContextPathIdProvider;
+import com.whizzosoftware.hobson.api.property.PropertyContainer;
+import com.whizzosoftware.hobson.api.property.PropertyContainerClassContext;
+import com.whizzosoftware.hobson.api.property.PropertyContainerSet;
+import com.whizzosoftware.hobson.api.task.HobsonTask;
+import com.whizzosoftware.hobson.api.task.TaskContext;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures CollectionPersister restoreDevice and restoreTask throughput through a MapDBCollectionPersistenceContext
+ * with its collection handle cache disabled (0) and enabled.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.whizzosoftware.hobson.bootstrap.util.CollectionRestoreBenchmark
+ *
+ * @author Dan Noguerol
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CollectionRestoreBenchmark {
+    private static final int COUNT = 100;
+
+    @Param({"0", "1024"})
+    public int handleCacheSize;
+
+    private File file;
+    private DB db;
+    private CollectionPersister persister;
+    private MapDBCollectionPersistenceContext ctx;
+    private List<DeviceContext> dctxs;
+    private List<TaskContext> tctxs;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        file = File.createTempFile("restore", ".db");
+        db = DBMaker.newFileDB(file).closeOnJvmShutdown().make();
+        persister = new CollectionPersister(new ContextPathIdProvider());
+        ctx = new MapDBCollectionPersistenceContext(db, handleCacheSize);
+
+        dctxs = new ArrayList<>();
+        tctxs = new ArrayList<>();
+        for (int i=0; i < COUNT; i++) {
+            DeviceContext dctx = DeviceContext.createLocal("plugin1", "device" + i);
+            persister.saveDevice(ctx, new HobsonDeviceDescriptor.Builder(dctx).name("Device " + i).type(DeviceType.LIGHTBULB).modelName("Model").tags(Collections.singleton("tag1")).build(), false);
+            dctxs.add(dctx);
+
+            TaskContext tctx = TaskContext.create(HubContext.createLocal(), "task" + i);
+            List<PropertyContainer> conditions = new ArrayList<>();
+            conditions.add(new PropertyContainer("c1", PropertyContainerClassContext.create(HubContext.createLocal(), "cc1"), Collections.singletonMap("foo", (Object)"value")));
+            conditions.add(new PropertyContainer("c2", PropertyContainerClassContext.create(HubContext.createLocal(), "cc2"), Collections.singletonMap("bar", (Object)"value")));
+            persister.saveTask(ctx, new HobsonTask(tctx, "Task " + i, "", true, Collections.<String,Object>singletonMap("foo", "bar"), conditions, new PropertyContainerSet("actionSet" + i)), false);
+            tctxs.add(tctx);
+        }
+        db.commit();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        db.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public HobsonDeviceDescriptor restoreDevice() {
+        return persister.restoreDevice(ctx, dctxs.get(nextIndex()));
+    }
+
+    @Benchmark
+    public HobsonTask restoreTask() {
+        return persister.restoreTask(ctx, tctxs.get(nextIndex()));
+    }
+
+    private int nextIndex() {
+        next = (next + 1) % COUNT;
+        return next;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(CollectionRestoreBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.util;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class FingerprintPersistenceContextTest {
+    @Test
+    public void testOrderIndependence() {
+        FingerprintPersistenceContext c1 = new FingerprintPersistenceContext();
+        c1.setMapValue("m", "a", "1");
+        c1.setMapValue("m", "b", 2);
+        c1.addSetValue("s", "x");
+        c1.addSetValue("s", "y");
+
+        FingerprintPersistenceContext c2 = new FingerprintPersistenceContext();
+        c2.addSetValue("s", "y");
+        c2.addSetValue("s", "x");
+        c2.setMapValue("m", "b", 2);
+        c2.setMapValue("m", "a", "1");
+
+        assertEquals(c1.getFingerprint(), c2.getFingerprint());
+    }
+
+    @Test
+    public void testPersistedTypeIsSignificant() {
+        FingerprintPersistenceContext c1 = new FingerprintPersistenceContext();
+        c1.setMapValue("m", "a", "1");
+        FingerprintPersistenceContext c2 = new FingerprintPersistenceContext();
+        c2.setMapValue("m", "a", 1);
+        FingerprintPersistenceContext c3 = new FingerprintPersistenceContext();
+        c3.setMapValue("m", "a", 1L);
+
+        assertNotEquals(c1.getFingerprint(), c2.getFingerprint());
+        assertNotEquals(c2.getFingerprint(), c3.getFingerprint());
+    }
+
+    @Test
+    public void testSerializedValues() {
+        FingerprintPersistenceContext c1 = new FingerprintPersistenceContext();
+        c1.setMapValue("m", "a", new Date(1000));
+        FingerprintPersistenceContext c2 = new FingerprintPersistenceContext();
+        c2.setMapValue("m", "a", new Date(1000));
+        FingerprintPersistenceContext c3 = new FingerprintPersistenceContext();
+        c3.setMapValue("m", "a", new Date(2000));
+
+        assertEquals(c1.getFingerprint(), c2.getFingerprint());
+        assertNotEquals(c1.getFingerprint(), c3.getFingerprint());
+    }
+}
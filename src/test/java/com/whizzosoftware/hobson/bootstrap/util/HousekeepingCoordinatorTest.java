@@ -0,0 +1,123 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.util;
+
+import org.junit.Test;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class HousekeepingCoordinatorTest {
+    @Test
+    public void testRunCycle() throws Exception {
+        DB db1 = createDB();
+        DB db2 = createDB();
+        MapDBCompactor c1 = new MapDBCompactor("store1", db1, null, 0.0, 0, 2.0);
+        MapDBCompactor c2 = new MapDBCompactor("store2", db2, null, 0.4, Long.MAX_VALUE, 2.0);
+
+        long budget = 10 * 1024 * 1024;
+        HousekeepingCoordinator hc = new HousekeepingCoordinator(budget, 3);
+        hc.register(c1);
+        hc.register(c2);
+        assertEquals(2, hc.getStoreNames().size());
+
+        // only the store that needs it is compacted
+        long start = System.currentTimeMillis();
+        hc.runCycle();
+        long elapsed = System.currentTimeMillis() - start;
+        assertEquals(1, hc.getCycleCount());
+        assertEquals(1, hc.getCompactionCount());
+        assertEquals(1, hc.getSkippedCount());
+
+        List<HousekeepingRun> history = hc.getHistory();
+        assertEquals(2, history.size());
+        assertEquals("store1", history.get(0).getStoreName());
+        assertTrue(history.get(0).isCompacted());
+        assertTrue(history.get(0).getIoBytes() > 0);
+        assertEquals("store2", history.get(1).getStoreName());
+        assertFalse(history.get(1).isCompacted());
+        assertEquals(0, history.get(1).getIoBytes());
+
+        // the cycle stays within the I/O budget
+        assertTrue(elapsed >= history.get(0).getIoBytes() * 1000 / budget - 1);
+
+        // the history is bounded
+        hc.runCycle();
+        assertEquals(2, hc.getCycleCount());
+        history = hc.getHistory();
+        assertEquals(3, history.size());
+        assertEquals("store2", history.get(0).getStoreName());
+
+        // unregistered stores are no longer checked
+        hc.unregister(c2);
+        hc.runCycle();
+        assertEquals("store1", hc.getHistory().get(2).getStoreName());
+
+        c1.close();
+        c2.close();
+        db1.close();
+        db2.close();
+    }
+
+    @Test
+    public void testInvalidInterval() {
+        HousekeepingCoordinator hc = new HousekeepingCoordinator(0, 1);
+        try {
+            hc.start(0);
+            fail("Should have thrown exception");
+        } catch (IllegalArgumentException ignored) {}
+        assertFalse(hc.isRunning());
+    }
+
+    @Test
+    public void testRequestHousekeeping() throws Exception {
+        DB db = createDB();
+        MapDBCompactor c = new MapDBCompactor("store1", db, null, 0.0, 0, 2.0);
+        HousekeepingCoordinator hc = new HousekeepingCoordinator(0, 10);
+
+        // requests are ignored until the coordinator is started
+        hc.requestHousekeeping(c);
+        assertEquals(0, hc.getHistory().size());
+
+        hc.start(60);
+        assertTrue(hc.isRunning());
+        hc.requestHousekeeping(c);
+        long timeout = System.currentTimeMillis() + 5000;
+        while (hc.getHistory().size() == 0 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, hc.getHistory().size());
+        assertEquals("store1", hc.getHistory().get(0).getStoreName());
+
+        hc.stop();
+        assertFalse(hc.isRunning());
+
+        c.close();
+        db.close();
+    }
+
+    private DB createDB() throws Exception {
+        File file = File.createTempFile("foo", "db");
+        file.deleteOnExit();
+
+        DB db = DBMaker.newFileDB(file).make();
+        Map<String,Object> map = db.createHashMap("map1").makeOrGet();
+        for (int i=0; i < 100; i++) {
+            map.put("key" + i, "value" + i);
+        }
+        db.commit();
+        return db;
+    }
+}
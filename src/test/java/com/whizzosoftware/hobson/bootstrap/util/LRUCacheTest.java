@@ -0,0 +1,66 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LRUCacheTest {
+    @Test
+    public void testEviction() {
+        LRUCache<String,String> c = new LRUCache<>(2);
+        c.put("a", "1");
+        c.put("b", "2");
+
+        // touch a so b is the least recently used
+        assertEquals("1", c.get("a"));
+        c.put("c", "3");
+
+        assertEquals(2, c.size());
+        assertNull(c.get("b"));
+        assertEquals("1", c.get("a"));
+        assertEquals("3", c.get("c"));
+
+        assertEquals(3, c.getHitCount());
+        assertEquals(1, c.getMissCount());
+        assertEquals(1, c.getEvictionCount());
+    }
+
+    @Test
+    public void testSmallCacheUsesOneSegment() {
+        assertEquals(1, new LRUCache<String,String>(2).getSegmentCount());
+        assertEquals(1, new LRUCache<String,String>(127).getSegmentCount());
+        assertEquals(2, new LRUCache<String,String>(128).getSegmentCount());
+        assertEquals(16, new LRUCache<String,String>(1000000).getSegmentCount());
+        assertEquals(4, new LRUCache<String,String>(1000000, 5).getSegmentCount());
+    }
+
+    @Test
+    public void testSegmentedEviction() {
+        LRUCache<Integer,Integer> c = new LRUCache<>(1000);
+        assertEquals(8, c.getSegmentCount());
+        assertEquals(1000, c.getCapacity());
+
+        for (int i = 0; i < 5000; i++) {
+            c.put(i, i);
+        }
+
+        // every segment is full and no more than the capacity is held
+        assertEquals(1000, c.size());
+        assertEquals(4000, c.getEvictionCount());
+
+        // the most recently added entries survive
+        for (int i = 4900; i < 5000; i++) {
+            assertEquals(Integer.valueOf(i), c.get(i));
+        }
+        assertNull(c.get(0));
+    }
+}
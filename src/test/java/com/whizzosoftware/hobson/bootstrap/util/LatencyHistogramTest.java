@@ -0,0 +1,48 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2016 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testBuckets() {
+        for (long v : new long[] {0, 1, 7, 8, 15, 16, 17, 100, 1000, 123456789L, Long.MAX_VALUE}) {
+            int ix = LatencyHistogram.getBucketIndex(v);
+            assertTrue(v >= LatencyHistogram.getBucketLowerBound(ix));
+            assertTrue(v <= LatencyHistogram.getBucketUpperBound(ix));
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getValueAtPercentile(99.0));
+
+        for (int i=1; i <= 1000; i++) {
+            h.record(i);
+        }
+        assertEquals(1000, h.getCount());
+        assertEquals(1000, h.getMax());
+        assertEquals(500.5, h.getMean(), 0.001);
+
+        // values are accurate to within 12.5%
+        long p50 = h.getValueAtPercentile(50.0);
+        assertTrue(p50 >= 500 && p50 <= 563);
+        long p99 = h.getValueAtPercentile(99.0);
+        assertTrue(p99 >= 990 && p99 <= 1000);
+
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMax());
+    }
+}
@@ -1,15 +1,23 @@
 package com.whizzosoftware.hobson.bootstrap.util;
 
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+import com.whizzosoftware.hobson.api.device.DeviceType;
+import com.whizzosoftware.hobson.api.device.HobsonDeviceDescriptor;
+import com.whizzosoftware.hobson.api.hub.HubContext;
+import com.whizzosoftware.hobson.api.persist.CollectionPersister;
+import com.whizzosoftware.hobson.api.persist.ContextPathIdProvider;
+import com.whizzosoftware.hobson.api.property.PropertyContainer;
+import com.whizzosoftware.hobson.api.property.PropertyContainerClassContext;
+import com.whizzosoftware.hobson.api.property.PropertyContainerSet;
+import com.whizzosoftware.hobson.api.task.HobsonTask;
+import com.whizzosoftware.hobson.api.task.TaskContext;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.*;
 
 public class MapDBCollectionPersistenceContextTest {
     @Test
@@ -74,4 +82,79 @@ public class MapDBCollectionPersistenceContextTest {
         assertTrue(set.contains("val1"));
         assertTrue(set.contains("val2"));
     }
+
+    @Test
+    public void testHandleCache() throws Exception {
+        File file = File.createTempFile("foo", "db");
+        file.deleteOnExit();
+
+        DB db = DBMaker.newFileDB(file).closeOnJvmShutdown().make();
+        MapDBCollectionPersistenceContext ctx = new MapDBCollectionPersistenceContext(db, 16);
+
+        ctx.setMapValue("map1", "foo", "bar");
+        assertEquals("bar", ctx.getMapValue("map1", "foo"));
+        assertTrue(ctx.getHandleCacheHitCount() > 0);
+        assertTrue(ctx.hasMap("map1"));
+
+        // removing a collection discards its handle
+        ctx.remove("map1");
+        assertFalse(ctx.hasMap("map1"));
+        assertNull(ctx.getMapValue("map1", "foo"));
+
+        // a collection deleted outside the context is no longer reported
+        ctx.addSetValue("set1", "foo");
+        assertTrue(ctx.hasSet("set1"));
+        db.delete("set1");
+        assertFalse(ctx.hasSet("set1"));
+
+        ctx.close();
+    }
+
+    @Test
+    public void testCachedRestoreMatchesUncached() throws Exception {
+        File file = File.createTempFile("foo", "db");
+        file.deleteOnExit();
+
+        DB db = DBMaker.newFileDB(file).closeOnJvmShutdown().make();
+        CollectionPersister persister = new CollectionPersister(new ContextPathIdProvider());
+        MapDBCollectionPersistenceContext uncached = new MapDBCollectionPersistenceContext(db, 0);
+        MapDBCollectionPersistenceContext cached = new MapDBCollectionPersistenceContext(db);
+
+        List<DeviceContext> dctxs = new ArrayList<>();
+        List<TaskContext> tctxs = new ArrayList<>();
+        for (int i=0; i < 10; i++) {
+            DeviceContext dctx = DeviceContext.createLocal("plugin1", "device" + i);
+            persister.saveDevice(uncached, new HobsonDeviceDescriptor.Builder(dctx).name("Device " + i).type(DeviceType.LIGHTBULB).build(), false);
+            dctxs.add(dctx);
+
+            TaskContext tctx = TaskContext.create(HubContext.createLocal(), "task" + i);
+            List<PropertyContainer> conditions = new ArrayList<>();
+            conditions.add(new PropertyContainer("c1", PropertyContainerClassContext.create(HubContext.createLocal(), "cc1"), Collections.singletonMap("foo", (Object)"value")));
+            persister.saveTask(uncached, new HobsonTask(tctx, "Task " + i, "", true, new HashMap<String,Object>(), conditions, new PropertyContainerSet("actionSet" + i)), false);
+            tctxs.add(tctx);
+        }
+        db.commit();
+
+        // restore twice so the second pass is served from cached handles
+        for (int r=0; r < 2; r++) {
+            for (DeviceContext dctx : dctxs) {
+                HobsonDeviceDescriptor d1 = persister.restoreDevice(uncached, dctx);
+                HobsonDeviceDescriptor d2 = persister.restoreDevice(cached, dctx);
+                assertNotNull(d2);
+                assertEquals(d1.getName(), d2.getName());
+                assertEquals(d1.getType(), d2.getType());
+            }
+            for (TaskContext tctx : tctxs) {
+                HobsonTask t1 = persister.restoreTask(uncached, tctx);
+                HobsonTask t2 = persister.restoreTask(cached, tctx);
+                assertNotNull(t2);
+                assertEquals(t1.getName(), t2.getName());
+                assertEquals(t1.getConditions().size(), t2.getConditions().size());
+            }
+        }
+        assertTrue(cached.getHandleCacheHitCount() > 0);
+        assertEquals(0, uncached.getHandleCacheHitCount());
+
+        db.close();
+    }
 }
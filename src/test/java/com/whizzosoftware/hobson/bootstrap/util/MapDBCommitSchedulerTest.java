@@ -0,0 +1,85 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.util;
+
+import org.junit.Test;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+
+import java.io.File;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MapDBCommitSchedulerTest {
+    @Test
+    public void testGroupCommit() throws Exception {
+        File file = File.createTempFile("foo", "db");
+        file.deleteOnExit();
+
+        DB db = DBMaker.newFileDB(file).make();
+        MapDBCommitScheduler cs = new MapDBCommitScheduler("test", db, 60000, 3);
+        Map<String,Object> map = db.createHashMap("map1").makeOrGet();
+
+        // writes are held until the maximum write count is reached
+        map.put("a", 1);
+        cs.requestCommit();
+        map.put("b", 2);
+        cs.requestCommit();
+        assertEquals(2, cs.getPendingWriteCount());
+        assertEquals(0, cs.getCommitCount());
+        map.put("c", 3);
+        cs.requestCommit();
+        assertEquals(0, cs.getPendingWriteCount());
+        assertEquals(1, cs.getCommitCount());
+
+        // or flushed
+        map.put("d", 4);
+        cs.requestCommit();
+        cs.flush();
+        assertEquals(2, cs.getCommitCount());
+        assertEquals(4, cs.getCommitRequestCount());
+
+        // a flush with nothing pending doesn't commit
+        cs.flush();
+        assertEquals(2, cs.getCommitCount());
+
+        // pending writes are committed on close
+        map.put("e", 5);
+        cs.requestCommit();
+        cs.close();
+        db.close();
+
+        db = DBMaker.newFileDB(file).make();
+        assertEquals(5, db.createHashMap("map1").makeOrGet().size());
+        db.close();
+    }
+
+    @Test
+    public void testCommitWindow() throws Exception {
+        File file = File.createTempFile("foo", "db");
+        file.deleteOnExit();
+
+        DB db = DBMaker.newFileDB(file).make();
+        MapDBCommitScheduler cs = new MapDBCommitScheduler("test", db, 20, 100);
+        db.createHashMap("map1").makeOrGet().put("a", 1);
+        cs.requestCommit();
+
+        long timeout = System.currentTimeMillis() + 5000;
+        while (cs.getCommitCount() == 0 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, cs.getCommitCount());
+        assertEquals(0, cs.getPendingWriteCount());
+
+        cs.close();
+        db.close();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.util;
+
+import org.junit.Test;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+
+import java.io.File;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MapDBCompactorTest {
+    @Test
+    public void testCompactIfNeeded() throws Exception {
+        File file = File.createTempFile("foo", "db");
+        file.deleteOnExit();
+
+        DB db = DBMaker.newFileDB(file).make();
+        MapDBCommitScheduler cs = new MapDBCommitScheduler("test", db, 60000, 1000);
+        Map<String,Object> map = db.createHashMap("map1").makeOrGet();
+
+        // fragment the store by writing and then deleting a lot of data
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i < 1000; i++) {
+            sb.append('x');
+        }
+        for (int i=0; i < 1000; i++) {
+            map.put("key" + i, sb.toString() + i);
+            cs.requestCommit();
+        }
+        for (int i=0; i < 1000; i += 2) {
+            map.remove("key" + i);
+            cs.requestCommit();
+        }
+
+        // a store that doesn't have enough free space is skipped
+        MapDBCompactor c = new MapDBCompactor("test", db, cs, 0.4, Long.MAX_VALUE, 2.0);
+        assertFalse(c.compactIfNeeded());
+        assertEquals(0, cs.getPendingWriteCount());
+        assertEquals(0, c.getCompactionCount());
+        assertEquals(1, c.getSkippedCount());
+        c.close();
+
+        // a store with enough free space is compacted
+        c = new MapDBCompactor("test", db, cs, 0.0, 0, 2.0);
+        long before = c.getStoreSize();
+        assertTrue(c.compactIfNeeded());
+        assertEquals(1, c.getCompactionCount());
+        assertTrue(c.getStoreSize() <= before);
+        assertEquals(c.getLastReclaimedBytes(), c.getTotalReclaimedBytes());
+        assertTrue(c.getMaxBlockedMillis() >= c.getLastBlockedMillis());
+        c.close();
+
+        // confirm the data survived
+        assertEquals(500, map.size());
+        assertEquals(sb.toString() + 1, map.get("key1"));
+
+        cs.close();
+        db.close();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.util;
+
+import org.mapdb.DB;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the MapDB profiles on a configuration-store style workload: a burst of small writes, each followed by a
+ * group commit request, until they're durable (writeAndFlush), and reads of the written entries (read). The
+ * writeHeavyAsync profile is WRITE_HEAVY with MapDB's asynchronous write queue enabled.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.whizzosoftware.hobson.bootstrap.util.MapDBProfileBenchmark
+ *
+ * @author Dan Noguerol
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+@State(Scope.Thread)
+public class MapDBProfileBenchmark {
+    private static final int COUNT = 500;
+
+    @Param({"readHeavy", "writeHeavy", "writeHeavyAsync"})
+    public String profile;
+
+    private File file;
+    private DB db;
+    private MapDBCommitScheduler commitScheduler;
+    private Map<String,Object> map;
+
+    @Setup(Level.Invocation)
+    public void setUp() throws Exception {
+        file = File.createTempFile("profile", ".db");
+        db = createProfile().open(file);
+        commitScheduler = new MapDBCommitScheduler("benchmark", db);
+        map = db.createHashMap("config").makeOrGet();
+        for (int i=0; i < COUNT; i++) {
+            map.put("key" + i, "initial" + i);
+        }
+        db.commit();
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        commitScheduler.close();
+        db.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public long writeAndFlush() {
+        for (int i=0; i < COUNT; i++) {
+            synchronized (db) {
+                map.put("key" + i, "value" + i);
+            }
+            commitScheduler.requestCommit();
+        }
+        commitScheduler.flush();
+        return commitScheduler.getCommitCount();
+    }
+
+    @Benchmark
+    public int read() {
+        int found = 0;
+        for (int i=0; i < COUNT; i++) {
+            if (map.get("key" + i) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private MapDBProfile createProfile() {
+        if ("readHeavy".equals(profile)) {
+            return MapDBProfile.READ_HEAVY;
+        } else if ("writeHeavy".equals(profile)) {
+            return MapDBProfile.WRITE_HEAVY;
+        } else {
+            return new MapDBProfile(MapDBProfile.WRITE_HEAVY.isMmap(), true, MapDBProfile.WRITE_HEAVY.getCache(), MapDBProfile.WRITE_HEAVY.getCacheSize(), MapDBProfile.WRITE_HEAVY.isTransactions());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(MapDBProfileBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ *******************************************************************************
+ * Copyright (c) 2017 Whizzo Software, LLC.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************
+*/
+package com.whizzosoftware.hobson.bootstrap.util;
+
+import com.whizzosoftware.hobson.api.device.DeviceContext;
+import com.whizzosoftware.hobson.api.device.DeviceType;
+import com.whizzosoftware.hobson.api.device.HobsonDeviceDescriptor;
+import com.whizzosoftware.hobson.api.persist.CollectionPersister;
+import com.whizzosoftware.hobson.api.persist.ContextPathIdProvider;
+import org.junit.Test;
+import org.mapdb.DB;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MapDBProfileTest {
+    @Test
+    public void testOverrides() {
+        MapDBProfile p = MapDBProfile.forStore("test", MapDBProfile.READ_HEAVY);
+        assertTrue(p.isMmap());
+        assertFalse(p.isAsyncWrite());
+        assertEquals(MapDBProfile.CACHE_LRU, p.getCache());
+        assertTrue(p.isTransactions());
+
+        System.setProperty("hobson.mapdb.cacheSize", "100");
+        System.setProperty("hobson.mapdb.test.cacheSize", "200");
+        System.setProperty("hobson.mapdb.test.asyncWrite", "true");
+        try {
+            p = MapDBProfile.forStore("test", MapDBProfile.READ_HEAVY);
+            assertEquals(200, p.getCacheSize());
+            assertTrue(p.isAsyncWrite());
+            assertTrue(p.isMmap());
+
+            p = MapDBProfile.forStore("other", MapDBProfile.WRITE_HEAVY);
+            assertEquals(100, p.getCacheSize());
+            assertFalse(p.isAsyncWrite());
+            assertFalse(p.isMmap());
+        } finally {
+            System.clearProperty("hobson.mapdb.cacheSize");
+            System.clearProperty("hobson.mapdb.test.cacheSize");
+            System.clearProperty("hobson.mapdb.test.asyncWrite");
+        }
+    }
+
+    @Test
+    public void testHubConfigurationOverrides() {
+        Map<String,Object> config = new HashMap<>();
+        config.put("mapdb.cacheSize", 100);
+        config.put("mapdb.test.asyncWrite", true);
+        System.setProperty("hobson.mapdb.test.cacheSize", "200");
+        System.setProperty("hobson.mapdb.test.mmap", "false");
+        MapDBProfile.setHubConfiguration(config);
+        try {
+            // store-specific overrides beat ones for all stores, and the hub configuration beats a system property
+            MapDBProfile p = MapDBProfile.forStore("test", MapDBProfile.READ_HEAVY);
+            assertEquals(200, p.getCacheSize());
+            assertTrue(p.isAsyncWrite());
+            assertFalse(p.isMmap());
+
+            p = MapDBProfile.forStore("other", MapDBProfile.READ_HEAVY);
+            assertEquals(100, p.getCacheSize());
+            assertFalse(p.isAsyncWrite());
+
+            config.put("mapdb.test.mmap", "true");
+            MapDBProfile.setHubConfiguration(config);
+            assertTrue(MapDBProfile.forStore("test", MapDBProfile.READ_HEAVY).isMmap());
+        } finally {
+            MapDBProfile.setHubConfiguration(null);
+            System.clearProperty("hobson.mapdb.test.cacheSize");
+            System.clearProperty("hobson.mapdb.test.mmap");
+        }
+    }
+
+    @Test
+    public void testProfilesPersist() throws Exception {
+        for (MapDBProfile p : getProfiles()) {
+            File file = File.createTempFile("foo", "db");
+            file.deleteOnExit();
+
+            DB db = p.open(file);
+            db.createHashMap("map").makeOrGet().put("foo", "bar");
+            db.commit();
+            db.close();
+
+            db = p.open(file);
+            Map<Object,Object> map = db.createHashMap("map").makeOrGet();
+            assertEquals(p.toString(), "bar", map.get("foo"));
+            db.close();
+        }
+    }
+
+    @Test
+    public void testDeviceUpdatesPersist() throws Exception {
+        CollectionPersister persister = new CollectionPersister(new ContextPathIdProvider());
+
+        for (MapDBProfile p : getProfiles()) {
+            File file = File.createTempFile("foo", "db");
+            file.deleteOnExit();
+
+            DB db = p.open(file);
+            MapDBCollectionPersistenceContext ctx = new MapDBCollectionPersistenceContext(db);
+
+            List<DeviceContext> dctxs = new ArrayList<>();
+            for (int i=0; i < 20; i++) {
+                DeviceContext dctx = DeviceContext.createLocal("plugin1", "device" + i);
+                persister.saveDevice(ctx, new HobsonDeviceDescriptor.Builder(dctx).name("Device " + i).type(DeviceType.LIGHTBULB).build(), false);
+                dctxs.add(dctx);
+            }
+            db.commit();
+
+            // update every device a few times with periodic commits
+            for (int r=0; r < 3; r++) {
+                for (int i=0; i < dctxs.size(); i++) {
+                    persister.saveDevice(ctx, new HobsonDeviceDescriptor.Builder(dctxs.get(i)).name("Device " + i + "-" + r).type(DeviceType.LIGHTBULB).build(), false);
+                    if (i % 10 == 0) {
+                        db.commit();
+                    }
+                }
+            }
+            db.commit();
+            ctx.close();
+
+            ctx = new MapDBCollectionPersistenceContext(p.open(file));
+            for (int i=0; i < dctxs.size(); i++) {
+                HobsonDeviceDescriptor dd = persister.restoreDevice(ctx, dctxs.get(i));
+                assertNotNull(p.toString(), dd);
+                assertEquals(p.toString(), "Device " + i + "-2", dd.getName());
+            }
+            ctx.close();
+        }
+    }
+
+    private MapDBProfile[] getProfiles() {
+        return new MapDBProfile[] {
+            MapDBProfile.READ_HEAVY,
+            MapDBProfile.WRITE_HEAVY,
+            new MapDBProfile(false, true, MapDBProfile.CACHE_HASH_TABLE, 2048, true),
+            new MapDBProfile(false, false, MapDBProfile.CACHE_HASH_TABLE, 32768, true),
+            new MapDBProfile(false, false, MapDBProfile.CACHE_SOFT_REF, 0, false)
+        };
+    }
+}